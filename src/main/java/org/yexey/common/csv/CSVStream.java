@@ -3,179 +3,794 @@ package org.yexey.common.csv;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.yexey.common.csv.imp.BatchSpliterator;
 import org.yexey.common.csv.imp.CSVPrinter;
 import org.yexey.common.csv.imp.CSVWriter;
+import org.yexey.common.csv.imp.InputStatistics;
+import org.yexey.common.csv.imp.KeyColumns;
 import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.SlotRecord;
 import org.yexey.common.csv.imp.ValidationError;
-import org.yexey.common.csv.imp.exceptions.ColumnAlreadyExistsException;
-import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
-import org.yexey.common.csv.imp.joins.CSVStreamFullJoin;
+import org.yexey.common.csv.imp.batch.CSVBatchReader;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.aggregation.CSVStreamParallelAggregate;
+import org.yexey.common.csv.imp.aggregation.CSVStreamSpillingAggregate;
+import org.yexey.common.csv.imp.distinct.CSVStreamDistinct;
+import org.yexey.common.csv.imp.distinct.Keep;
+import org.yexey.common.csv.imp.io.BlockSampleInputStream;
+import org.yexey.common.csv.imp.io.CSVFileFollower;
+import org.yexey.common.csv.imp.io.Checkpoint;
+import org.yexey.common.csv.imp.io.ReadAheadInputStream;
+import org.yexey.common.csv.imp.io.ReadAheadReport;
+import org.yexey.common.csv.imp.joins.BuildSide;
+import org.yexey.common.csv.imp.joins.CSVStreamAsOfJoin;
 import org.yexey.common.csv.imp.joins.CSVStreamJoin;
 import org.yexey.common.csv.imp.joins.CSVStreamLeftJoin;
-import org.yexey.common.csv.imp.joins.CSVStreamRightJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamParallelJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamRangeJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamSemiJoin;
+import org.yexey.common.csv.imp.joins.JoinIndex;
+import org.yexey.common.csv.imp.memory.MemoryBudget;
+import org.yexey.common.csv.imp.memory.SpillingRecordBuffer;
+import org.yexey.common.csv.imp.plan.AggregateNode;
+import org.yexey.common.csv.imp.plan.ColumnOperation;
+import org.yexey.common.csv.imp.plan.ExchangeNode;
+import org.yexey.common.csv.imp.plan.FilterNode;
+import org.yexey.common.csv.imp.plan.JoinNode;
+import org.yexey.common.csv.imp.plan.MapNode;
+import org.yexey.common.csv.imp.plan.OperatorNode;
+import org.yexey.common.csv.imp.plan.Optimizer;
+import org.yexey.common.csv.imp.plan.PlanNode;
+import org.yexey.common.csv.imp.plan.ProjectNode;
+import org.yexey.common.csv.imp.plan.SourceNode;
+import org.yexey.common.csv.imp.plan.VectorizedNode;
+import org.yexey.common.csv.imp.sample.CSVStreamSample;
+import org.yexey.common.csv.imp.spill.ExternalSort;
+import org.yexey.common.csv.imp.spill.SpillReport;
+import org.yexey.common.csv.imp.window.CSVStreamWindow;
+import org.yexey.common.csv.imp.window.WindowFunction;
+import org.yexey.common.csv.imp.window.WindowSpec;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class CSVStream {
+/**
+ * Fluent API over the records of a CSV input. Intermediate operations only add to a logical plan, which is
+ * optimized and turned into a {@link Stream} at the terminal operation, see {@link #explain()}.
+ * <p>
+ * After {@link #parallel(int)} the terminal operations of the stream and of every stream derived from it run on a
+ * pool of their own. The CSV input is still parsed by one thread at a time, in blocks of
+ * {@value BatchSpliterator#DEFAULT_BATCH_SIZE} records which are then processed concurrently: filters, column
+ * operations, projections, peek, validation, sorts and the probe side of hash joins see different records on
+ * different threads, so the functions passed to them must be thread-safe. A record is only touched by one thread at
+ * a time, which is why a shallow {@link #copy()} must not be mixed with the original in one parallel pipeline.
+ * Operators which depend on order or state across records (aggregations, windows, distinct, external sorts,
+ * as-of, range and full joins and the build side of every join) read their input sequentially and split their
+ * output into blocks again.
+ * <p>
+ * toList, copy, writeTo, groupBy and forEachOrdered keep the order of the records, reduce does so as well but needs
+ * an associative accumulator. forEach, peek and the print operations see the records in no particular order.
+ * A CSVStream itself is not thread-safe and must be built and consumed by one thread.
+ * <p>
+ * {@link #vectorized()} moves the parts of the plan which support it to batches of rows stored column by column,
+ * independently of parallel mode. {@link #pipelined()} and {@link #stage()} run successive parts of the plan on
+ * threads of their own; parallel mode then applies to the last stage.
+ * <p>
+ * {@link #withMemoryBudget(MemoryBudget)} bounds the records which the stream keeps in memory: toList, copy and the
+ * table printing fail once their records exceed it, consumeAndContinue and validateEager spill the rest to a
+ * temporary file, and the hash tables of joins fail like toList. writeTo never collects the records.
+ */
+public class CSVStream implements AutoCloseable {
 
-    private Stream<Record> stream;
+    private PlanNode plan;
+    private InputStatistics statistics;
+    // Threads of the pool terminal operations run on, 0 runs them sequentially on the calling thread
+    private int parallelism;
+    // Rows per batch in vectorized mode, 0 executes row by row
+    private int batchSize;
+    private boolean pipelined;
+    private MemoryBudget memoryBudget;
 
-    private CSVStream(Stream<Record> stream) {
-        this.stream = stream;
+    private CSVStream(PlanNode plan) {
+        this(plan, InputStatistics.unknown());
+    }
+
+    private CSVStream(PlanNode plan, InputStatistics statistics) {
+        this.plan = plan;
+        this.statistics = statistics;
+    }
+
+    private CSVStream(List<Record> records, List<String> columns) {
+        this(new SourceNode(records.stream(), columns, "Records"), InputStatistics.ofRowCount(records.size()));
     }
 
     public static CSVStream toCSVStream(Reader reader, CSVFormat csvFormat) throws IOException {
         CSVParser csvParser = new CSVParser(reader, csvFormat);
-        Stream<CSVRecord> recordStream = csvParser.stream();
-        return new CSVStream(recordStream.map(Record::new));
+        // Parallel streams split off blocks of records, the parser itself is read by one thread at a time
+        Stream<CSVRecord> recordStream = BatchSpliterator.stream(csvParser.iterator());
+        Map<String, Integer> headerMap = csvParser.getHeaderMap();
+        // The parser closes the reader, once the records were read or by close()
+        if (headerMap == null) {
+            return new CSVStream(new SourceNode(recordStream.map(Record::new), null, "CSV", null, csvParser));
+        }
+        // All records share one schema, their values are kept in arrays
+        return new CSVStream(new SourceNode(recordStream.map(SlotRecord.fromCSV(headerMap)), new ArrayList<>(headerMap.keySet()), "CSV",
+                batchSize -> CSVBatchReader.stream(csvParser.iterator(), headerMap, batchSize), csvParser));
+    }
+
+    public static CSVStream fromFile(Path path, CSVFormat csvFormat) throws IOException {
+        InputStatistics statistics = InputStatistics.ofFile(path);
+        CSVStream csvStream = toCSVStream(Files.newBufferedReader(path), csvFormat);
+        csvStream.statistics = statistics;
+        return csvStream;
+    }
+
+    /**
+     * Reads the file ahead of the parser, so that slow storage keeps reading while records are parsed. Up to
+     * readAheadBytes are requested at a time, spread over {@value ReadAheadInputStream#DEFAULT_BUFFER_COUNT} buffers
+     * which are refilled as the parser consumes them. The report tells how often the parser still had to wait.
+     */
+    public static CSVStream fromFile(Path path, CSVFormat csvFormat, int readAheadBytes, ReadAheadReport report) throws IOException {
+        if (readAheadBytes < ReadAheadInputStream.DEFAULT_BUFFER_COUNT) {
+            throw new IllegalArgumentException("Read-ahead must be at least " + ReadAheadInputStream.DEFAULT_BUFFER_COUNT
+                    + " bytes but was " + readAheadBytes);
+        }
+        InputStatistics statistics = InputStatistics.ofFile(path);
+        int bufferSize = readAheadBytes / ReadAheadInputStream.DEFAULT_BUFFER_COUNT;
+        InputStream in = new ReadAheadInputStream(path, bufferSize, ReadAheadInputStream.DEFAULT_BUFFER_COUNT, report);
+        // Decodes as strictly as Files.newBufferedReader
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()));
+        CSVStream csvStream = toCSVStream(reader, csvFormat);
+        csvStream.statistics = statistics;
+        return csvStream;
+    }
+
+    /**
+     * A sample of a large file read from blockCount random blocks of blockSize bytes, e.g. to profile its values
+     * without reading all of it. The records are those starting in the chosen blocks, in file order, which works as
+     * long as no quoted value contains a line break. A header is read from the start of the file as usual.
+     */
+    public static CSVStream sampleFile(Path path, CSVFormat csvFormat, int blockCount, int blockSize, long seed) throws IOException {
+        String[] header = csvFormat.getHeader();
+        boolean headerLine = csvFormat.getSkipHeaderRecord() || (header != null && header.length == 0);
+        if (header != null && header.length == 0) {
+            try (CSVParser headerParser = new CSVParser(Files.newBufferedReader(path), csvFormat)) {
+                header = headerParser.getHeaderNames().toArray(new String[0]);
+            }
+            if (header.length == 0) {
+                return fromFile(path, csvFormat);
+            }
+        }
+        // The blocks start after the header line, whose columns are passed on explicitly
+        CSVFormat blockFormat = csvFormat.builder().setHeader(header).setSkipHeaderRecord(false).build();
+        InputStream in = new BlockSampleInputStream(path, headerLine, blockCount, blockSize, seed);
+        return toCSVStream(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder())), blockFormat);
+    }
+
+    /**
+     * Follows a file which is still being appended to: the stream has the records already in the file and then
+     * waits for new ones, see {@link CSVFileFollower}. It ends only when it is closed, e.g. after a limit or from
+     * another thread. The format needs a header, read from the first line unless the columns are given.
+     */
+    public static CSVStream follow(Path path, CSVFormat csvFormat) throws IOException {
+        return follow(path, csvFormat, null, CSVFileFollower.DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Follows a file and keeps the offset up to which its records were processed in offsetFile, so that a restarted
+     * job continues there. The file is checked for new records at least every pollInterval.
+     */
+    public static CSVStream follow(Path path, CSVFormat csvFormat, Path offsetFile, Duration pollInterval) throws IOException {
+        CSVStream followed = fromOffsets(new CSVFileFollower(path, csvFormat, offsetFile, pollInterval), "Follow");
+        ((SourceNode) followed.plan).live();
+        return followed;
+    }
+
+    /**
+     * Reads the file for {@link #writeTo(Path, CSVFormat, Checkpoint)} with the same checkpoint, which records how
+     * far the input was read. If the checkpoint was saved by an earlier run, reading continues after that input.
+     */
+    public static CSVStream fromFile(Path path, CSVFormat csvFormat, Checkpoint checkpoint) throws IOException {
+        InputStatistics statistics = InputStatistics.ofFile(path);
+        CSVFileFollower reader = CSVFileFollower.reading(path, csvFormat, checkpoint.getInputOffset(), checkpoint.getInputRecords());
+        checkpoint.attach(reader);
+        CSVStream csvStream = fromOffsets(reader, "CSV");
+        csvStream.statistics = statistics;
+        return csvStream;
+    }
+
+    private static CSVStream fromOffsets(CSVFileFollower reader, String description) {
+        // One record at a time, so that the committed offset follows the records actually processed
+        Stream<CSVRecord> recordStream = StreamSupport.stream(new BatchSpliterator<>(reader, 1), false);
+        return new CSVStream(new SourceNode(recordStream.map(SlotRecord.fromCSV(reader.getHeaderMap())), reader.getColumns(),
+                description, null, reader));
+    }
+
+    public static CSVStream fromRecords(List<Record> records) {
+        return new CSVStream(records, null);
+    }
+
+    public InputStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Replaces the statistics of this stream, e.g. with a row count known from elsewhere.
+     */
+    public CSVStream withStatistics(InputStatistics statistics) {
+        Objects.requireNonNull(statistics, "Statistics must not be null");
+        this.statistics = statistics;
+        return this;
+    }
+
+    /**
+     * The plan as it will be executed, after filters were pushed down, projections merged and join algorithms chosen.
+     * Nothing is read.
+     */
+    public String explain() {
+        return physicalPlan().explain();
+    }
+
+    private PlanNode physicalPlan() {
+        PlanNode physicalPlan = Optimizer.optimize(plan);
+        if (pipelined) {
+            physicalPlan = Optimizer.pipeline(physicalPlan);
+        }
+        if (memoryBudget != null) {
+            physicalPlan = Optimizer.trackBuilds(physicalPlan, memoryBudget);
+        }
+        return batchSize > 0 ? Optimizer.vectorize(physicalPlan, batchSize) : physicalPlan;
+    }
+
+    private Stream<Record> stream() {
+        Stream<Record> stream = physicalPlan().execute();
+        return parallelism > 0 ? stream.parallel() : stream;
+    }
+
+    /**
+     * Executes this stream and the streams derived from it on {@link RecordBatch}es of {@value RecordBatch#DEFAULT_SIZE}
+     * rows where possible, see {@link #vectorized(int)}.
+     */
+    public CSVStream vectorized() {
+        return vectorized(RecordBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * Executes this stream and the streams derived from it on batches of the given number of rows, stored column by
+     * column. A CSV input with a header is then read into batches, and filters on a single column, column operations,
+     * projections, aggregate and writeTo process whole batches; everything else runs on records made from them,
+     * see {@link #explain()}. Functions passed to addColumn must not change the record they are given.
+     */
+    public CSVStream vectorized(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1 but was " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Runs the terminal operations of this stream and of all streams derived from it on a dedicated pool of the
+     * given number of threads, see the class documentation for what runs in parallel.
+     */
+    public CSVStream parallel(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1 but was " + threads);
+        }
+        this.parallelism = threads;
+        return this;
+    }
+
+    public CSVStream sequential() {
+        this.parallelism = 0;
+        return this;
+    }
+
+    public boolean isParallel() {
+        return parallelism > 0;
+    }
+
+    /**
+     * Runs each CSV scan, the rest of the plan and the formatting in writeTo on threads of their own, connected by
+     * bounded queues of records or batches. A slower stage makes the previous ones wait, a failing stage fails the
+     * terminal operation with its exception, and the stages end with it. Applies to the streams derived from this
+     * one as well, see {@link #explain()} for the stages.
+     */
+    public CSVStream pipelined() {
+        this.pipelined = true;
+        return this;
+    }
+
+    /**
+     * Ends a pipeline stage here: everything so far runs on a thread of its own and hands its records to what follows
+     * through a bounded queue, also outside of pipelined mode. Stages are started by the terminal operation.
+     */
+    public CSVStream stage() {
+        return derive(new ExchangeNode(plan, "stage"), statistics);
+    }
+
+    /**
+     * Counts the records which this stream and the streams derived from it keep in memory against the budget, see
+     * the class documentation. A budget may be shared by several streams, it records their peak usage.
+     */
+    public CSVStream withMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = Objects.requireNonNull(memoryBudget, "Memory budget must not be null");
+        return this;
+    }
+
+    /**
+     * Releases the inputs of this stream, such as CSV parsers and their readers, also if no terminal operation ran.
+     * Terminal operations release them as well when they finish, however early. Streams derived from this one share
+     * its inputs, so closing either one closes them.
+     */
+    @Override
+    public void close() {
+        SourceNode.closeAll(plan);
+    }
+
+    // Evaluates the stream with a terminal operation, on a pool of its own in parallel mode. Closing the stream
+    // releases the inputs and stops pipeline stages which are still running, e.g. after a failure.
+    private <T> T evaluate(Function<Stream<Record>, T> terminal) {
+        if (parallelism == 0) {
+            try (Stream<Record> stream = stream()) {
+                return terminal.apply(stream);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> {
+                try (Stream<Record> stream = stream()) {
+                    return terminal.apply(stream);
+                }
+            }).join();
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // The pool rethrows exceptions of other threads as copies with the original as their cause
+    private static RuntimeException unwrap(RuntimeException e) {
+        RuntimeException exception = e;
+        while (exception.getCause() != null && exception.getCause().getClass() == exception.getClass()) {
+            exception = (RuntimeException) exception.getCause();
+        }
+        return exception;
+    }
+
+    private CSVStream derive(PlanNode plan) {
+        return derive(plan, InputStatistics.unknown());
+    }
+
+    private CSVStream derive(PlanNode plan, InputStatistics statistics) {
+        CSVStream derived = new CSVStream(plan, statistics);
+        derived.parallelism = parallelism;
+        derived.batchSize = batchSize;
+        derived.pipelined = pipelined;
+        derived.memoryBudget = memoryBudget;
+        return derived;
+    }
+
+    private CSVStream derive(List<Record> records, List<String> columns) {
+        CSVStream derived = new CSVStream(records, columns);
+        derived.parallelism = parallelism;
+        derived.batchSize = batchSize;
+        derived.pipelined = pipelined;
+        derived.memoryBudget = memoryBudget;
+        return derived;
+    }
+
+    // Continues this stream on the given records, which were collected from it
+    private void reset(List<Record> records) {
+        this.plan = new SourceNode(records.stream(), uniformColumns(), "Records");
+        this.statistics = InputStatistics.ofRowCount(records.size());
+    }
+
+    // Collects the records for the named operator, failing once they exceed the memory budget. The caller owns
+    // the result, so the records are only counted while they are being collected.
+    private List<Record> collect(String operator) {
+        if (memoryBudget == null) {
+            return evaluate(stream -> stream.collect(Collectors.toList()));
+        }
+        try (MemoryBudget.Reservation reservation = memoryBudget.reserve(operator)) {
+            return evaluate(stream -> stream.peek(reservation::add).collect(Collectors.toList()));
+        }
+    }
+
+    // Collects the records for the named operator which continues with them, showing each to the inspector first.
+    // Records beyond the memory budget are spilled. The stream continuing with them releases the buffer once it
+    // is closed.
+    private CSVStream buffer(String operator, Consumer<Record> inspector) {
+        List<String> columns = uniformColumns();
+        SpillingRecordBuffer buffer = new SpillingRecordBuffer(memoryBudget.reserve(operator));
+        try {
+            evaluate(stream -> {
+                stream.forEachOrdered(inspector.andThen(buffer));
+                return null;
+            });
+            String description = buffer.hasSpilled() ? "Spilled records" : "Records";
+            return derive(new SourceNode(buffer.stream(), columns, description, null, buffer), InputStatistics.ofRowCount(buffer.size()));
+        } catch (IOException | RuntimeException e) {
+            try {
+                buffer.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException("Could not buffer the records of " + operator, (IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    private CSVStream apply(UnaryOperator<Stream<Record>> operator, String description, boolean preservesColumns,
+                            InputStatistics statistics) {
+        return derive(OperatorNode.unary(plan, operator, description, preservesColumns), statistics);
+    }
+
+    private List<String> uniformColumns() {
+        return plan.hasUniformColumns() ? plan.getColumns() : null;
+    }
+
+    private CSVStream mapColumns(ColumnOperation operation) {
+        return derive(new MapNode(plan, List.of(operation)), statistics);
     }
 
     public void writeTo(Writer writer, CSVFormat csvFormat) throws IOException {
-        CSVWriter.writeTo(stream, writer, csvFormat);
+        if (parallelism > 0) {
+            // The records are written in order as the pool produces them
+            try {
+                evaluate(stream -> {
+                    try {
+                        CSVWriter.writeTo(stream, writer, csvFormat);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
+        }
+        PlanNode physicalPlan = physicalPlan();
+        if (physicalPlan instanceof VectorizedNode) {
+            try (Stream<RecordBatch> batches = ((VectorizedNode) physicalPlan).executeBatches()) {
+                CSVWriter.writeBatches(batches, writer, csvFormat);
+            }
+        } else if (pipelined) {
+            CSVWriter.writePipelined(physicalPlan.execute(), writer, csvFormat);
+        } else {
+            try (Stream<Record> stream = physicalPlan.execute()) {
+                CSVWriter.writeTo(stream, writer, csvFormat);
+            }
+        }
+    }
+
+    /**
+     * Writes to a file and saves the progress in the checkpoint at most every checkpoint interval, see
+     * {@link Checkpoint}. The input has to be read with {@link #fromFile(Path, CSVFormat, Checkpoint)}. After a
+     * failure, running the same pipeline again resumes at the last checkpoint and replaces the output written after
+     * it. Only filters, column operations and projections may lie between the two, as their output follows the input
+     * record by record, and the stream is written sequentially.
+     */
+    public void writeTo(Path output, CSVFormat csvFormat, Checkpoint checkpoint) throws IOException {
+        if (checkpoint.getSource() == null) {
+            throw new IllegalStateException(checkpoint + " has no source, read the input with fromFile(path, format, checkpoint)");
+        }
+        PlanNode physicalPlan = Optimizer.optimize(plan);
+        requireRecordByRecord(physicalPlan, checkpoint);
+        try (Stream<Record> stream = physicalPlan.execute()) {
+            CSVWriter.writeCheckpointed(stream, output, csvFormat, checkpoint);
+        }
+    }
+
+    private static void requireRecordByRecord(PlanNode node, Checkpoint checkpoint) {
+        if (node instanceof SourceNode) {
+            if (!((SourceNode) node).isBackedBy(checkpoint.getSource())) {
+                throw new IllegalStateException("The stream is not read through " + checkpoint);
+            }
+            return;
+        }
+        if (!(node instanceof FilterNode || node instanceof MapNode || node instanceof ProjectNode)) {
+            throw new IllegalStateException("Checkpoints need filters, column operations and projections only, but the plan has "
+                    + node.describe());
+        }
+        requireRecordByRecord(node.getInputs().get(0), checkpoint);
     }
 
     public CSVStream copy() {
-        List<Record> recordsList = stream.collect(Collectors.toList());
-        Stream<Record> newStream = recordsList.stream();
-        this.stream = recordsList.stream();
-        return new CSVStream(newStream);
+        List<Record> recordsList = collect("copy");
+        reset(recordsList);
+        return derive(recordsList, uniformColumns());
     }
 
     public CSVStream deepCopy() {
-        List<Record> recordsList = stream.collect(Collectors.toList());
-        this.stream = recordsList.stream();
-        return new CSVStream(recordsList.stream().map(Record::copy).collect(Collectors.toList()).stream());
+        List<Record> recordsList = collect("deepCopy");
+        reset(recordsList);
+        // Record.copy does not keep the column order
+        return derive(recordsList.stream().map(Record::copy).collect(Collectors.toList()), null);
     }
 
     public List<Record> toList() {
-        return stream.collect(Collectors.toList());
+        return collect("toList");
+    }
+
+    /**
+     * Performs the action for each record, in parallel mode concurrently and in no particular order.
+     */
+    public void forEach(Consumer<Record> action) {
+        Objects.requireNonNull(action, "Action must not be null");
+        evaluate(stream -> {
+            stream.forEach(action);
+            return null;
+        });
+    }
+
+    /**
+     * Performs the action for each record one at a time and in the order of the records, also in parallel mode.
+     */
+    public void forEachOrdered(Consumer<Record> action) {
+        Objects.requireNonNull(action, "Action must not be null");
+        evaluate(stream -> {
+            stream.forEachOrdered(action);
+            return null;
+        });
     }
 
     public CSVStream peek(Consumer<Record> consumer) {
-        return new CSVStream(stream.peek(consumer));
+        return apply(stream -> stream.peek(consumer), "Peek", false, statistics);
     }
 
     public Optional<Record> reduce(BinaryOperator<Record> accumulator) {
         Objects.requireNonNull(accumulator, "Accumulator must not be null");
 
-        return stream.reduce(accumulator);
+        return evaluate(stream -> stream.reduce(accumulator));
     }
 
     public Record reduce(Record identity, BinaryOperator<Record> accumulator) {
         Objects.requireNonNull(identity, "Identity must not be null");
         Objects.requireNonNull(accumulator, "Accumulator must not be null");
 
-        return stream.reduce(identity, accumulator);
+        return evaluate(stream -> stream.reduce(identity, accumulator));
     }
 
     public <K> Map<K, List<Record>> groupBy(Function<Record, K> classifier) {
-        return stream.collect(Collectors.groupingBy(classifier));
+        return evaluate(stream -> stream.collect(Collectors.groupingBy(classifier)));
+    }
+
+    /**
+     * Aggregates the whole stream into a single record.
+     */
+    public CSVStream aggregate(Aggregation... aggregations) {
+        return this.aggregate(new String[0], aggregations);
     }
 
+    public CSVStream aggregate(String groupColumn, Aggregation... aggregations) {
+        return this.aggregate(new String[]{groupColumn}, aggregations);
+    }
+
+    /**
+     * One record per group holding the group columns and one column per aggregation. Unlike {@link #groupBy(Function)}
+     * only an accumulator per group and aggregation is kept, not the records.
+     */
+    public CSVStream aggregate(String[] groupColumns, Aggregation... aggregations) {
+        return derive(new AggregateNode(plan, groupColumns, aggregations));
+    }
+
+    /**
+     * Aggregation which keeps at most maxGroupsInMemory groups on the heap and hash-partitions the records of further
+     * groups into temporary files, which are aggregated afterwards. Spilled groups follow the in-memory ones.
+     * The amount spilled is recorded in report, which may be null.
+     */
+    public CSVStream aggregate(String[] groupColumns, int maxGroupsInMemory, SpillReport report, Aggregation... aggregations) {
+        return apply(stream -> CSVStreamSpillingAggregate.aggregate(stream, groupColumns, maxGroupsInMemory, report, aggregations),
+                "SpillingAggregate" + Arrays.toString(groupColumns), false, InputStatistics.unknown());
+    }
+
+    public CSVStream parallelAggregate(String groupColumn, int threads, Aggregation... aggregations) {
+        return this.parallelAggregate(new String[]{groupColumn}, threads, true, aggregations);
+    }
+
+    /**
+     * Aggregation on the given number of worker threads, each accumulating into tables of its own which are merged
+     * per key partition at the end. With ordered=true the result is the same as {@link #aggregate(String[], Aggregation...)}.
+     */
+    public CSVStream parallelAggregate(String[] groupColumns, int threads, boolean ordered, Aggregation... aggregations) {
+        return apply(stream -> CSVStreamParallelAggregate.aggregate(stream, groupColumns, threads, ordered, aggregations),
+                "ParallelAggregate" + Arrays.toString(groupColumns), false, InputStatistics.unknown());
+    }
+
+    /**
+     * Adds one column per window function, e.g. the previous balance per account or a moving average.
+     * Streams in one pass, so the input must be grouped by the partition columns and sorted by the order column.
+     */
+    public CSVStream window(WindowSpec spec, WindowFunction... functions) {
+        return apply(stream -> CSVStreamWindow.window(stream, spec, functions), "Window", false, statistics);
+    }
+
+    /**
+     * Keeps the first record per distinct combination of the key columns, or per distinct row without key columns.
+     * Only a 128 bit fingerprint per key is kept in memory, records are emitted as they are read.
+     */
+    public CSVStream distinct(String... keyColumns) {
+        return this.distinct(Keep.FIRST, keyColumns);
+    }
+
+    public CSVStream distinct(Keep keep, String... keyColumns) {
+        return this.distinct(keep, false, CSVStreamDistinct.DEFAULT_MAX_KEYS_IN_MEMORY, null, keyColumns);
+    }
+
+    /**
+     * Distinct with exact=true additionally verifying key values on fingerprint matches, and spilling records of
+     * new keys to temporary files beyond maxKeysInMemory keys. The amount spilled is recorded in report, which may be null.
+     */
+    public CSVStream distinct(Keep keep, boolean exact, int maxKeysInMemory, SpillReport report, String... keyColumns) {
+        return apply(stream -> CSVStreamDistinct.distinct(stream, keep, exact, maxKeysInMemory, report, keyColumns),
+                "Distinct" + Arrays.toString(keyColumns), true, statistics.filtered());
+    }
+
+    /**
+     * Maps the records to a plain {@link Stream}. In parallel mode the returned stream is parallel, its terminal
+     * operation runs on the common pool rather than a dedicated one. Closing it stops running pipeline stages.
+     */
     public <T> Stream<T> map(Function<Record, T> mapper) {
-        return stream.map(mapper);
+        return stream().map(mapper);
     }
 
     public CSVStream rename(String columnBefore, String columnAfter) {
-        var tmp = stream.map(record -> {
-            if (!record.containsColumn(columnBefore)) {
-                throw new ColumnNotFoundException("Column " + columnBefore + " not found");
-            }
-            return record.rename(columnBefore, columnAfter);
-        });
-        return new CSVStream(tmp);
+        return mapColumns(ColumnOperation.rename(columnBefore, columnAfter));
     }
 
     public CSVStream mapColumn(String column, Function<String, String> function) {
-        var tmp = stream.map(record -> {
-            if (!record.containsColumn(column)) {
-                throw new ColumnNotFoundException("Column " + column + " not found");
-            }
-            return record.put(column, function.apply(record.get(column)));
-        });
-        return new CSVStream(tmp);
+        return mapColumns(ColumnOperation.map(column, function));
     }
 
     public CSVStream deleteColumns(String... columns) {
-        var tmp = stream.map(record -> record.deleteColumns(columns));
-        return new CSVStream(tmp);
+        if (columns == null) {
+            return apply(stream -> stream.map(record -> record.deleteColumns(columns)), "Delete", false, statistics);
+        }
+        return derive(new ProjectNode(plan, false, Arrays.asList(columns)), statistics);
     }
 
     public CSVStream retainColumn(String... columns) {
-        var tmp = stream.map(record -> record.retainColumns(columns));
-        return new CSVStream(tmp);
+        if (columns == null) {
+            return apply(stream -> stream.map(record -> record.retainColumns(columns)), "Retain", false, statistics);
+        }
+        return derive(new ProjectNode(plan, true, Arrays.asList(columns)), statistics);
     }
 
+    /**
+     * Filter which can not be moved by the optimizer, as the columns read by the predicate are unknown.
+     */
     public CSVStream filter(Predicate<Record> predicate) {
-        var tmp = stream.filter(predicate);
-        return new CSVStream(tmp);
+        return derive(new FilterNode(plan, predicate, null, "predicate"), statistics.filtered());
+    }
+
+    /**
+     * Filter whose predicate reads only the given columns. The optimizer may evaluate it earlier, e.g. before a join.
+     */
+    public CSVStream filter(Predicate<Record> predicate, String... columns) {
+        Objects.requireNonNull(columns, "Columns must not be null");
+        return derive(new FilterNode(plan, predicate, new HashSet<>(Arrays.asList(columns)), "predicate on " + String.join(", ", columns)),
+                statistics.filtered());
     }
 
     public CSVStream filter(String column, Predicate<String> predicate) {
-        var tmp = stream.filter(record -> {
-            if (!record.containsColumn(column)) {
-                throw new ColumnNotFoundException("Column " + column + " not found");
-            }
-            return predicate.test(record.get(column));
-        });
-        return new CSVStream(tmp);
+        return derive(new FilterNode(plan, column, predicate), statistics.filtered());
     }
 
     public CSVStream addColumn(String columnName, Function<Record, String> valueFunction) {
-        var tmp = stream.map(record -> {
-            if (record.containsColumn(columnName)) {
-                throw new ColumnAlreadyExistsException("Column " + columnName + " is already present");
-            }
-            return record.put(columnName, valueFunction.apply(record));
-        });
-        return new CSVStream(tmp);
+        return mapColumns(ColumnOperation.add(columnName, valueFunction));
     }
 
     public CSVStream addColumn(String columnName, String staticValue) {
-        var tmp = stream.map(record -> {
-            if (record.containsColumn(columnName)) {
-                throw new ColumnAlreadyExistsException("Column " + columnName + " is already present");
-            }
-            return record.put(columnName, staticValue);
-        });
-        return new CSVStream(tmp);
+        return mapColumns(ColumnOperation.add(columnName, staticValue));
     }
 
     public CSVStream fillMissingValues(String columnName, String defaultValue) {
-        var tmp = stream.map(record -> {
-            if (!record.containsColumn(columnName)) {
-                throw new ColumnNotFoundException("Column " + columnName + " not found");
-            }
-            return record.putIfAbsent(columnName, defaultValue);
-        });
-        return new CSVStream(tmp);
+        return mapColumns(ColumnOperation.fill(columnName, defaultValue));
     }
 
     public CSVStream sort(String column, Comparator<String> comparator) {
         Comparator<Record> recordComparator = (record1, record2) -> comparator.compare(record1.get(column), (record2.get(column)));
-        Stream<Record> tmp = stream.sorted(recordComparator);
-        return new CSVStream(tmp);
+        return apply(stream -> stream.sorted(recordComparator), "Sort[" + column + "]", true, statistics);
     }
 
     public CSVStream sort(Comparator<Record> comparator) {
-        var tmp = stream.sorted(comparator);
-        return new CSVStream(tmp);
+        return apply(stream -> stream.sorted(comparator), "Sort", true, statistics);
+    }
+
+    /**
+     * Sort which keeps at most maxRecordsInMemory records on the heap and spills sorted runs to temporary files.
+     */
+    public CSVStream sort(Comparator<Record> comparator, int maxRecordsInMemory) {
+        return apply(stream -> ExternalSort.sort(stream, comparator, maxRecordsInMemory), "ExternalSort", true, statistics);
+    }
+
+    /**
+     * The first maxRecords records. Reading stops as soon as they were passed on, and the input is closed.
+     */
+    public CSVStream limit(long maxRecords) {
+        if (maxRecords < 0) {
+            throw new IllegalArgumentException("Limit must not be negative but was " + maxRecords);
+        }
+        return apply(stream -> stream.limit(maxRecords), "Limit[" + maxRecords + "]", true, statistics.limited(maxRecords));
+    }
+
+    /**
+     * All but the first records records, which are still read but not passed on.
+     */
+    public CSVStream skip(long records) {
+        if (records < 0) {
+            throw new IllegalArgumentException("Skip must not be negative but was " + records);
+        }
+        return apply(stream -> stream.skip(records), "Skip[" + records + "]", true, statistics.filtered());
+    }
+
+    /**
+     * Keeps each record with probability fraction, e.g. to look at value distributions of a large input. The same
+     * seed keeps the same records.
+     */
+    public CSVStream sample(double fraction, long seed) {
+        return apply(stream -> CSVStreamSample.bernoulli(stream, fraction, seed), "Sample[" + fraction + "]", true,
+                statistics.filtered());
+    }
+
+    /**
+     * A uniform random sample of exactly sampleSize records, or all of them if there are fewer, in input order.
+     * Reads the whole input but keeps only the sample in memory.
+     */
+    public CSVStream reservoirSample(int sampleSize, long seed) {
+        return apply(stream -> CSVStreamSample.reservoir(stream, sampleSize, seed), "ReservoirSample[" + sampleSize + "]",
+                true, statistics.limited(sampleSize));
+    }
+
+    /**
+     * Collects the first maxRecords records, e.g. for a preview of a large file, without reading further.
+     */
+    public List<Record> head(int maxRecords) {
+        return limit(maxRecords).toList();
+    }
+
+    /**
+     * The first record if any, without reading further.
+     */
+    public Optional<Record> findFirst() {
+        return evaluate(Stream::findFirst);
     }
 
     public CSVStream consumeAndContinue() {
-        var tmp = stream.collect(Collectors.toList());
-        return new CSVStream(tmp.stream());
+        if (memoryBudget != null) {
+            return buffer("consumeAndContinue", record -> {});
+        }
+        var tmp = toList();
+        return derive(tmp, uniformColumns());
     }
 
     public void consume() {
-        stream.forEach((elm) -> {});
+        evaluate(stream -> {
+            stream.forEach((elm) -> {});
+            return null;
+        });
     }
 
     //-------------------------- Joining stuff
@@ -184,8 +799,84 @@ public class CSVStream {
     }
 
     public CSVStream join(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
-        Stream<Record> resultStream = CSVStreamJoin.join(this.stream, other.stream, keyColumnCSVA, keyColumnCSVB);
-        return new CSVStream(resultStream);
+        return this.join(other, keyColumnCSVA, keyColumnCSVB, BuildSide.AUTO);
+    }
+
+    /**
+     * Inner join which builds its hash table on the given side. With {@link BuildSide#AUTO}
+     * the smaller input according to {@link #getStatistics()} is built, ties build on other.
+     */
+    public CSVStream join(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, BuildSide buildSide) {
+        return this.join(other, keyColumnCSVA, keyColumnCSVB, buildSide, false);
+    }
+
+    /**
+     * Inner join as above, optionally prefiltering the probe side with a Bloom filter over the build keys.
+     * The filter helps when most probe records find no match and the build side has too many keys for the
+     * CPU cache; for smaller build sides it is skipped. It does not reduce memory, see {@link org.yexey.common.csv.imp.joins.BloomFilter}.
+     */
+    public CSVStream join(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, BuildSide buildSide, boolean bloomPrefilter) {
+        Objects.requireNonNull(buildSide, "BuildSide must not be null");
+        return join(other, JoinNode.Type.INNER, List.of(keyColumnCSVA), List.of(keyColumnCSVB), buildSide, bloomPrefilter);
+    }
+
+    /**
+     * Inner join on several key columns, matched pairwise by position without building a concatenated key.
+     */
+    public CSVStream join(CSVStream other, String[] keyColumnsCSVA, String[] keyColumnsCSVB) {
+        return this.join(other, keyColumnsCSVA, keyColumnsCSVB, BuildSide.AUTO);
+    }
+
+    public CSVStream join(CSVStream other, String[] keyColumnsCSVA, String[] keyColumnsCSVB, BuildSide buildSide) {
+        Objects.requireNonNull(buildSide, "BuildSide must not be null");
+        return join(other, JoinNode.Type.INNER, keyColumns(keyColumnsCSVA, keyColumnsCSVB), List.of(keyColumnsCSVB), buildSide, false);
+    }
+
+    public CSVStream semiJoin(CSVStream other, String keyColumnCSVA) {
+        return this.semiJoin(other, keyColumnCSVA, keyColumnCSVA);
+    }
+
+    public CSVStream semiJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
+        return this.semiJoin(other, keyColumnCSVA, keyColumnCSVB, false);
+    }
+
+    /**
+     * Keeps the records of this stream whose key appears in other, unchanged. Only the keys of other are kept in memory.
+     * A Bloom filter over them answers misses quickly if other has many keys, as for {@link #join(CSVStream, String,
+     * String, BuildSide, boolean)}.
+     */
+    public CSVStream semiJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, boolean bloomFilter) {
+        return derive(new OperatorNode(List.of(plan, other.plan),
+                streams -> lazily(() -> CSVStreamSemiJoin.semiJoin(streams.get(0), streams.get(1), keyColumnCSVA, keyColumnCSVB, bloomFilter)),
+                "SemiJoin[" + keyColumnCSVA + " = " + keyColumnCSVB + "]", true), statistics.filtered());
+    }
+
+    public CSVStream antiJoin(CSVStream other, String keyColumnCSVA) {
+        return this.antiJoin(other, keyColumnCSVA, keyColumnCSVA);
+    }
+
+    public CSVStream antiJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
+        return this.antiJoin(other, keyColumnCSVA, keyColumnCSVB, false);
+    }
+
+    /**
+     * Keeps the records of this stream whose key does not appear in other, unchanged. The Bloom filter works as for
+     * {@link #semiJoin(CSVStream, String, String, boolean)}.
+     */
+    public CSVStream antiJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, boolean bloomFilter) {
+        return derive(new OperatorNode(List.of(plan, other.plan),
+                streams -> lazily(() -> CSVStreamSemiJoin.antiJoin(streams.get(0), streams.get(1), keyColumnCSVA, keyColumnCSVB, bloomFilter)),
+                "AntiJoin[" + keyColumnCSVA + " = " + keyColumnCSVB + "]", true), statistics.filtered());
+    }
+
+    /**
+     * Inner join which builds one hash table per partition and probes on the given number of partitions in parallel.
+     * With ordered=false rows are emitted as soon as their chunk is joined.
+     */
+    public CSVStream parallelJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, int partitions, boolean ordered) {
+        return derive(new OperatorNode(List.of(plan, other.plan),
+                streams -> CSVStreamParallelJoin.join(streams.get(0), streams.get(1), keyColumnCSVA, keyColumnCSVB, partitions, ordered),
+                "ParallelHashJoin[INNER, " + keyColumnCSVA + " = " + keyColumnCSVB + ", partitions=" + partitions + "]", false));
     }
 
     public CSVStream leftJoin(CSVStream other, String keyColumnCSVA) {
@@ -193,8 +884,17 @@ public class CSVStream {
     }
 
     public CSVStream leftJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
-        Stream<Record> resultStream = CSVStreamLeftJoin.leftJoin(this.stream, other.stream, keyColumnCSVA, keyColumnCSVB);
-        return new CSVStream(resultStream);
+        return join(other, JoinNode.Type.LEFT, List.of(keyColumnCSVA), List.of(keyColumnCSVB), BuildSide.RIGHT, false);
+    }
+
+    public CSVStream parallelLeftJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB, int partitions, boolean ordered) {
+        return derive(new OperatorNode(List.of(plan, other.plan),
+                streams -> CSVStreamParallelJoin.leftJoin(streams.get(0), streams.get(1), keyColumnCSVA, keyColumnCSVB, partitions, ordered),
+                "ParallelHashJoin[LEFT, " + keyColumnCSVA + " = " + keyColumnCSVB + ", partitions=" + partitions + "]", false));
+    }
+
+    public CSVStream leftJoin(CSVStream other, String[] keyColumnsCSVA, String[] keyColumnsCSVB) {
+        return join(other, JoinNode.Type.LEFT, keyColumns(keyColumnsCSVA, keyColumnsCSVB), List.of(keyColumnsCSVB), BuildSide.RIGHT, false);
     }
 
     public CSVStream rightJoin(CSVStream other, String keyColumnCSVBoth) {
@@ -202,8 +902,11 @@ public class CSVStream {
     }
 
     public CSVStream rightJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
-        Stream<Record> resultStream = CSVStreamRightJoin.rightJoin(this.stream, other.stream, keyColumnCSVA, keyColumnCSVB);
-        return new CSVStream(resultStream);
+        return join(other, JoinNode.Type.RIGHT, List.of(keyColumnCSVA), List.of(keyColumnCSVB), BuildSide.RIGHT, false);
+    }
+
+    public CSVStream rightJoin(CSVStream other, String[] keyColumnsCSVA, String[] keyColumnsCSVB) {
+        return join(other, JoinNode.Type.RIGHT, keyColumns(keyColumnsCSVA, keyColumnsCSVB), List.of(keyColumnsCSVB), BuildSide.RIGHT, false);
     }
 
     public CSVStream fullJoin(CSVStream other, String keyColumnCSVA) {
@@ -211,8 +914,101 @@ public class CSVStream {
     }
 
     public CSVStream fullJoin(CSVStream other, String keyColumnCSVA, String keyColumnCSVB) {
-        Stream<Record> resultStream = CSVStreamFullJoin.fullJoin(this.stream, other.stream, keyColumnCSVA, keyColumnCSVB);
-        return new CSVStream(resultStream);
+        return join(other, JoinNode.Type.FULL, List.of(keyColumnCSVA), List.of(keyColumnCSVB), BuildSide.RIGHT, false);
+    }
+
+    public CSVStream fullJoin(CSVStream other, String[] keyColumnsCSVA, String[] keyColumnsCSVB) {
+        return join(other, JoinNode.Type.FULL, keyColumns(keyColumnsCSVA, keyColumnsCSVB), List.of(keyColumnsCSVB), BuildSide.RIGHT, false);
+    }
+
+    /**
+     * Builds a reusable hash index over this stream, consuming it. See {@link JoinIndex}.
+     */
+    public JoinIndex toJoinIndex(String... keyColumns) {
+        try (Stream<Record> stream = stream()) {
+            return JoinIndex.build(stream.sequential(), keyColumns);
+        }
+    }
+
+    /**
+     * Inner join against a prebuilt index. The index is only read, so it can serve many joins concurrently.
+     */
+    public CSVStream join(JoinIndex index, String... keyColumnsCSVA) {
+        Objects.requireNonNull(index, "Index must not be null");
+        return apply(stream -> CSVStreamJoin.join(stream, index, KeyColumns.of(keyColumnsCSVA)),
+                "IndexJoin[INNER, " + String.join(", ", keyColumnsCSVA) + "]", false, InputStatistics.unknown());
+    }
+
+    public CSVStream leftJoin(JoinIndex index, String... keyColumnsCSVA) {
+        Objects.requireNonNull(index, "Index must not be null");
+        return apply(stream -> CSVStreamLeftJoin.leftJoin(stream, index, KeyColumns.of(keyColumnsCSVA)),
+                "IndexJoin[LEFT, " + String.join(", ", keyColumnsCSVA) + "]", false, InputStatistics.unknown());
+    }
+
+    /**
+     * As-of join on numeric times: each record is matched with the latest record of other with the same byColumn value
+     * at or before its time and at most tolerance older. Both streams must already be sorted by timeColumn.
+     */
+    public CSVStream asOfJoin(CSVStream other, String byColumn, String timeColumn, long tolerance) {
+        return this.asOfJoin(other, byColumn, timeColumn, tolerance, Long::parseLong, false);
+    }
+
+    /**
+     * As-of join with a custom time parser. With sortInputs both streams are sorted by time first, using an external sort.
+     */
+    public CSVStream asOfJoin(CSVStream other, String byColumn, String timeColumn, long tolerance,
+                              ToLongFunction<String> timeParser, boolean sortInputs) {
+        Objects.requireNonNull(timeParser, "Time parser must not be null");
+        return derive(new OperatorNode(List.of(plan, other.plan), streams -> {
+            Stream<Record> streamA = sortInputs ? sortedBy(streams.get(0), timeColumn, timeParser) : streams.get(0);
+            Stream<Record> streamB = sortInputs ? sortedBy(streams.get(1), timeColumn, timeParser) : streams.get(1);
+            // Keeps the latest record per key while walking both inputs in order
+            return BatchSpliterator.inOrder(CSVStreamAsOfJoin.asOfJoin(streamA, streamB, byColumn, timeColumn, tolerance, timeParser));
+        }, "AsOfJoin[" + byColumn + ", " + timeColumn + "]", false), statistics);
+    }
+
+    /**
+     * Range join on numeric values: matches records of other with startColumn <= pointColumn <= endColumn.
+     * This stream must be sorted by pointColumn and other by startColumn.
+     */
+    public CSVStream rangeJoin(CSVStream other, String pointColumn, String startColumn, String endColumn) {
+        return this.rangeJoin(other, pointColumn, startColumn, endColumn, Long::parseLong, false);
+    }
+
+    public CSVStream rangeJoin(CSVStream other, String pointColumn, String startColumn, String endColumn,
+                               ToLongFunction<String> parser, boolean sortInputs) {
+        Objects.requireNonNull(parser, "Parser must not be null");
+        return derive(new OperatorNode(List.of(plan, other.plan), streams -> {
+            Stream<Record> streamA = sortInputs ? sortedBy(streams.get(0), pointColumn, parser) : streams.get(0);
+            Stream<Record> streamB = sortInputs ? sortedBy(streams.get(1), startColumn, parser) : streams.get(1);
+            return BatchSpliterator.inOrder(CSVStreamRangeJoin.rangeJoin(streamA, streamB, pointColumn, startColumn, endColumn, parser));
+        }, "RangeJoin[" + pointColumn + " in " + startColumn + ".." + endColumn + "]", false));
+    }
+
+    private static Stream<Record> sortedBy(Stream<Record> stream, String column, ToLongFunction<String> parser) {
+        return ExternalSort.sort(stream, Comparator.comparingLong(record -> parser.applyAsLong(record.get(column))),
+                ExternalSort.DEFAULT_MAX_RECORDS_IN_MEMORY);
+    }
+
+    private CSVStream join(CSVStream other, JoinNode.Type type, List<String> keyColumnsCSVA, List<String> keyColumnsCSVB,
+                           BuildSide buildSide, boolean bloomPrefilter) {
+        return derive(new JoinNode(this.plan, other.plan, type, keyColumnsCSVA, keyColumnsCSVB, buildSide, bloomPrefilter,
+                this.statistics, other.statistics));
+    }
+
+    // For operators which read one of their inputs as soon as they are called
+    private static Stream<Record> lazily(Supplier<Stream<Record>> operator) {
+        return OperatorNode.deferred(operator);
+    }
+
+    private static List<String> keyColumns(String[] keyColumnsCSVA, String[] keyColumnsCSVB) {
+        Objects.requireNonNull(keyColumnsCSVA, "Key columns must not be null");
+        Objects.requireNonNull(keyColumnsCSVB, "Key columns must not be null");
+        if (keyColumnsCSVA.length != keyColumnsCSVB.length) {
+            throw new IllegalArgumentException("Both sides need the same number of key columns but got "
+                    + keyColumnsCSVA.length + " and " + keyColumnsCSVB.length);
+        }
+        return List.of(keyColumnsCSVA);
     }
 
     //-------------------------- Printing stuff
@@ -221,9 +1017,9 @@ public class CSVStream {
     }
 
     public CSVStream printAsTable(PrintStream ps) {
-        List<Record> list = stream.collect(Collectors.toList());
+        List<Record> list = collect("printAsTable");
         CSVPrinter.printAsTable(list, ps);
-        return new CSVStream(list.stream());
+        return derive(list, uniformColumns());
     }
 
     public CSVStream printColumnsAsTable(String... columnNames) {
@@ -231,9 +1027,9 @@ public class CSVStream {
     }
 
     public CSVStream printColumnsAsTable(PrintStream ps, String... columnNames) {
-        List<Record> list = stream.collect(Collectors.toList());
+        List<Record> list = collect("printColumnsAsTable");
         CSVPrinter.printColumnsAsTable(list, ps, columnNames);
-        return new CSVStream(list.stream());
+        return derive(list, uniformColumns());
     }
 
     public CSVStream printColumns(String... columnNames) {
@@ -252,8 +1048,8 @@ public class CSVStream {
         Objects.requireNonNull(ps, "PrintStream must not be null");
         Objects.requireNonNull(columnNames, "ColumnNames must not be null");
 
-        Stream<Record> tmp = stream.peek(record -> CSVPrinter.printColumnsForSingleRecord(record, ps, delimiter, columnNames));
-        return new CSVStream(tmp);
+        return apply(stream -> stream.peek(record -> CSVPrinter.printColumnsForSingleRecord(record, ps, delimiter, columnNames)),
+                "Print", true, InputStatistics.unknown());
     }
 
     public CSVStream print() {
@@ -269,8 +1065,8 @@ public class CSVStream {
     }
 
     public CSVStream print(PrintStream ps, char delimiter) {
-        Stream<Record> tmp = stream.peek(record -> CSVPrinter.printSingleRecord(record, ps, delimiter));
-        return new CSVStream(tmp);
+        return apply(stream -> stream.peek(record -> CSVPrinter.printSingleRecord(record, ps, delimiter)),
+                "Print", true, InputStatistics.unknown());
     }
 
     //-------------------------- Validation Stuff
@@ -279,25 +1075,23 @@ public class CSVStream {
         Objects.requireNonNull(validator, "Validator must not be null");
         Objects.requireNonNull(exceptionSupplier, "Exception supplier must not be null");
 
-        Stream<Record> validatedStream = stream.peek(record -> {
+        return apply(stream -> stream.peek(record -> {
             String value = record.get(column);
             if (!validator.test(value)) {
                 throw exceptionSupplier.get();
             }
-        });
-        return new CSVStream(validatedStream);
+        }), "Validate[" + column + "]", true, InputStatistics.unknown());
     }
 
     public CSVStream validateAndThrowOnFailure(Predicate<Record> validator, Supplier<? extends RuntimeException> exceptionSupplier) {
         Objects.requireNonNull(validator, "Validator must not be null");
         Objects.requireNonNull(exceptionSupplier, "Exception supplier must not be null");
 
-        Stream<Record> validatedStream = stream.peek(record -> {
+        return apply(stream -> stream.peek(record -> {
             if (!validator.test(record)) {
                 throw exceptionSupplier.get();
             }
-        });
-        return new CSVStream(validatedStream);
+        }), "Validate", true, InputStatistics.unknown());
     }
 
     public List<ValidationError> validateEager(String column, Predicate<String> validator, String errorMessage) {
@@ -305,8 +1099,7 @@ public class CSVStream {
         Objects.requireNonNull(validator, "Validator must not be null");
 
         List<ValidationError> errors = new ArrayList<>();
-        List<Record> records = stream.collect(Collectors.toList());
-        for (Record record : records) {
+        Consumer<Record> validation = record -> {
             if (!record.containsColumn(column)) {
                 errors.add(new ValidationError(record, "Column " + column + " not found"));
             } else {
@@ -316,9 +1109,18 @@ public class CSVStream {
                     errors.add(new ValidationError(record, message));
                 }
             }
+        };
+        if (memoryBudget != null) {
+            // Continues with the buffered records, which may have been spilled
+            CSVStream buffered = buffer("validateEager", validation);
+            this.plan = buffered.plan;
+            this.statistics = buffered.statistics;
+            return errors;
         }
+        List<Record> records = toList();
+        records.forEach(validation);
         // Re-create the stream with collected records
-        this.stream = records.stream();
+        reset(records);
         return errors;
     }
 }
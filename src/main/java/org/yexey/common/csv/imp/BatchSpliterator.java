@@ -0,0 +1,80 @@
+package org.yexey.common.csv.imp;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator over an iterator which splits off blocks of a fixed number of elements, so that a parallel stream
+ * over a source which can only be read in order, like a CSV parser, hands out evenly sized work. The iterator is
+ * only advanced by the thread currently owning this spliterator, the split off blocks are plain arrays.
+ */
+public class BatchSpliterator<T> implements Spliterator<T> {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Iterator<? extends T> iterator;
+    private final int batchSize;
+
+    public BatchSpliterator(Iterator<? extends T> iterator, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1 but was " + batchSize);
+        }
+        this.iterator = Objects.requireNonNull(iterator, "Iterator must not be null");
+        this.batchSize = batchSize;
+    }
+
+    public static <T> Stream<T> stream(Iterator<? extends T> iterator) {
+        return StreamSupport.stream(new BatchSpliterator<>(iterator, DEFAULT_BATCH_SIZE), false);
+    }
+
+    /**
+     * Continues the given stream as a new source which is read in order and split into blocks, for operators
+     * whose functions keep state from one record to the next and therefore must not run in parallel themselves.
+     */
+    public static <T> Stream<T> inOrder(Stream<T> stream) {
+        return StreamSupport.stream(() -> new BatchSpliterator<>(stream.iterator(), DEFAULT_BATCH_SIZE), Spliterator.ORDERED, false)
+                .onClose(stream::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        iterator.forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Object[] batch = new Object[batchSize];
+        int size = 0;
+        while (size < batchSize && iterator.hasNext()) {
+            batch[size++] = iterator.next();
+        }
+        return Spliterators.spliterator(batch, 0, size, Spliterator.ORDERED);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED;
+    }
+}
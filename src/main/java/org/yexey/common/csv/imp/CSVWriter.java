@@ -2,42 +2,250 @@ package org.yexey.common.csv.imp;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+import org.yexey.common.csv.imp.io.Checkpoint;
+import org.yexey.common.csv.imp.pipeline.Stage;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public class CSVWriter {
 
+    // Characters of formatted text handed to the writing thread at a time
+    private static final int TEXT_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Writes the records as they arrive, in order, without collecting them. Unless the format has a header, it is
+     * taken from the columns of the first record.
+     */
     public static void writeTo(Stream<Record> stream, Writer writer, CSVFormat csvFormat) throws IOException {
-        // Collect records to a list to allow multiple iterations
-        List<Record> records = stream.collect(Collectors.toList());
+        RecordPrinter printer = new RecordPrinter(writer, csvFormat);
+        try {
+            stream.forEachOrdered(printer);
+        } catch (UncheckedIOException e) {
+            printer.abort(e.getCause());
+            throw e.getCause();
+        }
+        printer.close();
+    }
+
+    // Creates the CSVPrinter on the first record, whose columns become the header unless the format has one
+    private static class RecordPrinter implements Consumer<Record> {
+        private final Writer writer;
+        private CSVFormat csvFormat;
+        private String[] headers;
+        private CSVPrinter csvPrinter;
+
+        private RecordPrinter(Writer writer, CSVFormat csvFormat) {
+            this.writer = writer;
+            this.csvFormat = csvFormat;
+            this.headers = csvFormat.getHeader();
+        }
+
+        @Override
+        public void accept(Record record) {
+            try {
+                if (csvPrinter == null) {
+                    open(record);
+                }
+                // Write the values in the order of headers
+                List<String> values = new ArrayList<>(headers.length);
+                for (String header : headers) {
+                    values.add(record.get(header));
+                }
+                csvPrinter.printRecord(values);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void open(Record first) throws IOException {
+            if ((headers == null || headers.length == 0) && first != null) {
+                headers = first.getColumnNames().toArray(new String[0]);
+                csvFormat = csvFormat.builder().setHeader(headers).build();
+            }
+            csvPrinter = new CSVPrinter(writer, csvFormat);
+        }
+
+        private void close() throws IOException {
+            if (csvPrinter == null) {
+                open(null);
+            }
+            csvPrinter.close();
+        }
+
+        private void abort(IOException e) {
+            try {
+                if (csvPrinter != null) {
+                    csvPrinter.close();
+                } else {
+                    writer.close();
+                }
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * Writes batches as they arrive, without collecting them or turning them into records. Like
+     * {@link #writeTo(Stream, Writer, CSVFormat)} the header is taken from the columns unless the format has one.
+     */
+    public static void writeBatches(Stream<RecordBatch> batches, Writer writer, CSVFormat csvFormat) throws IOException {
+        Iterator<RecordBatch> iterator = batches.iterator();
+        RecordBatch batch = null;
+        while (iterator.hasNext() && batch == null) {
+            RecordBatch next = iterator.next();
+            if (next.size() > 0) {
+                batch = next;
+            }
+        }
 
-        // Determine headers
         String[] headers = csvFormat.getHeader();
-        if ((headers == null || headers.length == 0) && !records.isEmpty()) {
-            // Get headers from the first record
-            Set<String> headerSet = records.get(0).getColumnNames();
-            headers = headerSet.toArray(new String[0]);
-            // Update CSVFormat with headers
+        if ((headers == null || headers.length == 0) && batch != null) {
+            headers = batch.getColumns().toArray(new String[0]);
             csvFormat = csvFormat.builder().setHeader(headers).build();
         }
 
-
-        // Create CSVPrinter with updated CSVFormat
         try (CSVPrinter csvPrinter = new CSVPrinter(writer, csvFormat)) {
-            // For each record, write the values in the order of headers
-            for (Record record : records) {
-                List<String> values = new ArrayList<>();
-                for (String header : headers) {
-                    values.add(record.get(header));
+            if (batch == null) {
+                return;
+            }
+            // All batches have the columns of the first one
+            int[] indexes = new int[headers.length];
+            for (int i = 0; i < headers.length; i++) {
+                indexes[i] = batch.columnIndex(headers[i]);
+            }
+            Object[] values = new Object[headers.length];
+            while (batch != null) {
+                int[] selection = batch.selection();
+                for (int i = 0; i < batch.size(); i++) {
+                    int row = selection[i];
+                    for (int column = 0; column < indexes.length; column++) {
+                        values[column] = indexes[column] < 0 ? null : batch.vector(indexes[column])[row];
+                    }
+                    csvPrinter.printRecord(values);
+                }
+                batch = iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #writeTo(Stream, Writer, CSVFormat)}, but nothing is collected: the records are formatted on a
+     * pipeline stage of their own while the calling thread writes the text. The header comes from the format or
+     * else from the first record.
+     */
+    public static void writePipelined(Stream<Record> stream, Writer writer, CSVFormat csvFormat) throws IOException {
+        try (Stream<String> text = Stage.async("format", Stage.DEFAULT_CAPACITY, (Consumer<String> sink) -> format(stream, csvFormat, sink));
+             Writer out = writer) {
+            Iterator<String> chunks = text.iterator();
+            while (chunks.hasNext()) {
+                out.write(chunks.next());
+            }
+        }
+    }
+
+    private static void format(Stream<Record> stream, CSVFormat csvFormat, Consumer<String> sink) {
+        try (stream) {
+            Iterator<Record> records = stream.iterator();
+            Record record = records.hasNext() ? records.next() : null;
+            String[] headers = csvFormat.getHeader();
+            if ((headers == null || headers.length == 0) && record != null) {
+                headers = record.getColumnNames().toArray(new String[0]);
+                csvFormat = csvFormat.builder().setHeader(headers).build();
+            }
+
+            StringBuilder text = new StringBuilder();
+            CSVPrinter csvPrinter = new CSVPrinter(text, csvFormat);
+            while (record != null) {
+                Object[] values = new Object[headers.length];
+                for (int i = 0; i < headers.length; i++) {
+                    values[i] = record.get(headers[i]);
+                }
+                csvPrinter.printRecord(values);
+                if (text.length() >= TEXT_CHUNK_SIZE) {
+                    sink.accept(text.toString());
+                    text.setLength(0);
+                }
+                record = records.hasNext() ? records.next() : null;
+            }
+            if (text.length() > 0) {
+                sink.accept(text.toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the records to a file while taking checkpoints of the source attached to the checkpoint. A checkpoint
+     * is only taken before the first output of an input record, after flushing all output of the earlier ones, so
+     * it never splits the output of one input record. A resumed run cuts the file back to the checkpointed size
+     * and continues without a header. The stream has to be sequential and produce its output in input order.
+     */
+    public static void writeCheckpointed(Stream<Record> stream, Path output, CSVFormat csvFormat, Checkpoint checkpoint) throws IOException {
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long resumeAt = checkpoint.isResumed() ? checkpoint.getOutputBytes() : 0;
+            if (channel.size() < resumeAt) {
+                throw new IllegalStateException(output + " has " + channel.size() + " bytes, less than the " + resumeAt
+                        + " of the checkpoint");
+            }
+            // Drops what was written after the checkpoint
+            channel.truncate(resumeAt);
+            channel.position(resumeAt);
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            Iterator<Record> records = stream.iterator();
+            Record record = records.hasNext() ? records.next() : null;
+            String[] headers = csvFormat.getHeader();
+            if ((headers == null || headers.length == 0) && record != null) {
+                headers = record.getColumnNames().toArray(new String[0]);
+                csvFormat = csvFormat.builder().setHeader(headers).build();
+            }
+            if (checkpoint.isResumed()) {
+                csvFormat = csvFormat.builder().setSkipHeaderRecord(true).build();
+            }
+
+            CSVPrinter csvPrinter = new CSVPrinter(writer, csvFormat);
+            long written = checkpoint.getOutputRecords();
+            long inputOffset = -1;
+            long due = System.nanoTime() + checkpoint.getIntervalNanos();
+            while (record != null) {
+                long offset = checkpoint.sourceOffset();
+                if (offset != inputOffset) {
+                    inputOffset = offset;
+                    if (System.nanoTime() - due >= 0) {
+                        csvPrinter.flush();
+                        channel.force(false);
+                        checkpoint.save(channel.position(), written);
+                        due = System.nanoTime() + checkpoint.getIntervalNanos();
+                    }
+                }
+                Object[] values = new Object[headers.length];
+                for (int i = 0; i < headers.length; i++) {
+                    values[i] = record.get(headers[i]);
                 }
                 csvPrinter.printRecord(values);
+                written++;
+                record = records.hasNext() ? records.next() : null;
             }
+            csvPrinter.flush();
+            channel.force(false);
         }
+        checkpoint.complete();
     }
 }
@@ -0,0 +1,55 @@
+package org.yexey.common.csv.imp;
+
+import java.util.Arrays;
+
+/**
+ * Key made of several column values. The hash is computed once on creation and
+ * equality compares field by field, so no concatenated key string is needed.
+ */
+public final class CompositeKey {
+
+    private final String[] values;
+    private final int hash;
+
+    public CompositeKey(String... values) {
+        this.values = values;
+        this.hash = Arrays.hashCode(values);
+    }
+
+    public String get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * 64 bit hash for probabilistic structures, independent of {@link #hashCode()}.
+     */
+    public long hash64() {
+        long result = values.length;
+        for (String value : values) {
+            result = Hashing.combine(result, value == null ? 0 : Hashing.hash64(value));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CompositeKey)) return false;
+        CompositeKey other = (CompositeKey) obj;
+        return hash == other.hash && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
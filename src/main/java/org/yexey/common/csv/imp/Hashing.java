@@ -0,0 +1,57 @@
+package org.yexey.common.csv.imp;
+
+/**
+ * Fast non-cryptographic 64 bit hashing of column values, used by the probabilistic
+ * structures which need more bits and a better spread than {@link String#hashCode()}.
+ */
+public class Hashing {
+
+    private static final long PRIME_1 = 0x9E3779B97F4A7C15L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private Hashing() {
+    }
+
+    public static long hash64(CharSequence value) {
+        return hash64(value, 0);
+    }
+
+    public static long hash64(CharSequence value, long seed) {
+        long hash = seed ^ (value.length() * PRIME_1);
+        int length = value.length();
+        int i = 0;
+        // Four chars per round
+        for (; i + 3 < length; i += 4) {
+            long block = value.charAt(i)
+                    | (long) value.charAt(i + 1) << 16
+                    | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            hash = Long.rotateLeft(hash ^ mix(block), 27) * PRIME_1 + PRIME_2;
+        }
+        for (; i < length; i++) {
+            hash = Long.rotateLeft(hash ^ (value.charAt(i) * PRIME_2), 23) * PRIME_1;
+        }
+        return fmix(hash);
+    }
+
+    /**
+     * Combines a running hash with the hash of the next field.
+     */
+    public static long combine(long hash, long fieldHash) {
+        return fmix(Long.rotateLeft(hash, 31) * PRIME_1 ^ fieldHash);
+    }
+
+    private static long mix(long value) {
+        return Long.rotateLeft(value * PRIME_2, 31) * PRIME_1;
+    }
+
+    // Finalization step of MurmurHash3
+    public static long fmix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
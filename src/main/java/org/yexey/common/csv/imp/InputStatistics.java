@@ -0,0 +1,125 @@
+package org.yexey.common.csv.imp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cheap, best-effort size information about the input behind a CSVStream.
+ * Row counts are exact when the records were materialized, otherwise they are
+ * estimated from the file size and the average row length of a small sample.
+ */
+public class InputStatistics {
+
+    public static final long UNKNOWN = -1;
+
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    private static final InputStatistics UNKNOWN_STATISTICS = new InputStatistics(UNKNOWN, UNKNOWN, false);
+
+    private final long rowCount;
+    private final long byteSize;
+    private final boolean exact;
+
+    private InputStatistics(long rowCount, long byteSize, boolean exact) {
+        this.rowCount = rowCount;
+        this.byteSize = byteSize;
+        this.exact = exact;
+    }
+
+    public static InputStatistics unknown() {
+        return UNKNOWN_STATISTICS;
+    }
+
+    public static InputStatistics ofRowCount(long rowCount) {
+        return new InputStatistics(rowCount, UNKNOWN, true);
+    }
+
+    public static InputStatistics ofFile(Path path) throws IOException {
+        return ofFile(path, true);
+    }
+
+    /**
+     * Reads the file size and, if sampling is enabled, the first 64 KiB of the file
+     * to derive the average row length and thereby an estimated row count.
+     */
+    public static InputStatistics ofFile(Path path, boolean sample) throws IOException {
+        long byteSize = Files.size(path);
+        if (!sample || byteSize == 0) {
+            return new InputStatistics(byteSize == 0 ? 0 : UNKNOWN, byteSize, byteSize == 0);
+        }
+        byte[] buffer = new byte[(int) Math.min(SAMPLE_BYTES, byteSize)];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(buffer, 0, buffer.length);
+        }
+        long lines = 0;
+        for (int i = 0; i < read; i++) {
+            if (buffer[i] == '\n') lines++;
+        }
+        if (read == byteSize) {
+            // The sample covered the whole file
+            return new InputStatistics(read > 0 && buffer[read - 1] != '\n' ? lines + 1 : lines, byteSize, false);
+        }
+        long estimatedRows = lines == 0 ? 1 : Math.round(byteSize / ((double) read / lines));
+        return new InputStatistics(estimatedRows, byteSize, false);
+    }
+
+    /**
+     * Row count if known or estimated, otherwise {@link #UNKNOWN}.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Size of the underlying input in bytes if known, otherwise {@link #UNKNOWN}.
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    public boolean isKnown() {
+        return rowCount != UNKNOWN || byteSize != UNKNOWN;
+    }
+
+    /**
+     * Statistics after a filter: the row count becomes an upper bound.
+     */
+    public InputStatistics filtered() {
+        return exact ? new InputStatistics(rowCount, byteSize, false) : this;
+    }
+
+    /**
+     * Statistics after a limit: at most maxRows rows, exact if the row count was.
+     */
+    public InputStatistics limited(long maxRows) {
+        if (rowCount == UNKNOWN) {
+            return new InputStatistics(maxRows, UNKNOWN, false);
+        }
+        return rowCount <= maxRows ? this : new InputStatistics(maxRows, UNKNOWN, exact);
+    }
+
+    /**
+     * Compares two inputs by size; negative if this one is smaller, zero if unknown or equal.
+     */
+    public int compareSize(InputStatistics other) {
+        if (rowCount != UNKNOWN && other.rowCount != UNKNOWN) {
+            return Long.compare(rowCount, other.rowCount);
+        }
+        if (byteSize != UNKNOWN && other.byteSize != UNKNOWN) {
+            return Long.compare(byteSize, other.byteSize);
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        if (!isKnown()) return "unknown";
+        return (exact ? "rows=" : "rows~") + rowCount + (byteSize != UNKNOWN ? ", bytes=" + byteSize : "");
+    }
+}
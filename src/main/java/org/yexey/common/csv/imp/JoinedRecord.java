@@ -0,0 +1,121 @@
+package org.yexey.common.csv.imp;
+
+import java.util.*;
+
+/**
+ * Join output row which references its left and right input records instead of copying them.
+ * Column names are resolved through a {@link Layout} computed once per join. Reads go straight
+ * to the inputs; the first structural access or mutation materializes the row into a regular map.
+ */
+public class JoinedRecord extends Record {
+
+    public static final byte LEFT = 0;
+    public static final byte RIGHT = 1;
+
+    private final Layout layout;
+    private Record left;
+    private Record right;
+    private boolean materialized;
+
+    public JoinedRecord(Layout layout, Record left, Record right) {
+        this.layout = layout;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    protected LinkedHashMap<String, String> data() {
+        LinkedHashMap<String, String> data = super.data();
+        if (!materialized) {
+            for (int i = 0; i < layout.columns.length; i++) {
+                data.put(layout.columns[i], valueAt(i));
+            }
+            materialized = true;
+            left = null;
+            right = null;
+        }
+        return data;
+    }
+
+    @Override
+    public String get(String columnName) {
+        if (materialized) {
+            return super.get(columnName);
+        }
+        Integer slot = layout.slots.get(columnName);
+        return slot == null ? null : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsColumn(String columnName) {
+        return materialized ? super.containsColumn(columnName) : layout.slots.containsKey(columnName);
+    }
+
+    @Override
+    public Set<String> getColumnNames() {
+        return materialized ? super.getColumnNames() : layout.columnNames;
+    }
+
+    @Override
+    public Collection<String> getValues() {
+        if (materialized) {
+            return super.getValues();
+        }
+        List<String> values = new ArrayList<>(layout.columns.length);
+        for (int i = 0; i < layout.columns.length; i++) {
+            values.add(valueAt(i));
+        }
+        return values;
+    }
+
+    /**
+     * Counts both inputs in full, although a record of the build side is usually shared by several joined records.
+     */
+    @Override
+    public long estimatedSize() {
+        if (materialized) {
+            return super.estimatedSize();
+        }
+        return OBJECT_SIZE + 16 + MAP_SIZE + (left == null ? 0 : left.estimatedSize()) + (right == null ? 0 : right.estimatedSize());
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    private String valueAt(int slot) {
+        Record source = layout.sides[slot] == LEFT ? left : right;
+        return source == null ? null : source.get(layout.sourceColumns[slot]);
+    }
+
+    /**
+     * Output columns of a join, each mapped to the side and column it is read from.
+     */
+    public static final class Layout {
+        private final String[] columns;
+        private final byte[] sides;
+        private final String[] sourceColumns;
+        private final Map<String, Integer> slots;
+        private final Set<String> columnNames;
+
+        public Layout(List<String> columns, List<Byte> sides, List<String> sourceColumns) {
+            this.columns = columns.toArray(new String[0]);
+            this.sides = new byte[this.columns.length];
+            this.sourceColumns = sourceColumns.toArray(new String[0]);
+            this.slots = new HashMap<>(this.columns.length * 2);
+            for (int i = 0; i < this.columns.length; i++) {
+                this.sides[i] = sides.get(i);
+                this.slots.put(this.columns[i], i);
+            }
+            this.columnNames = Collections.unmodifiableSet(new LinkedHashSet<>(columns));
+        }
+
+        public int size() {
+            return columns.length;
+        }
+
+        public Set<String> getColumnNames() {
+            return columnNames;
+        }
+    }
+}
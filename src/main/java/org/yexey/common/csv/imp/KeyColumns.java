@@ -0,0 +1,110 @@
+package org.yexey.common.csv.imp;
+
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * One or more key columns. A single column yields its String value as key,
+ * several columns yield a {@link CompositeKey}.
+ */
+public class KeyColumns {
+
+    private final String[] columns;
+
+    private KeyColumns(String[] columns) {
+        this.columns = columns;
+    }
+
+    public static KeyColumns of(String... columns) {
+        Objects.requireNonNull(columns, "Key columns must not be null");
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("At least one key column is required");
+        }
+        for (String column : columns) {
+            Objects.requireNonNull(column, "Key column must not be null");
+        }
+        return new KeyColumns(columns.clone());
+    }
+
+    /**
+     * The key of the record, or null if any of the key values is null.
+     */
+    public Object keyOf(Record record) {
+        if (columns.length == 1) {
+            return record.get(columns[0]);
+        }
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String value = record.get(columns[i]);
+            if (value == null) {
+                return null;
+            }
+            values[i] = value;
+        }
+        return new CompositeKey(values);
+    }
+
+    /**
+     * The key of the record for grouping, where null values are kept and form a group of their own.
+     */
+    public Object groupKeyOf(Record record) {
+        if (columns.length == 1) {
+            return record.get(columns[0]);
+        }
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = record.get(columns[i]);
+        }
+        return new CompositeKey(values);
+    }
+
+    /**
+     * Throws a {@link ColumnNotFoundException} if the record lacks one of the key columns.
+     */
+    public Record requirePresent(Record record, String streamName) {
+        for (String column : columns) {
+            if (!record.containsColumn(column)) {
+                throw new ColumnNotFoundException("KeyColumn " + column + " does not exists in " + streamName);
+            }
+        }
+        return record;
+    }
+
+    public boolean contains(String column) {
+        for (String keyColumn : columns) {
+            if (keyColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String get(int index) {
+        return columns[index];
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * The i-th value of a key produced by {@link #keyOf(Record)}.
+     */
+    public String valueOf(Object key, int index) {
+        return key instanceof CompositeKey ? ((CompositeKey) key).get(index) : (String) key;
+    }
+
+    public static long hash64(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        return key instanceof CompositeKey ? ((CompositeKey) key).hash64() : Hashing.hash64((String) key);
+    }
+
+    @Override
+    public String toString() {
+        return columns.length == 1 ? columns[0] : Arrays.toString(columns);
+    }
+}
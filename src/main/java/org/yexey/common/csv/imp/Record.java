@@ -7,6 +7,13 @@ import java.util.stream.Collectors;
 
 public class Record {
 
+    // Heap layout with compressed references: object headers, map nodes and the parts of a String
+    protected static final long OBJECT_SIZE = 16;
+    protected static final long MAP_SIZE = 56;
+    private static final long MAP_ENTRY_SIZE = 40;
+    private static final long STRING_SIZE = 24;
+    private static final long ARRAY_SIZE = 16;
+
     private final LinkedHashMap<String, String> data;
 
     // Constructor initializing with an existing map
@@ -15,7 +22,7 @@ public class Record {
     }
 
     public Record copy() {
-        return new Record(new HashMap<>(this.data));
+        return new Record(new HashMap<>(data()));
     }
 
     public Record(CSVRecord value) {
@@ -31,14 +38,21 @@ public class Record {
         this.data = new LinkedHashMap<>();
     }
 
+    /**
+     * The backing map. Views such as {@link JoinedRecord} override this to build the map on first use.
+     */
+    protected LinkedHashMap<String, String> data() {
+        return data;
+    }
+
     // Get value by column name
     public String get(String columnName) {
-        return data.get(columnName);
+        return data().get(columnName);
     }
 
     // Set value by column name
     public Record set(String columnName, String value) {
-        data.put(columnName, value);
+        data().put(columnName, value);
         return this;
     }
     public Record put(String columnName, String value) {
@@ -47,24 +61,24 @@ public class Record {
     }
 
     public Record putIfAbsent(String columnName, String defaultValue) {
-        this.data.compute(columnName, (k, v) -> v != null && !v.trim().isEmpty() ? v : defaultValue);
+        data().compute(columnName, (k, v) -> v != null && !v.trim().isEmpty() ? v : defaultValue);
         return this;
     }
 
     // Check if the column exists
     public boolean containsColumn(String columnName) {
-        return data.containsKey(columnName);
+        return data().containsKey(columnName);
     }
 
     // Remove a column
     public Record deleteColumn(String columnName) {
-        data.remove(columnName);
+        data().remove(columnName);
         return this;
     }
 
     public Record deleteColumns(String... columnNames) {
         for(var columnName : columnNames) {
-            data.remove(columnName);
+            data().remove(columnName);
         }
         return this;
     }
@@ -80,35 +94,72 @@ public class Record {
     }
 
     public Record rename(String columnNameOld, String columnNameNew) {
-        String value = data.remove(columnNameOld);
-        data.put(columnNameNew, value);
+        String value = data().remove(columnNameOld);
+        data().put(columnNameNew, value);
         return this;
     }
 
-    // Get all column names
+    /**
+     * The column names in order. For a plain record this is a live view of its columns. {@link SlotRecord}s, which
+     * CSV files with a header are read into, return a read-only view which follows the record, and an unmaterialized
+     * {@link JoinedRecord} returns the read-only set of its layout. Remove columns with {@link #deleteColumn(String)}
+     * rather than through this set.
+     */
     public Set<String> getColumnNames() {
-        return data.keySet();
+        return data().keySet();
     }
 
-    // Get all values
+    /**
+     * The values in column order, a live view for a plain record and a read-only one for a {@link SlotRecord}.
+     * An unmaterialized {@link JoinedRecord} returns a snapshot.
+     */
     public Collection<String> getValues() {
-        return data.values();
+        return data().values();
     }
 
     // Get the underlying data map (if needed)
     public Map<String, String> getData() {
-        return data;
+        return data();
+    }
+
+    /**
+     * Approximate heap size of this record in bytes, e.g. for a {@link org.yexey.common.csv.imp.memory.MemoryBudget}.
+     * Column names are shared between records and not counted, values are assumed to be Latin-1 text.
+     */
+    public long estimatedSize() {
+        LinkedHashMap<String, String> data = data();
+        long size = OBJECT_SIZE + MAP_SIZE;
+        if (!data.isEmpty()) {
+            // The table of a map grown by inserting, at most three quarters full
+            size += referenceArraySize(Integer.highestOneBit(Math.max(1, data.size() * 4 / 3)) << 1);
+        }
+        for (String value : data.values()) {
+            size += MAP_ENTRY_SIZE + stringSize(value);
+        }
+        return size;
+    }
+
+    protected static long stringSize(String value) {
+        return value == null ? 0 : STRING_SIZE + align(ARRAY_SIZE + value.length());
+    }
+
+    protected static long referenceArraySize(int length) {
+        return align(ARRAY_SIZE + 4L * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
     }
 
     // Clone the record
     public Record clone() {
-        return new Record(new LinkedHashMap<>(data));
+        return new Record(new LinkedHashMap<>(data()));
     }
 
     // Override toString for easy printing
     @Override
     public String toString() {
-        return data.toString();
+        return data().toString();
     }
 
     // Equals and hashCode methods (optional, for comparison and collections)
@@ -117,11 +168,11 @@ public class Record {
         if (this == obj) return true;
         if (!(obj instanceof Record)) return false;
         Record other = (Record) obj;
-        return data.equals(other.data);
+        return data().equals(other.data());
     }
 
     @Override
     public int hashCode() {
-        return data.hashCode();
+        return data().hashCode();
     }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package org.yexey.common.csv.imp;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Column layout shared by {@link SlotRecord}s: the column names in their order, each resolved once
+ * to the slot of the value array holding its value.
+ */
+public final class RecordSchema {
+
+    private final String[] columns;
+    private final int[] slots;
+    private final Map<String, Integer> slotsByName;
+    private final Set<String> columnNames;
+
+    public RecordSchema(List<String> columns) {
+        this(columns, IntStream.range(0, columns.size()).toArray());
+    }
+
+    /**
+     * @param slots for each column the index of its value in the value array
+     */
+    public RecordSchema(List<String> columns, int[] slots) {
+        if (columns.size() != slots.length) {
+            throw new IllegalArgumentException("Need one slot per column but got " + slots.length + " for " + columns.size());
+        }
+        this.columns = columns.toArray(new String[0]);
+        this.slots = slots.clone();
+        this.slotsByName = new HashMap<>(this.columns.length * 2);
+        for (int i = 0; i < this.columns.length; i++) {
+            if (slotsByName.put(this.columns[i], slots[i]) != null) {
+                throw new IllegalArgumentException("Duplicate column " + this.columns[i]);
+            }
+        }
+        this.columnNames = Collections.unmodifiableSet(new LinkedHashSet<>(columns));
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public String columnAt(int position) {
+        return columns[position];
+    }
+
+    public int slotAt(int position) {
+        return slots[position];
+    }
+
+    /**
+     * The slot holding the value of the column, -1 if there is no such column.
+     */
+    public int slotOf(String column) {
+        Integer slot = slotsByName.get(column);
+        return slot == null ? -1 : slot;
+    }
+
+    public List<String> getColumns() {
+        return List.of(columns);
+    }
+
+    public Set<String> getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(columns);
+    }
+}
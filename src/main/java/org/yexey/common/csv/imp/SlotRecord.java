@@ -0,0 +1,178 @@
+package org.yexey.common.csv.imp;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Row backed by a value array laid out by a shared {@link RecordSchema}, as read from a CSV file with a header.
+ * Reads resolve the column through the schema; the first structural access or mutation through the map API
+ * materializes the row into a regular map, like {@link JoinedRecord} does.
+ */
+public class SlotRecord extends Record {
+
+    private RecordSchema schema;
+    private String[] values;
+    private boolean materialized;
+
+    public SlotRecord(RecordSchema schema, String[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * Converts the records of a parser with the given header map, all sharing one schema.
+     */
+    public static Function<CSVRecord, Record> fromCSV(Map<String, Integer> headerMap) {
+        List<String> columns = new ArrayList<>(headerMap.keySet());
+        int[] indexes = columns.stream().mapToInt(headerMap::get).toArray();
+        int required = Arrays.stream(indexes).max().orElse(-1) + 1;
+        RecordSchema schema = new RecordSchema(columns);
+        return csvRecord -> {
+            if (csvRecord.size() < required) {
+                // Reports the missing values the same way as before
+                return new Record(csvRecord);
+            }
+            String[] values = new String[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = csvRecord.get(indexes[i]);
+            }
+            return new SlotRecord(schema, values);
+        };
+    }
+
+    @Override
+    protected LinkedHashMap<String, String> data() {
+        LinkedHashMap<String, String> data = super.data();
+        if (!materialized) {
+            for (int i = 0; i < schema.size(); i++) {
+                data.put(schema.columnAt(i), values[schema.slotAt(i)]);
+            }
+            materialized = true;
+            schema = null;
+            values = null;
+        }
+        return data;
+    }
+
+    @Override
+    public String get(String columnName) {
+        if (materialized) {
+            return super.get(columnName);
+        }
+        int slot = schema.slotOf(columnName);
+        return slot < 0 ? null : values[slot];
+    }
+
+    @Override
+    public boolean containsColumn(String columnName) {
+        return materialized ? super.containsColumn(columnName) : schema.slotOf(columnName) >= 0;
+    }
+
+    /**
+     * A read-only view of the column names, which follows the record before and after it was materialized.
+     */
+    @Override
+    public Set<String> getColumnNames() {
+        return new ColumnNames();
+    }
+
+    /**
+     * A read-only view of the values, which follows the record before and after it was materialized.
+     */
+    @Override
+    public Collection<String> getValues() {
+        return new Values();
+    }
+
+    @Override
+    public long estimatedSize() {
+        if (materialized) {
+            return super.estimatedSize();
+        }
+        // The schema is shared, the empty map of the superclass is not
+        long size = OBJECT_SIZE + 16 + MAP_SIZE + referenceArraySize(values.length);
+        for (String value : values) {
+            size += stringSize(value);
+        }
+        return size;
+    }
+
+    /**
+     * The schema, null once the record was materialized into a map.
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * The value array, null once the record was materialized. Writes to it change the record.
+     */
+    public String[] getSlots() {
+        return values;
+    }
+
+    /**
+     * Replaces layout and values in place, e.g. after columns were renamed or added.
+     */
+    public void reshape(RecordSchema schema, String[] values) {
+        if (materialized) {
+            throw new IllegalStateException("Record was already materialized");
+        }
+        this.schema = schema;
+        this.values = values;
+    }
+
+    private final class ColumnNames extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return materialized ? Collections.unmodifiableSet(SlotRecord.super.getColumnNames()).iterator()
+                    : schema.getColumnNames().iterator();
+        }
+
+        @Override
+        public int size() {
+            return materialized ? SlotRecord.super.getColumnNames().size() : schema.size();
+        }
+
+        @Override
+        public boolean contains(Object column) {
+            return column instanceof String && containsColumn((String) column);
+        }
+    }
+
+    private final class Values extends AbstractCollection<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            if (materialized) {
+                return Collections.unmodifiableCollection(SlotRecord.super.getValues()).iterator();
+            }
+            RecordSchema layout = schema;
+            String[] slots = values;
+            return new Iterator<>() {
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < layout.size();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return slots[layout.slotAt(position++)];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return materialized ? SlotRecord.super.getValues().size() : schema.size();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Record;
+
+/**
+ * Mutable state of one aggregation for one group. An accumulator only sees the records of its group
+ * and is never shared between threads while it is updated.
+ */
+public interface Accumulator {
+
+    void accept(Record record);
+
+    /**
+     * Like {@link #accept(Record)} with the position of the record in the input. Accumulators whose result
+     * depends on the order of the records, like first and last, override this to combine partial results correctly.
+     */
+    default void accept(Record record, long position) {
+        accept(record);
+    }
+
+    /**
+     * Adds the state of other, an accumulator of the same aggregation. Partial results of a parallel
+     * aggregation are merged in no particular order.
+     */
+    void merge(Accumulator other);
+
+    /**
+     * The aggregated value as it appears in the result column.
+     */
+    String result();
+}
@@ -0,0 +1,536 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * One output column of {@code CSVStream.aggregate}: its name and a factory for the per group accumulators.
+ * Numeric aggregations skip empty values and keep integral sums as longs, so "1" and "2" sum up to "3" rather than "3.0".
+ */
+public final class Aggregation {
+
+    private final String outputColumn;
+    private final Supplier<? extends Accumulator> accumulatorFactory;
+    // Built-in aggregations read at most this column, null for count() and user defined ones
+    private final String inputColumn;
+    private final boolean columnar;
+
+    private Aggregation(String outputColumn, Supplier<? extends Accumulator> accumulatorFactory) {
+        this(outputColumn, accumulatorFactory, null, false);
+    }
+
+    private Aggregation(String outputColumn, String inputColumn, Supplier<? extends ColumnAccumulator> accumulatorFactory) {
+        this(outputColumn, accumulatorFactory, inputColumn, true);
+    }
+
+    private Aggregation(String outputColumn, Supplier<? extends Accumulator> accumulatorFactory, String inputColumn, boolean columnar) {
+        this.outputColumn = Objects.requireNonNull(outputColumn, "Output column must not be null");
+        this.accumulatorFactory = Objects.requireNonNull(accumulatorFactory, "Accumulator factory must not be null");
+        this.inputColumn = inputColumn;
+        this.columnar = columnar;
+    }
+
+    /**
+     * User defined aggregation.
+     */
+    public static Aggregation of(String outputColumn, Supplier<? extends Accumulator> accumulatorFactory) {
+        return new Aggregation(outputColumn, accumulatorFactory);
+    }
+
+    /**
+     * Number of records in the group, in column "count".
+     */
+    public static Aggregation count() {
+        return new Aggregation("count", null, () -> new CountAccumulator(null));
+    }
+
+    /**
+     * Number of non-empty values of column in the group.
+     */
+    public static Aggregation count(String column) {
+        return new Aggregation("count(" + column + ")", column, () -> new CountAccumulator(column));
+    }
+
+    public static Aggregation sum(String column) {
+        return new Aggregation("sum(" + column + ")", column, () -> new SumAccumulator(column));
+    }
+
+    public static Aggregation avg(String column) {
+        return new Aggregation("avg(" + column + ")", column, () -> new AvgAccumulator(column));
+    }
+
+    /**
+     * Numerically smallest value, reported as it was written in the input.
+     */
+    public static Aggregation min(String column) {
+        return new Aggregation("min(" + column + ")", column, () -> new ExtremeAccumulator(column, false));
+    }
+
+    public static Aggregation max(String column) {
+        return new Aggregation("max(" + column + ")", column, () -> new ExtremeAccumulator(column, true));
+    }
+
+    public static Aggregation first(String column) {
+        return new Aggregation("first(" + column + ")", column, () -> new FirstLastAccumulator(column, false));
+    }
+
+    public static Aggregation last(String column) {
+        return new Aggregation("last(" + column + ")", column, () -> new FirstLastAccumulator(column, true));
+    }
+
+    /**
+     * Approximate number of distinct non-empty values, see {@link HyperLogLog}.
+     */
+    public static Aggregation approxCountDistinct(String column) {
+        return approxCountDistinct(column, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Approximate distinct count with 2^precision registers. Precision 14 gives about 0.8% standard error at any cardinality.
+     */
+    public static Aggregation approxCountDistinct(String column, int precision) {
+        HyperLogLog.requireValidPrecision(precision);
+        return new Aggregation("approx_count_distinct(" + column + ")", column, () -> new HyperLogLogAccumulator(column, precision));
+    }
+
+    /**
+     * Approximate quantile (0.5 for the median, 0.99 for p99) of a numeric column, see {@link TDigest}.
+     */
+    public static Aggregation approxQuantile(String column, double quantile) {
+        return approxQuantile(column, quantile, TDigest.DEFAULT_COMPRESSION);
+    }
+
+    public static Aggregation approxQuantile(String column, double quantile, double compression) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1 but was " + quantile);
+        }
+        TDigest.requireValidCompression(compression);
+        return new Aggregation("approx_quantile(" + column + ", " + quantile + ")", column, () -> new TDigestAccumulator(column, quantile, compression));
+    }
+
+    /**
+     * The k most frequent values with their approximate counts as "value=count" separated by ";", see {@link CountMinSketch}.
+     */
+    public static Aggregation heavyHitters(String column, int k) {
+        return heavyHitters(column, k, CountMinSketch.DEFAULT_EPSILON, CountMinSketch.DEFAULT_DELTA);
+    }
+
+    public static Aggregation heavyHitters(String column, int k, double epsilon, double delta) {
+        CountMinSketch.requireValidArguments(k, epsilon, delta);
+        return new Aggregation("heavy_hitters(" + column + ")", column, () -> new CountMinAccumulator(column, k, epsilon, delta));
+    }
+
+    /**
+     * The same aggregation with another output column name.
+     */
+    public Aggregation as(String outputColumn) {
+        return new Aggregation(outputColumn, accumulatorFactory, inputColumn, columnar);
+    }
+
+    public String getOutputColumn() {
+        return outputColumn;
+    }
+
+    public Accumulator newAccumulator() {
+        return accumulatorFactory.get();
+    }
+
+    /**
+     * Whether the accumulators only read {@link #getInputColumn()} and take its values without a record.
+     */
+    boolean isColumnar() {
+        return columnar;
+    }
+
+    String getInputColumn() {
+        return inputColumn;
+    }
+
+    @Override
+    public String toString() {
+        return outputColumn;
+    }
+
+    /**
+     * The value of column, or null if it is empty. Throws if the record has no such column.
+     */
+    static String valueOf(Record record, String column) {
+        String value = record.get(column);
+        if (value == null && !record.containsColumn(column)) {
+            throw new ColumnNotFoundException("Column " + column + " not found");
+        }
+        return nonEmpty(value);
+    }
+
+    static String nonEmpty(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Parses plain integers without going through exceptions, returns false for anything else.
+     */
+    static boolean isLong(String value) {
+        int length = value.length();
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        if (length == start || length - start > 18) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static final class CountAccumulator implements ColumnAccumulator {
+        private final String column;
+        private long count;
+
+        CountAccumulator(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public void accept(Record record) {
+            if (column == null || valueOf(record, column) != null) {
+                count++;
+            }
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            if (column == null || nonEmpty(value) != null) {
+                count++;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            count += ((CountAccumulator) other).count;
+        }
+
+        @Override
+        public String result() {
+            return Long.toString(count);
+        }
+    }
+
+    static final class SumAccumulator implements ColumnAccumulator {
+        private final String column;
+        private long longSum;
+        private double doubleSum;
+        private boolean integral = true;
+        private boolean seen;
+
+        SumAccumulator(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value == null) {
+                return;
+            }
+            seen = true;
+            if (integral && isLong(value)) {
+                long parsed = Long.parseLong(value);
+                long sum = longSum + parsed;
+                // Switch to doubles on overflow instead of wrapping around
+                if (((longSum ^ sum) & (parsed ^ sum)) >= 0) {
+                    longSum = sum;
+                    return;
+                }
+            }
+            add(Double.parseDouble(value));
+        }
+
+        private void add(double value) {
+            if (integral) {
+                doubleSum = longSum;
+                integral = false;
+            }
+            doubleSum += value;
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            SumAccumulator that = (SumAccumulator) other;
+            seen |= that.seen;
+            if (integral && that.integral) {
+                long sum = longSum + that.longSum;
+                if (((longSum ^ sum) & (that.longSum ^ sum)) >= 0) {
+                    longSum = sum;
+                    return;
+                }
+            }
+            add(that.integral ? that.longSum : that.doubleSum);
+        }
+
+        @Override
+        public String result() {
+            if (!seen) {
+                return null;
+            }
+            return integral ? Long.toString(longSum) : Double.toString(doubleSum);
+        }
+    }
+
+    static final class AvgAccumulator implements ColumnAccumulator {
+        private final String column;
+        private double sum;
+        private long count;
+
+        AvgAccumulator(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value != null) {
+                sum += Double.parseDouble(value);
+                count++;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            AvgAccumulator that = (AvgAccumulator) other;
+            sum += that.sum;
+            count += that.count;
+        }
+
+        @Override
+        public String result() {
+            return count == 0 ? null : Double.toString(sum / count);
+        }
+    }
+
+    static final class ExtremeAccumulator implements ColumnAccumulator {
+        private final String column;
+        private final boolean max;
+        private double extreme;
+        private String extremeValue;
+
+        ExtremeAccumulator(String column, boolean max) {
+            this.column = column;
+            this.max = max;
+        }
+
+        boolean isMax() {
+            return max;
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value != null) {
+                offer(Double.parseDouble(value), value);
+            }
+        }
+
+        private void offer(double number, String value) {
+            if (extremeValue == null || (max ? number > extreme : number < extreme)) {
+                extreme = number;
+                extremeValue = value;
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            ExtremeAccumulator that = (ExtremeAccumulator) other;
+            if (that.extremeValue != null) {
+                offer(that.extreme, that.extremeValue);
+            }
+        }
+
+        @Override
+        public String result() {
+            return extremeValue;
+        }
+    }
+
+    static final class FirstLastAccumulator implements ColumnAccumulator {
+        private final String column;
+        private final boolean last;
+        private String value;
+        private long position = -1;
+
+        FirstLastAccumulator(String column, boolean last) {
+            this.column = column;
+            this.last = last;
+        }
+
+        @Override
+        public void accept(Record record) {
+            accept(record, position + 1);
+        }
+
+        @Override
+        public void accept(Record record, long recordPosition) {
+            if (takes(recordPosition)) {
+                String current = record.get(column);
+                if (current == null && !record.containsColumn(column)) {
+                    throw new ColumnNotFoundException("Column " + column + " not found");
+                }
+                acceptValue(current, recordPosition);
+            }
+        }
+
+        @Override
+        public void acceptValue(String current, long recordPosition) {
+            if (takes(recordPosition)) {
+                value = current;
+                position = recordPosition;
+            }
+        }
+
+        private boolean takes(long recordPosition) {
+            return position < 0 || (last ? recordPosition > position : recordPosition < position);
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            FirstLastAccumulator that = (FirstLastAccumulator) other;
+            if (that.position >= 0 && takes(that.position)) {
+                value = that.value;
+                position = that.position;
+            }
+        }
+
+        @Override
+        public String result() {
+            return value;
+        }
+    }
+
+    static final class HyperLogLogAccumulator implements ColumnAccumulator {
+        private final String column;
+        private final HyperLogLog sketch;
+
+        HyperLogLogAccumulator(String column, int precision) {
+            this.column = column;
+            this.sketch = new HyperLogLog(precision);
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value != null) {
+                sketch.add(value);
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            sketch.merge(((HyperLogLogAccumulator) other).sketch);
+        }
+
+        @Override
+        public String result() {
+            return Long.toString(sketch.estimate());
+        }
+    }
+
+    static final class TDigestAccumulator implements ColumnAccumulator {
+        private final String column;
+        private final double quantile;
+        private final TDigest digest;
+
+        TDigestAccumulator(String column, double quantile, double compression) {
+            this.column = column;
+            this.quantile = quantile;
+            this.digest = new TDigest(compression);
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value != null) {
+                digest.add(Double.parseDouble(value));
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            digest.merge(((TDigestAccumulator) other).digest);
+        }
+
+        @Override
+        public String result() {
+            return digest.size() == 0 ? null : Double.toString(digest.quantile(quantile));
+        }
+    }
+
+    static final class CountMinAccumulator implements ColumnAccumulator {
+        private final String column;
+        private final CountMinSketch sketch;
+
+        CountMinAccumulator(String column, int k, double epsilon, double delta) {
+            this.column = column;
+            this.sketch = new CountMinSketch(k, epsilon, delta);
+        }
+
+        @Override
+        public void accept(Record record) {
+            acceptValue(valueOf(record, column), 0);
+        }
+
+        @Override
+        public void acceptValue(String value, long position) {
+            value = nonEmpty(value);
+            if (value != null) {
+                sketch.add(value);
+            }
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            sketch.merge(((CountMinAccumulator) other).sketch);
+        }
+
+        @Override
+        public String result() {
+            StringBuilder result = new StringBuilder();
+            for (Map.Entry<String, Long> entry : sketch.topK()) {
+                if (result.length() > 0) {
+                    result.append(';');
+                }
+                result.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.CompositeKey;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class CSVStreamAggregate {
+
+    /**
+     * GROUP BY with aggregations:
+     * Keeps one accumulator per group and aggregation instead of the records, and emits one record per group
+     * with the group columns followed by the aggregation columns, in order of first appearance.
+     * Without group columns the whole stream is one group, which yields a row even for an empty stream.
+     * Nothing is read until the result is consumed.
+     */
+    public static Stream<Record> aggregate(Stream<Record> stream, String[] groupColumns, Aggregation... aggregations) {
+        KeyColumns keyColumns = requireArguments(groupColumns, aggregations);
+        return Stream.of(stream).flatMap(input -> {
+            GroupTable groups = new GroupTable();
+            long[] position = {0};
+            input.forEach(record -> {
+                Object key = keyColumns == null ? null : keyColumns.groupKeyOf(keyColumns.requirePresent(record, "the stream"));
+                Accumulator[] accumulators = groups.accumulatorsFor(key, GroupTable.hash(key), position[0], aggregations);
+                for (Accumulator accumulator : accumulators) {
+                    accumulator.accept(record, position[0]);
+                }
+                position[0]++;
+            });
+            if (keyColumns == null && groups.size() == 0) {
+                groups.accumulatorsFor(null, GroupTable.hash(null), 0, aggregations);
+            }
+            return IntStream.range(0, groups.size())
+                    .mapToObj(i -> toRecord(keyColumns, groups, i, aggregations));
+        });
+    }
+
+    /**
+     * GROUP BY over record batches, with the same result as {@link #aggregate(Stream, String[], Aggregation...)}.
+     * The groups of a whole batch are looked up first, then each aggregation takes the values of its column in one
+     * loop. User defined aggregations need records, with them the batches are aggregated row by row.
+     */
+    public static Stream<Record> aggregateBatches(Stream<RecordBatch> batches, String[] groupColumns, Aggregation... aggregations) {
+        KeyColumns keyColumns = requireArguments(groupColumns, aggregations);
+        if (!Arrays.stream(aggregations).allMatch(Aggregation::isColumnar)) {
+            return aggregate(batches.flatMap(RecordBatch::records), groupColumns, aggregations);
+        }
+        return Stream.of(batches).flatMap(input -> {
+            GroupTable groups = new GroupTable();
+            long[] position = {0};
+            input.forEach(batch -> {
+                accumulate(batch, groups, keyColumns, aggregations, position[0]);
+                position[0] += batch.size();
+            });
+            if (keyColumns == null && groups.size() == 0) {
+                groups.accumulatorsFor(null, GroupTable.hash(null), 0, aggregations);
+            }
+            return IntStream.range(0, groups.size())
+                    .mapToObj(i -> toRecord(keyColumns, groups, i, aggregations));
+        });
+    }
+
+    private static void accumulate(RecordBatch batch, GroupTable groups, KeyColumns keyColumns, Aggregation[] aggregations, long position) {
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        int[] selection = batch.selection();
+        int keyCount = keyColumns == null ? 0 : keyColumns.size();
+        String[][] keyVectors = new String[keyCount][];
+        for (int k = 0; k < keyCount; k++) {
+            keyVectors[k] = vectorOf(batch, keyColumns.get(k), "KeyColumn " + keyColumns.get(k) + " does not exists in the stream");
+        }
+        Accumulator[][] rows = new Accumulator[size][];
+        for (int i = 0; i < size; i++) {
+            Object key = groupKey(keyVectors, selection[i]);
+            rows[i] = groups.accumulatorsFor(key, GroupTable.hash(key), position + i, aggregations);
+        }
+        for (int a = 0; a < aggregations.length; a++) {
+            String column = aggregations[a].getInputColumn();
+            String[] values = column == null ? null : vectorOf(batch, column, "Column " + column + " not found");
+            for (int i = 0; i < size; i++) {
+                ((ColumnAccumulator) rows[i][a]).acceptValue(values == null ? null : values[selection[i]], position + i);
+            }
+        }
+    }
+
+    private static String[] vectorOf(RecordBatch batch, String column, String message) {
+        int index = batch.columnIndex(column);
+        if (index < 0) {
+            throw new ColumnNotFoundException(message);
+        }
+        return batch.vector(index);
+    }
+
+    // Same keys as KeyColumns.groupKeyOf
+    private static Object groupKey(String[][] keyVectors, int row) {
+        if (keyVectors.length == 0) {
+            return null;
+        }
+        if (keyVectors.length == 1) {
+            return keyVectors[0][row];
+        }
+        String[] values = new String[keyVectors.length];
+        for (int k = 0; k < keyVectors.length; k++) {
+            values[k] = keyVectors[k][row];
+        }
+        return new CompositeKey(values);
+    }
+
+    /**
+     * Checks the arguments of an aggregation, the key columns are null if there are no group columns.
+     */
+    public static KeyColumns requireArguments(String[] groupColumns, Aggregation[] aggregations) {
+        Objects.requireNonNull(groupColumns, "Group columns must not be null");
+        requireAggregations(groupColumns, aggregations);
+        return groupColumns.length == 0 ? null : KeyColumns.of(groupColumns);
+    }
+
+    static void requireAggregations(String[] groupColumns, Aggregation[] aggregations) {
+        Objects.requireNonNull(aggregations, "Aggregations must not be null");
+        if (aggregations.length == 0) {
+            throw new IllegalArgumentException("At least one aggregation is required");
+        }
+        Set<String> outputColumns = new HashSet<>(Arrays.asList(groupColumns));
+        for (Aggregation aggregation : aggregations) {
+            Objects.requireNonNull(aggregation, "Aggregation must not be null");
+            if (!outputColumns.add(aggregation.getOutputColumn())) {
+                throw new IllegalArgumentException("Output column " + aggregation.getOutputColumn() + " is used more than once");
+            }
+        }
+    }
+
+    static Accumulator[] newAccumulators(Aggregation[] aggregations) {
+        Accumulator[] accumulators = new Accumulator[aggregations.length];
+        for (int i = 0; i < aggregations.length; i++) {
+            accumulators[i] = aggregations[i].newAccumulator();
+        }
+        return accumulators;
+    }
+
+    static Record toRecord(KeyColumns keyColumns, GroupTable table, int entry, Aggregation[] aggregations) {
+        Object key = table.keyAt(entry);
+        Record record = new Record();
+        if (keyColumns != null) {
+            for (int i = 0; i < keyColumns.size(); i++) {
+                record.set(keyColumns.get(i), keyColumns.valueOf(key, i));
+            }
+        }
+        for (int i = 0; i < aggregations.length; i++) {
+            record.set(aggregations[i].getOutputColumn(), table.resultAt(entry, i));
+        }
+        return record;
+    }
+}
@@ -0,0 +1,278 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamParallelAggregate {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int QUEUED_BATCHES_PER_WORKER = 2;
+    private static final Batch END = new Batch(Collections.emptyList(), -1);
+
+    /**
+     * Parallel GROUP BY with aggregations, in two phases:
+     * The calling thread reads the stream in batches and hands them round robin to the workers. Every worker owns
+     * one {@link GroupTable} per partition, selected by key hash, so accumulating needs no synchronization at all.
+     * For count, sum, avg, min and max the tables keep their state in {@link PrimitiveAccumulators}, other
+     * aggregations get one accumulator per group.
+     * Once the input is exhausted, partition i of all workers is merged by one task per partition, in parallel.
+     * With ordered=true the groups are emitted in order of first appearance like {@link CSVStreamAggregate}, otherwise
+     * partition by partition. Accumulators must not share mutable state, each worker creates its own.
+     */
+    public static Stream<Record> aggregate(Stream<Record> stream, String[] groupColumns, int threads, boolean ordered,
+                                           Aggregation... aggregations) {
+        Objects.requireNonNull(groupColumns, "Group columns must not be null");
+        CSVStreamAggregate.requireAggregations(groupColumns, aggregations);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1 but was " + threads);
+        }
+        KeyColumns keyColumns = groupColumns.length == 0 ? null : KeyColumns.of(groupColumns);
+        // Aggregation starts on the first pull, not when the pipeline is assembled
+        return Stream.of(stream).flatMap(input -> {
+            List<Partition> partitions = run(input, keyColumns, threads, ordered, aggregations);
+            Iterator<Record> iterator = ordered
+                    ? new FirstAppearanceIterator(partitions, keyColumns, aggregations)
+                    : partitions.stream()
+                            .flatMap(partition -> IntStream.range(0, partition.table.size())
+                                    .mapToObj(i -> CSVStreamAggregate.toRecord(keyColumns, partition.table, i, aggregations)))
+                            .iterator();
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        });
+    }
+
+    private static List<Partition> run(Stream<Record> input, KeyColumns keyColumns, int threads, boolean ordered,
+                                       Aggregation[] aggregations) {
+        int partitionCount = keyColumns == null ? 1 : threads;
+        PrimitiveAccumulators primitives = PrimitiveAccumulators.of(aggregations, 0);
+        // Workers block on their queues, so they get threads of their own rather than those of a fork join pool
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            List<Worker> workers = new ArrayList<>(threads);
+            List<Future<GroupTable[]>> accumulated = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(keyColumns, partitionCount, aggregations, primitives, failure);
+                workers.add(worker);
+                accumulated.add(pool.submit(worker));
+            }
+
+            // Phase one: feed the workers, each batch goes to exactly one worker
+            Iterator<Record> source = input.iterator();
+            long position = 0;
+            int next = 0;
+            while (source.hasNext() && failure.get() == null) {
+                List<Record> records = new ArrayList<>(BATCH_SIZE);
+                while (records.size() < BATCH_SIZE && source.hasNext()) {
+                    records.add(source.next());
+                }
+                put(workers.get(next).queue, new Batch(records, position));
+                position += records.size();
+                next = (next + 1) % threads;
+            }
+            for (Worker worker : workers) {
+                put(worker.queue, END);
+            }
+            GroupTable[][] tables = new GroupTable[threads][];
+            for (int i = 0; i < threads; i++) {
+                tables[i] = await(accumulated.get(i));
+            }
+            if (failure.get() != null) {
+                throw rethrow(failure.get());
+            }
+
+            // Phase two: partitions are disjoint, so each one is merged independently
+            List<Future<Partition>> merges = new ArrayList<>(partitionCount);
+            for (int p = 0; p < partitionCount; p++) {
+                int partition = p;
+                merges.add(pool.submit(() -> {
+                    GroupTable merged = tables[0][partition];
+                    for (int w = 1; w < tables.length; w++) {
+                        merged.mergeFrom(tables[w][partition]);
+                        tables[w][partition] = null;
+                    }
+                    if (keyColumns == null && merged.size() == 0) {
+                        if (primitives != null) {
+                            merged.entryFor(null, GroupTable.hash(null), 0);
+                        } else {
+                            merged.accumulatorsFor(null, GroupTable.hash(null), 0, aggregations);
+                        }
+                    }
+                    return new Partition(merged, ordered);
+                }));
+            }
+            List<Partition> partitions = new ArrayList<>(partitionCount);
+            for (Future<Partition> merge : merges) {
+                partitions.add(await(merge));
+            }
+            return partitions;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void put(BlockingQueue<Batch> queue, Batch batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while feeding the aggregation", e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for aggregation results", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    // Runtime exceptions and errors of the workers reach the caller unchanged
+    private static RuntimeException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IllegalStateException("Parallel aggregation failed", failure);
+    }
+
+    private static final class Batch {
+        private final List<Record> records;
+        private final long firstPosition;
+
+        private Batch(List<Record> records, long firstPosition) {
+            this.records = records;
+            this.firstPosition = firstPosition;
+        }
+    }
+
+    private static final class Worker implements Callable<GroupTable[]> {
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_WORKER);
+        private final KeyColumns keyColumns;
+        private final Aggregation[] aggregations;
+        private final AtomicReference<Throwable> failure;
+        private final GroupTable[] tables;
+
+        private Worker(KeyColumns keyColumns, int partitions, Aggregation[] aggregations, PrimitiveAccumulators primitives,
+                       AtomicReference<Throwable> failure) {
+            this.keyColumns = keyColumns;
+            this.aggregations = aggregations;
+            this.failure = failure;
+            this.tables = new GroupTable[partitions];
+            for (int i = 0; i < partitions; i++) {
+                tables[i] = new GroupTable(primitives);
+            }
+        }
+
+        @Override
+        public GroupTable[] call() throws InterruptedException {
+            Batch batch;
+            while ((batch = queue.take()) != END) {
+                // After a failure batches are still drained, so the feeding thread never blocks on a full queue.
+                // Errors are caught as well, a worker which stopped taking batches would leave the feeder waiting.
+                if (failure.get() != null) {
+                    continue;
+                }
+                try {
+                    accumulate(batch);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            return tables;
+        }
+
+        private void accumulate(Batch batch) {
+            long position = batch.firstPosition;
+            for (Record record : batch.records) {
+                Object key = keyColumns == null ? null : keyColumns.groupKeyOf(keyColumns.requirePresent(record, "the stream"));
+                int hash = GroupTable.hash(key);
+                GroupTable table = tables[GroupTable.partitionOf(hash, tables.length)];
+                if (table.primitives() != null) {
+                    table.primitives().accept(table.entryFor(key, hash, position), record);
+                } else {
+                    for (Accumulator accumulator : table.accumulatorsFor(key, hash, position, aggregations)) {
+                        accumulator.accept(record, position);
+                    }
+                }
+                position++;
+            }
+        }
+    }
+
+    private static final class Partition {
+        private final GroupTable table;
+        // Entries sorted by first appearance, only computed for ordered output
+        private final int[] order;
+
+        private Partition(GroupTable table, boolean ordered) {
+            this.table = table;
+            this.order = ordered
+                    ? IntStream.range(0, table.size()).boxed()
+                            .sorted(Comparator.comparingLong(table::firstPositionAt))
+                            .mapToInt(Integer::intValue)
+                            .toArray()
+                    : null;
+        }
+    }
+
+    /**
+     * Merges the partitions, each sorted by first appearance, back into one sequence.
+     */
+    private static final class FirstAppearanceIterator implements Iterator<Record> {
+        private final List<Partition> partitions;
+        private final KeyColumns keyColumns;
+        private final Aggregation[] aggregations;
+        private final int[] cursors;
+        private final PriorityQueue<Integer> heads;
+
+        private FirstAppearanceIterator(List<Partition> partitions, KeyColumns keyColumns, Aggregation[] aggregations) {
+            this.partitions = partitions;
+            this.keyColumns = keyColumns;
+            this.aggregations = aggregations;
+            this.cursors = new int[partitions.size()];
+            this.heads = new PriorityQueue<>(Math.max(1, partitions.size()), Comparator.comparingLong(this::headPosition));
+            for (int p = 0; p < partitions.size(); p++) {
+                if (partitions.get(p).order.length > 0) {
+                    heads.add(p);
+                }
+            }
+        }
+
+        private long headPosition(int partition) {
+            Partition p = partitions.get(partition);
+            return p.table.firstPositionAt(p.order[cursors[partition]]);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Record next() {
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            int partition = heads.poll();
+            Partition p = partitions.get(partition);
+            int entry = p.order[cursors[partition]++];
+            if (cursors[partition] < p.order.length) {
+                heads.add(partition);
+            }
+            return CSVStreamAggregate.toRecord(keyColumns, p.table, entry, aggregations);
+        }
+    }
+}
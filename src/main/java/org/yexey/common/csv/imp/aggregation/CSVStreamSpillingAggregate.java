@@ -0,0 +1,194 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Hashing;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.spill.RecordSpillFile;
+import org.yexey.common.csv.imp.spill.SpillReport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamSpillingAggregate {
+
+    public static final int DEFAULT_MAX_GROUPS_IN_MEMORY = 1_000_000;
+    private static final int PARTITIONS = 16;
+    // Beyond this depth a partition is aggregated in memory regardless of the budget, its keys no longer split up
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * GROUP BY with aggregations and bounded memory (hybrid hash aggregation):
+     * Groups are accumulated in memory until maxGroupsInMemory groups exist. From then on records of known groups
+     * are still accumulated in memory while records of new groups are hash-partitioned into temporary files.
+     * Every partition file is aggregated the same way afterwards, with a fresh hash, one partition at a time.
+     * The result rows equal those of {@link CSVStreamAggregate}, but groups that were spilled come after the
+     * groups kept in memory. How much was spilled is added to report, which may be null.
+     */
+    public static Stream<Record> aggregate(Stream<Record> stream, String[] groupColumns, int maxGroupsInMemory,
+                                           SpillReport report, Aggregation... aggregations) {
+        Objects.requireNonNull(groupColumns, "Group columns must not be null");
+        CSVStreamAggregate.requireAggregations(groupColumns, aggregations);
+        if (maxGroupsInMemory < 1) {
+            throw new IllegalArgumentException("At least one group must fit in memory but got " + maxGroupsInMemory);
+        }
+        if (groupColumns.length == 0) {
+            // A single group always fits
+            return CSVStreamAggregate.aggregate(stream, groupColumns, aggregations);
+        }
+        KeyColumns keyColumns = KeyColumns.of(groupColumns);
+        SpillingIterator iterator = new SpillingIterator(stream, keyColumns, maxGroupsInMemory,
+                report == null ? new SpillReport() : report, aggregations);
+        // Nothing is read before the first group is requested
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), Spliterator.ORDERED, false)
+                .onClose(iterator::close);
+    }
+
+    private static class SpillingIterator implements Iterator<Record> {
+        private final KeyColumns keyColumns;
+        private final int maxGroupsInMemory;
+        private final SpillReport report;
+        private final Aggregation[] aggregations;
+        // Partitions still to aggregate, deepest first so that at most one chain of levels is on disk
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private Stream<Record> input;
+        private GroupTable table;
+        private int entry;
+
+        private SpillingIterator(Stream<Record> input, KeyColumns keyColumns, int maxGroupsInMemory,
+                                 SpillReport report, Aggregation[] aggregations) {
+            this.input = input;
+            this.keyColumns = keyColumns;
+            this.maxGroupsInMemory = maxGroupsInMemory;
+            this.report = report;
+            this.aggregations = aggregations;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (input != null) {
+                Stream<Record> source = input;
+                input = null;
+                table = aggregate(source.iterator(), 0);
+            }
+            while (table == null || entry == table.size()) {
+                table = null;
+                Pending next = pending.pollFirst();
+                if (next == null) {
+                    return false;
+                }
+                try (RecordSpillFile file = next.file; RecordSpillFile.Reader reader = file.reader()) {
+                    table = aggregate(reader, next.depth);
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException("Could not read spilled partition", e);
+                }
+                entry = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int current = entry++;
+            return CSVStreamAggregate.toRecord(keyColumns, table, current, aggregations);
+        }
+
+        private GroupTable aggregate(Iterator<Record> source, int depth) {
+            GroupTable groups = new GroupTable();
+            RecordSpillFile[] partitions = null;
+            long position = 0;
+            try {
+                while (source.hasNext()) {
+                    Record record = source.next();
+                    Object key = keyColumns.groupKeyOf(keyColumns.requirePresent(record, "the stream"));
+                    int hash = GroupTable.hash(key);
+                    Accumulator[] accumulators;
+                    if (groups.size() < maxGroupsInMemory || depth >= MAX_DEPTH) {
+                        accumulators = groups.accumulatorsFor(key, hash, position, aggregations);
+                    } else {
+                        accumulators = groups.find(key, hash);
+                        if (accumulators == null) {
+                            if (partitions == null) {
+                                partitions = new RecordSpillFile[PARTITIONS];
+                            }
+                            int partition = partitionOf(hash, depth);
+                            if (partitions[partition] == null) {
+                                partitions[partition] = new RecordSpillFile();
+                            }
+                            partitions[partition].write(record);
+                            continue;
+                        }
+                    }
+                    // Positions only order the records within a group, the spill files keep that order
+                    for (Accumulator accumulator : accumulators) {
+                        accumulator.accept(record, position);
+                    }
+                    position++;
+                }
+                if (partitions != null) {
+                    for (int i = partitions.length - 1; i >= 0; i--) {
+                        if (partitions[i] != null) {
+                            report.recordSpill(partitions[i].finish(), depth + 1);
+                            pending.addFirst(new Pending(partitions[i], depth + 1));
+                            partitions[i] = null;
+                        }
+                    }
+                }
+                return groups;
+            } catch (IOException e) {
+                closeAll(partitions);
+                close();
+                throw new UncheckedIOException("Could not spill partition", e);
+            } catch (RuntimeException e) {
+                closeAll(partitions);
+                close();
+                throw e;
+            }
+        }
+
+        // A different split on every level, otherwise a spilled partition would land in one file again
+        private static int partitionOf(int hash, int depth) {
+            long mixed = Hashing.fmix(hash ^ (depth + 1) * 0x9E3779B97F4A7C15L);
+            return (int) ((mixed >>> 32) & (PARTITIONS - 1));
+        }
+
+        private void close() {
+            Pending next;
+            while ((next = pending.pollFirst()) != null) {
+                closeAll(new RecordSpillFile[]{next.file});
+            }
+            table = null;
+        }
+
+        private static void closeAll(RecordSpillFile[] files) {
+            if (files == null) {
+                return;
+            }
+            for (RecordSpillFile file : files) {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException ignored) {
+                        // Temp files are best effort
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final RecordSpillFile file;
+        private final int depth;
+
+        private Pending(RecordSpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+}
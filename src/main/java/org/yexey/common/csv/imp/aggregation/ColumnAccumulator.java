@@ -0,0 +1,15 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Record;
+
+/**
+ * Accumulator of a built-in aggregation, which reads at most one column and can therefore be fed the values of
+ * that column directly, as batch execution does.
+ */
+interface ColumnAccumulator extends Accumulator {
+
+    /**
+     * Like {@link #accept(Record, long)} for a record whose column has the given value, as returned by Record.get.
+     */
+    void acceptValue(String value, long position);
+}
@@ -0,0 +1,127 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Hashing;
+
+import java.util.*;
+
+/**
+ * Count-Min sketch for approximate frequencies, tracking the top k values as heavy hitters.
+ * Estimates never undercount and overcount by at most epsilon times the total count with probability
+ * 1 - delta. Sketches with the same dimensions can be merged.
+ */
+public class CountMinSketch {
+
+    public static final double DEFAULT_EPSILON = 0.001;
+    public static final double DEFAULT_DELTA = 0.01;
+
+    private final int width;
+    private final int depth;
+    private final long[] counts;
+    private final int topK;
+    private final Map<String, Long> candidates = new HashMap<>();
+    private long totalCount;
+
+    public CountMinSketch(int topK) {
+        this(topK, DEFAULT_EPSILON, DEFAULT_DELTA);
+    }
+
+    public CountMinSketch(int topK, double epsilon, double delta) {
+        requireValidArguments(topK, epsilon, delta);
+        this.topK = topK;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.counts = new long[width * depth];
+    }
+
+    public static void requireValidArguments(int topK, double epsilon, double delta) {
+        if (topK < 1) {
+            throw new IllegalArgumentException("Top k must be at least 1 but was " + topK);
+        }
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("Epsilon and delta must be between 0 and 1 but were " + epsilon + " and " + delta);
+        }
+    }
+
+    public void add(String value) {
+        long estimate = increment(Hashing.hash64(value), 1);
+        offer(value, estimate);
+    }
+
+    // Adds count to every row and returns the new estimate
+    private long increment(long hash1, long count) {
+        long hash2 = Hashing.fmix(hash1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * width + column(hash1, hash2, row);
+            counts[cell] += count;
+            estimate = Math.min(estimate, counts[cell]);
+        }
+        totalCount += count;
+        return estimate;
+    }
+
+    public long estimate(String value) {
+        long hash1 = Hashing.hash64(value);
+        long hash2 = Hashing.fmix(hash1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row * width + column(hash1, hash2, row)]);
+        }
+        return estimate;
+    }
+
+    private int column(long hash1, long hash2, int row) {
+        return (int) (((hash1 + (row + 1) * hash2) & Long.MAX_VALUE) % width);
+    }
+
+    private void offer(String value, long estimate) {
+        if (candidates.containsKey(value) || candidates.size() < topK) {
+            candidates.put(value, estimate);
+            return;
+        }
+        Map.Entry<String, Long> smallest = smallestCandidate();
+        if (estimate > smallest.getValue()) {
+            candidates.remove(smallest.getKey());
+            candidates.put(value, estimate);
+        }
+    }
+
+    private Map.Entry<String, Long> smallestCandidate() {
+        Map.Entry<String, Long> smallest = null;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            if (smallest == null || candidate.getValue() < smallest.getValue()) {
+                smallest = candidate;
+            }
+        }
+        return smallest;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        Set<String> values = new HashSet<>(candidates.keySet());
+        values.addAll(other.candidates.keySet());
+        candidates.clear();
+        for (String value : values) {
+            offer(value, estimate(value));
+        }
+    }
+
+    /**
+     * The heavy hitters with their estimated counts, most frequent first.
+     */
+    public List<Map.Entry<String, Long>> topK() {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(candidates.entrySet());
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return top;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+}
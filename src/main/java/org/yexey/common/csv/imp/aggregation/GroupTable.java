@@ -0,0 +1,200 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from group key to the accumulators of the group. Groups are stored densely
+ * in order of insertion together with the position of their first record, probing only touches int arrays.
+ * Null is a valid key. Not thread-safe, each table is owned by a single thread at a time.
+ * A table created with {@link PrimitiveAccumulators} keeps the state of all groups in it instead of accumulator
+ * objects; its groups are added with {@link #entryFor} and read with {@link #resultAt}.
+ */
+final class GroupTable {
+
+    private static final Object NULL_KEY = new Object();
+
+    private int[] slots;
+    private int[] hashes;
+    private Object[] keys;
+    private Accumulator[][] accumulators;
+    private long[] firstPositions;
+    private final PrimitiveAccumulators primitives;
+    private int size;
+
+    GroupTable() {
+        this(null);
+    }
+
+    /**
+     * A table keeping its state in a new instance of the given primitive accumulators, if not null.
+     */
+    GroupTable(PrimitiveAccumulators primitives) {
+        slots = new int[16];
+        hashes = new int[8];
+        keys = new Object[8];
+        accumulators = new Accumulator[8][];
+        firstPositions = new long[8];
+        this.primitives = primitives == null ? null : primitives.newState(8);
+    }
+
+    static int hash(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+    /**
+     * Partition of a hash, taken from the high bits so that it is independent of the slot chosen within a table.
+     */
+    static int partitionOf(int hash, int partitions) {
+        return (int) (((hash & 0xFFFFFFFFL) * partitions) >>> 32);
+    }
+
+    /**
+     * The accumulators of the group, created for a new group which is recorded as first seen at position.
+     */
+    Accumulator[] accumulatorsFor(Object key, int hash, long position, Aggregation[] aggregations) {
+        Object storedKey = key == null ? NULL_KEY : key;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                break;
+            }
+            if (hashes[entry] == hash && keys[entry].equals(storedKey)) {
+                return accumulators[entry];
+            }
+            slot = (slot + 1) & mask;
+        }
+        Accumulator[] created = CSVStreamAggregate.newAccumulators(aggregations);
+        insert(slot, storedKey, hash, created, position);
+        return created;
+    }
+
+    /**
+     * The entry of the group in a table with primitive accumulators, created for a new group first seen at position.
+     */
+    int entryFor(Object key, int hash, long position) {
+        Object storedKey = key == null ? NULL_KEY : key;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot] - 1) >= 0) {
+            if (hashes[entry] == hash && keys[entry].equals(storedKey)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, storedKey, hash, null, position);
+        return size - 1;
+    }
+
+    PrimitiveAccumulators primitives() {
+        return primitives;
+    }
+
+    /**
+     * The accumulators of an existing group, or null.
+     */
+    Accumulator[] find(Object key, int hash) {
+        Object storedKey = key == null ? NULL_KEY : key;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot] - 1) >= 0) {
+            if (hashes[entry] == hash && keys[entry].equals(storedKey)) {
+                return accumulators[entry];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the groups of other to this table, merging the accumulators of groups present in both.
+     */
+    void mergeFrom(GroupTable other) {
+        for (int i = 0; i < other.size; i++) {
+            int hash = other.hashes[i];
+            Object key = other.keys[i];
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            int entry;
+            while ((entry = slots[slot] - 1) >= 0 && !(hashes[entry] == hash && keys[entry].equals(key))) {
+                slot = (slot + 1) & mask;
+            }
+            if (entry < 0) {
+                insert(slot, key, hash, other.accumulators[i], other.firstPositions[i]);
+                if (primitives != null) {
+                    primitives.merge(size - 1, other.primitives, i);
+                }
+                continue;
+            }
+            firstPositions[entry] = Math.min(firstPositions[entry], other.firstPositions[i]);
+            if (primitives != null) {
+                primitives.merge(entry, other.primitives, i);
+                continue;
+            }
+            Accumulator[] target = accumulators[entry];
+            Accumulator[] source = other.accumulators[i];
+            for (int j = 0; j < target.length; j++) {
+                target[j].merge(source[j]);
+            }
+        }
+    }
+
+    private void insert(int slot, Object key, int hash, Accumulator[] groupAccumulators, long position) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            accumulators = Arrays.copyOf(accumulators, capacity);
+            firstPositions = Arrays.copyOf(firstPositions, capacity);
+            if (primitives != null) {
+                primitives.grow(capacity);
+            }
+        }
+        hashes[size] = hash;
+        keys[size] = key;
+        accumulators[size] = groupAccumulators;
+        firstPositions[size] = position;
+        slots[slot] = ++size;
+        // Keep the load factor at or below one half
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = entry + 1;
+        }
+        slots = rehashed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object keyAt(int entry) {
+        return keys[entry] == NULL_KEY ? null : keys[entry];
+    }
+
+    /**
+     * The result of the aggregation with the given index for a group, from its accumulator or the primitive state.
+     */
+    String resultAt(int entry, int aggregation) {
+        return primitives == null ? accumulators[entry][aggregation].result() : primitives.result(entry, aggregation);
+    }
+
+    long firstPositionAt(int entry) {
+        return firstPositions[entry];
+    }
+}
@@ -0,0 +1,187 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Hashing;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct count sketch over 64 bit hashes, with the sparse start of HyperLogLog++:
+ * small sketches keep a list of register updates and only switch to the dense registers once that
+ * list would take more memory. The estimate uses Ertl's improved raw estimator, which stays unbiased across
+ * the whole range, including the transition from few to many filled registers that plain HyperLogLog covers
+ * with linear counting and HyperLogLog++ with empirical bias tables. The relative standard error is about
+ * 1.04 / sqrt(2^precision). Sketches of the same precision can be merged.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final int registerCount;
+    private byte[] registers;
+    // Sparse updates encoded as index << 8 | rank, duplicates are removed on compaction
+    private int[] sparse = new int[8];
+    private int sparseSize;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        this.precision = requireValidPrecision(precision);
+        this.registerCount = 1 << precision;
+    }
+
+    public static int requireValidPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + " but was " + precision);
+        }
+        return precision;
+    }
+
+    public void add(String value) {
+        addHash(Hashing.hash64(value));
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // Rank of the first one bit in the remaining bits, a sentinel bit bounds it
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        update(index, rank);
+    }
+
+    private void update(int index, int rank) {
+        if (registers != null) {
+            if (registers[index] < rank) {
+                registers[index] = (byte) rank;
+            }
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            compactSparse();
+            if (sparseSize * 2 > sparse.length) {
+                if (sparse.length * Integer.BYTES >= registerCount) {
+                    toDense();
+                    update(index, rank);
+                    return;
+                }
+                sparse = Arrays.copyOf(sparse, sparse.length * 2);
+            }
+        }
+        sparse[sparseSize++] = index << 8 | rank;
+    }
+
+    // Sorts the updates and keeps the highest rank per register
+    private void compactSparse() {
+        Arrays.sort(sparse, 0, sparseSize);
+        int kept = 0;
+        for (int i = 0; i < sparseSize; i++) {
+            if (kept > 0 && (sparse[kept - 1] >>> 8) == (sparse[i] >>> 8)) {
+                sparse[kept - 1] = sparse[i];
+            } else {
+                sparse[kept++] = sparse[i];
+            }
+        }
+        sparseSize = kept;
+    }
+
+    private void toDense() {
+        registers = denseRegisters();
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private byte[] denseRegisters() {
+        if (registers != null) {
+            return registers;
+        }
+        byte[] dense = new byte[registerCount];
+        for (int i = 0; i < sparseSize; i++) {
+            int index = sparse[i] >>> 8;
+            int rank = sparse[i] & 0xFF;
+            if (dense[index] < rank) {
+                dense[index] = (byte) rank;
+            }
+        }
+        return dense;
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + precision + " and " + other.precision);
+        }
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                update(other.sparse[i] >>> 8, other.sparse[i] & 0xFF);
+            }
+            return;
+        }
+        if (registers == null) {
+            toDense();
+        }
+        for (int i = 0; i < registerCount; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * See Otmar Ertl, "New cardinality estimation algorithms for HyperLogLog sketches", 2017.
+     */
+    public long estimate() {
+        byte[] dense = denseRegisters();
+        // Registers hold ranks from 0 to q + 1, where q are the hash bits left after the index
+        int q = 64 - precision;
+        int[] histogram = new int[q + 2];
+        for (byte register : dense) {
+            histogram[register]++;
+        }
+        if (histogram[0] == registerCount) {
+            return 0;
+        }
+        double z = registerCount * tau(1 - (double) histogram[q + 1] / registerCount);
+        for (int rank = q; rank >= 1; rank--) {
+            z = 0.5 * (z + histogram[rank]);
+        }
+        z += registerCount * sigma((double) histogram[0] / registerCount);
+        return Math.round(registerCount * (registerCount / (2 * Math.log(2) * z)));
+    }
+
+    // Accounts for empty registers, sum of x^(2^k) * 2^(k-1) for k >= 1 plus x
+    private static double sigma(double x) {
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    // Accounts for registers at the maximum rank
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+}
@@ -0,0 +1,237 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import org.yexey.common.csv.imp.Record;
+
+import java.util.Arrays;
+
+/**
+ * State of the built-in count, sum, avg, min and max aggregations for all groups of one {@link GroupTable}, kept in
+ * primitive arrays with one row per group instead of one accumulator object per group and aggregation. Results are
+ * the same as those of the accumulators in {@link Aggregation}. Not thread-safe, like the table which owns it.
+ */
+final class PrimitiveAccumulators {
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int AVG = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+
+    // Sum flags
+    private static final long SEEN = 1;
+    private static final long FRACTIONAL = 2;
+
+    private final int[] kinds;
+    private final String[] columns;
+    // Offset of each aggregation within the row of a group in longs, doubles and values
+    private final int[] longOffsets;
+    private final int[] doubleOffsets;
+    private final int[] valueOffsets;
+    private final int longWidth;
+    private final int doubleWidth;
+    private final int valueWidth;
+    private long[] longs;
+    private double[] doubles;
+    // Min and max report the value as it was written, so it is kept next to the number
+    private String[] values;
+
+    private PrimitiveAccumulators(int[] kinds, String[] columns, int capacity) {
+        this.kinds = kinds;
+        this.columns = columns;
+        this.longOffsets = new int[kinds.length];
+        this.doubleOffsets = new int[kinds.length];
+        this.valueOffsets = new int[kinds.length];
+        int longWidth = 0;
+        int doubleWidth = 0;
+        int valueWidth = 0;
+        for (int a = 0; a < kinds.length; a++) {
+            longOffsets[a] = longWidth;
+            doubleOffsets[a] = doubleWidth;
+            valueOffsets[a] = valueWidth;
+            switch (kinds[a]) {
+                case COUNT:
+                    longWidth++;
+                    break;
+                case SUM:
+                    // Integral sum and flags, fractional sum
+                    longWidth += 2;
+                    doubleWidth++;
+                    break;
+                case AVG:
+                    longWidth++;
+                    doubleWidth++;
+                    break;
+                default:
+                    doubleWidth++;
+                    valueWidth++;
+            }
+        }
+        this.longWidth = longWidth;
+        this.doubleWidth = doubleWidth;
+        this.valueWidth = valueWidth;
+        this.longs = new long[capacity * longWidth];
+        this.doubles = new double[capacity * doubleWidth];
+        this.values = new String[capacity * valueWidth];
+    }
+
+    /**
+     * State for the given aggregations and initial number of groups, or null if one of them needs an accumulator object.
+     */
+    static PrimitiveAccumulators of(Aggregation[] aggregations, int capacity) {
+        int[] kinds = new int[aggregations.length];
+        String[] columns = new String[aggregations.length];
+        for (int a = 0; a < aggregations.length; a++) {
+            Accumulator probe = aggregations[a].newAccumulator();
+            if (probe instanceof Aggregation.CountAccumulator) {
+                kinds[a] = COUNT;
+            } else if (probe instanceof Aggregation.SumAccumulator) {
+                kinds[a] = SUM;
+            } else if (probe instanceof Aggregation.AvgAccumulator) {
+                kinds[a] = AVG;
+            } else if (probe instanceof Aggregation.ExtremeAccumulator) {
+                kinds[a] = ((Aggregation.ExtremeAccumulator) probe).isMax() ? MAX : MIN;
+            } else {
+                return null;
+            }
+            columns[a] = aggregations[a].getInputColumn();
+        }
+        return new PrimitiveAccumulators(kinds, columns, capacity);
+    }
+
+    /**
+     * A new, empty state with the same aggregations.
+     */
+    PrimitiveAccumulators newState(int capacity) {
+        return new PrimitiveAccumulators(kinds, columns, capacity);
+    }
+
+    void grow(int capacity) {
+        longs = Arrays.copyOf(longs, capacity * longWidth);
+        doubles = Arrays.copyOf(doubles, capacity * doubleWidth);
+        values = Arrays.copyOf(values, capacity * valueWidth);
+    }
+
+    void accept(int group, Record record) {
+        for (int a = 0; a < kinds.length; a++) {
+            if (columns[a] == null) {
+                longs[group * longWidth + longOffsets[a]]++;
+                continue;
+            }
+            String value = Aggregation.valueOf(record, columns[a]);
+            if (value == null) {
+                continue;
+            }
+            int l = group * longWidth + longOffsets[a];
+            int d = group * doubleWidth + doubleOffsets[a];
+            switch (kinds[a]) {
+                case COUNT:
+                    longs[l]++;
+                    break;
+                case SUM:
+                    addToSum(l, d, value);
+                    break;
+                case AVG:
+                    longs[l]++;
+                    doubles[d] += Double.parseDouble(value);
+                    break;
+                default:
+                    offer(a, group, Double.parseDouble(value), value);
+            }
+        }
+    }
+
+    /**
+     * Adds the state of a group of other, which has the same aggregations, to a group of this state.
+     */
+    void merge(int group, PrimitiveAccumulators other, int otherGroup) {
+        for (int a = 0; a < kinds.length; a++) {
+            int l = group * longWidth + longOffsets[a];
+            int d = group * doubleWidth + doubleOffsets[a];
+            int otherL = otherGroup * longWidth + longOffsets[a];
+            int otherD = otherGroup * doubleWidth + doubleOffsets[a];
+            switch (kinds[a]) {
+                case COUNT:
+                    longs[l] += other.longs[otherL];
+                    break;
+                case SUM:
+                    mergeSum(l, d, other.longs[otherL], other.longs[otherL + 1], other.doubles[otherD]);
+                    break;
+                case AVG:
+                    longs[l] += other.longs[otherL];
+                    doubles[d] += other.doubles[otherD];
+                    break;
+                default:
+                    String value = other.values[otherGroup * valueWidth + valueOffsets[a]];
+                    if (value != null) {
+                        offer(a, group, other.doubles[otherD], value);
+                    }
+            }
+        }
+    }
+
+    String result(int group, int aggregation) {
+        int l = group * longWidth + longOffsets[aggregation];
+        int d = group * doubleWidth + doubleOffsets[aggregation];
+        switch (kinds[aggregation]) {
+            case COUNT:
+                return Long.toString(longs[l]);
+            case SUM:
+                long flags = longs[l + 1];
+                if ((flags & SEEN) == 0) {
+                    return null;
+                }
+                return (flags & FRACTIONAL) == 0 ? Long.toString(longs[l]) : Double.toString(doubles[d]);
+            case AVG:
+                return longs[l] == 0 ? null : Double.toString(doubles[d] / longs[l]);
+            default:
+                return values[group * valueWidth + valueOffsets[aggregation]];
+        }
+    }
+
+    // Same arithmetic as Aggregation.SumAccumulator: integral sums stay longs until a fraction or an overflow
+    private void addToSum(int l, int d, String value) {
+        longs[l + 1] |= SEEN;
+        if ((longs[l + 1] & FRACTIONAL) == 0 && Aggregation.isLong(value)) {
+            long parsed = Long.parseLong(value);
+            long sum = longs[l] + parsed;
+            if (((longs[l] ^ sum) & (parsed ^ sum)) >= 0) {
+                longs[l] = sum;
+                return;
+            }
+        }
+        addFraction(l, d, Double.parseDouble(value));
+    }
+
+    private void mergeSum(int l, int d, long otherSum, long otherFlags, double otherFraction) {
+        if ((otherFlags & SEEN) == 0) {
+            return;
+        }
+        longs[l + 1] |= SEEN;
+        boolean otherIntegral = (otherFlags & FRACTIONAL) == 0;
+        if ((longs[l + 1] & FRACTIONAL) == 0 && otherIntegral) {
+            long sum = longs[l] + otherSum;
+            if (((longs[l] ^ sum) & (otherSum ^ sum)) >= 0) {
+                longs[l] = sum;
+                return;
+            }
+        }
+        addFraction(l, d, otherIntegral ? otherSum : otherFraction);
+    }
+
+    private void addFraction(int l, int d, double value) {
+        if ((longs[l + 1] & FRACTIONAL) == 0) {
+            doubles[d] = longs[l];
+            longs[l + 1] |= FRACTIONAL;
+        }
+        doubles[d] += value;
+    }
+
+    private void offer(int aggregation, int group, double number, String value) {
+        int d = group * doubleWidth + doubleOffsets[aggregation];
+        int v = group * valueWidth + valueOffsets[aggregation];
+        if (values[v] == null || (kinds[aggregation] == MAX ? number > doubles[d] : number < doubles[d])) {
+            doubles[d] = number;
+            values[v] = value;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.yexey.common.csv.imp.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for approximate quantiles. Values are buffered and periodically merged into at most
+ * about compression centroids, which are kept small near the tails so extreme quantiles like p99 stay accurate.
+ * Larger compressions trade memory for accuracy. Digests can be merged.
+ */
+public class TDigest {
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int centroidCount;
+    // The buffer grows up to bufferLimit, so digests of small groups stay small
+    private final int bufferLimit;
+    private double[] bufferMeans = new double[16];
+    private double[] bufferWeights = new double[16];
+    private int bufferSize;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+        this.compression = requireValidCompression(compression);
+        this.means = new double[16];
+        this.weights = new double[16];
+        this.bufferLimit = ((int) Math.ceil(compression) * 2 + 10) * 5;
+    }
+
+    public static double requireValidCompression(double compression) {
+        if (!(compression >= 10)) {
+            throw new IllegalArgumentException("Compression must be at least 10 but was " + compression);
+        }
+        return compression;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double mean, double weight) {
+        if (Double.isNaN(mean)) {
+            throw new IllegalArgumentException("Cannot add NaN to a t-digest");
+        }
+        if (bufferSize == bufferMeans.length) {
+            if (bufferSize >= bufferLimit) {
+                compress();
+            } else {
+                bufferMeans = Arrays.copyOf(bufferMeans, Math.min(bufferLimit, bufferSize * 2));
+                bufferWeights = Arrays.copyOf(bufferWeights, bufferMeans.length);
+            }
+        }
+        bufferMeans[bufferSize] = mean;
+        bufferWeights[bufferSize] = weight;
+        bufferSize++;
+        totalWeight += weight;
+        min = Math.min(min, mean);
+        max = Math.max(max, mean);
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Merges the buffered values into the centroids.
+     */
+    private void compress() {
+        if (bufferSize == 0) {
+            return;
+        }
+        int count = centroidCount + bufferSize;
+        double[] allMeans = Arrays.copyOf(means, count);
+        double[] allWeights = Arrays.copyOf(weights, count);
+        System.arraycopy(bufferMeans, 0, allMeans, centroidCount, bufferSize);
+        System.arraycopy(bufferWeights, 0, allWeights, centroidCount, bufferSize);
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        centroidCount = 0;
+        double mean = allMeans[order[0]];
+        double weight = allWeights[order[0]];
+        double weightSoFar = 0;
+        double weightLimit = totalWeight * quantileOf(scaleOf(0) + 1);
+        for (int i = 1; i < count; i++) {
+            int next = order[i];
+            if (weightSoFar + weight + allWeights[next] <= weightLimit) {
+                weight += allWeights[next];
+                mean += (allMeans[next] - mean) * allWeights[next] / weight;
+            } else {
+                emit(mean, weight);
+                weightSoFar += weight;
+                weightLimit = totalWeight * quantileOf(scaleOf(weightSoFar / totalWeight) + 1);
+                mean = allMeans[next];
+                weight = allWeights[next];
+            }
+        }
+        emit(mean, weight);
+        bufferSize = 0;
+    }
+
+    private void emit(double mean, double weight) {
+        if (centroidCount == means.length) {
+            means = Arrays.copyOf(means, centroidCount * 2);
+            weights = Arrays.copyOf(weights, centroidCount * 2);
+        }
+        means[centroidCount] = mean;
+        weights[centroidCount] = weight;
+        centroidCount++;
+    }
+
+    // Scale function k1, which keeps centroids small near q = 0 and q = 1
+    private double scaleOf(double quantile) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, quantile)) - 1);
+    }
+
+    private double quantileOf(double scale) {
+        if (scale >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(scale * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    /**
+     * The approximate value at the given quantile between 0 and 1, NaN if nothing was added.
+     */
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1 but was " + quantile);
+        }
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+        double index = quantile * totalWeight;
+        if (index < weights[0] / 2) {
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        }
+        // Interpolate between the centers of neighbouring centroids
+        double center = weights[0] / 2;
+        for (int i = 0; i < centroidCount - 1; i++) {
+            double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+            if (index < nextCenter) {
+                return means[i] + (means[i + 1] - means[i]) * (index - center) / (nextCenter - center);
+            }
+            center = nextCenter;
+        }
+        double lastHalf = weights[centroidCount - 1] / 2;
+        return means[centroidCount - 1] + (max - means[centroidCount - 1]) * Math.min(1, (index - center) / lastHalf);
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    public long size() {
+        return Math.round(totalWeight);
+    }
+}
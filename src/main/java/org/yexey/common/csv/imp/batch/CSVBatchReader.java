@@ -0,0 +1,75 @@
+package org.yexey.common.csv.imp.batch;
+
+import org.apache.commons.csv.CSVRecord;
+import org.yexey.common.csv.imp.BatchSpliterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the records of a CSV parser with a header into {@link RecordBatch}es, copying each value straight into
+ * the array of its column.
+ */
+public final class CSVBatchReader implements Iterator<RecordBatch> {
+
+    private final Iterator<CSVRecord> records;
+    private final List<String> columns;
+    private final String[] names;
+    private final int[] indexes;
+    private final int required;
+    private final int batchSize;
+
+    public CSVBatchReader(Iterator<CSVRecord> records, Map<String, Integer> headerMap, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1 but was " + batchSize);
+        }
+        this.records = records;
+        this.columns = new ArrayList<>(headerMap.keySet());
+        this.names = columns.toArray(new String[0]);
+        this.indexes = columns.stream().mapToInt(headerMap::get).toArray();
+        this.required = Arrays.stream(indexes).max().orElse(-1) + 1;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The batches as a stream which parallel execution splits batch by batch.
+     */
+    public static Stream<RecordBatch> stream(Iterator<CSVRecord> records, Map<String, Integer> headerMap, int batchSize) {
+        return StreamSupport.stream(new BatchSpliterator<>(new CSVBatchReader(records, headerMap, batchSize), 1), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return records.hasNext();
+    }
+
+    @Override
+    public RecordBatch next() {
+        if (!records.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String[][] vectors = new String[names.length][batchSize];
+        int rows = 0;
+        while (rows < batchSize && records.hasNext()) {
+            CSVRecord record = records.next();
+            if (record.size() >= required) {
+                for (int column = 0; column < indexes.length; column++) {
+                    vectors[column][rows] = record.get(indexes[column]);
+                }
+            } else {
+                // Fails on the first missing value the same way as reading into records does
+                for (int column = 0; column < names.length; column++) {
+                    vectors[column][rows] = record.get(names[column]);
+                }
+            }
+            rows++;
+        }
+        return new RecordBatch(columns, vectors, rows);
+    }
+}
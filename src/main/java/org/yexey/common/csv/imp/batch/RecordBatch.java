@@ -0,0 +1,131 @@
+package org.yexey.common.csv.imp.batch;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.RecordSchema;
+import org.yexey.common.csv.imp.SlotRecord;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A block of rows stored column by column: one value array per column plus a selection vector of the rows still in
+ * the batch. Filters only compact the selection and column operations loop over whole value arrays, so operators
+ * work in tight loops instead of a chain of calls per record. A batch is owned by one thread at a time and is
+ * changed in place as it moves through the operators.
+ */
+public final class RecordBatch {
+
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final List<String> columns;
+    private final String[][] vectors;
+    private final int rowCount;
+    private int[] selection;
+    private int size;
+    private RecordSchema schema;
+
+    /**
+     * @param vectors one array per column, holding the values of rows 0 to rowCount - 1, all of them selected
+     */
+    public RecordBatch(List<String> columns, String[][] vectors, int rowCount) {
+        this(columns, vectors, rowCount, null, rowCount);
+    }
+
+    private RecordBatch(List<String> columns, String[][] vectors, int rowCount, int[] selection, int size) {
+        if (columns.size() != vectors.length) {
+            throw new IllegalArgumentException("Need one value array per column but got " + vectors.length + " for " + columns.size());
+        }
+        this.columns = List.copyOf(columns);
+        this.vectors = vectors;
+        this.rowCount = rowCount;
+        this.selection = selection;
+        this.size = size;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * The position of the column, -1 if the batch has no such column.
+     */
+    public int columnIndex(String column) {
+        return columns.indexOf(column);
+    }
+
+    /**
+     * The values of the column at the given position, indexed by row. Writes to it change the batch.
+     */
+    public String[] vector(int column) {
+        return vectors[column];
+    }
+
+    /**
+     * Number of rows the value arrays hold, selected or not.
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Number of selected rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The selected rows in ascending order, only the first {@link #size()} entries are valid.
+     * Filters compact it in place and then call {@link #select(int)}.
+     */
+    public int[] selection() {
+        if (selection == null) {
+            selection = IntStream.range(0, rowCount).toArray();
+        }
+        return selection;
+    }
+
+    /**
+     * Keeps the first size entries of the selection.
+     */
+    public void select(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IllegalArgumentException("Selection size must be between 0 and " + this.size + " but was " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * The same rows with other columns, e.g. after a rename or an added column. The arrays must hold rowCount values.
+     */
+    public RecordBatch withColumns(List<String> columns, String[][] vectors) {
+        return new RecordBatch(columns, vectors, rowCount, selection, size);
+    }
+
+    /**
+     * The selected row as a record of its own, which does not change the batch.
+     */
+    public SlotRecord row(int row) {
+        String[] values = new String[vectors.length];
+        for (int column = 0; column < vectors.length; column++) {
+            values[column] = vectors[column][row];
+        }
+        return new SlotRecord(schema(), values);
+    }
+
+    /**
+     * The selected rows as records sharing one schema.
+     */
+    public Stream<Record> records() {
+        int[] rows = selection();
+        return IntStream.range(0, size).mapToObj(i -> row(rows[i]));
+    }
+
+    private RecordSchema schema() {
+        if (schema == null) {
+            schema = new RecordSchema(columns);
+        }
+        return schema;
+    }
+}
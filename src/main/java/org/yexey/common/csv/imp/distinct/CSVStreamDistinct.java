@@ -0,0 +1,298 @@
+package org.yexey.common.csv.imp.distinct;
+
+import org.yexey.common.csv.imp.Hashing;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.spill.RecordSpillFile;
+import org.yexey.common.csv.imp.spill.SpillReport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamDistinct {
+
+    public static final int DEFAULT_MAX_KEYS_IN_MEMORY = 4_000_000;
+    private static final int PARTITIONS = 16;
+    private static final int MAX_DEPTH = 14;
+    private static final long SEED_HIGH = 0x5851F42D4C957F2DL;
+    private static final long SEED_LOW = 0x14057B7EF767814FL;
+    private static final long NULL_HASH = 0x2545F4914F6CDD1DL;
+
+    /**
+     * DISTINCT:
+     * Drops records whose key columns (all columns if none are given, compared in column order) equal those of
+     * another record. Instead of the records only a 128 bit fingerprint per key is kept. With exact=true the key
+     * values are kept as well, so that two keys sharing a fingerprint are still told apart.
+     * Above maxKeysInMemory keys, records of new keys are hash-partitioned into temporary files and deduplicated
+     * afterwards, partition by partition. Their records then follow the others. Spilling is added to report, which may be null.
+     */
+    public static Stream<Record> distinct(Stream<Record> stream, Keep keep, boolean exact, int maxKeysInMemory,
+                                          SpillReport report, String... keyColumns) {
+        Objects.requireNonNull(keep, "Keep must not be null");
+        Objects.requireNonNull(keyColumns, "Key columns must not be null");
+        if (maxKeysInMemory < 1) {
+            throw new IllegalArgumentException("At least one key must fit in memory but got " + maxKeysInMemory);
+        }
+        DistinctIterator iterator = new DistinctIterator(stream, keyColumns.length == 0 ? null : KeyColumns.of(keyColumns),
+                keep, exact, maxKeysInMemory, report == null ? new SpillReport() : report);
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), Spliterator.ORDERED, false)
+                .onClose(iterator::close);
+    }
+
+    private static class DistinctIterator implements Iterator<Record> {
+        private final KeyColumns keyColumns;
+        private final Keep keep;
+        private final boolean exact;
+        private final int maxKeysInMemory;
+        private final SpillReport report;
+        private final Deque<Level> pending = new ArrayDeque<>();
+        private Stream<Record> input;
+        private Level level;
+        private Iterator<Record> kept = Collections.emptyIterator();
+        private Record next;
+        // Fingerprint of the last record passed to fingerprint()
+        private long high;
+        private long low;
+
+        private DistinctIterator(Stream<Record> input, KeyColumns keyColumns, Keep keep, boolean exact,
+                                 int maxKeysInMemory, SpillReport report) {
+            this.input = input;
+            this.keyColumns = keyColumns;
+            this.keep = keep;
+            this.exact = exact;
+            this.maxKeysInMemory = maxKeysInMemory;
+            this.report = report;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (input != null) {
+                level = new Level(input.iterator(), null, 0, keep == Keep.LAST || exact);
+                input = null;
+            }
+            try {
+                while (next == null) {
+                    if (kept.hasNext()) {
+                        next = kept.next();
+                    } else if (level != null) {
+                        next = advance();
+                    } else if (!pending.isEmpty()) {
+                        Level partition = pending.pollFirst();
+                        level = new Level(partition.file.reader(), partition.file, partition.depth, keep == Keep.LAST || exact);
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Could not spill records for distinct", e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record result = next;
+            next = null;
+            return result;
+        }
+
+        /**
+         * Reads the current level until a record can be emitted, or the level is exhausted.
+         */
+        private Record advance() throws IOException {
+            Level current = level;
+            while (current.source.hasNext()) {
+                Record record = current.source.next();
+                long position = current.position++;
+                fingerprint(record);
+                String[] values = exact ? keyValuesOf(record) : null;
+                int entry = current.lookup(high, low, values, this);
+                if (entry >= 0) {
+                    if (keep == Keep.LAST) {
+                        current.table.set(entry, record, position);
+                    }
+                    continue;
+                }
+                if (current.table.size() >= maxKeysInMemory && current.depth < MAX_DEPTH) {
+                    current.spill(record, low);
+                    continue;
+                }
+                current.insert(high, low, values, keep == Keep.LAST ? record : values, position);
+                if (keep == Keep.FIRST) {
+                    return record;
+                }
+            }
+            finish(current);
+            return null;
+        }
+
+        private void finish(Level current) throws IOException {
+            level = null;
+            current.close();
+            for (int i = PARTITIONS - 1; i >= 0; i--) {
+                if (current.partitions != null && current.partitions[i] != null) {
+                    report.recordSpill(current.partitions[i].finish(), current.depth + 1);
+                    pending.addFirst(new Level(null, current.partitions[i], current.depth + 1, false));
+                    current.partitions[i] = null;
+                }
+            }
+            if (keep == Keep.LAST) {
+                FingerprintTable table = current.table;
+                Integer[] entries = new Integer[table.size()];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = i;
+                }
+                Arrays.sort(entries, Comparator.comparingLong(table::positionAt));
+                kept = Arrays.stream(entries).map(entry -> (Record) table.payloadAt(entry)).iterator();
+            }
+        }
+
+        private void fingerprint(Record record) {
+            long h = SEED_HIGH;
+            long l = SEED_LOW;
+            if (keyColumns != null) {
+                keyColumns.requirePresent(record, "the stream");
+                for (int i = 0; i < keyColumns.size(); i++) {
+                    String value = record.get(keyColumns.get(i));
+                    h = Hashing.combine(h, value == null ? NULL_HASH : Hashing.hash64(value, SEED_HIGH));
+                    l = Hashing.combine(l, value == null ? NULL_HASH : Hashing.hash64(value, SEED_LOW));
+                }
+            } else {
+                for (Map.Entry<String, String> field : record.getData().entrySet()) {
+                    h = Hashing.combine(Hashing.combine(h, Hashing.hash64(field.getKey(), SEED_HIGH)),
+                            field.getValue() == null ? NULL_HASH : Hashing.hash64(field.getValue(), SEED_HIGH));
+                    l = Hashing.combine(Hashing.combine(l, Hashing.hash64(field.getKey(), SEED_LOW)),
+                            field.getValue() == null ? NULL_HASH : Hashing.hash64(field.getValue(), SEED_LOW));
+                }
+            }
+            high = h;
+            low = l;
+        }
+
+        private String[] keyValuesOf(Record record) {
+            if (keyColumns != null) {
+                String[] values = new String[keyColumns.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = record.get(keyColumns.get(i));
+                }
+                return values;
+            }
+            Map<String, String> data = record.getData();
+            String[] values = new String[data.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> field : data.entrySet()) {
+                values[i++] = field.getKey();
+                values[i++] = field.getValue();
+            }
+            return values;
+        }
+
+        private String[] storedValuesOf(Object payload) {
+            return payload instanceof Record ? keyValuesOf((Record) payload) : (String[]) payload;
+        }
+
+        private void close() {
+            if (level != null) {
+                level.close();
+                level.closePartitions();
+                level = null;
+            }
+            Level partition;
+            while ((partition = pending.pollFirst()) != null) {
+                partition.close();
+            }
+            kept = Collections.emptyIterator();
+        }
+    }
+
+    /**
+     * One pass of the deduplication over the input or a spilled partition.
+     */
+    private static final class Level {
+        private final Iterator<Record> source;
+        private final RecordSpillFile file;
+        private final int depth;
+        private final FingerprintTable table;
+        // Keys whose fingerprint is taken by another key, only used with exact=true
+        private Map<List<String>, Integer> collisions;
+        private RecordSpillFile[] partitions;
+        private long position;
+
+        private Level(Iterator<Record> source, RecordSpillFile file, int depth, boolean withPayloads) {
+            this.source = source;
+            this.file = file;
+            this.depth = depth;
+            this.table = source == null ? null : new FingerprintTable(withPayloads);
+        }
+
+        private int lookup(long high, long low, String[] values, DistinctIterator owner) {
+            int entry = table.find(high, low);
+            if (entry < 0 || values == null || Arrays.equals(owner.storedValuesOf(table.payloadAt(entry)), values)) {
+                return entry;
+            }
+            Integer collision = collisions == null ? null : collisions.get(Arrays.asList(values));
+            return collision == null ? -1 : collision;
+        }
+
+        private void insert(long high, long low, String[] values, Object payload, long position) {
+            if (values != null && table.find(high, low) >= 0) {
+                if (collisions == null) {
+                    collisions = new HashMap<>();
+                }
+                collisions.put(Arrays.asList(values), table.append(high, low, payload, position));
+                return;
+            }
+            table.add(high, low, payload, position);
+        }
+
+        // Every level takes other bits of the fingerprint, so a partition splits up further on the next level
+        private void spill(Record record, long low) throws IOException {
+            if (partitions == null) {
+                partitions = new RecordSpillFile[PARTITIONS];
+            }
+            int partition = (int) (low >>> (60 - 4 * depth)) & (PARTITIONS - 1);
+            if (partitions[partition] == null) {
+                partitions[partition] = new RecordSpillFile();
+            }
+            partitions[partition].write(record);
+        }
+
+        private void close() {
+            try {
+                if (source instanceof RecordSpillFile.Reader) {
+                    ((RecordSpillFile.Reader) source).close();
+                }
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException ignored) {
+                // Temp files are best effort
+            }
+        }
+
+        private void closePartitions() {
+            if (partitions == null) {
+                return;
+            }
+            for (RecordSpillFile partition : partitions) {
+                if (partition != null) {
+                    try {
+                        partition.close();
+                    } catch (IOException ignored) {
+                        // Temp files are best effort
+                    }
+                }
+            }
+        }
+    }
+}
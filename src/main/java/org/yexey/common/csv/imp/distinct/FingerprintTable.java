@@ -0,0 +1,106 @@
+package org.yexey.common.csv.imp.distinct;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of 128 bit fingerprints with an optional payload and position per entry.
+ * Entries are stored densely in insertion order. Not thread-safe.
+ */
+final class FingerprintTable {
+
+    private int[] slots = new int[16];
+    private long[] highs = new long[8];
+    private long[] lows = new long[8];
+    private Object[] payloads;
+    private long[] positions;
+    private int size;
+
+    FingerprintTable(boolean withPayloads) {
+        if (withPayloads) {
+            payloads = new Object[8];
+            positions = new long[8];
+        }
+    }
+
+    /**
+     * The entry of the fingerprint, or -1.
+     */
+    int find(long high, long low) {
+        int mask = slots.length - 1;
+        int slot = (int) high & mask;
+        int entry;
+        while ((entry = slots[slot] - 1) >= 0) {
+            if (highs[entry] == high && lows[entry] == low) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    int add(long high, long low, Object payload, long position) {
+        int entry = append(high, low, payload, position);
+        int mask = slots.length - 1;
+        int slot = (int) high & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds an entry that is not reachable through {@link #find(long, long)}, for keys whose fingerprint collides with another key.
+     */
+    int append(long high, long low, Object payload, long position) {
+        if (size == highs.length) {
+            int capacity = size * 2;
+            highs = Arrays.copyOf(highs, capacity);
+            lows = Arrays.copyOf(lows, capacity);
+            if (payloads != null) {
+                payloads = Arrays.copyOf(payloads, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+        }
+        highs[size] = high;
+        lows[size] = low;
+        if (payloads != null) {
+            payloads[size] = payload;
+            positions[size] = position;
+        }
+        return size++;
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = (int) highs[entry] & mask;
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = entry + 1;
+        }
+        slots = rehashed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object payloadAt(int entry) {
+        return payloads[entry];
+    }
+
+    long positionAt(int entry) {
+        return positions[entry];
+    }
+
+    void set(int entry, Object payload, long position) {
+        payloads[entry] = payload;
+        positions[entry] = position;
+    }
+}
@@ -0,0 +1,15 @@
+package org.yexey.common.csv.imp.distinct;
+
+/**
+ * Which record of a set of duplicates {@code CSVStream.distinct} keeps.
+ */
+public enum Keep {
+    /**
+     * The first occurrence, emitted as soon as it is read.
+     */
+    FIRST,
+    /**
+     * The last occurrence. The kept records are held until the input is exhausted and emitted in the order of their positions.
+     */
+    LAST
+}
@@ -0,0 +1,7 @@
+package org.yexey.common.csv.imp.exceptions;
+
+public class MemoryBudgetExceededException extends RuntimeException {
+    public MemoryBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,144 @@
+package org.yexey.common.csv.imp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * The lines of a few randomly chosen blocks of a file, without reading the rest of it. The file is divided into
+ * blocks of blockSize bytes and blockCount of them are picked uniformly, in file order. A block contributes every
+ * line starting in it: reading seeks to the block, skips the rest of the line started in the block before and
+ * completes its own last line from the next block. So every line belongs to exactly one block and only complete
+ * lines are returned. This assumes that a line break always ends a record, i.e. that no quoted value contains one.
+ */
+public class BlockSampleInputStream extends InputStream {
+
+    private static final int SCAN_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long dataStart;
+    private final int blockSize;
+    private final Iterator<Long> blocks;
+    private byte[] current = new byte[0];
+    private int offset;
+
+    /**
+     * @param skipFirstLine whether the first line, e.g. a header, is left out
+     */
+    public BlockSampleInputStream(Path path, boolean skipFirstLine, int blockCount, int blockSize, long seed) throws IOException {
+        if (blockCount < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("Block count and size must be at least 1 but were " + blockCount + " and " + blockSize);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            this.dataStart = skipFirstLine ? lineEnd(0, size) : 0;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.blockSize = blockSize;
+        this.blocks = pick((size - dataStart + blockSize - 1) / blockSize, blockCount, seed).iterator();
+    }
+
+    // Distinct block numbers below blocks, in ascending order (Floyd's algorithm)
+    private static TreeSet<Long> pick(long blocks, int count, long seed) {
+        TreeSet<Long> picked = new TreeSet<>();
+        if (count >= blocks) {
+            for (long block = 0; block < blocks; block++) {
+                picked.add(block);
+            }
+            return picked;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (long j = blocks - count; j < blocks; j++) {
+            long block = random.nextLong(j + 1);
+            picked.add(picked.contains(block) ? j : block);
+        }
+        return picked;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[offset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - offset);
+        System.arraycopy(current, offset, bytes, off, count);
+        offset += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean fill() throws IOException {
+        while (offset == current.length) {
+            if (!blocks.hasNext()) {
+                return false;
+            }
+            current = readBlock(blocks.next());
+            offset = 0;
+        }
+        return true;
+    }
+
+    private byte[] readBlock(long block) throws IOException {
+        long blockStart = dataStart + block * blockSize;
+        long blockEnd = Math.min(blockStart + blockSize, size);
+        // The first line starting at or after the block start, found from the byte before it
+        long start = blockStart == dataStart ? blockStart : lineEnd(blockStart - 1, blockEnd);
+        if (start >= blockEnd) {
+            return new byte[0];
+        }
+        long end = lineEnd(blockEnd - 1, size);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+
+    // Position after the first line break at or after from, or limit if there is none before it
+    private long lineEnd(long from, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        long position = from;
+        while (position < limit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(SCAN_SIZE, limit - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return limit;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return limit;
+    }
+}
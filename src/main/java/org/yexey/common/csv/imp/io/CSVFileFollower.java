@@ -0,0 +1,366 @@
+package org.yexey.common.csv.imp.io;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records of a CSV file which is still being appended to, like tail -f, or of a file read once from a given offset,
+ * see {@link #reading}. When following, the existing records come first, then the iterator waits for more: it is woken up by a {@link WatchService} on the file's directory where available and
+ * checks the file size every poll interval in any case. Only complete records are read, i.e. up to a line break
+ * outside of quotes, so a record still being written is picked up once its line is finished.
+ * <p>
+ * The committed offset is the end of the records which were processed, which for a sequential consumer are the
+ * ones before the record it asks for next. It is written to the offset file, if any, whenever the follower runs
+ * out of data and on close, and a new follower starts from it. A record being processed when the consumer stops
+ * is therefore read again, so records are processed at least once.
+ */
+public class CSVFileFollower implements Iterator<CSVRecord>, Closeable {
+
+    public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(1);
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final Path path;
+    private final Path offsetFile;
+    private final boolean follow;
+    private final long pollMillis;
+    private final FileChannel channel;
+    private final WatchService watchService;
+    private final Character quote;
+    private final CSVFormat recordFormat;
+    private final Map<String, Integer> headerMap;
+
+    // End of the records parsed so far, and of those processed
+    private long position;
+    private volatile long committed;
+    private volatile long committedRecords;
+    private long handedOut;
+    private long persisted;
+    private volatile boolean closed;
+
+    private String chunk;
+    private long chunkStart;
+    private Iterator<CSVRecord> records = Collections.emptyIterator();
+    private int charCursor;
+    private long byteCursor;
+    private CSVRecord next;
+
+    /**
+     * @param offsetFile file to persist the committed offset in, or null to always start at the beginning
+     */
+    public CSVFileFollower(Path path, CSVFormat csvFormat, Path offsetFile, Duration pollInterval) throws IOException {
+        this(path, csvFormat, offsetFile, 0, 0, pollInterval);
+    }
+
+    /**
+     * The records of the file up to its end, starting at startOffset, e.g. to resume reading it. startRecords is the
+     * number of records before the offset, from which {@link #getCommittedRecords()} counts on.
+     */
+    public static CSVFileFollower reading(Path path, CSVFormat csvFormat, long startOffset, long startRecords) throws IOException {
+        return new CSVFileFollower(path, csvFormat, null, startOffset, startRecords, null);
+    }
+
+    private CSVFileFollower(Path path, CSVFormat csvFormat, Path offsetFile, long startOffset, long startRecords,
+                            Duration pollInterval) throws IOException {
+        String[] header = csvFormat.getHeader();
+        if (header == null) {
+            throw new IllegalArgumentException("Reading records by offset needs a header, either given or from the first record");
+        }
+        if (pollInterval != null && (pollInterval.isNegative() || pollInterval.isZero())) {
+            throw new IllegalArgumentException("Poll interval must be positive but was " + pollInterval);
+        }
+        this.path = path;
+        this.offsetFile = offsetFile;
+        this.follow = pollInterval != null;
+        this.pollMillis = follow ? pollInterval.toMillis() : 0;
+        this.quote = csvFormat.getQuoteCharacter();
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.watchService = follow ? watch(path) : null;
+        try {
+            long dataStart = 0;
+            if (header.length == 0 || csvFormat.getSkipHeaderRecord()) {
+                byte[] headerLine = awaitLine();
+                dataStart = headerLine.length;
+                if (header.length == 0) {
+                    try (CSVParser headerParser = CSVParser.parse(new String(headerLine, StandardCharsets.UTF_8), csvFormat)) {
+                        header = headerParser.getHeaderNames().toArray(new String[0]);
+                    }
+                }
+            }
+            this.recordFormat = csvFormat.builder().setHeader(header).setSkipHeaderRecord(false).build();
+            this.headerMap = new LinkedHashMap<>();
+            for (String column : header) {
+                headerMap.put(column, headerMap.size());
+            }
+            this.position = Math.max(dataStart, Math.max(startOffset, readOffset()));
+            this.committed = position;
+            this.persisted = position;
+            this.handedOut = startRecords;
+            this.committedRecords = startRecords;
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Change notifications for the file's directory, or null to rely on polling alone
+    private static WatchService watch(Path path) {
+        Path directory = path.toAbsolutePath().getParent();
+        try {
+            WatchService watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            return watchService;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    public Map<String, Integer> getHeaderMap() {
+        return headerMap;
+    }
+
+    public List<String> getColumns() {
+        return List.copyOf(headerMap.keySet());
+    }
+
+    /**
+     * Byte offset up to which the records were processed.
+     */
+    public long getCommittedOffset() {
+        return committed;
+    }
+
+    /**
+     * Number of records before the committed offset.
+     */
+    public long getCommittedRecords() {
+        return committedRecords;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (records.hasNext()) {
+                next = records.next();
+                committed = chunkStart + byteOffset((int) next.getCharacterPosition());
+                committedRecords = handedOut++;
+            } else {
+                committed = position;
+                committedRecords = handedOut;
+                try {
+                    persist();
+                    if (!readChunk()) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    if (closed) {
+                        return false;
+                    }
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public CSVRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CSVRecord record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * Stops following, also from another thread, and persists the committed offset.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+            channel.close();
+        } finally {
+            persist();
+        }
+    }
+
+    // Parses the next complete records, waiting for them if following, false at the end or once closed
+    private boolean readChunk() throws IOException {
+        int limit = CHUNK_SIZE;
+        while (!closed) {
+            long size = channel.size();
+            if (size < position) {
+                throw new IllegalStateException(path + " was truncated to " + size + " bytes, below offset " + position);
+            }
+            if (size > position) {
+                ByteBuffer buffer = read(position, (int) Math.min(size - position, limit));
+                int end = lastRecordEnd(buffer);
+                if (end == 0 && !follow && size - position <= limit) {
+                    // The last record of a file which is not followed needs no line break
+                    end = buffer.limit();
+                }
+                if (end > 0) {
+                    chunk = StandardCharsets.UTF_8.decode(buffer.limit(end)).toString();
+                    chunkStart = position;
+                    position += end;
+                    charCursor = 0;
+                    byteCursor = 0;
+                    records = CSVParser.parse(chunk, recordFormat).iterator();
+                    return true;
+                }
+                if (size - position > limit) {
+                    // A single record longer than the chunk
+                    limit = (int) Math.min(Integer.MAX_VALUE - 8, 2L * limit);
+                    continue;
+                }
+            }
+            if (!follow) {
+                return false;
+            }
+            await();
+        }
+        return false;
+    }
+
+    // The first line of the file including its line break, once it is complete or the file is not followed
+    private byte[] awaitLine() throws IOException {
+        while (!closed) {
+            long size = channel.size();
+            ByteBuffer buffer = read(0, (int) Math.min(size, CHUNK_SIZE));
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    byte[] line = new byte[i + 1];
+                    buffer.get(line);
+                    return line;
+                }
+            }
+            if (!follow) {
+                byte[] line = new byte[buffer.limit()];
+                buffer.get(line);
+                return line;
+            }
+            await();
+        }
+        throw new IllegalStateException("Closed before the header of " + path + " was complete");
+    }
+
+    private ByteBuffer read(long from, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Position after the last line break outside of quotes, 0 if there is none. Doubled quotes keep the count even.
+    private int lastRecordEnd(ByteBuffer buffer) {
+        boolean quoted = false;
+        int end = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (quote != null && b == quote) {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    // Bytes of the current chunk before the given character position, counted on from the previous position
+    private long byteOffset(int charPosition) {
+        for (int i = charCursor; i < charPosition; i++) {
+            char c = chunk.charAt(i);
+            if (c < 0x80) {
+                byteCursor += 1;
+            } else if (c < 0x800) {
+                byteCursor += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                byteCursor += 4;
+                i++;
+            } else {
+                byteCursor += 3;
+            }
+        }
+        charCursor = Math.max(charCursor, charPosition);
+        return byteCursor;
+    }
+
+    private void await() throws IOException {
+        try {
+            if (watchService == null) {
+                Thread.sleep(pollMillis);
+                return;
+            }
+            WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            closed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + path + " to grow");
+        }
+    }
+
+    private long readOffset() throws IOException {
+        if (offsetFile == null || !Files.exists(offsetFile)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(offsetFile).trim());
+    }
+
+    private synchronized void persist() throws IOException {
+        long offset = committed;
+        if (offsetFile == null || offset == persisted) {
+            return;
+        }
+        // Replaced in one step, so that a crash leaves the previous offset rather than a partial one
+        Path temporary = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+        Files.writeString(temporary, Long.toString(offset));
+        try {
+            Files.move(temporary, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, offsetFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        persisted = offset;
+    }
+}
@@ -0,0 +1,183 @@
+package org.yexey.common.csv.imp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * Progress of a pipeline from a CSV file to a CSV file, kept in a small properties file: how far the input was
+ * read and how much output belongs to it, as byte offsets and record counts. The source reads the input from the
+ * saved offset and the sink cuts the output back to the saved size, so a failed run resumes where its last
+ * checkpoint was taken instead of from the start. The file is replaced in one step and deleted once the run completed.
+ */
+public class Checkpoint {
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+
+    private static final String INPUT_OFFSET = "inputOffset";
+    private static final String INPUT_RECORDS = "inputRecords";
+    private static final String OUTPUT_BYTES = "outputBytes";
+    private static final String OUTPUT_RECORDS = "outputRecords";
+
+    private final Path file;
+    private final long intervalNanos;
+    private final boolean resumed;
+    private final long inputOffset;
+    private final long inputRecords;
+    private final long outputBytes;
+    private final long outputRecords;
+    private CSVFileFollower source;
+
+    private Checkpoint(Path file, Duration interval) throws IOException {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("Interval must not be negative but was " + interval);
+        }
+        this.file = file;
+        this.intervalNanos = interval.toNanos();
+        Properties properties = new Properties();
+        this.resumed = Files.exists(file);
+        if (resumed) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+        }
+        this.inputOffset = read(properties, INPUT_OFFSET);
+        this.inputRecords = read(properties, INPUT_RECORDS);
+        this.outputBytes = read(properties, OUTPUT_BYTES);
+        this.outputRecords = read(properties, OUTPUT_RECORDS);
+    }
+
+    /**
+     * The checkpoint saved in file, if any, which is then updated at most every {@link #DEFAULT_INTERVAL}.
+     */
+    public static Checkpoint of(Path file) throws IOException {
+        return new Checkpoint(file, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * The checkpoint saved in file, if any, which is then updated at most every interval.
+     */
+    public static Checkpoint of(Path file, Duration interval) throws IOException {
+        return new Checkpoint(file, interval);
+    }
+
+    private long read(Properties properties, String key) {
+        String value = properties.getProperty(key, "0");
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Invalid " + key + " '" + value + "' in checkpoint " + file);
+        }
+    }
+
+    /**
+     * Registers the source whose committed offset is saved. A checkpoint tracks one source.
+     */
+    public void attach(CSVFileFollower source) {
+        if (this.source != null) {
+            throw new IllegalStateException("Checkpoint " + file + " already tracks a source");
+        }
+        this.source = source;
+    }
+
+    /**
+     * The attached source, or null.
+     */
+    public CSVFileFollower getSource() {
+        return source;
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public long getInputOffset() {
+        return inputOffset;
+    }
+
+    public long getInputRecords() {
+        return inputRecords;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public long getOutputRecords() {
+        return outputRecords;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Committed offset of the source, which changes whenever it moved on to the next input record.
+     */
+    public long sourceOffset() {
+        return source.getCommittedOffset();
+    }
+
+    /**
+     * Saves the source's committed position together with the output written for the records before it.
+     * The new file is on disk before it replaces the old one, so a crash leaves either of them and never a torn file.
+     */
+    public void save(long outputBytes, long outputRecords) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(INPUT_OFFSET, Long.toString(source.getCommittedOffset()));
+        properties.setProperty(INPUT_RECORDS, Long.toString(source.getCommittedRecords()));
+        properties.setProperty(OUTPUT_BYTES, Long.toString(outputBytes));
+        properties.setProperty(OUTPUT_RECORDS, Long.toString(outputRecords));
+        StringWriter content = new StringWriter();
+        properties.store(content, "CSVStream checkpoint");
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(content.toString());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Makes the rename durable. Not every platform can open a directory, Windows for one, there this is skipped.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename itself succeeded, it is only not forced to disk yet
+        }
+    }
+
+    /**
+     * Called once the output is complete, so that the next run starts from the beginning again.
+     */
+    public void complete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{file=" + file + ", inputOffset=" + inputOffset + ", inputRecords=" + inputRecords
+                + ", outputBytes=" + outputBytes + ", outputRecords=" + outputRecords + "}";
+    }
+}
@@ -0,0 +1,161 @@
+package org.yexey.common.csv.imp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file ahead of its consumer through an {@link AsynchronousFileChannel}. A ring of direct buffers covers
+ * consecutive ranges of the file, each with a read in flight, and a buffer is handed out once its read completed
+ * and read again for the next free range once it was consumed. So while the parser works on one buffer, the others
+ * are being filled. The channel is closed at the end of the file or by {@link #close()}.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer[] buffers;
+    private final long[] offsets;
+    private final Future<?>[] reads;
+    private final ReadAheadReport report;
+    // File offset of the next range to read
+    private long nextOffset;
+    // Index of the buffer handed out next, and the one currently consumed if any
+    private int current;
+    private ByteBuffer active;
+    private boolean endOfFile;
+
+    public ReadAheadInputStream(Path path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, new ReadAheadReport());
+    }
+
+    /**
+     * @param bufferSize  bytes per read
+     * @param bufferCount buffers in the ring, so up to bufferSize * bufferCount bytes are read ahead
+     * @param report      receives the size of every buffer and the time spent waiting for it, may be null
+     */
+    public ReadAheadInputStream(Path path, int bufferSize, int bufferCount, ReadAheadReport report) throws IOException {
+        if (bufferSize < 1 || bufferCount < 1) {
+            throw new IllegalArgumentException("Buffer size and count must be at least 1 but were " + bufferSize + " and " + bufferCount);
+        }
+        // Without a report the statistics go to one nobody reads
+        this.report = report == null ? new ReadAheadReport() : report;
+        this.buffers = new ByteBuffer[bufferCount];
+        this.offsets = new long[bufferCount];
+        this.reads = new Future<?>[bufferCount];
+        this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+            schedule(i);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return active.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, active.remaining());
+        active.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return active == null ? 0 : active.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        endOfFile = true;
+        active = null;
+        channel.close();
+    }
+
+    // Makes sure the active buffer has bytes left, false at the end of the file
+    private boolean fill() throws IOException {
+        if (active != null) {
+            if (active.hasRemaining()) {
+                return true;
+            }
+            active = null;
+            schedule(current);
+            current = (current + 1) % buffers.length;
+        }
+        if (endOfFile) {
+            return false;
+        }
+        ByteBuffer buffer = await(current);
+        if (!buffer.hasRemaining()) {
+            close();
+            return false;
+        }
+        active = buffer;
+        return true;
+    }
+
+    private void schedule(int index) {
+        ByteBuffer buffer = buffers[index];
+        buffer.clear();
+        offsets[index] = nextOffset;
+        nextOffset += buffer.capacity();
+        reads[index] = channel.read(buffer, offsets[index]);
+    }
+
+    // Waits for the buffer's range to be read completely or up to the end of the file
+    private ByteBuffer await(int index) throws IOException {
+        ByteBuffer buffer = buffers[index];
+        long waitedNanos = 0;
+        while (true) {
+            Future<?> read = reads[index];
+            long start = read.isDone() ? 0 : System.nanoTime();
+            int count = (Integer) get(read);
+            if (start != 0) {
+                waitedNanos += System.nanoTime() - start;
+            }
+            if (count < 0 || !buffer.hasRemaining()) {
+                break;
+            }
+            // A short read, continue with the rest of the range
+            reads[index] = channel.read(buffer, offsets[index] + buffer.position());
+        }
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            report.recordBuffer(buffer.remaining(), waitedNanos);
+        }
+        return buffer;
+    }
+
+    private static Object get(Future<?> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a read");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
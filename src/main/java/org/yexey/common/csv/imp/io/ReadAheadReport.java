@@ -0,0 +1,50 @@
+package org.yexey.common.csv.imp.io;
+
+/**
+ * How a read-ahead source kept up with the parser. Pass an instance to the source and read it once the input was
+ * consumed. A buffer the parser had to wait for counts as a wait, few waits mean the reads ran ahead of parsing.
+ */
+public class ReadAheadReport {
+
+    private long bytesRead;
+    private long buffersRead;
+    private long waits;
+    private long waitNanos;
+
+    /**
+     * Called by the source for every buffer handed to the parser, with the time the parser waited for it.
+     */
+    public void recordBuffer(int bytes, long waitedNanos) {
+        bytesRead += bytes;
+        buffersRead++;
+        if (waitedNanos > 0) {
+            waits++;
+            waitNanos += waitedNanos;
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBuffersRead() {
+        return buffersRead;
+    }
+
+    /**
+     * Number of buffers which were not read yet when the parser needed them.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadAheadReport{bytes=" + bytesRead + ", buffers=" + buffersRead
+                + ", waits=" + waits + ", waitMillis=" + waitNanos / 1_000_000 + "}";
+    }
+}
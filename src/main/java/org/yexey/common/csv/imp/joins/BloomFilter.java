@@ -0,0 +1,110 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.Hashing;
+import org.yexey.common.csv.imp.KeyColumns;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter over join key values. A negative answer is definite, a positive one has to be
+ * confirmed against the exact key set.
+ * <p>
+ * In front of an in-memory hash table the filter saves no memory, the table is still built, and every probe
+ * pays an extra hash. It only pays off when most probe keys miss and the table is too large for the CPU cache:
+ * a miss then costs a few bit tests in a compact array instead of a walk through the table. Joins therefore
+ * only use it for build sides of at least {@link #MIN_PREFILTER_KEYS} keys, see {@link #prefilterFor(Collection)}.
+ */
+public class BloomFilter {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    /**
+     * Keys from which on a hash table with its entries takes several megabytes and no longer stays in the cache.
+     */
+    public static final int MIN_PREFILTER_KEYS = 1 << 16;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashFunctions;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1 but was " + falsePositiveRate);
+        }
+        long insertions = Math.max(1, expectedInsertions);
+        long optimalBits = (long) Math.ceil(-insertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) >>> 6))];
+        this.bitCount = (long) bits.length << 6;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / insertions * Math.log(2)));
+    }
+
+    /**
+     * Filter over join keys, either Strings or {@link org.yexey.common.csv.imp.CompositeKey}s.
+     */
+    public static BloomFilter of(Collection<?> keys) {
+        return of(keys, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Filter to put in front of a hash table over the given keys, or null if the table is small enough to be
+     * probed directly.
+     */
+    public static BloomFilter prefilterFor(Collection<?> keys) {
+        return keys.size() < MIN_PREFILTER_KEYS ? null : of(keys);
+    }
+
+    public static BloomFilter of(Collection<?> keys, double falsePositiveRate) {
+        BloomFilter bloomFilter = new BloomFilter(keys.size(), falsePositiveRate);
+        for (Object key : keys) {
+            bloomFilter.putKey(key);
+        }
+        return bloomFilter;
+    }
+
+    public void put(String key) {
+        putHash(Hashing.hash64(key));
+    }
+
+    public boolean mightContain(String key) {
+        return mightContainHash(Hashing.hash64(key));
+    }
+
+    public void putKey(Object key) {
+        putHash(KeyColumns.hash64(key));
+    }
+
+    public boolean mightContainKey(Object key) {
+        return mightContainHash(KeyColumns.hash64(key));
+    }
+
+    private void putHash(long hash1) {
+        long hash2 = Hashing.fmix(hash1) | 1;
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = index(hash1, hash2, i);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContainHash(long hash1) {
+        long hash2 = Hashing.fmix(hash1) | 1;
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = index(hash1, hash2, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Double hashing: the i-th probe is hash1 + i * hash2
+    private long index(long hash1, long hash2, int i) {
+        return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+    }
+
+    public long bitSize() {
+        return bitCount;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+}
@@ -0,0 +1,29 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.InputStatistics;
+
+/**
+ * Which input of an inner join is collected into the hash table.
+ * The other input is streamed through it.
+ */
+public enum BuildSide {
+    /**
+     * Build on the smaller input according to the available statistics, falling back to RIGHT.
+     */
+    AUTO,
+    /**
+     * Build on stream A (this).
+     */
+    LEFT,
+    /**
+     * Build on stream B (other). This is the classic behavior.
+     */
+    RIGHT;
+
+    public BuildSide resolve(InputStatistics statisticsA, InputStatistics statisticsB) {
+        if (this != AUTO) {
+            return this;
+        }
+        return statisticsA.compareSize(statisticsB) < 0 ? LEFT : RIGHT;
+    }
+}
@@ -0,0 +1,80 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+public class CSVStreamAsOfJoin {
+
+    /**
+     * AS-OF JOIN:
+     * Every record of streamA is matched with the latest record of streamB with the same value in byColumn
+     * whose time is at or before the time of the A record and at most tolerance older. Unmatched A records
+     * are kept, like in a left join. Both streams must be sorted ascending by timeColumn.
+     * Only the latest B record per by-value is held in memory.
+     * Example: Matching trades to the most recent quote.
+     */
+    public static Stream<Record> asOfJoin(Stream<Record> streamA, Stream<Record> streamB, String byColumn, String timeColumn,
+                                          long tolerance, ToLongFunction<String> timeParser) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance must not be negative but was " + tolerance);
+        }
+        RecordMerger merger = new RecordMerger(KeyColumns.of(byColumn));
+        Iterator<Record> iteratorB = streamB.iterator();
+        Map<String, Record> latestB = new HashMap<>();
+        long[] lastTimeA = {Long.MIN_VALUE};
+        Record[] pendingB = new Record[1];
+        long[] pendingTimeB = {Long.MIN_VALUE};
+
+        return streamA.map(recordA -> {
+            long timeA = timeOf(recordA, timeColumn, timeParser, "StreamA");
+            if (timeA < lastTimeA[0]) {
+                throw new IllegalStateException("StreamA is not sorted by " + timeColumn);
+            }
+            lastTimeA[0] = timeA;
+
+            // Advance B up to the time of A, remembering the latest record per by-value
+            while (pendingB[0] != null || iteratorB.hasNext()) {
+                if (pendingB[0] == null) {
+                    Record recordB = iteratorB.next();
+                    long timeB = timeOf(recordB, timeColumn, timeParser, "StreamB");
+                    if (timeB < pendingTimeB[0]) {
+                        throw new IllegalStateException("StreamB is not sorted by " + timeColumn);
+                    }
+                    pendingB[0] = recordB;
+                    pendingTimeB[0] = timeB;
+                }
+                if (pendingTimeB[0] > timeA) {
+                    break;
+                }
+                String byValue = pendingB[0].get(byColumn);
+                if (byValue != null) {
+                    latestB.put(byValue, pendingB[0]);
+                }
+                pendingB[0] = null;
+            }
+
+            String byValue = recordA.get(byColumn);
+            Record match = byValue == null ? null : latestB.get(byValue);
+            if (match != null && timeA - timeOf(match, timeColumn, timeParser, "StreamB") > tolerance) {
+                match = null;
+            }
+            return merger.merge(recordA, match);
+        });
+    }
+
+    static long timeOf(Record record, String column, ToLongFunction<String> parser, String streamName) {
+        String value = record.get(column);
+        if (value == null) {
+            if (!record.containsColumn(column)) {
+                throw new ColumnNotFoundException("Column " + column + " does not exists in " + streamName);
+            }
+            throw new IllegalStateException("Column " + column + " has no value in " + streamName);
+        }
+        return parser.applyAsLong(value);
+    }
+}
@@ -1,63 +1,89 @@
 package org.yexey.common.csv.imp.joins;
 
+import org.yexey.common.csv.imp.KeyColumns;
 import org.yexey.common.csv.imp.Record;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class CSVStreamFullJoin {
+
+    /**
+     * FULL OUTER JOIN:
+     * Only streamB is collected. Its records are chained per key through an int array and
+     * matched ones are marked in a BitSet while streamA is streamed through as the probe side.
+     * The unmatched records of streamB are emitted after streamA is exhausted.
+     */
     public static Stream<Record> fullJoin(
             Stream<Record> streamA,
             Stream<Record> streamB,
             String keyColumnA,
             String keyColumnB
     ) {
-        // Collect streams into Maps
-        Map<String, List<Record>> mapA = streamA
-                .collect(Collectors.groupingBy(record -> record.get(keyColumnA)));
-
-        Map<String, List<Record>> mapB = streamB
-                .collect(Collectors.groupingBy(record -> record.get(keyColumnB)));
-
-        // Create a set of all keys
-        Set<String> allKeys = new HashSet<>();
-        allKeys.addAll(mapA.keySet());
-        allKeys.addAll(mapB.keySet());
-
-        // Perform the full join
-        return allKeys.stream().flatMap(key -> {
-            List<Record> recordsA = mapA.getOrDefault(key, Collections.singletonList(null));
-            List<Record> recordsB = mapB.getOrDefault(key, Collections.singletonList(null));
-
-            return recordsA.stream().flatMap(recordA ->
-                    recordsB.stream().map(recordB -> mergeRecords(recordA, recordB, keyColumnA, keyColumnB))
-            );
-        });
+        return fullJoin(streamA, streamB, KeyColumns.of(keyColumnA), KeyColumns.of(keyColumnB));
     }
 
-    private static Record mergeRecords(Record recordA, Record recordB, String keyColumnA, String keyColumnB) {
-        Record mergedRecord = new Record();
+    /**
+     * FULL OUTER JOIN on one or more key columns. Every key column of A is filled from B for unmatched B records.
+     */
+    public static Stream<Record> fullJoin(
+            Stream<Record> streamA,
+            Stream<Record> streamB,
+            KeyColumns keyColumnsA,
+            KeyColumns keyColumnsB
+    ) {
+        BuildTable tableB = new BuildTable(streamB, keyColumnsB);
+        RecordMerger merger = new RecordMerger(keyColumnsA, keyColumnsB);
 
-        // Merge data from recordA
-        if (recordA != null) {
-            mergedRecord.getData().putAll(recordA.getData());
-        }
+        Stream<Record> probed = streamA.flatMap(recordA -> {
+            Object keyA = keyColumnsA.keyOf(recordA);
+            int head = tableB.head(keyA);
+            if (head < 0) {
+                return Stream.of(merger.merge(recordA, null));
+            }
+            List<Record> merged = new ArrayList<>();
+            for (int i = head; i >= 0; i = tableB.next[i]) {
+                tableB.matched.set(i);
+                merged.add(merger.merge(recordA, tableB.records.get(i)));
+            }
+            return merged.stream();
+        });
+
+        // Evaluated lazily once streamA is exhausted, so every match has been marked by then
+        Stream<Record> unmatched = Stream.of(tableB).flatMap(table -> IntStream.range(0, table.records.size())
+                .filter(i -> !table.matched.get(i))
+                .mapToObj(i -> merger.merge(null, table.records.get(i))));
+
+        return Stream.concat(probed, unmatched);
+    }
+
+    private static class BuildTable {
+        private final List<Record> records = new ArrayList<>();
+        private final Map<Object, Integer> heads = new HashMap<>();
+        private final BitSet matched;
+        private int[] next;
 
-        // Merge data from recordB, avoiding overwriting existing keys
-        if (recordB != null) {
-            for (Map.Entry<String, String> entry : recordB.getData().entrySet()) {
-                String key = entry.getKey();
-                if (!key.equals(keyColumnB) && !mergedRecord.getData().containsKey(key)) {
-                    mergedRecord.set(key, entry.getValue());
+        private BuildTable(Stream<Record> stream, KeyColumns keyColumns) {
+            stream.forEach(records::add);
+            next = new int[records.size()];
+            // Chain in reverse so that each chain lists its records in input order
+            for (int i = records.size() - 1; i >= 0; i--) {
+                Object key = keyColumns.keyOf(records.get(i));
+                if (key == null) {
+                    next[i] = -1;
+                    continue;
                 }
+                Integer previousHead = heads.put(key, i);
+                next[i] = previousHead == null ? -1 : previousHead;
             }
+            matched = new BitSet(records.size());
         }
 
-        // Ensure the key column is included
-        String keyValue = recordA != null ? recordA.get(keyColumnA) : recordB != null ? recordB.get(keyColumnB) : null;
-        mergedRecord.set(keyColumnA, keyValue);
-
-        return mergedRecord;
+        private int head(Object key) {
+            if (key == null) return -1;
+            Integer head = heads.get(key);
+            return head == null ? -1 : head;
+        }
     }
 }
@@ -1,11 +1,12 @@
 package org.yexey.common.csv.imp.joins;
 
+import org.yexey.common.csv.imp.KeyColumns;
 import org.yexey.common.csv.imp.Record;
-import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class CSVStreamJoin {
@@ -16,32 +17,61 @@ public class CSVStreamJoin {
      * Example: Finding customers who have placed orders.
      */
     public static Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB) {
+        return join(streamA, streamB, keyColumnA, keyColumnB, BuildSide.RIGHT);
+    }
+
+    /**
+     * INNER JOIN with an explicit build side. Building on A and probing with B yields the same
+     * merged records (A's columns first, B's key column dropped), only the output order follows B.
+     */
+    public static Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB, BuildSide buildSide) {
+        return join(streamA, streamB, keyColumnA, keyColumnB, buildSide, false);
+    }
+
+    /**
+     * INNER JOIN with an explicit build side and an optional Bloom filter over the build keys,
+     * which discards most non-matching probe records before the hash table lookup. The filter is only
+     * built for large build sides, see {@link BloomFilter}.
+     */
+    public static Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB,
+                                      BuildSide buildSide, boolean bloomPrefilter) {
+        return join(streamA, streamB, KeyColumns.of(keyColumnA), KeyColumns.of(keyColumnB), buildSide, bloomPrefilter);
+    }
+
+    /**
+     * INNER JOIN on one or more key columns. Records match if all key values are equal pairwise.
+     */
+    public static Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB, KeyColumns keyColumnsA, KeyColumns keyColumnsB,
+                                      BuildSide buildSide, boolean bloomPrefilter) {
+        RecordMerger merger = new RecordMerger(keyColumnsB);
+        if (buildSide == BuildSide.LEFT) {
+            Map<Object, List<Record>> mapA = buildMap(streamA, keyColumnsA, "StreamA");
+            BloomFilter bloomFilter = bloomPrefilter ? BloomFilter.prefilterFor(mapA.keySet()) : null;
+            return streamB.flatMap(recordB -> {
+                Object keyB = keyColumnsB.keyOf(keyColumnsB.requirePresent(recordB, "StreamB"));
+                List<Record> matchingRecordsA = lookup(mapA, bloomFilter, keyB);
+                if (matchingRecordsA == null) {
+                    return Stream.empty();
+                }
+                return matchingRecordsA.stream()
+                        .map(recordA -> merger.merge(recordA, recordB));
+            });
+        }
+
         // Collect streamB into a Map from key to List of Records
-        Map<String, List<Record>> mapB = streamB
-                .filter(record -> {
-                    if(!record.containsColumn(keyColumnB)) {
-                        throw new ColumnNotFoundException("KeyColumn " + keyColumnB + " does not exists in StreamB");
-                    }
-                    return record.get(keyColumnB) != null;
-                })
-                .collect(Collectors.groupingBy(record -> record.get(keyColumnB)));
+        Map<Object, List<Record>> mapB = buildMap(streamB, keyColumnsB, "StreamB");
+        BloomFilter bloomFilter = bloomPrefilter ? BloomFilter.prefilterFor(mapB.keySet()) : null;
 
         // Perform the inner join
         return streamA
-                .filter(recordA -> {
-                    if(!recordA.containsColumn(keyColumnA)) {
-                        throw new ColumnNotFoundException("KeyColumn " + keyColumnA + " does not exists in StreamA");
-                    }
-                    return recordA.get(keyColumnA) != null;
-                })
                 .flatMap(recordA -> {
-                    String keyA = recordA.get(keyColumnA);
-                    List<Record> matchingRecordsB = mapB.get(keyA);
+                    Object keyA = keyColumnsA.keyOf(keyColumnsA.requirePresent(recordA, "StreamA"));
+                    List<Record> matchingRecordsB = lookup(mapB, bloomFilter, keyA);
 
                     if (matchingRecordsB != null) {
                         // Combine recordA with each matching recordB
                         return matchingRecordsB.stream()
-                                .map(recordB -> mergeRecords(recordA, recordB, keyColumnB));
+                                .map(recordB -> merger.merge(recordA, recordB));
                     } else {
                         // No match found; exclude recordA from the result
                         return Stream.empty();
@@ -49,21 +79,45 @@ public class CSVStreamJoin {
                 });
     }
 
-    // Helper method to merge two records
-    private static Record mergeRecords(Record recordA, Record recordB, String keyColumnB) {
-        Record mergedRecord = new Record();
-        mergedRecord.getData().putAll(recordA.getData());
-
-        // Add data from recordB, avoiding key conflicts
-        if (recordB != null) {
-            for (Map.Entry<String, String> entry : recordB.getData().entrySet()) {
-                String key = entry.getKey();
-                if (!key.equals(keyColumnB) && !mergedRecord.getData().containsKey(key)) {
-                    mergedRecord.set(key, entry.getValue());
-                }
+    /**
+     * INNER JOIN against a prebuilt {@link JoinIndex}, which takes the place of streamB.
+     */
+    public static Stream<Record> join(Stream<Record> streamA, JoinIndex index, KeyColumns keyColumnsA) {
+        requireSameArity(keyColumnsA, index.getKeyColumns());
+        RecordMerger merger = new RecordMerger(index.getKeyColumns());
+        return streamA.flatMap(recordA -> {
+            Object keyA = keyColumnsA.keyOf(keyColumnsA.requirePresent(recordA, "StreamA"));
+            if (keyA == null) {
+                return Stream.empty();
             }
+            return index.lookup(keyA).stream()
+                    .map(recordB -> merger.merge(recordA, recordB));
+        });
+    }
+
+    static void requireSameArity(KeyColumns keyColumnsA, KeyColumns keyColumnsB) {
+        if (keyColumnsA.size() != keyColumnsB.size()) {
+            throw new IllegalArgumentException("Both sides need the same number of key columns but got "
+                    + keyColumnsA.size() + " and " + keyColumnsB.size());
         }
+    }
 
-        return mergedRecord;
+    private static Map<Object, List<Record>> buildMap(Stream<Record> stream, KeyColumns keyColumns, String streamName) {
+        Map<Object, List<Record>> map = new HashMap<>();
+        stream.forEach(record -> {
+            Object key = keyColumns.keyOf(keyColumns.requirePresent(record, streamName));
+            if (key != null) {
+                map.computeIfAbsent(key, k -> new ArrayList<>(1)).add(record);
+            }
+        });
+        return map;
+    }
+
+    // Null keys never match, the Bloom filter (if any) answers most misses without touching the map
+    private static List<Record> lookup(Map<Object, List<Record>> map, BloomFilter bloomFilter, Object key) {
+        if (key == null || (bloomFilter != null && !bloomFilter.mightContainKey(key))) {
+            return null;
+        }
+        return map.get(key);
     }
 }
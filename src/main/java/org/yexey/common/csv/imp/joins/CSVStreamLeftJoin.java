@@ -1,10 +1,12 @@
 package org.yexey.common.csv.imp.joins;
 
+import org.yexey.common.csv.imp.KeyColumns;
 import org.yexey.common.csv.imp.Record;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class CSVStreamLeftJoin {
@@ -16,45 +18,60 @@ public class CSVStreamLeftJoin {
      * Example: Listing all products, including those that haven't been sold.
      */
     public static Stream<Record> leftJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB) {
+        return leftJoin(streamA, streamB, KeyColumns.of(keyColumnA), KeyColumns.of(keyColumnB));
+    }
+
+    /**
+     * LEFT JOIN on one or more key columns.
+     */
+    public static Stream<Record> leftJoin(Stream<Record> streamA, Stream<Record> streamB, KeyColumns keyColumnsA, KeyColumns keyColumnsB) {
         // Collect streamB into a Map from key to List of Records
-        Map<String, List<Record>> mapB = streamB
-                .filter(record -> record.get(keyColumnB) != null)
-                .collect(Collectors.groupingBy(record -> record.get(keyColumnB)));
+        Map<Object, List<Record>> mapB = new HashMap<>();
+        streamB.forEach(recordB -> {
+            Object keyB = keyColumnsB.keyOf(recordB);
+            if (keyB != null) {
+                mapB.computeIfAbsent(keyB, key -> new ArrayList<>(1)).add(recordB);
+            }
+        });
 
         // Perform the left join
+        RecordMerger merger = new RecordMerger(keyColumnsB);
         return streamA
-                .filter(recordA -> recordA.get(keyColumnA) != null)
                 .flatMap(recordA -> {
-                    String keyA = recordA.get(keyColumnA);
+                    Object keyA = keyColumnsA.keyOf(recordA);
+                    if (keyA == null) {
+                        return Stream.empty();
+                    }
                     List<Record> matchingRecordsB = mapB.get(keyA);
 
                     if (matchingRecordsB != null) {
                         // Combine recordA with each matching recordB
                         return matchingRecordsB.stream()
-                                .map(recordB -> mergeRecords(recordA, recordB, keyColumnB));
+                                .map(recordB -> merger.merge(recordA, recordB));
                     } else {
                         // No match found; merge recordA with null (recordB)
-                        return Stream.of(mergeRecords(recordA, null, keyColumnB));
+                        return Stream.of(merger.merge(recordA, null));
                     }
                 });
     }
 
-
-    // Helper method to merge two records
-    private static Record mergeRecords(Record recordA, Record recordB, String keyColumnB) {
-        Record mergedRecord = new Record();
-        mergedRecord.getData().putAll(recordA.getData());
-
-        // Add data from recordB, avoiding key conflicts
-        if (recordB != null) {
-            for (Map.Entry<String, String> entry : recordB.getData().entrySet()) {
-                String key = entry.getKey();
-                if (!key.equals(keyColumnB) && !mergedRecord.getData().containsKey(key)) {
-                    mergedRecord.set(key, entry.getValue());
-                }
+    /**
+     * LEFT JOIN against a prebuilt {@link JoinIndex}, which takes the place of streamB.
+     */
+    public static Stream<Record> leftJoin(Stream<Record> streamA, JoinIndex index, KeyColumns keyColumnsA) {
+        CSVStreamJoin.requireSameArity(keyColumnsA, index.getKeyColumns());
+        RecordMerger merger = new RecordMerger(index.getKeyColumns());
+        return streamA.flatMap(recordA -> {
+            Object keyA = keyColumnsA.keyOf(recordA);
+            if (keyA == null) {
+                return Stream.empty();
             }
-        }
-
-        return mergedRecord;
+            List<Record> matchingRecordsB = index.lookup(keyA);
+            if (matchingRecordsB.isEmpty()) {
+                return Stream.of(merger.merge(recordA, null));
+            }
+            return matchingRecordsB.stream()
+                    .map(recordB -> merger.merge(recordA, recordB));
+        });
     }
 }
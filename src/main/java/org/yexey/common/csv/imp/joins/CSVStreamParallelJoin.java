@@ -0,0 +1,214 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamParallelJoin {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Parallel INNER JOIN:
+     * streamB is hash-partitioned by key into the given number of partitions and every partition
+     * builds its own hash table on its own worker. streamA is then probed in chunks on all workers.
+     * The tables are never written after the build, so probing needs no locks.
+     * With ordered=true the output keeps the order of streamA, otherwise chunks are emitted as they complete.
+     */
+    public static Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB, int partitions, boolean ordered) {
+        return parallelJoin(streamA, streamB, keyColumnA, keyColumnB, partitions, ordered, false);
+    }
+
+    /**
+     * Parallel LEFT JOIN, see {@link #join(Stream, Stream, String, String, int, boolean)}.
+     */
+    public static Stream<Record> leftJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB, int partitions, boolean ordered) {
+        return parallelJoin(streamA, streamB, keyColumnA, keyColumnB, partitions, ordered, true);
+    }
+
+    private static Stream<Record> parallelJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB,
+                                               int partitions, boolean ordered, boolean keepUnmatched) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1 but was " + partitions);
+        }
+        ProbeIterator iterator = new ProbeIterator(streamA, streamB, keyColumnA, keyColumnB, partitions, ordered, keepUnmatched);
+        // The join starts on the first pull, not when the pipeline is assembled
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), Spliterator.ORDERED, false)
+                .onClose(iterator::shutdown);
+    }
+
+    static int partitionOf(String key, int partitions) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
+    }
+
+    private static class ProbeIterator implements Iterator<Record> {
+        private final Stream<Record> streamA;
+        private final Stream<Record> streamB;
+        private final String keyColumnA;
+        private final String keyColumnB;
+        private final int partitions;
+        private final boolean ordered;
+        private final boolean keepUnmatched;
+
+        private ForkJoinPool pool;
+        private List<Map<String, List<Record>>> tables;
+        private Iterator<Record> probeSource;
+        private ExecutorCompletionService<List<Record>> completionService;
+        private final Deque<Future<List<Record>>> inFlight = new ArrayDeque<>();
+        private int maxInFlight;
+        private Iterator<Record> current = Collections.emptyIterator();
+        private final RecordMerger merger;
+
+        private ProbeIterator(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB,
+                              int partitions, boolean ordered, boolean keepUnmatched) {
+            this.streamA = streamA;
+            this.streamB = streamB;
+            this.keyColumnA = keyColumnA;
+            this.keyColumnB = keyColumnB;
+            this.partitions = partitions;
+            this.ordered = ordered;
+            this.keepUnmatched = keepUnmatched;
+            this.merger = new RecordMerger(KeyColumns.of(keyColumnB));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (tables == null) {
+                build();
+            }
+            while (!current.hasNext()) {
+                fill();
+                if (inFlight.isEmpty()) {
+                    shutdown();
+                    return false;
+                }
+                current = nextCompletedChunk().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        private void build() {
+            int parallelism = Math.min(partitions, Runtime.getRuntime().availableProcessors());
+            pool = new ForkJoinPool(parallelism);
+            maxInFlight = parallelism * 2;
+            completionService = new ExecutorCompletionService<>(pool);
+
+            List<List<Record>> partitionedB = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                partitionedB.add(new ArrayList<>());
+            }
+            streamB.forEach(record -> {
+                if (!record.containsColumn(keyColumnB)) {
+                    throw new ColumnNotFoundException("KeyColumn " + keyColumnB + " does not exists in StreamB");
+                }
+                String key = record.get(keyColumnB);
+                if (key != null) {
+                    partitionedB.get(partitionOf(key, partitions)).add(record);
+                }
+            });
+
+            // Each partition table is built and owned by a single task
+            List<Future<Map<String, List<Record>>>> builds = new ArrayList<>(partitions);
+            for (List<Record> partition : partitionedB) {
+                builds.add(pool.submit(() -> {
+                    Map<String, List<Record>> table = new HashMap<>();
+                    for (Record record : partition) {
+                        table.computeIfAbsent(record.get(keyColumnB), key -> new ArrayList<>(1)).add(record);
+                    }
+                    return table;
+                }));
+            }
+            List<Map<String, List<Record>>> built = new ArrayList<>(partitions);
+            for (Future<Map<String, List<Record>>> build : builds) {
+                built.add(await(build));
+            }
+            tables = built;
+            probeSource = streamA.iterator();
+        }
+
+        private void fill() {
+            while (inFlight.size() < maxInFlight && probeSource.hasNext()) {
+                List<Record> chunk = new ArrayList<>(CHUNK_SIZE);
+                while (chunk.size() < CHUNK_SIZE && probeSource.hasNext()) {
+                    chunk.add(probeSource.next());
+                }
+                Callable<List<Record>> task = () -> probe(chunk);
+                // Only unordered results go through the completion queue, ordered ones are awaited in sequence
+                inFlight.addLast(ordered ? pool.submit(task) : completionService.submit(task));
+            }
+        }
+
+        private List<Record> nextCompletedChunk() {
+            if (ordered) {
+                return await(inFlight.pollFirst());
+            }
+            try {
+                Future<List<Record>> done = completionService.take();
+                inFlight.remove(done);
+                return await(done);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shutdown();
+                throw new IllegalStateException("Interrupted while waiting for join results", e);
+            }
+        }
+
+        private List<Record> probe(List<Record> chunk) {
+            List<Record> result = new ArrayList<>(chunk.size());
+            for (Record recordA : chunk) {
+                if (!recordA.containsColumn(keyColumnA)) {
+                    throw new ColumnNotFoundException("KeyColumn " + keyColumnA + " does not exists in StreamA");
+                }
+                String keyA = recordA.get(keyColumnA);
+                if (keyA == null) {
+                    continue;
+                }
+                List<Record> matchingRecordsB = tables.get(partitionOf(keyA, partitions)).get(keyA);
+                if (matchingRecordsB != null) {
+                    for (Record recordB : matchingRecordsB) {
+                        result.add(merger.merge(recordA, recordB));
+                    }
+                } else if (keepUnmatched) {
+                    result.add(merger.merge(recordA, null));
+                }
+            }
+            return result;
+        }
+
+        private <T> T await(Future<T> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shutdown();
+                throw new IllegalStateException("Interrupted while waiting for join results", e);
+            } catch (ExecutionException e) {
+                shutdown();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Parallel join failed", e.getCause());
+            }
+        }
+
+        private void shutdown() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.Record;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static org.yexey.common.csv.imp.joins.CSVStreamAsOfJoin.timeOf;
+
+public class CSVStreamRangeJoin {
+
+    /**
+     * RANGE JOIN:
+     * Matches every record of streamA with all records of streamB for which
+     * B.startColumn <= A.pointColumn <= B.endColumn. streamA must be sorted ascending by pointColumn
+     * and streamB by startColumn. Only the B records whose range is still open are held in memory.
+     * Example: Assigning events to the sessions they happened in.
+     */
+    public static Stream<Record> rangeJoin(Stream<Record> streamA, Stream<Record> streamB, String pointColumn,
+                                           String startColumn, String endColumn, ToLongFunction<String> parser) {
+        RecordMerger merger = new RecordMerger();
+        Iterator<Record> iteratorB = streamB.iterator();
+        List<Record> active = new ArrayList<>();
+        List<long[]> activeRanges = new ArrayList<>();
+        long[] lastPoint = {Long.MIN_VALUE};
+        long[] lastStart = {Long.MIN_VALUE};
+        Record[] pendingB = new Record[1];
+        long[] pendingRange = new long[2];
+
+        return streamA.flatMap(recordA -> {
+            long point = timeOf(recordA, pointColumn, parser, "StreamA");
+            if (point < lastPoint[0]) {
+                throw new IllegalStateException("StreamA is not sorted by " + pointColumn);
+            }
+            lastPoint[0] = point;
+
+            // Open every range that starts at or before the point
+            while (pendingB[0] != null || iteratorB.hasNext()) {
+                if (pendingB[0] == null) {
+                    Record recordB = iteratorB.next();
+                    long start = timeOf(recordB, startColumn, parser, "StreamB");
+                    if (start < lastStart[0]) {
+                        throw new IllegalStateException("StreamB is not sorted by " + startColumn);
+                    }
+                    lastStart[0] = start;
+                    pendingB[0] = recordB;
+                    pendingRange[0] = start;
+                    pendingRange[1] = timeOf(recordB, endColumn, parser, "StreamB");
+                }
+                if (pendingRange[0] > point) {
+                    break;
+                }
+                active.add(pendingB[0]);
+                activeRanges.add(new long[]{pendingRange[0], pendingRange[1]});
+                pendingB[0] = null;
+            }
+
+            // Close ranges ending before the point, they cannot match any later A record either
+            List<Record> matches = new ArrayList<>();
+            int kept = 0;
+            for (int i = 0; i < active.size(); i++) {
+                long end = activeRanges.get(i)[1];
+                if (end < point) {
+                    continue;
+                }
+                active.set(kept, active.get(i));
+                activeRanges.set(kept, activeRanges.get(i));
+                kept++;
+                matches.add(merger.merge(recordA, active.get(i)));
+            }
+            active.subList(kept, active.size()).clear();
+            activeRanges.subList(kept, activeRanges.size()).clear();
+            return matches.stream();
+        });
+    }
+}
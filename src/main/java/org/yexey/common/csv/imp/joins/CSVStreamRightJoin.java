@@ -1,5 +1,6 @@
 package org.yexey.common.csv.imp.joins;
 
+import org.yexey.common.csv.imp.KeyColumns;
 import org.yexey.common.csv.imp.Record;
 
 import java.util.stream.Stream;
@@ -8,4 +9,8 @@ public class CSVStreamRightJoin {
     public static Stream<Record> rightJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB) {
        return CSVStreamLeftJoin.leftJoin(streamB, streamA, keyColumnB, keyColumnA);
     }
-}
\ No newline at end of file
+
+    public static Stream<Record> rightJoin(Stream<Record> streamA, Stream<Record> streamB, KeyColumns keyColumnsA, KeyColumns keyColumnsB) {
+       return CSVStreamLeftJoin.leftJoin(streamB, streamA, keyColumnsB, keyColumnsA);
+    }
+}
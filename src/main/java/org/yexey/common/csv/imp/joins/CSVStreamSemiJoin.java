@@ -0,0 +1,66 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+public class CSVStreamSemiJoin {
+
+    /**
+     * SEMI JOIN:
+     * Keeps the records of streamA whose key appears in streamB. Only the key set of streamB
+     * is retained and the records of streamA are passed through untouched.
+     * Example: Customers who have placed at least one order.
+     */
+    public static Stream<Record> semiJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB, boolean bloomFilter) {
+        Predicate<String> contains = keyLookup(streamB, keyColumnB, bloomFilter);
+        return streamA.filter(recordA -> {
+            String keyA = keyOf(recordA, keyColumnA);
+            return keyA != null && contains.test(keyA);
+        });
+    }
+
+    /**
+     * ANTI JOIN:
+     * Keeps the records of streamA whose key does not appear in streamB.
+     * Records without a key value never match and are therefore kept.
+     * Example: Customers who have never placed an order.
+     */
+    public static Stream<Record> antiJoin(Stream<Record> streamA, Stream<Record> streamB, String keyColumnA, String keyColumnB, boolean bloomFilter) {
+        Predicate<String> contains = keyLookup(streamB, keyColumnB, bloomFilter);
+        return streamA.filter(recordA -> {
+            String keyA = keyOf(recordA, keyColumnA);
+            return keyA == null || !contains.test(keyA);
+        });
+    }
+
+    private static Predicate<String> keyLookup(Stream<Record> streamB, String keyColumnB, boolean bloomFilter) {
+        Set<String> keysB = new HashSet<>();
+        streamB.forEach(recordB -> {
+            if (!recordB.containsColumn(keyColumnB)) {
+                throw new ColumnNotFoundException("KeyColumn " + keyColumnB + " does not exists in StreamB");
+            }
+            String keyB = recordB.get(keyColumnB);
+            if (keyB != null) {
+                keysB.add(keyB);
+            }
+        });
+        BloomFilter filter = bloomFilter ? BloomFilter.prefilterFor(keysB) : null;
+        if (filter == null) {
+            return keysB::contains;
+        }
+        // The filter answers most misses, hits are confirmed against the exact key set
+        return key -> filter.mightContain(key) && keysB.contains(key);
+    }
+
+    private static String keyOf(Record recordA, String keyColumnA) {
+        if (!recordA.containsColumn(keyColumnA)) {
+            throw new ColumnNotFoundException("KeyColumn " + keyColumnA + " does not exists in StreamA");
+        }
+        return recordA.get(keyColumnA);
+    }
+}
@@ -0,0 +1,479 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.CompositeKey;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.RecordSchema;
+import org.yexey.common.csv.imp.spill.RecordSpillFile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Hash index over the records of one stream, built once and probed by many joins.
+ * An index is immutable after it was built or opened and can be shared between threads.
+ * The in-memory index hands out its records without copying them. {@link #save(Path)} writes
+ * the index to a file which {@link #open(Path)} memory-maps, so later runs skip the rebuild.
+ * The mapped index hands out views of its records which decode a value only when it is read.
+ * Close an opened index once it is no longer probed.
+ */
+public abstract class JoinIndex implements Closeable {
+
+    private static final int MAGIC = 0x43534A49; // "CSJI"
+    private static final int VERSION = 2;
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final KeyColumns keyColumns;
+
+    private JoinIndex(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    public static JoinIndex build(Stream<Record> stream, String... keyColumns) {
+        return build(stream, KeyColumns.of(keyColumns));
+    }
+
+    public static JoinIndex build(Stream<Record> stream, KeyColumns keyColumns) {
+        Map<Object, List<Record>> map = new HashMap<>();
+        stream.forEach(record -> {
+            Object key = keyColumns.keyOf(keyColumns.requirePresent(record, "the indexed stream"));
+            if (key != null) {
+                map.computeIfAbsent(key, k -> new ArrayList<>(1)).add(record);
+            }
+        });
+        return new MemoryJoinIndex(keyColumns, map);
+    }
+
+    /**
+     * Opens an index written by {@link #save(Path)}. Lookups return views of the matching records in the mapped file.
+     */
+    public static JoinIndex open(Path path) throws IOException {
+        return MappedJoinIndex.map(path);
+    }
+
+    public KeyColumns getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * The records stored under the given key (a String or a {@link CompositeKey}), empty if there are none.
+     */
+    public abstract List<Record> lookup(Object key);
+
+    /**
+     * Number of distinct keys.
+     */
+    public abstract int size();
+
+    public abstract void save(Path path) throws IOException;
+
+    /**
+     * Releases the index. Records obtained from it stay readable.
+     */
+    @Override
+    public void close() {
+    }
+
+    private static class MemoryJoinIndex extends JoinIndex {
+        private final Map<Object, List<Record>> map;
+
+        private MemoryJoinIndex(KeyColumns keyColumns, Map<Object, List<Record>> map) {
+            super(keyColumns);
+            this.map = map;
+            map.replaceAll((key, records) -> Collections.unmodifiableList(records));
+        }
+
+        @Override
+        public List<Record> lookup(Object key) {
+            return map.getOrDefault(key, Collections.emptyList());
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        /*
+         * Layout: header, key groups, slot table.
+         * Header:    magic, version, key column names, column dictionary, schemas as lists of column indexes,
+         *            group count, slot count, slot table offset, largest group size
+         * Key group: key hash, key values, record count, per record its schema index and values in schema order
+         * Slots:     open addressing table of group offsets, -1 marks an empty slot
+         */
+        @Override
+        public void save(Path path) throws IOException {
+            Map<String, Integer> columnIndexes = new LinkedHashMap<>();
+            Map<List<String>, Integer> schemas = new LinkedHashMap<>();
+            for (List<Record> records : map.values()) {
+                for (Record record : records) {
+                    List<String> columns = List.copyOf(record.getColumnNames());
+                    if (!schemas.containsKey(columns)) {
+                        schemas.put(columns, schemas.size());
+                        columns.forEach(column -> columnIndexes.putIfAbsent(column, columnIndexes.size()));
+                    }
+                }
+            }
+            int slotCount = Integer.highestOneBit(Math.max(1, map.size() * 2 - 1)) << 1;
+            long[] slots = new long[slotCount];
+            Arrays.fill(slots, -1);
+
+            Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                long patchPosition;
+                long slotTableOffset;
+                long maxGroupBytes = 0;
+                try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+                     DataOutputStream out = new DataOutputStream(counter)) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(getKeyColumns().size());
+                    for (int i = 0; i < getKeyColumns().size(); i++) {
+                        RecordSpillFile.writeString(out, getKeyColumns().get(i));
+                    }
+                    out.writeInt(columnIndexes.size());
+                    for (String column : columnIndexes.keySet()) {
+                        RecordSpillFile.writeString(out, column);
+                    }
+                    out.writeInt(schemas.size());
+                    for (List<String> columns : schemas.keySet()) {
+                        out.writeInt(columns.size());
+                        for (String column : columns) {
+                            out.writeInt(columnIndexes.get(column));
+                        }
+                    }
+                    out.writeInt(map.size());
+                    out.writeInt(slotCount);
+                    // Slot table offset and largest group size are patched in after the groups were written
+                    patchPosition = counter.count;
+                    out.writeLong(0);
+                    out.writeLong(0);
+
+                    for (Map.Entry<Object, List<Record>> entry : map.entrySet()) {
+                        long groupStart = counter.count;
+                        long hash = KeyColumns.hash64(entry.getKey());
+                        int slot = (int) (hash & (slotCount - 1));
+                        while (slots[slot] != -1) {
+                            slot = (slot + 1) & (slotCount - 1);
+                        }
+                        slots[slot] = groupStart;
+
+                        out.writeLong(hash);
+                        for (int i = 0; i < getKeyColumns().size(); i++) {
+                            RecordSpillFile.writeString(out, getKeyColumns().valueOf(entry.getKey(), i));
+                        }
+                        out.writeInt(entry.getValue().size());
+                        for (Record record : entry.getValue()) {
+                            List<String> columns = List.copyOf(record.getColumnNames());
+                            out.writeInt(schemas.get(columns));
+                            for (String column : columns) {
+                                RecordSpillFile.writeString(out, record.get(column));
+                            }
+                        }
+                        maxGroupBytes = Math.max(maxGroupBytes, counter.count - groupStart);
+                    }
+                    // Align the slot table so that no slot straddles two mapped chunks
+                    while (counter.count % Long.BYTES != 0) {
+                        out.writeByte(0);
+                    }
+                    slotTableOffset = counter.count;
+                    for (long slot : slots) {
+                        out.writeLong(slot);
+                    }
+                }
+
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ByteBuffer patch = ByteBuffer.allocate(2 * Long.BYTES).putLong(slotTableOffset).putLong(maxGroupBytes);
+                    patch.flip();
+                    channel.write(patch, patchPosition);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class MappedJoinIndex extends JoinIndex {
+        private final Path path;
+        private final RecordSchema[] schemas;
+        private final int keyCount;
+        private final int slotCount;
+        private final long slotTableOffset;
+        private volatile MappedByteBuffer[] chunks;
+
+        private MappedJoinIndex(Path path, KeyColumns keyColumns, MappedByteBuffer[] chunks, RecordSchema[] schemas,
+                                int keyCount, int slotCount, long slotTableOffset) {
+            super(keyColumns);
+            this.path = path;
+            this.chunks = chunks;
+            this.schemas = schemas;
+            this.keyCount = keyCount;
+            this.slotCount = slotCount;
+            this.slotTableOffset = slotTableOffset;
+        }
+
+        private static MappedJoinIndex map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(path + " is not a join index");
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported join index version " + version + " in " + path);
+                }
+                String[] keyColumns = new String[in.readInt()];
+                for (int i = 0; i < keyColumns.length; i++) {
+                    keyColumns[i] = RecordSpillFile.readString(in);
+                }
+                String[] columns = new String[in.readInt()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = RecordSpillFile.readString(in);
+                }
+                // Records with the same columns share one schema, as records read from one CSV file do
+                RecordSchema[] schemas = new RecordSchema[in.readInt()];
+                for (int i = 0; i < schemas.length; i++) {
+                    List<String> schemaColumns = new ArrayList<>();
+                    for (int j = in.readInt(); j > 0; j--) {
+                        schemaColumns.add(columns[in.readInt()]);
+                    }
+                    schemas[i] = new RecordSchema(schemaColumns);
+                }
+                int keyCount = in.readInt();
+                int slotCount = in.readInt();
+                long slotTableOffset = in.readLong();
+                long maxGroupBytes = in.readLong();
+
+                // Chunks overlap by the largest group, so every group can be read from the chunk it starts in
+                long size = channel.size();
+                int chunkCount = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    long start = i * CHUNK_SIZE;
+                    long length = Math.min(size - start, CHUNK_SIZE + Math.max(maxGroupBytes, Long.BYTES));
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                }
+                return new MappedJoinIndex(path, KeyColumns.of(keyColumns), chunks, schemas, keyCount, slotCount, slotTableOffset);
+            }
+        }
+
+        @Override
+        public List<Record> lookup(Object key) {
+            if (key == null) {
+                return Collections.emptyList();
+            }
+            MappedByteBuffer[] chunks = chunks();
+            long hash = KeyColumns.hash64(key);
+            int slot = (int) (hash & (slotCount - 1));
+            while (true) {
+                long groupOffset = readLong(chunks, slotTableOffset + (long) slot * Long.BYTES);
+                if (groupOffset == -1) {
+                    return Collections.emptyList();
+                }
+                ByteBuffer group = chunks[(int) (groupOffset / CHUNK_SIZE)].duplicate();
+                group.position((int) (groupOffset % CHUNK_SIZE));
+                if (group.getLong() == hash && keyMatches(group, key)) {
+                    return readRecords(group);
+                }
+                slot = (slot + 1) & (slotCount - 1);
+            }
+        }
+
+        @Override
+        public int size() {
+            return keyCount;
+        }
+
+        /**
+         * Copies the file the index was opened from.
+         */
+        @Override
+        public void save(Path target) throws IOException {
+            if (Files.exists(target) && Files.isSameFile(path, target)) {
+                return;
+            }
+            Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(path, tmp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Java has no safe way to unmap a file explicitly, so the mapping is dropped here and unmapped by the garbage
+         * collector once the records obtained from it are gone as well. Lookups fail from now on.
+         */
+        @Override
+        public void close() {
+            chunks = null;
+        }
+
+        private MappedByteBuffer[] chunks() {
+            MappedByteBuffer[] chunks = this.chunks;
+            if (chunks == null) {
+                throw new IllegalStateException("Join index " + path + " was closed");
+            }
+            return chunks;
+        }
+
+        private boolean keyMatches(ByteBuffer group, Object key) {
+            for (int i = 0; i < getKeyColumns().size(); i++) {
+                if (!Objects.equals(getKeyColumns().valueOf(key, i), decodeString(group))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Views of the records of a group, found by skipping over their values
+        private List<Record> readRecords(ByteBuffer group) {
+            int recordCount = group.getInt();
+            List<Record> records = new ArrayList<>(recordCount);
+            for (int i = 0; i < recordCount; i++) {
+                RecordSchema schema = schemas[group.getInt()];
+                records.add(new MappedRecord(schema, group, group.position()));
+                for (int j = 0; j < schema.size(); j++) {
+                    skipString(group);
+                }
+            }
+            return records;
+        }
+
+        private static long readLong(MappedByteBuffer[] chunks, long offset) {
+            return chunks[(int) (offset / CHUNK_SIZE)].getLong((int) (offset % CHUNK_SIZE));
+        }
+    }
+
+    /**
+     * Record of a mapped index which decodes its values from the mapping when they are read. Like {@link
+     * org.yexey.common.csv.imp.SlotRecord}, the first structural access or mutation materializes it into a map.
+     */
+    private static final class MappedRecord extends Record {
+        private RecordSchema schema;
+        private ByteBuffer chunk;
+        private final int valuesOffset;
+        private boolean materialized;
+
+        private MappedRecord(RecordSchema schema, ByteBuffer chunk, int valuesOffset) {
+            this.schema = schema;
+            this.chunk = chunk;
+            this.valuesOffset = valuesOffset;
+        }
+
+        @Override
+        protected LinkedHashMap<String, String> data() {
+            LinkedHashMap<String, String> data = super.data();
+            if (!materialized) {
+                ByteBuffer values = values();
+                for (int i = 0; i < schema.size(); i++) {
+                    data.put(schema.columnAt(i), decodeString(values));
+                }
+                materialized = true;
+                schema = null;
+                chunk = null;
+            }
+            return data;
+        }
+
+        @Override
+        public String get(String columnName) {
+            if (materialized) {
+                return super.get(columnName);
+            }
+            int slot = schema.slotOf(columnName);
+            if (slot < 0) {
+                return null;
+            }
+            ByteBuffer values = values();
+            for (int i = 0; i < slot; i++) {
+                skipString(values);
+            }
+            return decodeString(values);
+        }
+
+        @Override
+        public boolean containsColumn(String columnName) {
+            return materialized ? super.containsColumn(columnName) : schema.slotOf(columnName) >= 0;
+        }
+
+        @Override
+        public Set<String> getColumnNames() {
+            return materialized ? super.getColumnNames() : schema.getColumnNames();
+        }
+
+        @Override
+        public Collection<String> getValues() {
+            if (materialized) {
+                return super.getValues();
+            }
+            ByteBuffer values = values();
+            List<String> result = new ArrayList<>(schema.size());
+            for (int i = 0; i < schema.size(); i++) {
+                result.add(decodeString(values));
+            }
+            return result;
+        }
+
+        @Override
+        public long estimatedSize() {
+            return materialized ? super.estimatedSize() : OBJECT_SIZE + 16 + MAP_SIZE;
+        }
+
+        // A private view per read keeps concurrent readers of the shared mapping independent of each other
+        private ByteBuffer values() {
+            ByteBuffer values = chunk.duplicate();
+            values.position(valuesOffset);
+            return values;
+        }
+    }
+
+    private static String decodeString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
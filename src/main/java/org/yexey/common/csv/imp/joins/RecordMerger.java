@@ -0,0 +1,139 @@
+package org.yexey.common.csv.imp.joins;
+
+import org.yexey.common.csv.imp.JoinedRecord;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+
+import java.util.*;
+
+/**
+ * Merges the two sides of a join into {@link JoinedRecord} views. The columns of A come first,
+ * followed by the columns of B that are neither key columns of B nor already present in A.
+ * The layout is computed once and reused for as long as the inputs keep their columns.
+ */
+class RecordMerger {
+
+    private final KeyColumns keyColumnsA;
+    private final KeyColumns keyColumnsB;
+    private final boolean fillKeyColumns;
+    // One entry per combination of missing sides, so left joins do not thrash between matched and unmatched rows.
+    // Entries are immutable, a racy update from parallel joins only costs a recomputation.
+    private final CachedLayout[] cached = new CachedLayout[4];
+
+    /**
+     * Merger for joins without key columns to drop, such as range joins.
+     */
+    RecordMerger() {
+        this(null, null, false);
+    }
+
+    /**
+     * Merger for inner and left joins.
+     */
+    RecordMerger(KeyColumns keyColumnsB) {
+        this(null, keyColumnsB, false);
+    }
+
+    /**
+     * Merger for full joins, which additionally fills A's key columns from B when A is missing.
+     */
+    RecordMerger(KeyColumns keyColumnsA, KeyColumns keyColumnsB) {
+        this(keyColumnsA, keyColumnsB, true);
+    }
+
+    private RecordMerger(KeyColumns keyColumnsA, KeyColumns keyColumnsB, boolean fillKeyColumns) {
+        this.keyColumnsA = keyColumnsA;
+        this.keyColumnsB = keyColumnsB;
+        this.fillKeyColumns = fillKeyColumns;
+    }
+
+    Record merge(Record recordA, Record recordB) {
+        int slot = (recordA == null ? 2 : 0) + (recordB == null ? 1 : 0);
+        CachedLayout layout = cached[slot];
+        if (layout == null || !layout.matches(recordA, recordB)) {
+            layout = new CachedLayout(recordA, recordB, computeLayout(recordA, recordB));
+            cached[slot] = layout;
+        }
+        return new JoinedRecord(layout.layout, recordA, recordB);
+    }
+
+    private JoinedRecord.Layout computeLayout(Record recordA, Record recordB) {
+        Map<String, Integer> positions = new HashMap<>();
+        List<String> columns = new ArrayList<>();
+        List<Byte> sides = new ArrayList<>();
+        List<String> sourceColumns = new ArrayList<>();
+
+        if (recordA != null) {
+            for (String column : recordA.getColumnNames()) {
+                positions.put(column, columns.size());
+                columns.add(column);
+                sides.add(JoinedRecord.LEFT);
+                sourceColumns.add(column);
+            }
+        }
+        if (recordB != null) {
+            for (String column : recordB.getColumnNames()) {
+                if ((keyColumnsB == null || !keyColumnsB.contains(column)) && !positions.containsKey(column)) {
+                    positions.put(column, columns.size());
+                    columns.add(column);
+                    sides.add(JoinedRecord.RIGHT);
+                    sourceColumns.add(column);
+                }
+            }
+        }
+        if (fillKeyColumns) {
+            // Ensure the key columns are included, read from B if A is missing
+            for (int i = 0; i < keyColumnsA.size(); i++) {
+                String column = keyColumnsA.get(i);
+                byte side = recordA != null ? JoinedRecord.LEFT : JoinedRecord.RIGHT;
+                String sourceColumn = recordA != null ? column : keyColumnsB.get(i);
+                Integer position = positions.get(column);
+                if (position == null) {
+                    positions.put(column, columns.size());
+                    columns.add(column);
+                    sides.add(side);
+                    sourceColumns.add(sourceColumn);
+                } else {
+                    sides.set(position, side);
+                    sourceColumns.set(position, sourceColumn);
+                }
+            }
+        }
+        return new JoinedRecord.Layout(columns, sides, sourceColumns);
+    }
+
+    private static final class CachedLayout {
+        private final String[] columnsA;
+        private final String[] columnsB;
+        private final JoinedRecord.Layout layout;
+
+        private CachedLayout(Record recordA, Record recordB, JoinedRecord.Layout layout) {
+            this.columnsA = recordA == null ? null : recordA.getColumnNames().toArray(new String[0]);
+            this.columnsB = recordB == null ? null : recordB.getColumnNames().toArray(new String[0]);
+            this.layout = layout;
+        }
+
+        private boolean matches(Record recordA, Record recordB) {
+            return sameColumns(columnsA, recordA) && sameColumns(columnsB, recordB);
+        }
+
+        // Column names of parsed records are usually the same String instances, so this is mostly identity checks
+        private static boolean sameColumns(String[] columns, Record record) {
+            if (record == null || columns == null) {
+                return record == null && columns == null;
+            }
+            Set<String> names = record.getColumnNames();
+            if (names.size() != columns.length) {
+                return false;
+            }
+            int i = 0;
+            for (String name : names) {
+                String column = columns[i++];
+                if (name != column && !name.equals(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.yexey.common.csv.imp.memory;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.MemoryBudgetExceededException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Upper bound for the records which operators hold in memory at the same time, shared by all operators of a
+ * job. An operator opens a {@link Reservation}, adds the {@link Record#estimatedSize() estimated size} of every
+ * record it keeps and closes it once the records are gone. When a record does not fit, the operator either
+ * spills, or fails with a {@link MemoryBudgetExceededException} naming it. The budget is thread-safe and records
+ * the peak usage, overall and of each operator, to be read once the job finished.
+ */
+public class MemoryBudget {
+
+    private final long limitBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final Map<String, Long> operatorPeaks = new ConcurrentHashMap<>();
+
+    public MemoryBudget(long limitBytes) {
+        if (limitBytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be at least 1 byte but was " + limitBytes);
+        }
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * A budget of the given fraction of the maximum heap size.
+     */
+    public static MemoryBudget ofMaxHeap(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Fraction must be above 0 and at most 1 but was " + fraction);
+        }
+        return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Opens a reservation of nothing yet for the named operator.
+     */
+    public Reservation reserve(String operator) {
+        return new Reservation(operator);
+    }
+
+    /**
+     * The stream, with every record it passes counted against the budget until the stream is closed. Fails once
+     * the records do not fit, e.g. for the input of an operator which keeps all of them.
+     */
+    public Stream<Record> track(Stream<Record> stream, String operator) {
+        Reservation reservation = reserve(operator);
+        return stream.peek(reservation::add).onClose(reservation::close);
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    /**
+     * Largest reservation of each operator, by operator name.
+     */
+    public Map<String, Long> getOperatorPeaks() {
+        return new TreeMap<>(operatorPeaks);
+    }
+
+    private boolean tryReserve(long bytes) {
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used + bytes > limitBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+        peakBytes.accumulateAndGet(used + bytes, Math::max);
+        return true;
+    }
+
+    private static String format(long bytes) {
+        if (bytes < 1 << 10) {
+            return bytes + " B";
+        }
+        if (bytes < 1 << 20) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / (double) (1 << 10));
+        }
+        if (bytes < 1 << 30) {
+            return String.format(Locale.ROOT, "%.1f MiB", bytes / (double) (1 << 20));
+        }
+        return String.format(Locale.ROOT, "%.1f GiB", bytes / (double) (1 << 30));
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBudget{limit=" + format(limitBytes) + ", used=" + format(usedBytes.get())
+                + ", peak=" + format(peakBytes.get()) + ", operators=" + getOperatorPeaks() + "}";
+    }
+
+    /**
+     * Memory held by one operator. Closing it returns the memory to the budget.
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final String operator;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile boolean closed;
+
+        private Reservation(String operator) {
+            this.operator = operator;
+        }
+
+        /**
+         * Adds the given number of bytes if they fit into the budget.
+         */
+        public boolean tryAdd(long size) {
+            if (closed) {
+                throw new IllegalStateException("Reservation of " + operator + " was already closed");
+            }
+            if (!tryReserve(size)) {
+                return false;
+            }
+            long held = bytes.addAndGet(size);
+            operatorPeaks.merge(operator, held, Math::max);
+            return true;
+        }
+
+        public boolean tryAdd(Record record) {
+            return tryAdd(record.estimatedSize());
+        }
+
+        /**
+         * Adds the record, failing if it does not fit into the budget.
+         */
+        public void add(Record record) {
+            long size = record.estimatedSize();
+            if (!tryAdd(size)) {
+                throw new MemoryBudgetExceededException(operator + " exceeds the memory budget of " + format(limitBytes)
+                        + ": it holds " + format(bytes.get()) + " and needs " + format(size) + " more while "
+                        + format(usedBytes.get()) + " are in use. Raise the budget or reduce the records kept in memory.");
+            }
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                usedBytes.addAndGet(-bytes.getAndSet(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.yexey.common.csv.imp.memory;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.spill.RecordSpillFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Records collected by an operator which reads them again later. They are kept in memory as long as they fit into
+ * the reservation, the rest goes to a {@link RecordSpillFile}. Reading returns the records in the order they were
+ * added. Closing releases the reservation and deletes the file.
+ */
+public class SpillingRecordBuffer implements Consumer<Record>, Closeable {
+
+    private final MemoryBudget.Reservation reservation;
+    private final List<Record> records = new ArrayList<>();
+    private RecordSpillFile spillFile;
+
+    public SpillingRecordBuffer(MemoryBudget.Reservation reservation) {
+        this.reservation = reservation;
+    }
+
+    @Override
+    public void accept(Record record) {
+        if (spillFile == null && reservation.tryAdd(record)) {
+            records.add(record);
+            return;
+        }
+        try {
+            if (spillFile == null) {
+                spillFile = new RecordSpillFile();
+            }
+            spillFile.write(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spill records of " + reservation.getOperator(), e);
+        }
+    }
+
+    public long size() {
+        return records.size() + (spillFile == null ? 0 : spillFile.getRecordCount());
+    }
+
+    public boolean hasSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * The records added so far: those in memory, then those read back from the file.
+     */
+    public Stream<Record> stream() throws IOException {
+        if (spillFile == null) {
+            return records.stream();
+        }
+        RecordSpillFile.Reader reader = spillFile.reader();
+        Stream<Record> spilled = StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED), false);
+        return Stream.concat(records.stream(), spilled).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.clear();
+        try {
+            if (spillFile != null) {
+                spillFile.close();
+            }
+        } finally {
+            reservation.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.yexey.common.csv.imp.pipeline;
+
+import org.yexey.common.csv.imp.BatchSpliterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs one stage of a pipeline on a thread of its own, connected to the next stage by a bounded {@link StageQueue}.
+ * The thread starts with the terminal operation of the returned stream. What the stage throws is rethrown to the
+ * consumer unchanged, and closing the returned stream stops the stage at its next item and waits for it to end,
+ * so terminal operations should close the streams they consume. A stage which does not get to its next item, e.g.
+ * because it waits for input, is woken up by the interrupt action passed to it, such as closing its source.
+ */
+public final class Stage {
+
+    /**
+     * Chunks or batches in flight between two stages.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Records handed over at a time.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    // How long a cancelled stage may take to get to its next item before it is interrupted, and to end after that
+    private static final long GRACE_MILLIS = 100;
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private Stage() {
+    }
+
+    /**
+     * The items the producer passes to its consumer, produced on a thread named after the stage.
+     */
+    public static <T> Stream<T> async(String name, int capacity, Consumer<Consumer<T>> producer) {
+        return async(name, capacity, producer, null);
+    }
+
+    /**
+     * As above, running interrupt from the consumer's thread if the stage is still busy once it was cancelled.
+     */
+    public static <T> Stream<T> async(String name, int capacity, Consumer<Consumer<T>> producer, Runnable interrupt) {
+        StageQueue<T> queue = new StageQueue<>(capacity);
+        AtomicReference<Thread> started = new AtomicReference<>();
+        Supplier<Spliterator<T>> start = () -> {
+            Thread thread = new Thread(() -> run(producer, queue), "csv-stage-" + name + "-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            started.set(thread);
+            thread.start();
+            // Parallel consumers split off one item at a time
+            return new BatchSpliterator<>(queue.iterator(), 1);
+        };
+        return StreamSupport.stream(start, Spliterator.ORDERED, false).onClose(() -> stop(queue, started.get(), interrupt));
+    }
+
+    /**
+     * The elements of the upstream stream, which is created and consumed on the stage's thread and handed over in
+     * chunks of chunkSize elements.
+     */
+    public static <T> Stream<T> async(String name, int capacity, int chunkSize, Supplier<Stream<T>> upstream) {
+        return async(name, capacity, chunkSize, upstream, null);
+    }
+
+    /**
+     * As above, with an action which wakes up the stage, see {@link #async(String, int, Consumer, Runnable)}.
+     */
+    public static <T> Stream<T> async(String name, int capacity, int chunkSize, Supplier<Stream<T>> upstream, Runnable interrupt) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1 but was " + chunkSize);
+        }
+        Stream<List<T>> chunks = async(name, capacity, (Consumer<List<T>> sink) -> {
+            try (Stream<T> stream = upstream.get()) {
+                Chunker<T> chunker = new Chunker<>(sink, chunkSize);
+                stream.forEach(chunker);
+                chunker.flush();
+            }
+        }, interrupt);
+        return chunks.flatMap(List::stream);
+    }
+
+    // Cancels the stage and waits for its thread, so that it released what it read from once the stream is closed.
+    // A thread stuck before its next item is interrupted, and one which does not end even then is left behind.
+    private static void stop(StageQueue<?> queue, Thread thread, Runnable interrupt) {
+        queue.cancel();
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join(GRACE_MILLIS);
+            if (thread.isAlive() && interrupt != null) {
+                try {
+                    interrupt.run();
+                } catch (RuntimeException e) {
+                    // The stage fails on its own thread, which nobody listens to any more
+                }
+            }
+            thread.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> void run(Consumer<Consumer<T>> producer, StageQueue<T> queue) {
+        try {
+            producer.accept(queue::put);
+            queue.finish(null);
+        } catch (CancellationException e) {
+            // The consumer is gone, nobody is waiting for the rest
+            queue.finish(null);
+        } catch (Throwable t) {
+            queue.finish(t);
+        }
+    }
+
+    private static final class Chunker<T> implements Consumer<T> {
+        private final Consumer<List<T>> sink;
+        private final int chunkSize;
+        private List<T> chunk;
+
+        private Chunker(Consumer<List<T>> sink, int chunkSize) {
+            this.sink = sink;
+            this.chunkSize = chunkSize;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        @Override
+        public void accept(T element) {
+            chunk.add(element);
+            if (chunk.size() == chunkSize) {
+                sink.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        private void flush() {
+            if (!chunk.isEmpty()) {
+                sink.accept(chunk);
+            }
+        }
+    }
+}
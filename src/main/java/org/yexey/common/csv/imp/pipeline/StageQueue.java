@@ -0,0 +1,158 @@
+package org.yexey.common.csv.imp.pipeline;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue between two pipeline stages, for one producing and one consuming thread at a time. The ring buffer
+ * takes no locks, each side only advances its own index. A producer facing a full queue and a consumer facing an
+ * empty one park briefly and check again, which is the backpressure between the stages. The producer ends the queue
+ * with {@link #finish(Throwable)}, the consumer stops the producer with {@link #cancel()}.
+ */
+final class StageQueue<T> {
+
+    private static final long PARK_NANOS = 50_000;
+
+    private final Object[] buffer;
+    private final int mask;
+    // Next slot to take and next slot to put
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean finished;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity the number of items in flight, rounded up to a power of two
+     */
+    StageQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1 but was " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an item, waiting while the queue is full. Throws a {@link CancellationException} once the consumer is gone.
+     */
+    void put(T item) {
+        Objects.requireNonNull(item, "Item must not be null");
+        long position = tail.get();
+        while (position - head.get() >= buffer.length) {
+            if (cancelled) {
+                break;
+            }
+            parkedProducer = Thread.currentThread();
+            if (position - head.get() >= buffer.length && !cancelled) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            parkedProducer = null;
+            if (Thread.interrupted()) {
+                cancel();
+            }
+        }
+        if (cancelled) {
+            throw new CancellationException("The next stage stopped consuming");
+        }
+        buffer[(int) position & mask] = item;
+        tail.lazySet(position + 1);
+        LockSupport.unpark(parkedConsumer);
+    }
+
+    /**
+     * The next item, waiting while the queue is empty, or null once the producer finished. A failure of the producer
+     * is rethrown here after the items it produced before.
+     */
+    @SuppressWarnings("unchecked")
+    T take() {
+        long position = head.get();
+        while (position == tail.get()) {
+            if (finished) {
+                if (position == tail.get()) {
+                    rethrowFailure();
+                    return null;
+                }
+                break;
+            }
+            if (cancelled) {
+                throw new CancellationException("The stage was closed");
+            }
+            parkedConsumer = Thread.currentThread();
+            if (position == tail.get() && !finished) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            parkedConsumer = null;
+            if (Thread.currentThread().isInterrupted()) {
+                cancel();
+                throw new CancellationException("Interrupted while waiting for the previous stage");
+            }
+        }
+        int index = (int) position & mask;
+        T item = (T) buffer[index];
+        buffer[index] = null;
+        head.lazySet(position + 1);
+        LockSupport.unpark(parkedProducer);
+        return item;
+    }
+
+    /**
+     * Called by the producer after its last item, with the exception it failed with or null.
+     */
+    void finish(Throwable failure) {
+        this.failure = failure;
+        this.finished = true;
+        LockSupport.unpark(parkedConsumer);
+    }
+
+    void cancel() {
+        cancelled = true;
+        LockSupport.unpark(parkedProducer);
+    }
+
+    private void rethrowFailure() {
+        Throwable failure = this.failure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The previous stage failed", failure);
+        }
+    }
+
+    Iterator<T> iterator() {
+        return new Iterator<>() {
+            private T next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    next = take();
+                    done = next == null;
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T item = next;
+                next = null;
+                return item;
+            }
+        };
+    }
+}
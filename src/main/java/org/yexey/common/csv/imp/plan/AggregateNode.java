@@ -0,0 +1,65 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.aggregation.CSVStreamAggregate;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * GROUP BY with aggregations, see {@link CSVStreamAggregate}. Above a {@link VectorizedNode} it aggregates the
+ * batches column by column instead of record by record.
+ */
+public class AggregateNode extends PlanNode {
+
+    private final String[] groupColumns;
+    private final Aggregation[] aggregations;
+
+    public AggregateNode(PlanNode input, String[] groupColumns, Aggregation... aggregations) {
+        super(List.of(input));
+        CSVStreamAggregate.requireArguments(groupColumns, aggregations);
+        this.groupColumns = groupColumns.clone();
+        this.aggregations = aggregations.clone();
+    }
+
+    @Override
+    public List<String> getColumns() {
+        Set<String> columns = new LinkedHashSet<>(Arrays.asList(groupColumns));
+        for (Aggregation aggregation : aggregations) {
+            columns.add(aggregation.getOutputColumn());
+        }
+        return new ArrayList<>(columns);
+    }
+
+    // One record per group with exactly these columns, whatever the input looks like
+    @Override
+    public boolean hasUniformColumns() {
+        return true;
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        if (getInput() instanceof VectorizedNode) {
+            Stream<RecordBatch> batches = ((VectorizedNode) getInput()).executeBatches();
+            return CSVStreamAggregate.aggregateBatches(batches, groupColumns, aggregations).onClose(batches::close);
+        }
+        Stream<Record> input = getInput().execute();
+        return CSVStreamAggregate.aggregate(input, groupColumns, aggregations).onClose(input::close);
+    }
+
+    @Override
+    public String describe() {
+        return "Aggregate" + Arrays.toString(groupColumns);
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new AggregateNode(inputs.get(0), groupColumns, aggregations);
+    }
+}
@@ -0,0 +1,139 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.SlotRecord;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Consecutive {@link ColumnOperation}s on {@link RecordBatch}es. Each operation runs as one loop over the value array
+ * of its column: renames only change the column list, maps and fills rewrite the array in place and added columns get
+ * an array of their own. The functions of addColumn see each row as a record which they must not change.
+ */
+final class BatchColumnOperations implements UnaryOperator<RecordBatch> {
+
+    private final List<ColumnOperation> operations;
+
+    BatchColumnOperations(List<ColumnOperation> operations) {
+        this.operations = List.copyOf(operations);
+    }
+
+    /**
+     * Whether the operations apply to the given columns without a missing or duplicate column, which the row by row
+     * operations report on the first record instead.
+     */
+    static boolean fits(List<ColumnOperation> operations, List<String> columns) {
+        for (ColumnOperation operation : operations) {
+            boolean adds = operation.getKind() == ColumnOperation.Kind.ADD || operation.getKind() == ColumnOperation.Kind.ADD_VALUE;
+            if (adds == columns.contains(operation.getColumn())) {
+                return false;
+            }
+            columns = operation.columnsAfter(columns);
+        }
+        return true;
+    }
+
+    @Override
+    public RecordBatch apply(RecordBatch batch) {
+        List<String> columns = new ArrayList<>(batch.getColumns());
+        List<String[]> vectors = new ArrayList<>(columns.size() + operations.size());
+        for (int i = 0; i < columns.size(); i++) {
+            vectors.add(batch.vector(i));
+        }
+        int[] selection = batch.selection();
+        int size = batch.size();
+        for (ColumnOperation operation : operations) {
+            int index = columns.indexOf(operation.getColumn());
+            switch (operation.getKind()) {
+                case RENAME:
+                    rename(columns, vectors, index, operation.getTarget());
+                    break;
+                case MAP:
+                    map(vectors.get(index), selection, size, operation.getValueFunction());
+                    break;
+                case FILL:
+                    fill(vectors.get(index), selection, size, operation.getValue());
+                    break;
+                case ADD_VALUE:
+                    String[] values = new String[batch.rowCount()];
+                    Arrays.fill(values, operation.getValue());
+                    columns.add(operation.getColumn());
+                    vectors.add(values);
+                    break;
+                default:
+                    RecordBatch current = batch.withColumns(columns, vectors.toArray(new String[0][]));
+                    columns.add(operation.getColumn());
+                    vectors.add(add(current, selection, size, operation));
+                    break;
+            }
+        }
+        return batch.withColumns(columns, vectors.toArray(new String[0][]));
+    }
+
+    // Like Record.rename, a column renamed onto an existing one takes its place
+    private static void rename(List<String> columns, List<String[]> vectors, int index, String target) {
+        columns.remove(index);
+        String[] values = vectors.remove(index);
+        int targetIndex = columns.indexOf(target);
+        if (targetIndex >= 0) {
+            vectors.set(targetIndex, values);
+        } else {
+            columns.add(target);
+            vectors.add(values);
+        }
+    }
+
+    private static void map(String[] values, int[] selection, int size, Function<String, String> function) {
+        for (int i = 0; i < size; i++) {
+            int row = selection[i];
+            values[row] = function.apply(values[row]);
+        }
+    }
+
+    private static void fill(String[] values, int[] selection, int size, String defaultValue) {
+        for (int i = 0; i < size; i++) {
+            int row = selection[i];
+            if (ColumnOperation.isMissing(values[row])) {
+                values[row] = defaultValue;
+            }
+        }
+    }
+
+    private static String[] add(RecordBatch batch, int[] selection, int size, ColumnOperation operation) {
+        String[] values = new String[batch.rowCount()];
+        for (int i = 0; i < size; i++) {
+            int row = selection[i];
+            SlotRecord record = batch.row(row);
+            values[row] = operation.getRecordFunction().apply(record);
+            if (record.getSlots() == null && !unchanged(record, batch, row)) {
+                throw new IllegalStateException("The function adding column " + operation.getColumn()
+                        + " changed the record, which is not supported on batches");
+            }
+        }
+        return values;
+    }
+
+    // A record is materialized by reads through the map API as well, compare it with the row it was made from
+    private static boolean unchanged(SlotRecord record, RecordBatch batch, int row) {
+        Map<String, String> data = record.getData();
+        if (data.size() != batch.getColumns().size()) {
+            return false;
+        }
+        Iterator<Map.Entry<String, String>> entries = data.entrySet().iterator();
+        for (int column = 0; column < batch.getColumns().size(); column++) {
+            Map.Entry<String, String> entry = entries.next();
+            if (!entry.getKey().equals(batch.getColumns().get(column))
+                    || !Objects.equals(entry.getValue(), batch.vector(column)[row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnAlreadyExistsException;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Per record operation on named columns, run by a {@link MapNode}. Applied to a record it checks its columns on every
+ * call; consecutive operations over a known schema are compiled to column slots instead, see {@link CompiledColumnOperations}.
+ */
+public final class ColumnOperation {
+
+    enum Kind {
+        RENAME, MAP, ADD, ADD_VALUE, FILL
+    }
+
+    private final Kind kind;
+    private final String column;
+    private final String target;
+    private final Function<String, String> valueFunction;
+    private final Function<Record, String> recordFunction;
+    private final String value;
+
+    private ColumnOperation(Kind kind, String column, String target, Function<String, String> valueFunction,
+                            Function<Record, String> recordFunction, String value) {
+        this.kind = kind;
+        this.column = column;
+        this.target = target;
+        this.valueFunction = valueFunction;
+        this.recordFunction = recordFunction;
+        this.value = value;
+    }
+
+    public static ColumnOperation rename(String columnBefore, String columnAfter) {
+        return new ColumnOperation(Kind.RENAME, columnBefore, columnAfter, null, null, null);
+    }
+
+    public static ColumnOperation map(String column, Function<String, String> function) {
+        return new ColumnOperation(Kind.MAP, column, null, function, null, null);
+    }
+
+    public static ColumnOperation add(String column, Function<Record, String> valueFunction) {
+        return new ColumnOperation(Kind.ADD, column, null, null, valueFunction, null);
+    }
+
+    public static ColumnOperation add(String column, String staticValue) {
+        return new ColumnOperation(Kind.ADD_VALUE, column, null, null, null, staticValue);
+    }
+
+    /**
+     * Replaces null and blank values of the column with the default value.
+     */
+    public static ColumnOperation fill(String column, String defaultValue) {
+        return new ColumnOperation(Kind.FILL, column, null, null, null, defaultValue);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    String getColumn() {
+        return column;
+    }
+
+    String getTarget() {
+        return target;
+    }
+
+    Function<String, String> getValueFunction() {
+        return valueFunction;
+    }
+
+    Function<Record, String> getRecordFunction() {
+        return recordFunction;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    public Record apply(Record record) {
+        switch (kind) {
+            case RENAME:
+                requirePresent(record);
+                return record.rename(column, target);
+            case MAP:
+                requirePresent(record);
+                return record.put(column, valueFunction.apply(record.get(column)));
+            case ADD:
+                requireAbsent(record);
+                return record.put(column, recordFunction.apply(record));
+            case ADD_VALUE:
+                requireAbsent(record);
+                return record.put(column, value);
+            default:
+                requirePresent(record);
+                return record.putIfAbsent(column, value);
+        }
+    }
+
+    private void requirePresent(Record record) {
+        if (!record.containsColumn(column)) {
+            throw new ColumnNotFoundException("Column " + column + " not found");
+        }
+    }
+
+    private void requireAbsent(Record record) {
+        if (record.containsColumn(column)) {
+            throw new ColumnAlreadyExistsException("Column " + column + " is already present");
+        }
+    }
+
+    static boolean isMissing(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * The columns after this operation, given the columns before it. Renamed and added columns go last,
+     * as they do in a record.
+     */
+    public List<String> columnsAfter(List<String> columns) {
+        List<String> result = new ArrayList<>(columns);
+        if (kind == Kind.RENAME) {
+            result.remove(column);
+            if (!result.contains(target)) {
+                result.add(target);
+            }
+        } else if ((kind == Kind.ADD || kind == Kind.ADD_VALUE) && !result.contains(column)) {
+            result.add(column);
+        }
+        return result;
+    }
+
+    public Set<String> getWrittenColumns() {
+        Set<String> written = new HashSet<>();
+        written.add(column);
+        if (kind == Kind.RENAME) {
+            written.add(target);
+        }
+        return written;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case RENAME:
+                return "rename " + column + " to " + target;
+            case MAP:
+                return "map " + column;
+            case FILL:
+                return "fill " + column;
+            default:
+                return "add " + column;
+        }
+    }
+}
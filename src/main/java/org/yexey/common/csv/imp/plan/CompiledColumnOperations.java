@@ -0,0 +1,210 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.RecordSchema;
+import org.yexey.common.csv.imp.SlotRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Consecutive {@link ColumnOperation}s compiled against the known columns of their input. Column names are resolved
+ * to slots of a value array and checked once, {@link SlotRecord}s with that layout are then updated in place without
+ * any lookups. Other records, and all records if an operation does not fit the columns, run the operations one by one,
+ * which also reports a missing or duplicate column on the first record as before.
+ */
+final class CompiledColumnOperations implements UnaryOperator<Record> {
+
+    private interface Step {
+        /**
+         * @return false if the record left the slot layout, so the remaining operations have to run one by one
+         */
+        boolean apply(String[] values, SlotRecord record);
+    }
+
+    private final List<ColumnOperation> operations;
+    private final List<String> inputColumns;
+    private final Step[] steps;
+    private final RecordSchema outputSchema;
+    private final int width;
+    private final boolean valid;
+    // Immutable, a racy update only costs a recomputation
+    private InputLayout cached;
+
+    CompiledColumnOperations(List<ColumnOperation> operations, List<String> inputColumns) {
+        this.operations = List.copyOf(operations);
+        this.inputColumns = List.copyOf(inputColumns);
+
+        List<String> layout = new ArrayList<>(inputColumns);
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < layout.size(); i++) {
+            slots.put(layout.get(i), i);
+        }
+        int width = layout.size();
+        List<Step> steps = new ArrayList<>();
+        boolean valid = true;
+        for (ColumnOperation operation : operations) {
+            String column = operation.getColumn();
+            Integer slot = slots.get(column);
+            boolean adds = operation.getKind() == ColumnOperation.Kind.ADD || operation.getKind() == ColumnOperation.Kind.ADD_VALUE;
+            if (adds ? slot != null : slot == null) {
+                valid = false;
+                break;
+            }
+            switch (operation.getKind()) {
+                case RENAME:
+                    slots.remove(column);
+                    layout.remove(column);
+                    if (!slots.containsKey(operation.getTarget())) {
+                        layout.add(operation.getTarget());
+                    }
+                    slots.put(operation.getTarget(), slot);
+                    break;
+                case MAP:
+                    steps.add(mapStep(slot, operation));
+                    break;
+                case FILL:
+                    steps.add(fillStep(slot, operation.getValue()));
+                    break;
+                case ADD_VALUE:
+                    steps.add(valueStep(width, operation.getValue()));
+                    layout.add(column);
+                    slots.put(column, width++);
+                    break;
+                default:
+                    // The function sees the record as it is before the column is added
+                    steps.add(recordStep(width, schemaOf(layout, slots), operation));
+                    layout.add(column);
+                    slots.put(column, width++);
+                    break;
+            }
+        }
+        this.steps = steps.toArray(new Step[0]);
+        this.outputSchema = valid ? schemaOf(layout, slots) : null;
+        this.width = width;
+        this.valid = valid;
+    }
+
+    private static RecordSchema schemaOf(List<String> layout, Map<String, Integer> slots) {
+        return new RecordSchema(layout, layout.stream().mapToInt(slots::get).toArray());
+    }
+
+    private static Step mapStep(int slot, ColumnOperation operation) {
+        return (values, record) -> {
+            values[slot] = operation.getValueFunction().apply(values[slot]);
+            return true;
+        };
+    }
+
+    private static Step fillStep(int slot, String defaultValue) {
+        return (values, record) -> {
+            if (ColumnOperation.isMissing(values[slot])) {
+                values[slot] = defaultValue;
+            }
+            return true;
+        };
+    }
+
+    private static Step valueStep(int slot, String value) {
+        return (values, record) -> {
+            values[slot] = value;
+            return true;
+        };
+    }
+
+    private static Step recordStep(int slot, RecordSchema schemaBefore, ColumnOperation operation) {
+        return (values, record) -> {
+            record.reshape(schemaBefore, values);
+            String value = operation.getRecordFunction().apply(record);
+            if (record.getSlots() == null) {
+                // The function changed the record through the map API
+                record.put(operation.getColumn(), value);
+                return false;
+            }
+            values[slot] = value;
+            return true;
+        };
+    }
+
+    @Override
+    public Record apply(Record record) {
+        if (!valid || !(record instanceof SlotRecord) || ((SlotRecord) record).getSlots() == null) {
+            return applyEach(record, 0);
+        }
+        SlotRecord slotRecord = (SlotRecord) record;
+        InputLayout input = inputLayout(slotRecord.getSchema());
+        if (input.slots == null) {
+            return applyEach(record, 0);
+        }
+        String[] values = slotRecord.getSlots();
+        String[] working;
+        if (input.direct && values.length == width) {
+            working = values;
+        } else {
+            working = new String[width];
+            for (int i = 0; i < input.slots.length; i++) {
+                working[i] = values[input.slots[i]];
+            }
+        }
+        for (int i = 0; i < steps.length; i++) {
+            if (!steps[i].apply(working, slotRecord)) {
+                return applyEach(slotRecord, stepOperation(i) + 1);
+            }
+        }
+        slotRecord.reshape(outputSchema, working);
+        return slotRecord;
+    }
+
+    private Record applyEach(Record record, int from) {
+        for (int i = from; i < operations.size(); i++) {
+            record = operations.get(i).apply(record);
+        }
+        return record;
+    }
+
+    // Renames have no step of their own
+    private int stepOperation(int step) {
+        int seen = -1;
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).getKind() != ColumnOperation.Kind.RENAME && ++seen == step) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No operation for step " + step);
+    }
+
+    private InputLayout inputLayout(RecordSchema schema) {
+        InputLayout layout = cached;
+        if (layout == null || layout.schema != schema) {
+            layout = new InputLayout(schema, inputColumns);
+            cached = layout;
+        }
+        return layout;
+    }
+
+    private static final class InputLayout {
+        private final RecordSchema schema;
+        // Slot of each input column in the record's values, null if the record has other columns
+        private final int[] slots;
+        private final boolean direct;
+
+        private InputLayout(RecordSchema schema, List<String> inputColumns) {
+            this.schema = schema;
+            if (!schema.getColumns().equals(inputColumns)) {
+                this.slots = null;
+                this.direct = false;
+                return;
+            }
+            this.slots = new int[schema.size()];
+            boolean direct = true;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = schema.slotAt(i);
+                direct &= slots[i] == i;
+            }
+            this.direct = direct;
+        }
+    }
+}
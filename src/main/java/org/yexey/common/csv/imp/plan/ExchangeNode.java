@@ -0,0 +1,63 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+import org.yexey.common.csv.imp.pipeline.Stage;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Boundary between two pipeline stages: the input runs on a thread of its own and hands its records over in chunks,
+ * or its batches one by one, through a bounded queue. Records of a live source are handed over one by one. The
+ * records themselves are not changed, so declared filters and projections move below it like below a map.
+ */
+public class ExchangeNode extends PlanNode {
+
+    private final String name;
+
+    public ExchangeNode(PlanNode input, String name) {
+        super(List.of(input));
+        this.name = name;
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return getInput().getColumns();
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        int chunkSize = SourceNode.anyLive(getInput()) ? 1 : Stage.DEFAULT_CHUNK_SIZE;
+        return Stage.async(name, Stage.DEFAULT_CAPACITY, chunkSize, getInput()::execute, this::closeSources);
+    }
+
+    @Override
+    public boolean supportsBatches() {
+        return getInput().supportsBatches();
+    }
+
+    @Override
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        return Stage.async(name, Stage.DEFAULT_CAPACITY, sink -> {
+            try (Stream<RecordBatch> batches = getInput().executeBatches(batchSize)) {
+                batches.forEach(sink);
+            }
+        }, this::closeSources);
+    }
+
+    // Wakes up a stage which waits for input after it was cancelled, e.g. for a followed file to grow
+    private void closeSources() {
+        SourceNode.closeAll(getInput());
+    }
+
+    @Override
+    public String describe() {
+        return "Exchange[" + name + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new ExchangeNode(inputs.get(0), name);
+    }
+}
@@ -0,0 +1,103 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the records matching a predicate. Only filters which declare the columns their predicate reads
+ * can be moved by the {@link Optimizer}, all others stay where they were written. Filters on the value of a single
+ * column also run on batches.
+ */
+public class FilterNode extends PlanNode {
+
+    private final Predicate<Record> predicate;
+    private final Set<String> referencedColumns;
+    private final String description;
+    private final String column;
+    private final Predicate<String> valuePredicate;
+
+    public FilterNode(PlanNode input, Predicate<Record> predicate, Set<String> referencedColumns, String description) {
+        this(input, predicate, referencedColumns, description, null, null);
+    }
+
+    /**
+     * Filter on the value of one column, which must be present in every record.
+     */
+    public FilterNode(PlanNode input, String column, Predicate<String> predicate) {
+        this(input, record -> {
+            if (!record.containsColumn(column)) {
+                throw new ColumnNotFoundException("Column " + column + " not found");
+            }
+            return predicate.test(record.get(column));
+        }, Collections.singleton(column), column, column, predicate);
+    }
+
+    private FilterNode(PlanNode input, Predicate<Record> predicate, Set<String> referencedColumns, String description,
+                       String column, Predicate<String> valuePredicate) {
+        super(List.of(input));
+        this.predicate = predicate;
+        this.referencedColumns = referencedColumns == null ? null : Set.copyOf(referencedColumns);
+        this.description = description;
+        this.column = column;
+        this.valuePredicate = valuePredicate;
+    }
+
+    /**
+     * The columns read by the predicate, null if unknown.
+     */
+    public Set<String> getReferencedColumns() {
+        return referencedColumns;
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return getInput().getColumns();
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        return getInput().execute().filter(predicate);
+    }
+
+    // A missing column is reported on the first record by the row by row filter
+    @Override
+    public boolean supportsBatches() {
+        return valuePredicate != null && getInput().supportsBatches() && getInput().getColumns().contains(column);
+    }
+
+    @Override
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        int index = getInput().getColumns().indexOf(column);
+        return getInput().executeBatches(batchSize).map(batch -> {
+            String[] values = batch.vector(index);
+            int[] selection = batch.selection();
+            int size = batch.size();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int row = selection[i];
+                if (valuePredicate.test(values[row])) {
+                    selection[kept++] = row;
+                }
+            }
+            batch.select(kept);
+            return batch;
+        });
+    }
+
+    @Override
+    public String describe() {
+        return "Filter[" + description + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new FilterNode(inputs.get(0), predicate, referencedColumns, description, column, valuePredicate);
+    }
+}
@@ -0,0 +1,233 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.BatchSpliterator;
+import org.yexey.common.csv.imp.InputStatistics;
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.joins.BuildSide;
+import org.yexey.common.csv.imp.joins.CSVStreamFullJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamLeftJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamParallelJoin;
+import org.yexey.common.csv.imp.joins.CSVStreamRightJoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Equi-join of two inputs. The algorithm is picked by the {@link Optimizer}, plain hash joins are the default.
+ */
+public class JoinNode extends PlanNode {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    public enum Type {
+        INNER, LEFT, RIGHT, FULL
+    }
+
+    public enum Algorithm {
+        HASH, PARALLEL_HASH
+    }
+
+    private final Type type;
+    private final List<String> keyColumnsA;
+    private final List<String> keyColumnsB;
+    private final BuildSide buildSide;
+    private final boolean bloomPrefilter;
+    private final InputStatistics statisticsA;
+    private final InputStatistics statisticsB;
+    private final Algorithm algorithm;
+
+    public JoinNode(PlanNode left, PlanNode right, Type type, List<String> keyColumnsA, List<String> keyColumnsB,
+                    BuildSide buildSide, boolean bloomPrefilter, InputStatistics statisticsA, InputStatistics statisticsB) {
+        this(List.of(left, right), type, keyColumnsA, keyColumnsB, buildSide, bloomPrefilter, statisticsA, statisticsB, Algorithm.HASH);
+    }
+
+    private JoinNode(List<PlanNode> inputs, Type type, List<String> keyColumnsA, List<String> keyColumnsB, BuildSide buildSide,
+                     boolean bloomPrefilter, InputStatistics statisticsA, InputStatistics statisticsB, Algorithm algorithm) {
+        super(inputs);
+        this.type = type;
+        this.keyColumnsA = List.copyOf(keyColumnsA);
+        this.keyColumnsB = List.copyOf(keyColumnsB);
+        this.buildSide = buildSide;
+        this.bloomPrefilter = bloomPrefilter;
+        this.statisticsA = statisticsA;
+        this.statisticsB = statisticsB;
+        this.algorithm = algorithm;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public List<String> getKeyColumns(int side) {
+        return side == LEFT ? keyColumnsA : keyColumnsB;
+    }
+
+    public BuildSide getBuildSide() {
+        return buildSide;
+    }
+
+    public boolean isBloomPrefilter() {
+        return bloomPrefilter;
+    }
+
+    public InputStatistics getStatistics(int side) {
+        return side == LEFT ? statisticsA : statisticsB;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * The input collected into the hash table, the other one is streamed through it.
+     */
+    public int getBuildInput() {
+        switch (type) {
+            case INNER:
+                return algorithm == Algorithm.HASH && buildSide.resolve(statisticsA, statisticsB) == BuildSide.LEFT ? LEFT : RIGHT;
+            case RIGHT:
+                // Executed as a left join of B and A
+                return LEFT;
+            default:
+                return RIGHT;
+        }
+    }
+
+    @Override
+    public List<String> getColumns() {
+        List<String> columnsA = getInputs().get(LEFT).getColumns();
+        List<String> columnsB = getInputs().get(RIGHT).getColumns();
+        if (columnsA == null || columnsB == null) {
+            return null;
+        }
+        switch (type) {
+            case RIGHT:
+                // Executed as a left join of B and A
+                return merged(columnsB, columnsA, keyColumnsA);
+            case FULL:
+                List<String> columns = merged(columnsA, columnsB, keyColumnsB);
+                keyColumnsA.stream().filter(column -> !columns.contains(column)).forEach(columns::add);
+                return columns;
+            default:
+                return merged(columnsA, columnsB, keyColumnsB);
+        }
+    }
+
+    // Same layout as the merged records: the probe side first, then the new columns of the other side without its keys
+    private static List<String> merged(List<String> first, List<String> second, List<String> droppedKeys) {
+        List<String> columns = new ArrayList<>(first);
+        for (String column : second) {
+            if (!droppedKeys.contains(column) && !first.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public boolean hasUniformColumns() {
+        // Unmatched records of outer joins lack the columns of the other side
+        return type == Type.INNER && super.hasUniformColumns();
+    }
+
+    /**
+     * The input an output column is read from, or -1 if that is unknown or depends on the record.
+     */
+    public int sideOf(String column) {
+        List<String> columnsA = getInputs().get(LEFT).getColumns();
+        List<String> columnsB = getInputs().get(RIGHT).getColumns();
+        if (columnsA == null || columnsB == null || type == Type.FULL) {
+            return -1;
+        }
+        if (type == Type.RIGHT) {
+            if (columnsB.contains(column)) return RIGHT;
+            if (columnsA.contains(column) && !keyColumnsA.contains(column)) return LEFT;
+            return -1;
+        }
+        if (columnsA.contains(column)) return LEFT;
+        if (columnsB.contains(column) && !keyColumnsB.contains(column)) return RIGHT;
+        return -1;
+    }
+
+    /**
+     * Whether filtering the given input before the join removes the same records as filtering after it,
+     * which is not the case for the side whose unmatched records are kept.
+     */
+    public boolean canFilterInput(int side) {
+        return type == Type.INNER || (side == LEFT ? type == Type.LEFT : type == Type.RIGHT);
+    }
+
+    /**
+     * This join with the given filter applied to one of its inputs.
+     */
+    public JoinNode withFilteredInput(int side, FilterNode filter) {
+        List<PlanNode> inputs = new ArrayList<>(getInputs());
+        inputs.set(side, filter.withInputs(List.of(inputs.get(side))));
+        return new JoinNode(inputs, type, keyColumnsA, keyColumnsB, buildSide, bloomPrefilter,
+                side == LEFT ? statisticsA.filtered() : statisticsA,
+                side == RIGHT ? statisticsB.filtered() : statisticsB, algorithm);
+    }
+
+    public JoinNode withAlgorithm(Algorithm algorithm, BuildSide buildSide) {
+        return new JoinNode(getInputs(), type, keyColumnsA, keyColumnsB, buildSide, bloomPrefilter, statisticsA, statisticsB, algorithm);
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        Stream<Record> streamA = getInputs().get(LEFT).execute();
+        Stream<Record> streamB = getInputs().get(RIGHT).execute();
+        Runnable close = () -> {
+            streamA.close();
+            streamB.close();
+        };
+        try {
+            return join(streamA, streamB).onClose(close);
+        } catch (RuntimeException e) {
+            // Some joins build their hash table right away
+            close.run();
+            throw e;
+        }
+    }
+
+    private Stream<Record> join(Stream<Record> streamA, Stream<Record> streamB) {
+        KeyColumns keysA = KeyColumns.of(keyColumnsA.toArray(new String[0]));
+        KeyColumns keysB = KeyColumns.of(keyColumnsB.toArray(new String[0]));
+        int partitions = Runtime.getRuntime().availableProcessors();
+        switch (type) {
+            case INNER:
+                return algorithm == Algorithm.PARALLEL_HASH
+                        ? CSVStreamParallelJoin.join(streamA, streamB, keyColumnsA.get(0), keyColumnsB.get(0), partitions, true)
+                        : CSVStreamJoin.join(streamA, streamB, keysA, keysB, buildSide.resolve(statisticsA, statisticsB), bloomPrefilter);
+            case LEFT:
+                return algorithm == Algorithm.PARALLEL_HASH
+                        ? CSVStreamParallelJoin.leftJoin(streamA, streamB, keyColumnsA.get(0), keyColumnsB.get(0), partitions, true)
+                        : CSVStreamLeftJoin.leftJoin(streamA, streamB, keysA, keysB);
+            case RIGHT:
+                return CSVStreamRightJoin.rightJoin(streamA, streamB, keysA, keysB);
+            default:
+                // Unmatched records of B can only be emitted once all of A was probed in order
+                return BatchSpliterator.inOrder(CSVStreamFullJoin.fullJoin(streamA, streamB, keysA, keysB));
+        }
+    }
+
+    @Override
+    public String describe() {
+        String keys = IntStream.range(0, keyColumnsA.size())
+                .mapToObj(i -> keyColumnsA.get(i) + " = " + keyColumnsB.get(i))
+                .collect(Collectors.joining(", "));
+        return (algorithm == Algorithm.PARALLEL_HASH ? "ParallelHashJoin[" : "HashJoin[") + type + ", " + keys
+                + (type == Type.INNER && algorithm == Algorithm.HASH ? ", build=" + buildSide : "")
+                + (bloomPrefilter ? ", bloom" : "") + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new JoinNode(inputs, type, keyColumnsA, keyColumnsB, buildSide, bloomPrefilter, statisticsA, statisticsB, algorithm);
+    }
+}
@@ -0,0 +1,94 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Column operations such as rename or mapColumn, which write the given columns and leave all others untouched.
+ * The {@link Optimizer} fuses consecutive maps into one, which runs as a single compiled pass if the columns
+ * of the input are known, or on batches, see {@link BatchColumnOperations}.
+ */
+public class MapNode extends PlanNode {
+
+    private final List<ColumnOperation> operations;
+
+    public MapNode(PlanNode input, List<ColumnOperation> operations) {
+        super(List.of(input));
+        this.operations = List.copyOf(operations);
+    }
+
+    public List<ColumnOperation> getOperations() {
+        return operations;
+    }
+
+    public Set<String> getWrittenColumns() {
+        Set<String> written = new HashSet<>();
+        operations.forEach(operation -> written.addAll(operation.getWrittenColumns()));
+        return written;
+    }
+
+    /**
+     * One map running the operations of this map followed by those of next, which must be the map above this one.
+     */
+    MapNode fuse(MapNode next) {
+        List<ColumnOperation> fused = new ArrayList<>(operations);
+        fused.addAll(next.operations);
+        return new MapNode(getInput(), fused);
+    }
+
+    @Override
+    public List<String> getColumns() {
+        List<String> columns = getInput().getColumns();
+        if (columns == null) {
+            return null;
+        }
+        for (ColumnOperation operation : operations) {
+            columns = operation.columnsAfter(columns);
+        }
+        return columns;
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        UnaryOperator<Record> function;
+        if (getInput().hasUniformColumns()) {
+            function = new CompiledColumnOperations(operations, getInput().getColumns());
+        } else {
+            function = record -> {
+                for (ColumnOperation operation : operations) {
+                    record = operation.apply(record);
+                }
+                return record;
+            };
+        }
+        return getInput().execute().map(function);
+    }
+
+    @Override
+    public boolean supportsBatches() {
+        return getInput().supportsBatches() && BatchColumnOperations.fits(operations, getInput().getColumns());
+    }
+
+    @Override
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        return getInput().executeBatches(batchSize).map(new BatchColumnOperations(operations));
+    }
+
+    @Override
+    public String describe() {
+        return "Map[" + operations.stream().map(ColumnOperation::toString).collect(Collectors.joining(", ")) + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new MapNode(inputs.get(0), operations);
+    }
+}
@@ -0,0 +1,118 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Any other operation, e.g. a sort, an aggregation or a peek. The {@link Optimizer} moves nothing across it.
+ * The operator is applied right away to placeholders of its inputs, so argument checks still fail at the call,
+ * and the placeholders are bound to the optimized inputs on {@link #execute()}.
+ */
+public class OperatorNode extends PlanNode {
+
+    private final Binding binding;
+    private final String description;
+    private final boolean preservesColumns;
+
+    /**
+     * @param preservesColumns whether the output has the columns of the first input
+     */
+    public OperatorNode(List<PlanNode> inputs, Function<List<Stream<Record>>, Stream<Record>> operator,
+                        String description, boolean preservesColumns) {
+        this(inputs, new Binding(inputs.size()), description, preservesColumns);
+        binding.output = operator.apply(binding.placeholders());
+    }
+
+    private OperatorNode(List<PlanNode> inputs, Binding binding, String description, boolean preservesColumns) {
+        super(inputs);
+        this.binding = binding;
+        this.description = description;
+        this.preservesColumns = preservesColumns;
+    }
+
+    public static OperatorNode unary(PlanNode input, UnaryOperator<Stream<Record>> operator,
+                                     String description, boolean preservesColumns) {
+        return new OperatorNode(List.of(input), streams -> operator.apply(streams.get(0)), description, preservesColumns);
+    }
+
+    /**
+     * Stream which obtains the given stream only when its terminal operation starts. If the returned stream was made
+     * parallel by then, e.g. because an operator continued it with per record operations, so is the obtained one.
+     * Operators which read their input with forEach or an iterator keep it sequential.
+     */
+    public static Stream<Record> deferred(Supplier<Stream<Record>> supplier) {
+        AtomicReference<Stream<Record>> self = new AtomicReference<>();
+        Stream<Record> stream = StreamSupport.stream(() -> {
+            Stream<Record> source = supplier.get();
+            return (self.get().isParallel() ? source.parallel() : source).spliterator();
+        }, Spliterator.ORDERED, false);
+        self.set(stream);
+        return stream;
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return preservesColumns ? getInput().getColumns() : null;
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        List<Stream<Record>> inputs = binding.inputs;
+        for (int i = 0; i < inputs.size(); i++) {
+            inputs.set(i, getInputs().get(i).execute());
+        }
+        // Operators consume their inputs in pipelines of their own, closing the output has to reach them
+        return binding.output.onClose(() -> {
+            for (Stream<Record> input : inputs) {
+                input.close();
+            }
+        });
+    }
+
+    @Override
+    public String describe() {
+        return description;
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new OperatorNode(inputs, binding, description, preservesColumns);
+    }
+
+    // Shared by the rewritten copies of a node, only the one which is executed binds the inputs
+    private static final class Binding {
+        private final List<Stream<Record>> inputs;
+        private Stream<Record> output;
+
+        private Binding(int inputCount) {
+            this.inputs = new ArrayList<>(Collections.nCopies(inputCount, null));
+        }
+
+        private List<Stream<Record>> placeholders() {
+            List<Stream<Record>> placeholders = new ArrayList<>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                int index = i;
+                placeholders.add(deferred(() -> bound(index)));
+            }
+            return placeholders;
+        }
+
+        private Stream<Record> bound(int index) {
+            Stream<Record> input = inputs.get(index);
+            if (input == null) {
+                throw new IllegalStateException("Operator input was pulled before the plan was executed");
+            }
+            return input;
+        }
+    }
+}
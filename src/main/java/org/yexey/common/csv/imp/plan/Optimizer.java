@@ -0,0 +1,255 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.joins.BuildSide;
+import org.yexey.common.csv.imp.memory.MemoryBudget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites a plan before it is executed. The rules are applied bottom-up until nothing changes:
+ * <ul>
+ *     <li>projections which drop nothing are removed</li>
+ *     <li>filters with declared columns move below maps which do not write those columns, below projections
+ *     and stage boundaries and into the input of a join the columns come from, unless that input keeps its
+ *     unmatched records</li>
+ *     <li>adjacent projections are merged into one, projections move below stage boundaries</li>
+ *     <li>projections above a join drop the unused columns of its inputs before the join</li>
+ * </ul>
+ * Finally consecutive maps are fused into one and every join gets its build side resolved from the statistics
+ * and its algorithm chosen.
+ * {@link OperatorNode}s are barriers, nothing is moved across them.
+ * {@link #pipeline(PlanNode)} and {@link #vectorize(PlanNode, int)} optionally split the optimized plan into stages
+ * on threads of their own and move parts of it to batch execution, {@link #trackBuilds(PlanNode, MemoryBudget)}
+ * counts the hash tables of its joins against a memory budget.
+ */
+public final class Optimizer {
+
+    /**
+     * Smallest known row count of the probe side for which a parallel hash join is chosen.
+     */
+    public static final long PARALLEL_JOIN_MIN_ROWS = 1_000_000;
+
+    private static final int MAX_PASSES = 64;
+
+    private Optimizer() {
+    }
+
+    public static PlanNode optimize(PlanNode plan) {
+        PlanNode current = plan;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            PlanNode next = transform(current, Optimizer::pushDown);
+            if (next == current) {
+                break;
+            }
+            current = next;
+        }
+        return transform(transform(current, Optimizer::fuseMaps), Optimizer::chooseJoinAlgorithm);
+    }
+
+    /**
+     * Splits an optimized plan into pipeline stages: every scan and the rest of the plan run on threads of their own,
+     * see {@link ExchangeNode}. Existing stage boundaries are kept.
+     */
+    public static PlanNode pipeline(PlanNode plan) {
+        PlanNode staged = stageScans(plan);
+        return staged instanceof ExchangeNode ? staged : new ExchangeNode(staged, "output");
+    }
+
+    private static PlanNode stageScans(PlanNode node) {
+        if (node instanceof SourceNode) {
+            return new ExchangeNode(node, "scan");
+        }
+        if (node instanceof ExchangeNode && node.getInput() instanceof SourceNode) {
+            return node;
+        }
+        List<PlanNode> inputs = new ArrayList<>(node.getInputs());
+        boolean changed = false;
+        for (int i = 0; i < inputs.size(); i++) {
+            PlanNode input = stageScans(inputs.get(i));
+            changed |= input != inputs.get(i);
+            inputs.set(i, input);
+        }
+        return changed ? node.withInputs(inputs) : node;
+    }
+
+    /**
+     * Counts the records which the joins of an optimized plan collect into their hash tables against the budget,
+     * until the join is closed. A join whose build side does not fit fails.
+     */
+    public static PlanNode trackBuilds(PlanNode plan, MemoryBudget budget) {
+        return transform(plan, node -> {
+            if (!(node instanceof JoinNode)) {
+                return node;
+            }
+            JoinNode join = (JoinNode) node;
+            int side = join.getBuildInput();
+            String operator = join.describe() + " build";
+            List<PlanNode> inputs = new ArrayList<>(join.getInputs());
+            inputs.set(side, OperatorNode.unary(inputs.get(side), stream -> budget.track(stream, operator), "MemoryBudget", true));
+            return join.withInputs(inputs);
+        });
+    }
+
+    /**
+     * Runs the largest parts of an optimized plan which support it on batches of the given size, each below a
+     * {@link VectorizedNode}. The rest of the plan stays row by row.
+     */
+    public static PlanNode vectorize(PlanNode plan, int batchSize) {
+        if (plan.supportsBatches()) {
+            return new VectorizedNode(plan, batchSize);
+        }
+        List<PlanNode> inputs = new ArrayList<>(plan.getInputs());
+        boolean changed = false;
+        for (int i = 0; i < inputs.size(); i++) {
+            PlanNode input = vectorize(inputs.get(i), batchSize);
+            changed |= input != inputs.get(i);
+            inputs.set(i, input);
+        }
+        return changed ? plan.withInputs(inputs) : plan;
+    }
+
+    // Applies the rule to every node, inputs first
+    private static PlanNode transform(PlanNode node, UnaryOperator<PlanNode> rule) {
+        List<PlanNode> inputs = new ArrayList<>(node.getInputs());
+        boolean changed = false;
+        for (int i = 0; i < inputs.size(); i++) {
+            PlanNode input = transform(inputs.get(i), rule);
+            changed |= input != inputs.get(i);
+            inputs.set(i, input);
+        }
+        return rule.apply(changed ? node.withInputs(inputs) : node);
+    }
+
+    private static PlanNode pushDown(PlanNode node) {
+        if (node instanceof FilterNode) {
+            return pushFilter((FilterNode) node);
+        }
+        if (node instanceof ProjectNode) {
+            return pushProjection((ProjectNode) node);
+        }
+        return node;
+    }
+
+    private static PlanNode pushFilter(FilterNode filter) {
+        Set<String> columns = filter.getReferencedColumns();
+        PlanNode input = filter.getInput();
+        if (columns == null) {
+            return filter;
+        }
+        if (input instanceof MapNode && Collections.disjoint(((MapNode) input).getWrittenColumns(), columns)) {
+            return swap(filter, input);
+        }
+        if (input instanceof ProjectNode && columns.stream().allMatch(((ProjectNode) input)::keeps)) {
+            return swap(filter, input);
+        }
+        if (input instanceof ExchangeNode) {
+            return swap(filter, input);
+        }
+        if (input instanceof JoinNode) {
+            JoinNode join = (JoinNode) input;
+            int side = columns.isEmpty() ? -1 : join.sideOf(columns.iterator().next());
+            if (side >= 0 && join.canFilterInput(side) && columns.stream().allMatch(column -> join.sideOf(column) == side)) {
+                return join.withFilteredInput(side, filter);
+            }
+        }
+        return filter;
+    }
+
+    private static PlanNode swap(PlanNode upper, PlanNode lower) {
+        return lower.withInputs(List.of(upper.withInputs(List.of(lower.getInput()))));
+    }
+
+    private static PlanNode pushProjection(ProjectNode projection) {
+        PlanNode input = projection.getInput();
+        List<String> columns = input.getColumns();
+        if (columns != null && columns.stream().allMatch(projection::keeps)) {
+            // Nothing to drop
+            return input;
+        }
+        if (input instanceof ProjectNode) {
+            return merge(projection, (ProjectNode) input);
+        }
+        if (input instanceof JoinNode) {
+            return pushIntoJoin(projection, (JoinNode) input);
+        }
+        if (input instanceof ExchangeNode) {
+            return swap(projection, input);
+        }
+        return projection;
+    }
+
+    private static PlanNode merge(ProjectNode upper, ProjectNode lower) {
+        List<String> upperColumns = upper.getProjectedColumns();
+        List<String> lowerColumns = lower.getProjectedColumns();
+        if (upper.isRetain() && lower.isRetain()) {
+            return new ProjectNode(lower.getInput(), true, without(upperColumns, column -> !lowerColumns.contains(column)));
+        }
+        if (upper.isRetain()) {
+            return new ProjectNode(lower.getInput(), true, without(upperColumns, lowerColumns::contains));
+        }
+        if (lower.isRetain()) {
+            return new ProjectNode(lower.getInput(), true, without(lowerColumns, upperColumns::contains));
+        }
+        Set<String> deleted = new LinkedHashSet<>(lowerColumns);
+        deleted.addAll(upperColumns);
+        return new ProjectNode(lower.getInput(), false, new ArrayList<>(deleted));
+    }
+
+    private static List<String> without(List<String> columns, Predicate<String> removed) {
+        return columns.stream().filter(removed.negate()).collect(Collectors.toList());
+    }
+
+    // Each input keeps the columns surviving the projection plus its key columns. A column both inputs have is kept
+    // or dropped on both sides, so the merged records keep their layout. The projection itself stays on top.
+    private static PlanNode pushIntoJoin(ProjectNode projection, JoinNode join) {
+        List<String> output = join.getColumns();
+        if (output == null) {
+            return projection;
+        }
+        Set<String> kept = new LinkedHashSet<>(without(output, column -> !projection.keeps(column)));
+        List<PlanNode> inputs = new ArrayList<>(join.getInputs());
+        boolean changed = false;
+        for (int side = JoinNode.LEFT; side <= JoinNode.RIGHT; side++) {
+            List<String> columns = inputs.get(side).getColumns();
+            List<String> keys = join.getKeyColumns(side);
+            List<String> needed = without(columns, column -> !kept.contains(column) && !keys.contains(column));
+            if (needed.size() < columns.size()) {
+                inputs.set(side, new ProjectNode(inputs.get(side), true, needed));
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return projection;
+        }
+        return projection.withInputs(List.of(join.withInputs(inputs)));
+    }
+
+    private static PlanNode fuseMaps(PlanNode node) {
+        if (node instanceof MapNode && node.getInput() instanceof MapNode) {
+            return ((MapNode) node.getInput()).fuse((MapNode) node);
+        }
+        return node;
+    }
+
+    private static PlanNode chooseJoinAlgorithm(PlanNode node) {
+        if (!(node instanceof JoinNode)) {
+            return node;
+        }
+        JoinNode join = (JoinNode) node;
+        BuildSide buildSide = join.getBuildSide().resolve(join.getStatistics(JoinNode.LEFT), join.getStatistics(JoinNode.RIGHT));
+        // The parallel join builds on B and keeps the order of A, it only pays off for large probe sides
+        boolean parallel = (join.getType() == JoinNode.Type.LEFT || (join.getType() == JoinNode.Type.INNER && buildSide == BuildSide.RIGHT))
+                && join.getKeyColumns(JoinNode.LEFT).size() == 1
+                && !join.isBloomPrefilter()
+                && join.getStatistics(JoinNode.LEFT).getRowCount() >= PARALLEL_JOIN_MIN_ROWS
+                && Runtime.getRuntime().availableProcessors() > 1;
+        return join.withAlgorithm(parallel ? JoinNode.Algorithm.PARALLEL_HASH : JoinNode.Algorithm.HASH, buildSide);
+    }
+}
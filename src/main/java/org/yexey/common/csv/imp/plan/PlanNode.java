@@ -0,0 +1,84 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Node of the logical plan behind a CSVStream. Nodes are immutable: the {@link Optimizer} rewrites a plan
+ * into a new one and {@link #execute()} assembles the stream of records only at the terminal operation.
+ */
+public abstract class PlanNode {
+
+    private final List<PlanNode> inputs;
+
+    protected PlanNode(List<PlanNode> inputs) {
+        this.inputs = List.copyOf(inputs);
+    }
+
+    public List<PlanNode> getInputs() {
+        return inputs;
+    }
+
+    PlanNode getInput() {
+        return inputs.get(0);
+    }
+
+    /**
+     * The columns of the produced records in their order, or null if they are not known before execution.
+     * Records may lack some of them, e.g. the unmatched records of an outer join.
+     */
+    public abstract List<String> getColumns();
+
+    /**
+     * Whether every produced record has exactly the columns of {@link #getColumns()}, in that order.
+     */
+    public boolean hasUniformColumns() {
+        return getColumns() != null && inputs.stream().allMatch(PlanNode::hasUniformColumns);
+    }
+
+    public abstract Stream<Record> execute();
+
+    /**
+     * Whether this node and all nodes below it can run on {@link RecordBatch}es, see {@link VectorizedNode}.
+     * Such nodes always have uniform columns.
+     */
+    public boolean supportsBatches() {
+        return false;
+    }
+
+    /**
+     * Executes this node on batches of up to batchSize rows, whose columns are those of {@link #getColumns()}.
+     */
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        throw new UnsupportedOperationException(describe() + " does not run on batches");
+    }
+
+    /**
+     * One line description of this node without its inputs.
+     */
+    public abstract String describe();
+
+    /**
+     * The same operation on other inputs.
+     */
+    public abstract PlanNode withInputs(List<PlanNode> inputs);
+
+    /**
+     * The plan as an indented tree, one node per line.
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        explain(sb, 0);
+        return sb.toString();
+    }
+
+    private void explain(StringBuilder sb, int depth) {
+        sb.append("  ".repeat(depth)).append(describe()).append('\n');
+        for (PlanNode input : inputs) {
+            input.explain(sb, depth + 1);
+        }
+    }
+}
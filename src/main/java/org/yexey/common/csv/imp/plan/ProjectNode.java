@@ -0,0 +1,84 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Retains or deletes columns. Retained columns keep the order they have in the record.
+ */
+public class ProjectNode extends PlanNode {
+
+    private final boolean retain;
+    private final List<String> columns;
+
+    public ProjectNode(PlanNode input, boolean retain, List<String> columns) {
+        super(List.of(input));
+        this.retain = retain;
+        this.columns = List.copyOf(columns);
+    }
+
+    public boolean isRetain() {
+        return retain;
+    }
+
+    /**
+     * The retained or deleted columns.
+     */
+    public List<String> getProjectedColumns() {
+        return columns;
+    }
+
+    /**
+     * Whether a column of the input is still there after this projection.
+     */
+    public boolean keeps(String column) {
+        return retain == columns.contains(column);
+    }
+
+    @Override
+    public List<String> getColumns() {
+        List<String> inputColumns = getInput().getColumns();
+        return inputColumns == null ? null : inputColumns.stream().filter(this::keeps).collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        String[] names = columns.toArray(new String[0]);
+        return retain
+                ? getInput().execute().map(record -> record.retainColumns(names))
+                : getInput().execute().map(record -> record.deleteColumns(names));
+    }
+
+    @Override
+    public boolean supportsBatches() {
+        return getInput().supportsBatches();
+    }
+
+    @Override
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        List<String> inputColumns = getInput().getColumns();
+        List<String> outputColumns = getColumns();
+        int[] indexes = outputColumns.stream().mapToInt(inputColumns::indexOf).toArray();
+        return getInput().executeBatches(batchSize).map(batch -> {
+            String[][] vectors = new String[indexes.length][];
+            for (int i = 0; i < indexes.length; i++) {
+                vectors[i] = batch.vector(indexes[i]);
+            }
+            return batch.withColumns(outputColumns, vectors);
+        });
+    }
+
+    @Override
+    public String describe() {
+        return (retain ? "Retain[" : "Delete[") + String.join(", ", columns) + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new ProjectNode(inputs.get(0), retain, columns);
+    }
+}
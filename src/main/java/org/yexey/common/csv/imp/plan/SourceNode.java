@@ -0,0 +1,132 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Leaf of a plan, the records as read from a CSV file or a list.
+ */
+public class SourceNode extends PlanNode {
+
+    private final Stream<Record> stream;
+    private final List<String> columns;
+    private final String description;
+    private final IntFunction<Stream<RecordBatch>> batchReader;
+    private final Closeable resource;
+    private boolean live;
+
+    public SourceNode(Stream<Record> stream, List<String> columns, String description) {
+        this(stream, columns, description, null);
+    }
+
+    /**
+     * Source which can also be read as batches of the given columns. Only one of the two streams is consumed.
+     */
+    public SourceNode(Stream<Record> stream, List<String> columns, String description, IntFunction<Stream<RecordBatch>> batchReader) {
+        this(stream, columns, description, batchReader, null);
+    }
+
+    /**
+     * Source backed by a resource, e.g. a parser, which is closed together with the executed stream or by {@link #close()}.
+     */
+    public SourceNode(Stream<Record> stream, List<String> columns, String description, IntFunction<Stream<RecordBatch>> batchReader,
+                      Closeable resource) {
+        super(List.of());
+        this.stream = stream;
+        this.columns = columns == null ? null : List.copyOf(columns);
+        this.description = description;
+        this.batchReader = batchReader;
+        this.resource = resource;
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        return resource == null ? stream : stream.onClose(this::close);
+    }
+
+    @Override
+    public boolean supportsBatches() {
+        return batchReader != null && columns != null;
+    }
+
+    @Override
+    public Stream<RecordBatch> executeBatches(int batchSize) {
+        Stream<RecordBatch> batches = batchReader.apply(batchSize);
+        return resource == null ? batches : batches.onClose(this::close);
+    }
+
+    /**
+     * Marks the source as live: its records arrive over time, e.g. from a followed file, and are handed on one by one
+     * instead of in chunks, which would hold back the records read before a wait.
+     */
+    public SourceNode live() {
+        this.live = true;
+        return this;
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Whether the plan reads from a live source.
+     */
+    public static boolean anyLive(PlanNode plan) {
+        if (plan instanceof SourceNode && ((SourceNode) plan).live) {
+            return true;
+        }
+        return plan.getInputs().stream().anyMatch(SourceNode::anyLive);
+    }
+
+    public boolean isBackedBy(Closeable resource) {
+        return this.resource == resource;
+    }
+
+    /**
+     * Releases the resource behind this source, if any. Closing it more than once has no further effect.
+     */
+    public void close() {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes every source of the plan.
+     */
+    public static void closeAll(PlanNode plan) {
+        if (plan instanceof SourceNode) {
+            ((SourceNode) plan).close();
+        }
+        for (PlanNode input : plan.getInputs()) {
+            closeAll(input);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "Scan[" + description + (columns != null ? ": " + String.join(", ", columns) : "") + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return this;
+    }
+}
@@ -0,0 +1,49 @@
+package org.yexey.common.csv.imp.plan;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.batch.RecordBatch;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Boundary between batch and row by row execution: runs its input on {@link RecordBatch}es of the given size and
+ * hands out the selected rows as records. Inserted by {@link Optimizer#vectorize(PlanNode, int)}; aggregations and
+ * the writer read the batches of {@link #executeBatches()} directly.
+ */
+public class VectorizedNode extends PlanNode {
+
+    private final int batchSize;
+
+    public VectorizedNode(PlanNode input, int batchSize) {
+        super(List.of(input));
+        if (!input.supportsBatches()) {
+            throw new IllegalArgumentException(input.describe() + " does not run on batches");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public Stream<RecordBatch> executeBatches() {
+        return getInput().executeBatches(batchSize);
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return getInput().getColumns();
+    }
+
+    @Override
+    public Stream<Record> execute() {
+        return executeBatches().flatMap(RecordBatch::records);
+    }
+
+    @Override
+    public String describe() {
+        return "Vectorized[" + batchSize + "]";
+    }
+
+    @Override
+    public PlanNode withInputs(List<PlanNode> inputs) {
+        return new VectorizedNode(inputs.get(0), batchSize);
+    }
+}
@@ -0,0 +1,114 @@
+package org.yexey.common.csv.imp.sample;
+
+import org.yexey.common.csv.imp.BatchSpliterator;
+import org.yexey.common.csv.imp.Record;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamSample {
+
+    /**
+     * BERNOULLI SAMPLE:
+     * Keeps every record independently with the given probability. Instead of drawing a random number per record,
+     * the gaps between kept records are drawn from the matching geometric distribution. The records are read in
+     * order, so the same seed selects the same records, also in parallel mode.
+     */
+    public static Stream<Record> bernoulli(Stream<Record> stream, double fraction, long seed) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Fraction must be between 0 and 1 but was " + fraction);
+        }
+        return BatchSpliterator.inOrder(stream.filter(new GapPredicate(fraction, seed)));
+    }
+
+    /**
+     * RESERVOIR SAMPLE:
+     * A uniform sample of sampleSize records, or all records if there are fewer, in their input order. Only the
+     * sample is kept in memory. After the reservoir is filled, the positions of the records replacing one of it are
+     * drawn directly (Li's Algorithm L), so the remaining records are merely counted.
+     */
+    public static Stream<Record> reservoir(Stream<Record> stream, int sampleSize, long seed) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size must not be negative but was " + sampleSize);
+        }
+        return StreamSupport.stream(() -> sample(stream.iterator(), sampleSize, seed).spliterator(), Spliterator.ORDERED, false);
+    }
+
+    private static Stream<Record> sample(Iterator<Record> iterator, int sampleSize, long seed) {
+        Record[] reservoir = new Record[sampleSize];
+        long[] positions = new long[sampleSize];
+        int filled = 0;
+        long position = 0;
+        while (filled < sampleSize && iterator.hasNext()) {
+            reservoir[filled] = iterator.next();
+            positions[filled++] = position++;
+        }
+
+        if (filled == sampleSize && sampleSize > 0) {
+            SplittableRandom random = new SplittableRandom(seed);
+            double w = Math.exp(Math.log(uniform(random)) / sampleSize);
+            long next = skip(position, random, w);
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                if (position == next) {
+                    int slot = random.nextInt(sampleSize);
+                    reservoir[slot] = record;
+                    positions[slot] = position;
+                    w *= Math.exp(Math.log(uniform(random)) / sampleSize);
+                    next = skip(position + 1, random, w);
+                }
+                position++;
+            }
+        }
+
+        Record[] sample = reservoir;
+        return IntStream.range(0, filled).boxed()
+                .sorted(Comparator.comparingLong(i -> positions[i]))
+                .map(i -> sample[i]);
+    }
+
+    // Position of the next record to enter the reservoir, counting from the given one
+    private static long skip(long from, SplittableRandom random, double w) {
+        double gap = Math.floor(Math.log(uniform(random)) / Math.log(1 - w));
+        return gap >= Long.MAX_VALUE - from ? Long.MAX_VALUE : from + (long) gap;
+    }
+
+    // Uniform in (0, 1], so that its logarithm is finite
+    private static double uniform(SplittableRandom random) {
+        return 1 - random.nextDouble();
+    }
+
+    private static class GapPredicate implements Predicate<Record> {
+        private final double logRejection;
+        private final SplittableRandom random;
+        private long gap;
+
+        private GapPredicate(double fraction, long seed) {
+            this.logRejection = Math.log(1 - fraction);
+            this.random = new SplittableRandom(seed);
+            this.gap = nextGap();
+        }
+
+        @Override
+        public boolean test(Record record) {
+            if (gap > 0) {
+                gap--;
+                return false;
+            }
+            gap = nextGap();
+            return true;
+        }
+
+        // Records skipped before the next one kept, Long.MAX_VALUE for a fraction of 0
+        private long nextGap() {
+            double gap = Math.floor(Math.log(uniform(random)) / logRejection);
+            return gap >= 0 && gap < Long.MAX_VALUE ? (long) gap : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.yexey.common.csv.imp.spill;
+
+import org.yexey.common.csv.imp.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sort which keeps at most a fixed number of records in memory. Larger inputs are cut into
+ * sorted runs which are spilled to temporary files and merged. The sort is stable.
+ */
+public class ExternalSort {
+
+    public static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 100_000;
+
+    public static Stream<Record> sort(Stream<Record> stream, Comparator<Record> comparator, int maxRecordsInMemory) {
+        Objects.requireNonNull(comparator, "Comparator must not be null");
+        if (maxRecordsInMemory < 1) {
+            throw new IllegalArgumentException("At least one record must fit in memory but got " + maxRecordsInMemory);
+        }
+        MergeIterator iterator = new MergeIterator(stream, comparator, maxRecordsInMemory);
+        // Nothing is read before the first record is requested
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), Spliterator.ORDERED, false)
+                .onClose(iterator::close);
+    }
+
+    private static class MergeIterator implements Iterator<Record> {
+        private final Stream<Record> stream;
+        private final Comparator<Record> comparator;
+        private final int maxRecordsInMemory;
+        private final List<RecordSpillFile> runs = new ArrayList<>();
+        private final List<RecordSpillFile.Reader> readers = new ArrayList<>();
+        private PriorityQueue<Head> heads;
+        private Iterator<Record> inMemory;
+        private boolean started;
+
+        private MergeIterator(Stream<Record> stream, Comparator<Record> comparator, int maxRecordsInMemory) {
+            this.stream = stream;
+            this.comparator = comparator;
+            this.maxRecordsInMemory = maxRecordsInMemory;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!started) {
+                start();
+            }
+            boolean hasNext = inMemory != null ? inMemory.hasNext() : !heads.isEmpty();
+            if (!hasNext) {
+                close();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (inMemory != null) {
+                return inMemory.next();
+            }
+            Head head = heads.poll();
+            Record record = head.record;
+            RecordSpillFile.Reader reader = readers.get(head.run);
+            if (reader.hasNext()) {
+                heads.add(new Head(reader.next(), head.run));
+            }
+            return record;
+        }
+
+        private void start() {
+            started = true;
+            List<Record> buffer = new ArrayList<>();
+            try {
+                Iterator<Record> source = stream.iterator();
+                while (source.hasNext()) {
+                    buffer.add(source.next());
+                    if (buffer.size() == maxRecordsInMemory) {
+                        spill(buffer);
+                        buffer = new ArrayList<>();
+                    }
+                }
+                if (runs.isEmpty()) {
+                    buffer.sort(comparator);
+                    inMemory = buffer.iterator();
+                    return;
+                }
+                if (!buffer.isEmpty()) {
+                    spill(buffer);
+                }
+                // Ties are broken by run number, which keeps the merge stable
+                heads = new PriorityQueue<>(runs.size(), (a, b) -> {
+                    int result = comparator.compare(a.record, b.record);
+                    return result != 0 ? result : Integer.compare(a.run, b.run);
+                });
+                for (int run = 0; run < runs.size(); run++) {
+                    RecordSpillFile.Reader reader = runs.get(run).reader();
+                    readers.add(reader);
+                    if (reader.hasNext()) {
+                        heads.add(new Head(reader.next(), run));
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Could not spill sorted run", e);
+            }
+        }
+
+        private void spill(List<Record> buffer) throws IOException {
+            buffer.sort(comparator);
+            RecordSpillFile run = new RecordSpillFile();
+            runs.add(run);
+            run.write(buffer);
+            run.finish();
+        }
+
+        private void close() {
+            for (RecordSpillFile.Reader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Deleting the file below is what matters
+                }
+            }
+            readers.clear();
+            for (RecordSpillFile run : runs) {
+                try {
+                    run.close();
+                } catch (IOException ignored) {
+                    // Temp files are best effort
+                }
+            }
+            runs.clear();
+        }
+    }
+
+    private static class Head {
+        private final Record record;
+        private final int run;
+
+        private Head(Record record, int run) {
+            this.record = record;
+            this.run = run;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.yexey.common.csv.imp.spill;
+
+import org.yexey.common.csv.imp.Record;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Temporary binary file of records for operators that spill to disk.
+ * Column names are written once into a dictionary, records refer to them by index.
+ * The file is deleted on {@link #close()}.
+ */
+public class RecordSpillFile implements Closeable {
+
+    private static final int COLUMN_DEFINITION = -1;
+
+    private final Path path;
+    private DataOutputStream out;
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    private long recordCount;
+    private long byteSize;
+
+    public RecordSpillFile() throws IOException {
+        this(Files.createTempFile("csv-util-", ".spill"));
+    }
+
+    public RecordSpillFile(Path path) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    }
+
+    public void write(Record record) throws IOException {
+        Map<String, String> data = record.getData();
+        for (String column : data.keySet()) {
+            if (!columnIndexes.containsKey(column)) {
+                out.writeInt(COLUMN_DEFINITION);
+                writeString(out, column);
+                columnIndexes.put(column, columnIndexes.size());
+            }
+        }
+        out.writeInt(data.size());
+        for (Map.Entry<String, String> field : data.entrySet()) {
+            out.writeInt(columnIndexes.get(field.getKey()));
+            writeString(out, field.getValue());
+        }
+        recordCount++;
+    }
+
+    public void write(Iterable<Record> records) throws IOException {
+        for (Record record : records) {
+            write(record);
+        }
+    }
+
+    /**
+     * Finishes writing. Must be called before {@link #reader()}.
+     */
+    public RecordSpillFile finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            byteSize = Files.size(path);
+        }
+        return this;
+    }
+
+    public Reader reader() throws IOException {
+        finish();
+        return new Reader(new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16)), recordCount);
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Size on disk, known after {@link #finish()}.
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public static class Reader implements Iterator<Record>, Closeable {
+        private final DataInputStream in;
+        private final List<String> columns = new ArrayList<>();
+        private long remaining;
+
+        private Reader(DataInputStream in, long recordCount) {
+            this.in = in;
+            this.remaining = recordCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Record next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                int fieldCount = in.readInt();
+                while (fieldCount == COLUMN_DEFINITION) {
+                    columns.add(readString(in));
+                    fieldCount = in.readInt();
+                }
+                Record record = new Record();
+                for (int i = 0; i < fieldCount; i++) {
+                    String column = columns.get(in.readInt());
+                    record.set(column, readString(in));
+                }
+                remaining--;
+                return record;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read spilled records", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a string which may be null as its length in UTF-8 bytes followed by the bytes, -1 for null.
+     * Shared with other binary files of this library, such as saved join indexes.
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,52 @@
+package org.yexey.common.csv.imp.spill;
+
+/**
+ * How much a memory-bounded operator wrote to temporary files. Pass an instance to the operator and read it
+ * once the result was consumed. The counters add up over all recursion levels.
+ */
+public class SpillReport {
+
+    private long spilledRecords;
+    private long spilledBytes;
+    private int spillFiles;
+    private int maxDepth;
+
+    /**
+     * Called by the operators for every finished spill file at the given recursion depth, starting at 1.
+     */
+    public void recordSpill(RecordSpillFile file, int depth) {
+        spilledRecords += file.getRecordCount();
+        spilledBytes += file.getByteSize();
+        spillFiles++;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    public boolean hasSpilled() {
+        return spillFiles > 0;
+    }
+
+    public long getSpilledRecords() {
+        return spilledRecords;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public int getSpillFiles() {
+        return spillFiles;
+    }
+
+    /**
+     * Deepest recursion level that had to spill, 0 if everything fit in memory.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "SpillReport{records=" + spilledRecords + ", bytes=" + spilledBytes
+                + ", files=" + spillFiles + ", maxDepth=" + maxDepth + "}";
+    }
+}
@@ -0,0 +1,149 @@
+package org.yexey.common.csv.imp.window;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnAlreadyExistsException;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSVStreamWindow {
+
+    /**
+     * WINDOW:
+     * Adds one column per function, computed over the partition of each record. The stream is processed in one pass.
+     * A partition ends where the partition columns change, so the input has to be grouped by them, and within a
+     * partition the order column must not decrease. Only the frames of the functions and the lookahead of lead are held.
+     * Like addColumn, a function fails on a record which already has its output column.
+     */
+    public static Stream<Record> window(Stream<Record> stream, WindowSpec spec, WindowFunction... functions) {
+        Objects.requireNonNull(spec, "WindowSpec must not be null");
+        Objects.requireNonNull(functions, "Window functions must not be null");
+        if (functions.length == 0) {
+            throw new IllegalArgumentException("At least one window function is required");
+        }
+        Set<String> outputColumns = new HashSet<>();
+        for (WindowFunction function : functions) {
+            Objects.requireNonNull(function, "Window function must not be null");
+            if (function.requiresOrder() && !spec.isOrdered()) {
+                throw new IllegalArgumentException(function + " needs a WindowSpec with orderBy");
+            }
+            if (!outputColumns.add(function.getOutputColumn())) {
+                throw new IllegalArgumentException("More than one window function writes column " + function.getOutputColumn());
+            }
+        }
+        WindowIterator iterator = new WindowIterator(stream.iterator(), spec, functions);
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), Spliterator.ORDERED, false)
+                .onClose(stream::close);
+    }
+
+    private static class WindowIterator implements Iterator<Record> {
+        private final Iterator<Record> source;
+        private final WindowSpec spec;
+        private final WindowFunction[] functions;
+        private final int lookahead;
+        // Records of the current partition that were read but not yet emitted, and the read-only view the
+        // functions get of them. The buffer holds the lookahead only, so removing its head copies next to nothing.
+        private final List<Record> buffer = new ArrayList<>();
+        private final List<Record> following = Collections.unmodifiableList(buffer);
+        private final Deque<Record> output = new ArrayDeque<>();
+        private WindowFunction.Evaluator[] evaluators;
+        private Object partition;
+        private String lastOrderValue;
+
+        private WindowIterator(Iterator<Record> source, WindowSpec spec, WindowFunction[] functions) {
+            this.source = source;
+            this.spec = spec;
+            this.functions = functions;
+            int maxLookahead = 0;
+            for (WindowFunction function : functions) {
+                maxLookahead = Math.max(maxLookahead, function.getLookahead());
+            }
+            this.lookahead = maxLookahead;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (output.isEmpty()) {
+                if (!source.hasNext()) {
+                    if (buffer.isEmpty()) {
+                        return false;
+                    }
+                    flushPartition();
+                    continue;
+                }
+                accept(source.next());
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return output.pollFirst();
+        }
+
+        private void accept(Record record) {
+            Object recordPartition = spec.partitionOf(record);
+            if (evaluators == null || !Objects.equals(partition, recordPartition)) {
+                flushPartition();
+                partition = recordPartition;
+                evaluators = new WindowFunction.Evaluator[functions.length];
+                for (int i = 0; i < functions.length; i++) {
+                    evaluators[i] = functions[i].newEvaluator(spec);
+                }
+                lastOrderValue = null;
+            } else if (spec.isOrdered()) {
+                requireOrdered(record);
+            }
+            if (spec.isOrdered()) {
+                lastOrderValue = orderValueOf(record);
+            }
+            buffer.add(record);
+            if (buffer.size() > lookahead) {
+                emitFirst();
+            }
+        }
+
+        private void requireOrdered(Record record) {
+            if (spec.getOrderComparator().compare(lastOrderValue, orderValueOf(record)) > 0) {
+                throw new IllegalStateException("The stream is not sorted by " + spec.getOrderColumn()
+                        + " within partition " + partition);
+            }
+        }
+
+        private String orderValueOf(Record record) {
+            String value = record.get(spec.getOrderColumn());
+            if (value == null && !record.containsColumn(spec.getOrderColumn())) {
+                throw new ColumnNotFoundException("Column " + spec.getOrderColumn() + " not found");
+            }
+            return value;
+        }
+
+        private void flushPartition() {
+            while (!buffer.isEmpty()) {
+                emitFirst();
+            }
+        }
+
+        private void emitFirst() {
+            Record current = buffer.remove(0);
+            String[] values = new String[functions.length];
+            for (int i = 0; i < functions.length; i++) {
+                String column = functions[i].getOutputColumn();
+                if (current.containsColumn(column)) {
+                    throw new ColumnAlreadyExistsException("Column " + column + " is already present");
+                }
+                values[i] = evaluators[i].evaluate(current, following);
+            }
+            // Set only after all functions saw the record, so no function reads another one's output
+            for (int i = 0; i < functions.length; i++) {
+                current.put(functions[i].getOutputColumn(), values[i]);
+            }
+            output.addLast(current);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.yexey.common.csv.imp.window;
+
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Accumulator;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * One column computed over a window, see {@link WindowSpec}. Every function only keeps what its frame needs:
+ * lag the previous n values, lead the next n records, rolling windows the records of the frame.
+ */
+public final class WindowFunction {
+
+    private final String outputColumn;
+    private final int lookahead;
+    private final boolean requiresOrder;
+    private final Function<WindowSpec, Evaluator> evaluatorFactory;
+
+    private WindowFunction(String outputColumn, int lookahead, boolean requiresOrder, Function<WindowSpec, Evaluator> evaluatorFactory) {
+        this.outputColumn = Objects.requireNonNull(outputColumn, "Output column must not be null");
+        this.lookahead = lookahead;
+        this.requiresOrder = requiresOrder;
+        this.evaluatorFactory = evaluatorFactory;
+    }
+
+    /**
+     * Computes the values of one partition, record by record in order.
+     */
+    interface Evaluator {
+        /**
+         * @param following the records after current within the partition, as many as the function's lookahead at most
+         */
+        String evaluate(Record current, List<Record> following);
+    }
+
+    /**
+     * 1, 2, 3, ... within each partition.
+     */
+    public static WindowFunction rowNumber() {
+        return new WindowFunction("row_number", 0, false, spec -> {
+            long[] rowNumber = {0};
+            return (current, following) -> Long.toString(++rowNumber[0]);
+        });
+    }
+
+    /**
+     * Rank by the order column with gaps after ties: 1, 1, 3.
+     */
+    public static WindowFunction rank() {
+        return ranking("rank", false);
+    }
+
+    /**
+     * Rank by the order column without gaps after ties: 1, 1, 2.
+     */
+    public static WindowFunction denseRank() {
+        return ranking("dense_rank", true);
+    }
+
+    private static WindowFunction ranking(String name, boolean dense) {
+        return new WindowFunction(name, 0, true, spec -> new Evaluator() {
+            private long rowNumber;
+            private long rank;
+            private String previous;
+
+            @Override
+            public String evaluate(Record current, List<Record> following) {
+                String value = current.get(spec.getOrderColumn());
+                rowNumber++;
+                if (rowNumber == 1 || spec.getOrderComparator().compare(previous, value) != 0) {
+                    rank = dense ? rank + 1 : rowNumber;
+                }
+                previous = value;
+                return Long.toString(rank);
+            }
+        });
+    }
+
+    public static WindowFunction lag(String column) {
+        return lag(column, 1, null);
+    }
+
+    /**
+     * Value of column offset records before the current one in the partition, or defaultValue.
+     */
+    public static WindowFunction lag(String column, int offset, String defaultValue) {
+        requirePositive(offset);
+        return new WindowFunction("lag(" + column + ", " + offset + ")", 0, false, spec -> {
+            Deque<String> previous = new ArrayDeque<>(offset + 1);
+            return (current, following) -> {
+                String result = previous.size() == offset ? previous.peekFirst() : defaultValue;
+                previous.addLast(valueOf(current, column));
+                if (previous.size() > offset) {
+                    previous.removeFirst();
+                }
+                return result;
+            };
+        });
+    }
+
+    public static WindowFunction lead(String column) {
+        return lead(column, 1, null);
+    }
+
+    /**
+     * Value of column offset records after the current one in the partition, or defaultValue.
+     */
+    public static WindowFunction lead(String column, int offset, String defaultValue) {
+        requirePositive(offset);
+        return new WindowFunction("lead(" + column + ", " + offset + ")", offset, false, spec -> (current, following) -> {
+            valueOf(current, column);
+            return following.size() >= offset ? following.get(offset - 1).get(column) : defaultValue;
+        });
+    }
+
+    /**
+     * The aggregation over all records of the partition up to and including the current one, e.g. a running sum.
+     */
+    public static WindowFunction running(Aggregation aggregation) {
+        return new WindowFunction("running_" + aggregation.getOutputColumn(), 0, false, spec -> {
+            Accumulator accumulator = aggregation.newAccumulator();
+            return (current, following) -> {
+                accumulator.accept(current);
+                return accumulator.result();
+            };
+        });
+    }
+
+    /**
+     * The aggregation over the current record and up to rows - 1 records before it, e.g. a 7-row moving average.
+     */
+    public static WindowFunction rollingRows(Aggregation aggregation, int rows) {
+        requirePositive(rows);
+        return new WindowFunction("rolling_" + aggregation.getOutputColumn(), 0, false, spec -> {
+            Deque<Record> frame = new ArrayDeque<>(rows + 1);
+            return (current, following) -> {
+                frame.addLast(current);
+                if (frame.size() > rows) {
+                    frame.removeFirst();
+                }
+                return aggregate(aggregation, frame);
+            };
+        });
+    }
+
+    /**
+     * The aggregation over the records whose order value lies within range before the current one, inclusive.
+     * Order values are parsed with parser, for example epoch seconds with {@code Long::parseLong}.
+     */
+    public static WindowFunction rollingRange(Aggregation aggregation, long range, ToLongFunction<String> parser) {
+        if (range < 0) {
+            throw new IllegalArgumentException("Range must not be negative but was " + range);
+        }
+        Objects.requireNonNull(parser, "Parser must not be null");
+        return new WindowFunction("rolling_" + aggregation.getOutputColumn(), 0, true, spec -> {
+            Deque<Record> frame = new ArrayDeque<>();
+            Deque<Long> times = new ArrayDeque<>();
+            return (current, following) -> {
+                long time = parser.applyAsLong(valueOf(current, spec.getOrderColumn()));
+                frame.addLast(current);
+                times.addLast(time);
+                while (times.peekFirst() < time - range) {
+                    times.removeFirst();
+                    frame.removeFirst();
+                }
+                return aggregate(aggregation, frame);
+            };
+        });
+    }
+
+    // Frames are small, so recomputing beats requiring accumulators that can remove values
+    private static String aggregate(Aggregation aggregation, Deque<Record> frame) {
+        Accumulator accumulator = aggregation.newAccumulator();
+        for (Record record : frame) {
+            accumulator.accept(record);
+        }
+        return accumulator.result();
+    }
+
+    private static void requirePositive(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Offset and frame size must be at least 1 but was " + value);
+        }
+    }
+
+    private static String valueOf(Record record, String column) {
+        String value = record.get(column);
+        if (value == null && !record.containsColumn(column)) {
+            throw new ColumnNotFoundException("Column " + column + " not found");
+        }
+        return value;
+    }
+
+    /**
+     * The same function with another output column name.
+     */
+    public WindowFunction as(String outputColumn) {
+        return new WindowFunction(outputColumn, lookahead, requiresOrder, evaluatorFactory);
+    }
+
+    public String getOutputColumn() {
+        return outputColumn;
+    }
+
+    int getLookahead() {
+        return lookahead;
+    }
+
+    boolean requiresOrder() {
+        return requiresOrder;
+    }
+
+    Evaluator newEvaluator(WindowSpec spec) {
+        return evaluatorFactory.apply(spec);
+    }
+
+    @Override
+    public String toString() {
+        return outputColumn;
+    }
+}
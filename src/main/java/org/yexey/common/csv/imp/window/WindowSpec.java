@@ -0,0 +1,68 @@
+package org.yexey.common.csv.imp.window;
+
+import org.yexey.common.csv.imp.KeyColumns;
+import org.yexey.common.csv.imp.Record;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Partitioning and ordering of a window, like {@code OVER (PARTITION BY ... ORDER BY ...)}.
+ * Window operators stream, so the input has to arrive grouped by the partition columns and, within
+ * a partition, sorted by the order column. Without partition columns the whole stream is one partition.
+ */
+public final class WindowSpec {
+
+    private final KeyColumns partitionColumns;
+    private final String orderColumn;
+    private final Comparator<String> orderComparator;
+
+    private WindowSpec(KeyColumns partitionColumns, String orderColumn, Comparator<String> orderComparator) {
+        this.partitionColumns = partitionColumns;
+        this.orderColumn = orderColumn;
+        this.orderComparator = orderComparator;
+    }
+
+    public static WindowSpec partitionBy(String... columns) {
+        Objects.requireNonNull(columns, "Partition columns must not be null");
+        return new WindowSpec(columns.length == 0 ? null : KeyColumns.of(columns), null, null);
+    }
+
+    /**
+     * Orders by the natural order of the values, which suits ISO dates and timestamps. Missing values come first.
+     */
+    public WindowSpec orderBy(String column) {
+        return orderBy(column, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    /**
+     * Orders with the given comparator, which has to accept missing values if the column has any.
+     */
+    public WindowSpec orderBy(String column, Comparator<String> comparator) {
+        Objects.requireNonNull(column, "Order column must not be null");
+        Objects.requireNonNull(comparator, "Comparator must not be null");
+        return new WindowSpec(partitionColumns, column, comparator);
+    }
+
+    Object partitionOf(Record record) {
+        return partitionColumns == null ? null : partitionColumns.groupKeyOf(partitionColumns.requirePresent(record, "the stream"));
+    }
+
+    boolean isOrdered() {
+        return orderColumn != null;
+    }
+
+    String getOrderColumn() {
+        return orderColumn;
+    }
+
+    Comparator<String> getOrderComparator() {
+        return orderComparator;
+    }
+
+    @Override
+    public String toString() {
+        return "PARTITION BY " + (partitionColumns == null ? "()" : partitionColumns)
+                + (orderColumn == null ? "" : " ORDER BY " + orderColumn);
+    }
+}
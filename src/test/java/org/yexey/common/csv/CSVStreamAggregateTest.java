@@ -0,0 +1,263 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Accumulator;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.aggregation.HyperLogLog;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+import org.yexey.common.csv.imp.spill.SpillReport;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamAggregateTest {
+
+    private static CSVStream sales() throws IOException {
+        String csvData = "Region,Product,Amount,Price\n" +
+                         "North,A,10,1.5\n" +
+                         "South,B,5,2.0\n" +
+                         "North,B,7,\n" +
+                         "North,A,3,0.5\n" +
+                         "South,A,,4.25";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    @Test
+    void testAggregate_BuiltInAggregationsPerGroup() throws IOException {
+        List<Record> records = sales().aggregate("Region",
+                Aggregation.count(),
+                Aggregation.count("Amount"),
+                Aggregation.sum("Amount"),
+                Aggregation.sum("Price"),
+                Aggregation.avg("Amount"),
+                Aggregation.min("Price").as("cheapest"),
+                Aggregation.max("Amount"),
+                Aggregation.first("Product"),
+                Aggregation.last("Product")).toList();
+
+        assertEquals(2, records.size());
+        Record north = records.get(0);
+        assertEquals(List.of("Region", "count", "count(Amount)", "sum(Amount)", "sum(Price)", "avg(Amount)",
+                "cheapest", "max(Amount)", "first(Product)", "last(Product)"), List.copyOf(north.getColumnNames()));
+        assertEquals(List.of("North", "3", "3", "20", "2.0", "6.666666666666667", "0.5", "10", "A", "A"), List.copyOf(north.getValues()));
+        Record south = records.get(1);
+        assertEquals(List.of("South", "2", "1", "5", "6.25", "5.0", "2.0", "5", "B", "A"), List.copyOf(south.getValues()));
+    }
+
+    @Test
+    void testAggregate_CompositeGroupsAndGlobal() throws IOException {
+        List<Record> byRegionAndProduct = sales().aggregate(new String[]{"Region", "Product"}, Aggregation.sum("Amount")).toList();
+        List<Record> total = sales().aggregate(Aggregation.sum("Amount"), Aggregation.count()).toList();
+        List<Record> empty = sales().filter(record -> false).aggregate(Aggregation.count(), Aggregation.sum("Amount")).toList();
+
+        assertEquals(4, byRegionAndProduct.size());
+        assertEquals("13", byRegionAndProduct.get(0).get("sum(Amount)"));
+        assertEquals("South", byRegionAndProduct.get(3).get("Region"));
+        assertEquals("A", byRegionAndProduct.get(3).get("Product"));
+        assertNull(byRegionAndProduct.get(3).get("sum(Amount)"));
+        assertEquals(List.of("25", "5"), List.copyOf(total.get(0).getValues()));
+        assertEquals("0", empty.get(0).get("count"));
+        assertNull(empty.get(0).get("sum(Amount)"));
+    }
+
+    @Test
+    void testAggregate_UserDefinedAccumulator() throws IOException {
+        Aggregation products = Aggregation.of("products", () -> new Accumulator() {
+            private final StringBuilder joined = new StringBuilder();
+
+            @Override
+            public void accept(Record record) {
+                joined.append(record.get("Product"));
+            }
+
+            @Override
+            public void merge(Accumulator other) {
+                joined.append(other.result());
+            }
+
+            @Override
+            public String result() {
+                return joined.toString();
+            }
+        });
+
+        List<Record> records = sales().aggregate("Region", products).toList();
+
+        assertEquals("ABA", records.get(0).get("products"));
+        assertEquals("BA", records.get(1).get("products"));
+    }
+
+    @Test
+    void testAggregate_InvalidArguments() throws IOException {
+        assertThrows(ColumnNotFoundException.class, () -> sales().aggregate("Country", Aggregation.count()).toList());
+        assertThrows(ColumnNotFoundException.class, () -> sales().aggregate("Region", Aggregation.sum("Cost")).toList());
+        assertThrows(IllegalArgumentException.class, () -> sales().aggregate("Region"));
+        assertThrows(IllegalArgumentException.class, () -> sales().aggregate("Region", Aggregation.count(), Aggregation.sum("Amount").as("count")));
+        assertThrows(NumberFormatException.class, () -> sales().aggregate("Region", Aggregation.sum("Product")).toList());
+    }
+
+    private static CSVStream events(int rows) throws IOException {
+        StringBuilder csvData = new StringBuilder("User,Day,Value\n");
+        for (int i = 0; i < rows; i++) {
+            csvData.append("u").append((i * 7919) % 1013).append(',').append(i % 5).append(',').append(i).append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    @Test
+    void testParallelAggregate_OrderedMatchesSequential() throws IOException {
+        Aggregation[] aggregations = {Aggregation.count(), Aggregation.sum("Value"), Aggregation.max("Value"),
+                Aggregation.first("Value"), Aggregation.last("Value")};
+
+        List<Record> sequential = events(20_000).aggregate(new String[]{"User", "Day"}, aggregations).toList();
+        List<Record> parallel = events(20_000).parallelAggregate(new String[]{"User", "Day"}, 4, true, aggregations).toList();
+
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    void testParallelAggregate_UnorderedAndGlobal() throws IOException {
+        List<Record> unordered = events(10_000).parallelAggregate(new String[]{"User"}, 3, false, Aggregation.count()).toList();
+        List<Record> global = events(10_000).parallelAggregate(new String[0], 3, true, Aggregation.sum("Value"), Aggregation.first("Value")).toList();
+
+        assertEquals(1013, unordered.size());
+        assertEquals(10_000, unordered.stream().mapToLong(record -> Long.parseLong(record.get("count"))).sum());
+        assertEquals(List.of("49995000", "0"), List.copyOf(global.get(0).getValues()));
+        assertThrows(ColumnNotFoundException.class, () -> events(10_000).parallelAggregate("Country", 2, Aggregation.count()).toList());
+        assertThrows(IllegalArgumentException.class, () -> events(10).parallelAggregate("User", 0, Aggregation.count()));
+    }
+
+    @Test
+    void testParallelAggregate_PrimitiveAccumulatorsMatchSequential() throws IOException {
+        StringBuilder csvData = new StringBuilder("Group,Amount\n");
+        for (int i = 0; i < 20_000; i++) {
+            String amount = i % 7 == 0 ? "" : i % 1000 == 1 ? "0.5" : i % 9_000 == 3 ? "9000000000000000000" : Integer.toString(i - 10_000);
+            csvData.append("g").append(i % 37).append(',').append(amount).append('\n');
+        }
+        Aggregation[] aggregations = {Aggregation.count(), Aggregation.count("Amount"), Aggregation.sum("Amount"),
+                Aggregation.avg("Amount"), Aggregation.min("Amount"), Aggregation.max("Amount").as("top")};
+
+        List<Record> sequential = CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader())
+                .aggregate(new String[]{"Group"}, aggregations).toList();
+        List<Record> parallel = CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader())
+                .parallelAggregate(new String[]{"Group"}, 4, true, aggregations).toList();
+        List<Record> empty = events(0).parallelAggregate(new String[0], 2, true, Aggregation.count(), Aggregation.sum("Value")).toList();
+
+        assertEquals(37, parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            for (String column : List.of("Group", "count", "count(Amount)", "min(Amount)", "top")) {
+                assertEquals(sequential.get(i).get(column), parallel.get(i).get(column), column);
+            }
+            // Fractional sums are added up in another order
+            for (String column : List.of("sum(Amount)", "avg(Amount)")) {
+                double expected = Double.parseDouble(sequential.get(i).get(column));
+                assertEquals(expected, Double.parseDouble(parallel.get(i).get(column)), Math.abs(expected) * 1e-12, column);
+            }
+        }
+        assertEquals(sequential.get(2).get("sum(Amount)"), parallel.get(2).get("sum(Amount)"));
+        assertFalse(parallel.get(2).get("sum(Amount)").contains("."));
+        assertEquals(Arrays.asList("0", null), new ArrayList<>(empty.get(0).getValues()));
+    }
+
+    @Test
+    void testParallelAggregate_ErrorInAccumulatorReachesTheCaller() throws IOException {
+        Aggregation failing = Aggregation.of("failing", () -> new Accumulator() {
+            @Override
+            public void accept(Record record) {
+                throw new AssertionError("broken accumulator");
+            }
+
+            @Override
+            public void merge(Accumulator other) {
+            }
+
+            @Override
+            public String result() {
+                return null;
+            }
+        });
+
+        AssertionError error = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(AssertionError.class,
+                () -> events(200_000).parallelAggregate(new String[]{"User"}, 2, true, failing).toList()));
+        assertEquals("broken accumulator", error.getMessage());
+    }
+
+    @Test
+    void testHyperLogLog_UnbiasedWhereLinearCountingWouldEnd() {
+        // Around 2.5 * 2^precision plain HyperLogLog switches estimators and overestimates by about 2%
+        for (int precision : new int[]{12, 14}) {
+            int cardinality = (int) (2.5 * (1 << precision));
+            int trials = precision == 12 ? 40 : 10;
+            double errors = 0;
+            for (int trial = 0; trial < trials; trial++) {
+                HyperLogLog sketch = new HyperLogLog(precision);
+                for (int i = 0; i < cardinality; i++) {
+                    sketch.add(trial + "-" + i);
+                }
+                errors += (double) sketch.estimate() / cardinality - 1;
+            }
+            assertEquals(0, errors / trials, 0.008, "Mean error at precision " + precision);
+        }
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    void testAggregate_ApproximateSketchesPerGroupAndMerged() throws IOException {
+        Aggregation[] aggregations = {Aggregation.approxCountDistinct("User"), Aggregation.approxQuantile("Value", 0.5),
+                Aggregation.approxQuantile("Value", 0.99), Aggregation.heavyHitters("Day", 2)};
+
+        Record global = events(50_000).aggregate(aggregations).toList().get(0);
+        Record merged = events(50_000).parallelAggregate(new String[0], 4, true, aggregations).toList().get(0);
+        List<Record> perDay = events(50_000).aggregate("Day", Aggregation.approxCountDistinct("User", 10)).toList();
+
+        for (Record record : List.of(global, merged)) {
+            assertEquals(1013, Long.parseLong(record.get("approx_count_distinct(User)")), 1013 * 0.03);
+            assertEquals(25_000, Double.parseDouble(record.get("approx_quantile(Value, 0.5)")), 50_000 * 0.01);
+            assertEquals(49_500, Double.parseDouble(record.get("approx_quantile(Value, 0.99)")), 50_000 * 0.002);
+            assertTrue(record.get("heavy_hitters(Day)").matches("\\d=1\\d{4};\\d=1\\d{4}"));
+        }
+        assertEquals(5, perDay.size());
+        assertEquals(1013, Long.parseLong(perDay.get(0).get("approx_count_distinct(User)")), 1013 * 0.1);
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.approxCountDistinct("User", 30));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.approxQuantile("Value", 1.5));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.approxQuantile("Value", 0.5, 5));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.heavyHitters("Day", 0));
+    }
+
+    @Test
+    void testAggregate_SpillsBeyondBudgetWithSameRows() throws IOException {
+        Aggregation[] aggregations = {Aggregation.count(), Aggregation.sum("Value"), Aggregation.first("Value"), Aggregation.last("Value")};
+        SpillReport report = new SpillReport();
+
+        List<Record> inMemory = events(20_000).aggregate(new String[]{"User"}, aggregations).toList();
+        List<Record> spilled = events(20_000).aggregate(new String[]{"User"}, 10, report, aggregations).toList();
+
+        assertEquals(new HashSet<>(inMemory), new HashSet<>(spilled));
+        assertEquals(inMemory.size(), spilled.size());
+        assertEquals(inMemory.subList(0, 10), spilled.subList(0, 10));
+        assertTrue(report.hasSpilled());
+        assertTrue(report.getMaxDepth() > 1);
+        assertTrue(report.getSpilledRecords() > 19_000);
+        assertTrue(report.getSpilledBytes() > 0);
+    }
+
+    @Test
+    void testAggregate_WithinBudgetDoesNotSpill() throws IOException {
+        SpillReport report = new SpillReport();
+
+        List<Record> records = events(1000).aggregate(new String[]{"Day"}, 10, report, Aggregation.count()).toList();
+
+        assertEquals(5, records.size());
+        assertFalse(report.hasSpilled());
+        assertEquals(0, report.getSpillFiles());
+    }
+}
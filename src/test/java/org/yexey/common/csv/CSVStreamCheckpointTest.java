@@ -0,0 +1,87 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yexey.common.csv.imp.io.Checkpoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamCheckpointTest {
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+    private static Path input(Path dir) throws IOException {
+        StringBuilder csvData = new StringBuilder("ID,Name,Amount\n");
+        for (int i = 0; i < 2_000; i++) {
+            csvData.append(i).append(',').append(i % 7 == 0 ? "Zoë" : "Name " + i).append(',').append(i * 3).append('\n');
+        }
+        return Files.writeString(dir.resolve("input.csv"), csvData.toString());
+    }
+
+    // Fails at the given ID, or never for -1, and counts the records it saw
+    private static void transform(Path input, Path output, Checkpoint checkpoint, int failAt, AtomicInteger seen) throws IOException {
+        CSVStream.fromFile(input, FORMAT, checkpoint)
+                .filter("Amount", amount -> Integer.parseInt(amount) % 2 == 0)
+                .mapColumn("ID", id -> {
+                    seen.incrementAndGet();
+                    if (Integer.parseInt(id) == failAt) {
+                        throw new IllegalStateException("Failed at " + id);
+                    }
+                    return "P" + id;
+                })
+                .deleteColumns("Amount")
+                .writeTo(output, CSVFormat.DEFAULT, checkpoint);
+    }
+
+    @Test
+    void testFailedRun_ResumesFromCheckpoint(@TempDir Path tempDir) throws IOException {
+        Path input = input(tempDir);
+        Path expected = tempDir.resolve("expected.csv");
+        transform(input, expected, Checkpoint.of(tempDir.resolve("expected.checkpoint")), -1, new AtomicInteger());
+        assertFalse(Files.exists(tempDir.resolve("expected.checkpoint")));
+
+        Path output = tempDir.resolve("output.csv");
+        Path checkpointFile = tempDir.resolve("output.checkpoint");
+        AtomicInteger firstRun = new AtomicInteger();
+        assertThrows(IllegalStateException.class,
+                () -> transform(input, output, Checkpoint.of(checkpointFile, Duration.ZERO), 1_500, firstRun));
+        assertTrue(Files.exists(checkpointFile));
+        Checkpoint saved = Checkpoint.of(checkpointFile);
+        assertTrue(saved.isResumed());
+        // Taken before the output of ID 1498, the last one written
+        assertEquals(1_498, saved.getInputRecords());
+        assertEquals(749, saved.getOutputRecords());
+
+        // Leftovers after the checkpoint are cut off, the output continues without a second header
+        Files.writeString(output, "partial,out", StandardOpenOption.APPEND);
+        AtomicInteger secondRun = new AtomicInteger();
+        transform(input, output, Checkpoint.of(checkpointFile, Duration.ZERO), -1, secondRun);
+        assertEquals(Files.readString(expected), Files.readString(output));
+        assertEquals(751, firstRun.get());
+        assertEquals(251, secondRun.get());
+        assertFalse(Files.exists(checkpointFile));
+    }
+
+    @Test
+    void testCheckpoints_NeedRecordByRecordPlans(@TempDir Path tempDir) throws IOException {
+        Path input = input(tempDir);
+        Path output = tempDir.resolve("output.csv");
+        Checkpoint checkpoint = Checkpoint.of(tempDir.resolve("output.checkpoint"));
+
+        CSVStream sorted = CSVStream.fromFile(input, FORMAT, checkpoint).sort("Name", String::compareTo);
+        assertThrows(IllegalStateException.class, () -> sorted.writeTo(output, CSVFormat.DEFAULT, checkpoint));
+
+        Checkpoint unattached = Checkpoint.of(tempDir.resolve("other.checkpoint"));
+        assertThrows(IllegalStateException.class,
+                () -> CSVStream.fromFile(input, FORMAT).writeTo(output, CSVFormat.DEFAULT, unattached));
+        assertThrows(IllegalStateException.class, () -> CSVStream.fromFile(input, FORMAT, checkpoint));
+    }
+}
@@ -0,0 +1,82 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.distinct.Keep;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+import org.yexey.common.csv.imp.spill.SpillReport;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamDistinctTest {
+
+    private static CSVStream vendors() throws IOException {
+        String csvData = "ID,Name,Price\n" +
+                         "1,Alice,10\n" +
+                         "2,Bob,20\n" +
+                         "1,Alice,10\n" +
+                         "1,Alice,15\n" +
+                         "3,Charlie,30\n" +
+                         "2,Bob,25";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream numbers(int rows, int modulo) throws IOException {
+        StringBuilder csvData = new StringBuilder("Key,Row\n");
+        for (int i = 0; i < rows; i++) {
+            csvData.append((i * 31) % modulo).append(',').append(i).append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<String> column(List<Record> records, String column) {
+        return records.stream().map(record -> record.get(column)).collect(Collectors.toList());
+    }
+
+    @Test
+    void testDistinct_FullRowAndKeyColumns() throws IOException {
+        List<Record> rows = vendors().distinct().toList();
+        List<Record> byId = vendors().distinct("ID").toList();
+        List<Record> exact = vendors().distinct(Keep.FIRST, true, 100, null, "ID", "Name").toList();
+
+        assertEquals(List.of("10", "20", "15", "30", "25"), column(rows, "Price"));
+        assertEquals(List.of("10", "20", "30"), column(byId, "Price"));
+        assertEquals(byId, exact);
+    }
+
+    @Test
+    void testDistinct_KeepLastInOrderOfLastOccurrence() throws IOException {
+        List<Record> records = vendors().distinct(Keep.LAST, "ID").toList();
+
+        assertEquals(List.of("1", "3", "2"), column(records, "ID"));
+        assertEquals(List.of("15", "30", "25"), column(records, "Price"));
+    }
+
+    @Test
+    void testDistinct_SpillsBeyondBudgetWithSameRecords() throws IOException {
+        for (Keep keep : Keep.values()) {
+            SpillReport report = new SpillReport();
+
+            List<Record> inMemory = numbers(10_000, 997).distinct(keep, "Key").toList();
+            List<Record> spilled = numbers(10_000, 997).distinct(keep, true, 50, report, "Key").toList();
+
+            assertEquals(997, spilled.size());
+            assertEquals(new HashSet<>(inMemory), new HashSet<>(spilled));
+            assertTrue(report.hasSpilled());
+            assertTrue(report.getMaxDepth() > 1);
+        }
+    }
+
+    @Test
+    void testDistinct_InvalidArguments() throws IOException {
+        assertThrows(ColumnNotFoundException.class, () -> vendors().distinct("Country").toList());
+        assertThrows(IllegalArgumentException.class, () -> vendors().distinct(Keep.FIRST, false, 0, null, "ID"));
+    }
+}
@@ -0,0 +1,120 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yexey.common.csv.imp.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamFollowTest {
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(20);
+
+    private static List<String> names(List<Record> records) {
+        return records.stream().map(record -> record.get("Name")).collect(Collectors.toList());
+    }
+
+    private static void append(Path file, String csvData) throws IOException {
+        Files.writeString(file, csvData, StandardOpenOption.APPEND);
+    }
+
+    private static CompletableFuture<List<Record>> followAsync(Path file, Path offsetFile, int records) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return CSVStream.follow(file, FORMAT, offsetFile, POLL_INTERVAL).limit(records).toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Test
+    void testFollow_WaitsForCompleteRecords(@TempDir Path tempDir) throws Exception {
+        Path file = Files.writeString(tempDir.resolve("events.csv"), "ID,Name\n1,Alice\n2,Bob\n3,Char");
+        CompletableFuture<List<Record>> followed = followAsync(file, null, 5);
+
+        Thread.sleep(100);
+        assertFalse(followed.isDone());
+        // The unfinished record and a quoted line break are only read once their line is complete
+        append(file, "lie\n4,\"Da");
+        Thread.sleep(100);
+        append(file, "\nna\"\n5,Eve\n6,Frank\n");
+
+        List<Record> records = followed.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("Alice", "Bob", "Charlie", "Da\nna", "Eve"), names(records));
+        assertEquals(List.of("ID", "Name"), List.copyOf(records.get(0).getColumnNames()));
+    }
+
+    @Test
+    void testFollow_ContinuesFromCommittedOffset(@TempDir Path tempDir) throws Exception {
+        String csvData = "ID,Name\n1,Alice\n2,Zoë\n3,Jürgen\n4,Dana\n";
+        Path file = Files.writeString(tempDir.resolve("events.csv"), csvData);
+        Path offsetFile = tempDir.resolve("events.offset");
+
+        assertEquals(List.of("Alice", "Zoë"), names(CSVStream.follow(file, FORMAT, offsetFile, POLL_INTERVAL).limit(2).toList()));
+        // Records are committed once the next one is asked for, so the last one seen is read again
+        assertEquals(byteOffset(csvData, "2,Zoë"), Long.parseLong(Files.readString(offsetFile)));
+
+        assertEquals(List.of("Zoë", "Jürgen", "Dana"), names(followAsync(file, offsetFile, 3).get(10, TimeUnit.SECONDS)));
+        assertEquals(byteOffset(csvData, "4,Dana"), Long.parseLong(Files.readString(offsetFile)));
+
+        CompletableFuture<List<Record>> followed = followAsync(file, offsetFile, 2);
+        Thread.sleep(100);
+        append(file, "5,Eve\n");
+        assertEquals(List.of("Dana", "Eve"), names(followed.get(10, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void testFollow_ClosedFromAnotherThread(@TempDir Path tempDir) throws Exception {
+        Path file = Files.writeString(tempDir.resolve("events.csv"), "ID,Name\n1,Alice\n");
+        CSVStream followed = CSVStream.follow(file, FORMAT, null, POLL_INTERVAL);
+        CompletableFuture<List<Record>> all = CompletableFuture.supplyAsync(followed::toList);
+
+        Thread.sleep(100);
+        followed.close();
+        assertEquals(List.of("Alice"), names(all.get(10, TimeUnit.SECONDS)));
+
+        assertThrows(IllegalArgumentException.class, () -> CSVStream.follow(file, CSVFormat.DEFAULT));
+        Files.writeString(tempDir.resolve("events.offset"), "1000");
+        assertThrows(IllegalStateException.class,
+                () -> CSVStream.follow(file, FORMAT, tempDir.resolve("events.offset"), POLL_INTERVAL).toList());
+    }
+
+    @Test
+    void testFollowPipelined_StopsTheWaitingScanOnLimit(@TempDir Path tempDir) throws Exception {
+        StringBuilder csvData = new StringBuilder("ID,Name\n");
+        for (int i = 0; i < 12; i++) {
+            csvData.append(i).append(",Name ").append(i).append('\n');
+        }
+        Path file = Files.writeString(tempDir.resolve("events.csv"), csvData);
+        // The scan stage has read everything and waits for the file to grow when the limit is reached
+        CompletableFuture<List<Record>> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return CSVStream.follow(file, FORMAT).pipelined().limit(10).toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        List<Record> records = first.get(10, TimeUnit.SECONDS);
+        assertEquals(10, records.size());
+        assertEquals("Name 9", records.get(9).get("Name"));
+    }
+
+    private static long byteOffset(String csvData, String record) {
+        return csvData.substring(0, csvData.indexOf(record)).getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,415 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yexey.common.csv.imp.CompositeKey;
+import org.yexey.common.csv.imp.InputStatistics;
+import org.yexey.common.csv.imp.JoinedRecord;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.joins.BloomFilter;
+import org.yexey.common.csv.imp.joins.BuildSide;
+import org.yexey.common.csv.imp.joins.JoinIndex;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamJoinTest {
+
+    private static CSVStream people() throws IOException {
+        String csvData = "ID,Name\n" +
+                         "1,Alice\n" +
+                         "2,Bob\n" +
+                         "3,Charlie";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream scores() throws IOException {
+        String csvData = "ID,Score\n" +
+                         "1,85\n" +
+                         "2,90\n" +
+                         "2,95\n" +
+                         "4,75";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    @Test
+    void testJoin_BuildLeftKeepsColumnOrderAndMergeSemantics() throws IOException {
+        List<Record> records = people().join(scores(), "ID", "ID", BuildSide.LEFT).toList();
+
+        assertEquals(3, records.size());
+        for (Record record : records) {
+            assertEquals(List.of("ID", "Name", "Score"), List.copyOf(record.getColumnNames()));
+        }
+        assertEquals("Alice", records.get(0).get("Name"));
+        assertEquals("85", records.get(0).get("Score"));
+        assertEquals("Bob", records.get(1).get("Name"));
+        assertEquals("90", records.get(1).get("Score"));
+        assertEquals("95", records.get(2).get("Score"));
+    }
+
+    @Test
+    void testJoin_AutoBuildsOnSmallerInput() throws IOException {
+        CSVStream small = people().withStatistics(InputStatistics.ofRowCount(3));
+        CSVStream large = scores().withStatistics(InputStatistics.ofRowCount(1_000_000));
+
+        assertEquals(BuildSide.LEFT, BuildSide.AUTO.resolve(small.getStatistics(), large.getStatistics()));
+        assertEquals(BuildSide.RIGHT, BuildSide.AUTO.resolve(InputStatistics.unknown(), large.getStatistics()));
+
+        List<Record> records = small.join(large, "ID").toList();
+        assertEquals(3, records.size());
+        assertTrue(records.stream().allMatch(record -> record.get("Name") != null && record.get("Score") != null));
+    }
+
+    @Test
+    void testJoin_MaterializedStreamsKnowTheirRowCount() throws IOException {
+        CSVStream materialized = scores().consumeAndContinue();
+
+        assertTrue(materialized.getStatistics().isExact());
+        assertEquals(4, materialized.getStatistics().getRowCount());
+    }
+
+    @Test
+    void testFullJoin_StreamsProbeSideAndEmitsUnmatchedBuildRowsLast() throws IOException {
+        List<Record> records = people().fullJoin(scores(), "ID").toList();
+
+        assertEquals(5, records.size());
+        assertEquals("Alice", records.get(0).get("Name"));
+        assertEquals("85", records.get(0).get("Score"));
+        assertEquals("90", records.get(1).get("Score"));
+        assertEquals("95", records.get(2).get("Score"));
+        assertEquals("Charlie", records.get(3).get("Name"));
+        assertNull(records.get(3).get("Score"));
+        assertEquals("4", records.get(4).get("ID"));
+        assertNull(records.get(4).get("Name"));
+        assertEquals("75", records.get(4).get("Score"));
+    }
+
+    @Test
+    void testParallelJoin_OrderedMatchesSequentialJoin() {
+        List<Record> facts = new ArrayList<>();
+        List<Record> dimensions = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            facts.add(new Record(Map.of("ID", String.valueOf(i % 1_000), "Seq", String.valueOf(i))));
+        }
+        for (int i = 0; i < 900; i++) {
+            dimensions.add(new Record(Map.of("ID", String.valueOf(i), "Label", "L" + i)));
+        }
+
+        List<Record> expected = CSVStream.fromRecords(facts).join(CSVStream.fromRecords(dimensions), "ID", "ID", BuildSide.RIGHT).toList();
+        List<Record> actual = CSVStream.fromRecords(facts).parallelJoin(CSVStream.fromRecords(dimensions), "ID", "ID", 8, true).toList();
+
+        assertEquals(18_000, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testParallelLeftJoin_UnorderedKeepsAllRows() {
+        List<Record> facts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            facts.add(new Record(Map.of("ID", String.valueOf(i % 10), "Seq", String.valueOf(i))));
+        }
+        List<Record> dimensions = List.of(new Record(Map.of("ID", "1", "Label", "one")));
+
+        List<Record> records = CSVStream.fromRecords(facts).parallelLeftJoin(CSVStream.fromRecords(dimensions), "ID", "ID", 4, false).toList();
+
+        assertEquals(10_000, records.size());
+        assertEquals(1_000, records.stream().filter(record -> "one".equals(record.get("Label"))).count());
+        assertEquals(10_000, records.stream().map(record -> record.get("Seq")).distinct().count());
+    }
+
+    @Test
+    void testSemiJoin_PassesRecordsThroughUntouched() throws IOException {
+        List<Record> records = people().semiJoin(scores(), "ID", "ID", true).toList();
+
+        assertEquals(2, records.size());
+        assertEquals(List.of("ID", "Name"), List.copyOf(records.get(0).getColumnNames()));
+        assertEquals("Alice", records.get(0).get("Name"));
+        assertEquals("Bob", records.get(1).get("Name"));
+    }
+
+    @Test
+    void testAntiJoin_KeepsRecordsWithoutMatch() throws IOException {
+        List<Record> records = people().antiJoin(scores(), "ID").toList();
+
+        assertEquals(1, records.size());
+        assertEquals("Charlie", records.get(0).get("Name"));
+        assertNull(records.get(0).get("Score"));
+    }
+
+    @Test
+    void testJoin_BloomPrefilterGivesSameResult() throws IOException {
+        List<Record> expected = people().join(scores(), "ID").toList();
+        List<Record> actual = people().join(scores(), "ID", "ID", BuildSide.RIGHT, true).toList();
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testBloomFilter_OnlyPrefiltersLargeBuildSides() throws IOException {
+        StringBuilder ids = new StringBuilder("ID\n");
+        for (int i = 0; i < BloomFilter.MIN_PREFILTER_KEYS; i++) {
+            ids.append(i * 2).append('\n');
+        }
+        Set<String> largeKeys = new HashSet<>(Arrays.asList(ids.substring(3).split("\n")));
+
+        assertNull(BloomFilter.prefilterFor(Set.of("1", "2")));
+        assertNotNull(BloomFilter.prefilterFor(largeKeys));
+        CSVStream probe = csv("ID,Name\n1,odd\n2,even\n" + (BloomFilter.MIN_PREFILTER_KEYS * 2) + ",beyond");
+        assertEquals(List.of("even"), names(probe.semiJoin(csv(ids.toString()), "ID", "ID", true).toList()));
+        probe = csv("ID,Name\n1,odd\n2,even\n" + (BloomFilter.MIN_PREFILTER_KEYS * 2) + ",beyond");
+        assertEquals(List.of("odd", "beyond"), names(probe.antiJoin(csv(ids.toString()), "ID", "ID", true).toList()));
+    }
+
+    @Test
+    void testBloomFilter_HasNoFalseNegatives() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            keys.add("key-" + i);
+        }
+        BloomFilter bloomFilter = BloomFilter.of(keys, 0.01);
+
+        assertTrue(keys.stream().allMatch(bloomFilter::mightContain));
+        long falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (bloomFilter.mightContain("other-" + i)) falsePositives++;
+        }
+        assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+    }
+
+    private static CSVStream balances() throws IOException {
+        String csvData = "Account,Date,Currency,Balance\n" +
+                         "A1,2024-01-01,EUR,100\n" +
+                         "A1,2024-01-01,USD,110\n" +
+                         "A2,2024-01-01,EUR,200";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream rates() throws IOException {
+        String csvData = "Acct,Day,Ccy,Rate\n" +
+                         "A1,2024-01-01,USD,0.9\n" +
+                         "A3,2024-01-01,EUR,1.0";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    @Test
+    void testJoin_CompositeKey() throws IOException {
+        String[] keysA = {"Account", "Date", "Currency"};
+        String[] keysB = {"Acct", "Day", "Ccy"};
+
+        List<Record> records = balances().join(rates(), keysA, keysB).toList();
+
+        assertEquals(1, records.size());
+        assertEquals(List.of("Account", "Date", "Currency", "Balance", "Rate"), List.copyOf(records.get(0).getColumnNames()));
+        assertEquals("110", records.get(0).get("Balance"));
+        assertEquals("0.9", records.get(0).get("Rate"));
+    }
+
+    @Test
+    void testLeftJoin_CompositeKey() throws IOException {
+        List<Record> records = balances().leftJoin(rates(), new String[]{"Account", "Date", "Currency"}, new String[]{"Acct", "Day", "Ccy"}).toList();
+
+        assertEquals(3, records.size());
+        assertNull(records.get(0).get("Rate"));
+        assertEquals("0.9", records.get(1).get("Rate"));
+        assertNull(records.get(2).get("Rate"));
+    }
+
+    @Test
+    void testFullJoin_CompositeKeyFillsAllKeyColumns() throws IOException {
+        List<Record> records = balances().fullJoin(rates(), new String[]{"Account", "Date", "Currency"}, new String[]{"Acct", "Day", "Ccy"}).toList();
+
+        assertEquals(4, records.size());
+        Record unmatchedB = records.get(3);
+        assertEquals("A3", unmatchedB.get("Account"));
+        assertEquals("2024-01-01", unmatchedB.get("Date"));
+        assertEquals("EUR", unmatchedB.get("Currency"));
+        assertEquals("1.0", unmatchedB.get("Rate"));
+        assertFalse(unmatchedB.containsColumn("Acct"));
+    }
+
+    @Test
+    void testJoin_CompositeKeyArityMismatch() throws IOException {
+        CSVStream balances = balances();
+        CSVStream rates = rates();
+
+        assertThrows(IllegalArgumentException.class, () -> balances.join(rates, new String[]{"Account"}, new String[]{"Acct", "Day"}));
+    }
+
+    @Test
+    void testJoinIndex_ReusedAcrossJoinsWithoutCopyingRecords() throws IOException {
+        JoinIndex index = scores().toJoinIndex("ID");
+
+        List<Record> inner = people().join(index, "ID").toList();
+        List<Record> left = people().leftJoin(index, "ID").toList();
+
+        assertEquals(people().join(scores(), "ID", "ID", BuildSide.RIGHT).toList(), inner);
+        assertEquals(people().leftJoin(scores(), "ID").toList(), left);
+        assertSame(index.lookup("2").get(0), index.lookup("2").get(0));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void testJoinIndex_PersistAndOpenMapped(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("rates.idx");
+        rates().toJoinIndex("Acct", "Day", "Ccy").save(file);
+
+        JoinIndex mapped = JoinIndex.open(file);
+        List<Record> records = balances().leftJoin(mapped, "Account", "Date", "Currency").toList();
+
+        assertEquals(2, mapped.size());
+        assertEquals(3, records.size());
+        assertEquals("0.9", records.get(1).get("Rate"));
+        assertNull(records.get(0).get("Rate"));
+        assertEquals(List.of("Account", "Date", "Currency", "Balance", "Rate"), List.copyOf(records.get(1).getColumnNames()));
+        assertTrue(mapped.lookup(new CompositeKey("A9", "2024-01-01", "EUR")).isEmpty());
+        mapped.close();
+        assertEquals("0.9", records.get(1).get("Rate"));
+        assertThrows(IllegalStateException.class, () -> mapped.lookup(new CompositeKey("A1", "2024-01-01", "USD")));
+    }
+
+    @Test
+    void testJoinIndex_MappedRecordsDecodeLazilyAndSaveCopiesTheFile(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("rates.idx");
+        rates().toJoinIndex("Acct", "Day", "Ccy").save(file);
+        Path copy = tempDir.resolve("copy.idx");
+
+        try (JoinIndex mapped = JoinIndex.open(file)) {
+            Record rate = mapped.lookup(new CompositeKey("A1", "2024-01-01", "USD")).get(0);
+            assertEquals("0.9", rate.get("Rate"));
+            assertTrue(rate.containsColumn("Acct"));
+            assertEquals(List.of("Acct", "Day", "Ccy", "Rate"), List.copyOf(rate.getColumnNames()));
+            rate.put("Rate", "1.0");
+            assertEquals("1.0", rate.get("Rate"));
+            assertEquals("0.9", mapped.lookup(new CompositeKey("A1", "2024-01-01", "USD")).get(0).get("Rate"));
+
+            mapped.save(copy);
+            mapped.save(file);
+        }
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(copy));
+        try (JoinIndex reopened = JoinIndex.open(copy)) {
+            assertEquals(3, balances().leftJoin(reopened, "Account", "Date", "Currency").toList().size());
+        }
+    }
+
+    @Test
+    void testJoin_EmitsViewsSharingOneLayoutUntilMutated() throws IOException {
+        List<Record> records = people().leftJoin(scores(), "ID").toList();
+
+        JoinedRecord first = (JoinedRecord) records.get(0);
+        JoinedRecord second = (JoinedRecord) records.get(1);
+        assertSame(first.getLayout(), second.getLayout());
+        assertEquals(List.of("ID", "Name", "Score"), List.copyOf(first.getColumnNames()));
+        assertEquals(List.of("1", "Alice", "85"), List.copyOf(first.getValues()));
+
+        first.put("Score", "100").put("Bonus", "yes");
+        assertEquals("100", first.get("Score"));
+        assertEquals(List.of("ID", "Name", "Score", "Bonus"), List.copyOf(first.getColumnNames()));
+        assertEquals("90", second.get("Score"));
+
+        // The shared column names are read-only, columns are removed through the record
+        assertThrows(UnsupportedOperationException.class, () -> second.getColumnNames().remove("Score"));
+        second.deleteColumn("Score");
+        assertEquals(List.of("ID", "Name"), List.copyOf(second.getColumnNames()));
+        second.getColumnNames().remove("Name");
+        assertEquals(List.of("ID"), List.copyOf(second.getColumnNames()));
+        assertEquals(List.of("ID", "Name", "Score"), List.copyOf(((JoinedRecord) records.get(2)).getColumnNames()));
+    }
+
+    private static List<String> names(List<Record> records) {
+        return records.stream().map(record -> record.get("Name")).collect(Collectors.toList());
+    }
+
+    private static CSVStream csv(String csvData) throws IOException {
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    @Test
+    void testAsOfJoin_MatchesLatestQuoteWithinTolerance() throws IOException {
+        CSVStream trades = csv("Sym,Time,Qty\n" +
+                               "A,10,1\n" +
+                               "B,12,2\n" +
+                               "A,15,3\n" +
+                               "A,40,4\n" +
+                               "C,41,5");
+        CSVStream quotes = csv("Sym,Time,Bid\n" +
+                               "A,9,100\n" +
+                               "B,11,200\n" +
+                               "A,15,101\n" +
+                               "A,16,102");
+
+        List<Record> records = trades.asOfJoin(quotes, "Sym", "Time", 10).toList();
+
+        assertEquals(5, records.size());
+        assertEquals("100", records.get(0).get("Bid"));
+        assertEquals("200", records.get(1).get("Bid"));
+        assertEquals("101", records.get(2).get("Bid"));
+        assertNull(records.get(3).get("Bid"));
+        assertNull(records.get(4).get("Bid"));
+        assertEquals(List.of("Sym", "Time", "Qty", "Bid"), List.copyOf(records.get(0).getColumnNames()));
+    }
+
+    @Test
+    void testAsOfJoin_SortsInputsOrRejectsUnsorted() throws IOException {
+        String tradesData = "Sym,Time,Qty\n" +
+                            "A,20,2\n" +
+                            "A,10,1";
+        String quotesData = "Sym,Time,Bid\n" +
+                            "A,15,101\n" +
+                            "A,5,100";
+
+        List<Record> records = csv(tradesData).asOfJoin(csv(quotesData), "Sym", "Time", Long.MAX_VALUE, Long::parseLong, true).toList();
+
+        assertEquals("1", records.get(0).get("Qty"));
+        assertEquals("100", records.get(0).get("Bid"));
+        assertEquals("101", records.get(1).get("Bid"));
+        assertThrows(IllegalStateException.class, () -> csv(tradesData).asOfJoin(csv(quotesData), "Sym", "Time", 100).toList());
+    }
+
+    @Test
+    void testRangeJoin_MatchesAllOpenRanges() throws IOException {
+        CSVStream events = csv("Event,Ts\n" +
+                               "e1,1\n" +
+                               "e2,5\n" +
+                               "e3,10\n" +
+                               "e4,30");
+        CSVStream sessions = csv("Session,Start,End\n" +
+                                 "s1,0,5\n" +
+                                 "s2,4,10\n" +
+                                 "s3,8,20");
+
+        List<Record> records = events.rangeJoin(sessions, "Ts", "Start", "End").toList();
+
+        List<String> pairs = new ArrayList<>();
+        records.forEach(record -> pairs.add(record.get("Event") + "-" + record.get("Session")));
+        assertEquals(List.of("e1-s1", "e2-s1", "e2-s2", "e3-s2", "e3-s3"), pairs);
+    }
+
+    @Test
+    void testSort_ExternalSpillsAndStaysStable() throws IOException {
+        StringBuilder csvData = new StringBuilder("ID,Group\n");
+        for (int i = 0; i < 50; i++) {
+            csvData.append(i).append(',').append(i % 3).append('\n');
+        }
+
+        List<Record> records = csv(csvData.toString()).sort(Comparator.comparing(record -> record.get("Group")), 7).toList();
+
+        assertEquals(50, records.size());
+        assertEquals("0", records.get(0).get("ID"));
+        assertEquals("3", records.get(1).get("ID"));
+        assertEquals("1", records.get(17).get("ID"));
+        assertEquals("47", records.get(49).get("ID"));
+    }
+}
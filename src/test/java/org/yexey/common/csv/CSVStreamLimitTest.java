@@ -0,0 +1,122 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamLimitTest {
+
+    // Endless CSV input which remembers how far it was read and whether it was closed
+    private static class EndlessReader extends Reader {
+        private final StringBuilder pending = new StringBuilder("ID,Name\n");
+        private int rows;
+        private boolean closed;
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Reader closed");
+            }
+            while (pending.length() < length) {
+                pending.append(rows).append(",Name ").append(rows).append('\n');
+                rows++;
+            }
+            pending.getChars(0, length, buffer, offset);
+            pending.delete(0, length);
+            return length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static CSVStream people() throws IOException {
+        String csvData = "ID,Name\n" +
+                         "1,Alice\n" +
+                         "2,Bob\n" +
+                         "3,Charlie\n" +
+                         "4,Dana";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<String> names(List<Record> records) {
+        return records.stream().map(record -> record.get("Name")).collect(Collectors.toList());
+    }
+
+    @Test
+    void testLimitSkipHeadAndFindFirst() throws IOException {
+        CSVStream page = people().skip(1).limit(2);
+        assertEquals("Limit[2]\n  Skip[1]\n    Scan[CSV: ID, Name]\n", page.explain());
+        assertEquals(List.of("Bob", "Charlie"), names(page.toList()));
+
+        assertEquals(List.of("Alice", "Bob", "Charlie", "Dana"), names(people().limit(10).toList()));
+        assertTrue(people().skip(10).toList().isEmpty());
+        assertEquals(List.of("Alice", "Bob"), names(people().head(2)));
+        assertEquals("Charlie", people().filter("ID", id -> id.compareTo("2") > 0).findFirst().orElseThrow().get("Name"));
+        assertTrue(people().filter("ID", id -> false).findFirst().isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> people().limit(-1));
+        assertThrows(IllegalArgumentException.class, () -> people().skip(-1));
+    }
+
+    @Test
+    void testShortCircuit_StopsReadingAndClosesTheReader() throws IOException {
+        EndlessReader reader = new EndlessReader();
+        List<Record> preview = CSVStream.toCSVStream(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader())
+                .mapColumn("Name", String::toUpperCase)
+                .head(100);
+        assertEquals(100, preview.size());
+        assertEquals("NAME 99", preview.get(99).get("Name"));
+        assertTrue(reader.closed);
+        assertTrue(reader.rows < 1_000, "read " + reader.rows + " rows");
+
+        EndlessReader firstReader = new EndlessReader();
+        Record first = CSVStream.toCSVStream(firstReader, CSVFormat.DEFAULT.withFirstRecordAsHeader())
+                .filter("ID", id -> id.endsWith("7"))
+                .findFirst().orElseThrow();
+        assertEquals("7", first.get("ID"));
+        assertTrue(firstReader.closed);
+
+        EndlessReader pipelinedReader = new EndlessReader();
+        CSVStream pipelined = CSVStream.toCSVStream(pipelinedReader, CSVFormat.DEFAULT.withFirstRecordAsHeader()).pipelined();
+        assertEquals(List.of("Name 0", "Name 1"), names(pipelined.head(2)));
+        assertTrue(pipelinedReader.closed);
+    }
+
+    @Test
+    void testClose_ReleasesInputsWithoutTerminalOperation() throws IOException {
+        EndlessReader readerA = new EndlessReader();
+        EndlessReader readerB = new EndlessReader();
+        CSVFormat format = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        try (CSVStream joined = CSVStream.toCSVStream(readerA, format).join(CSVStream.toCSVStream(readerB, format), "ID")) {
+            assertTrue(joined.explain().contains("Join"));
+        }
+        assertTrue(readerA.closed);
+        assertTrue(readerB.closed);
+    }
+
+    @Test
+    void testLimitInParallel_KeepsTheFirstRecords() throws IOException {
+        StringBuilder csvData = new StringBuilder("ID\n");
+        for (int i = 0; i < 50_000; i++) {
+            csvData.append(i).append('\n');
+        }
+        List<Record> records = CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader())
+                .parallel(4)
+                .skip(5)
+                .head(3_000);
+        assertEquals(3_000, records.size());
+        assertEquals("5", records.get(0).get("ID"));
+        assertEquals("3004", records.get(2_999).get("ID"));
+    }
+}
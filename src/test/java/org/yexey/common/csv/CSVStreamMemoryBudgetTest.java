@@ -0,0 +1,125 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.ValidationError;
+import org.yexey.common.csv.imp.exceptions.MemoryBudgetExceededException;
+import org.yexey.common.csv.imp.memory.MemoryBudget;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamMemoryBudgetTest {
+
+    private static String rows(int count) {
+        StringBuilder csvData = new StringBuilder("ID,Name\n");
+        for (int i = 0; i < count; i++) {
+            csvData.append(i).append(",Name ").append(i).append('\n');
+        }
+        return csvData.toString();
+    }
+
+    private static CSVStream stream(String csvData) throws IOException {
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<String> ids(List<Record> records) {
+        return records.stream().map(record -> record.get("ID")).collect(Collectors.toList());
+    }
+
+    @Test
+    void testEstimatedSize() {
+        Record record = new Record(Map.of("ID", "1"));
+        long small = record.estimatedSize();
+        record.set("Name", "x".repeat(1_000));
+        assertTrue(record.estimatedSize() > small + 1_000);
+        assertTrue(small > 0);
+    }
+
+    @Test
+    void testToList_FailsFastOverTheBudgetAndReportsThePeak() throws IOException {
+        MemoryBudget budget = new MemoryBudget(1 << 20);
+        assertEquals(1_000, stream(rows(1_000)).withMemoryBudget(budget).toList().size());
+        assertEquals(0, budget.getUsedBytes());
+        assertTrue(budget.getPeakBytes() > 0);
+        assertEquals(budget.getPeakBytes(), budget.getOperatorPeaks().get("toList"));
+
+        MemoryBudget tiny = new MemoryBudget(10_000);
+        MemoryBudgetExceededException exception = assertThrows(MemoryBudgetExceededException.class,
+                () -> stream(rows(1_000)).withMemoryBudget(tiny).parallel(4).copy());
+        assertTrue(exception.getMessage().startsWith("copy exceeds the memory budget of 9.8 KiB"), exception.getMessage());
+        assertEquals(0, tiny.getUsedBytes());
+        assertTrue(tiny.getPeakBytes() <= 10_000);
+    }
+
+    @Test
+    void testConsumeAndContinue_SpillsBeyondTheBudget() throws IOException {
+        MemoryBudget budget = new MemoryBudget(20_000);
+        CSVStream continued = stream(rows(2_000)).withMemoryBudget(budget).consumeAndContinue();
+        assertTrue(continued.explain().contains("Scan[Spilled records: ID, Name]"), continued.explain());
+        assertTrue(budget.getUsedBytes() > 0);
+
+        // The buffer keeps its share of the budget until the continued stream is consumed
+        assertThrows(MemoryBudgetExceededException.class, () -> stream(rows(100)).withMemoryBudget(budget).toList());
+        List<Record> records = new ArrayList<>();
+        continued.filter("ID", id -> id.endsWith("99")).forEachOrdered(records::add);
+        assertEquals(List.of("99", "199", "1999"), List.of(ids(records).get(0), ids(records).get(1), ids(records).get(19)));
+        assertEquals(0, budget.getUsedBytes());
+
+        CSVStream inMemory = stream(rows(10)).withMemoryBudget(budget).consumeAndContinue();
+        assertTrue(inMemory.explain().contains("Scan[Records: ID, Name]"), inMemory.explain());
+        assertEquals(10, inMemory.toList().size());
+    }
+
+    @Test
+    void testValidateEager_ContinuesWithSpilledRecords() throws IOException {
+        MemoryBudget budget = new MemoryBudget(20_000);
+        CSVStream stream = stream(rows(2_000)).withMemoryBudget(budget).parallel(4);
+        List<ValidationError> errors = stream.validateEager("ID", id -> !id.endsWith("0"), "ends with 0");
+        assertEquals(200, errors.size());
+        assertEquals("0", errors.get(0).getRecord().get("ID"));
+
+        List<Record> records = new ArrayList<>();
+        stream.forEachOrdered(records::add);
+        assertEquals(2_000, records.size());
+        assertEquals("1999", records.get(1_999).get("ID"));
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    void testJoin_CountsTheBuildSide() throws IOException {
+        MemoryBudget budget = new MemoryBudget(1 << 20);
+        CSVStream joined = stream(rows(100)).withMemoryBudget(budget).join(stream(rows(1_000)), "ID");
+        assertTrue(joined.explain().contains("MemoryBudget"), joined.explain());
+        assertEquals(100, joined.toList().size());
+        assertEquals(0, budget.getUsedBytes());
+        assertTrue(budget.getOperatorPeaks().keySet().stream().anyMatch(operator -> operator.endsWith(" build")),
+                budget.getOperatorPeaks().toString());
+
+        MemoryBudget tiny = new MemoryBudget(10_000);
+        MemoryBudgetExceededException exception = assertThrows(MemoryBudgetExceededException.class,
+                () -> stream(rows(1_000)).withMemoryBudget(tiny).leftJoin(stream(rows(1_000)), "ID").consume());
+        assertTrue(exception.getMessage().startsWith("HashJoin[LEFT, ID = ID] build exceeds"), exception.getMessage());
+        assertEquals(0, tiny.getUsedBytes());
+    }
+
+    @Test
+    void testWriteTo_StreamsWithinAnyBudget() throws IOException {
+        MemoryBudget budget = new MemoryBudget(1);
+        StringWriter writer = new StringWriter();
+        stream(rows(5_000)).withMemoryBudget(budget).parallel(4).mapColumn("Name", String::toUpperCase).writeTo(writer, CSVFormat.DEFAULT);
+        String[] lines = writer.toString().split("\r\n");
+        assertEquals(5_001, lines.length);
+        assertEquals("ID,Name", lines[0]);
+        assertEquals("4999,NAME 4999", lines[5_000]);
+        assertEquals(0, budget.getPeakBytes());
+    }
+}
@@ -0,0 +1,120 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.BatchSpliterator;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamParallelTest {
+
+    private static final int ROWS = 10_000;
+
+    private static CSVStream orders() throws IOException {
+        StringBuilder csvData = new StringBuilder("OrderID,CustomerID,Amount\n");
+        for (int i = 0; i < ROWS; i++) {
+            csvData.append(i).append(',').append(i % 97).append(',').append(i % 1000).append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream customers() throws IOException {
+        StringBuilder csvData = new StringBuilder("CustomerID,Region\n");
+        for (int i = 0; i < 97; i += 2) {
+            csvData.append(i).append(',').append(i % 3 == 0 ? "North" : "South").append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream pipeline(CSVStream orders) throws IOException {
+        return orders
+                .filter("Amount", amount -> Integer.parseInt(amount) >= 100)
+                .mapColumn("Amount", amount -> String.valueOf(Integer.parseInt(amount) * 2))
+                .addColumn("Large", record -> Integer.parseInt(record.get("Amount")) > 1000 ? "yes" : "no")
+                .join(customers(), "CustomerID");
+    }
+
+    @Test
+    void testParallelPipeline_SameRecordsInSameOrder() throws IOException {
+        List<Record> sequential = pipeline(orders()).toList();
+        List<Record> parallel = pipeline(orders().parallel(4)).toList();
+
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    void testParallelMode_PropagatesToDerivedStreams() throws IOException {
+        CSVStream stream = orders().parallel(3);
+        CSVStream derived = stream.filter("CustomerID", id -> !id.equals("0")).sort("OrderID", String::compareTo);
+        assertTrue(derived.isParallel());
+        assertFalse(derived.sequential().isParallel());
+        assertThrows(IllegalArgumentException.class, () -> stream.parallel(0));
+    }
+
+    @Test
+    void testParallelAggregationAndWriting_MatchSequential() throws IOException {
+        List<Record> sequential = pipeline(orders()).aggregate("Region", Aggregation.sum("Amount")).toList();
+        List<Record> parallel = pipeline(orders().parallel(4)).aggregate("Region", Aggregation.sum("Amount")).toList();
+        assertEquals(sequential, parallel);
+
+        StringWriter sequentialOut = new StringWriter();
+        StringWriter parallelOut = new StringWriter();
+        pipeline(orders()).writeTo(sequentialOut, CSVFormat.DEFAULT);
+        pipeline(orders().parallel(4)).writeTo(parallelOut, CSVFormat.DEFAULT);
+        assertEquals(sequentialOut.toString(), parallelOut.toString());
+    }
+
+    @Test
+    void testForEach_VisitsEveryRecordOnce() throws IOException {
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger count = new AtomicInteger();
+        orders().parallel(4).forEach(record -> {
+            seen.add(record.get("OrderID"));
+            count.incrementAndGet();
+        });
+        assertEquals(ROWS, count.get());
+        assertEquals(ROWS, seen.size());
+
+        List<String> ordered = new ArrayList<>();
+        orders().parallel(4).forEachOrdered(record -> ordered.add(record.get("OrderID")));
+        assertEquals(IntStream.range(0, ROWS).mapToObj(String::valueOf).collect(Collectors.toList()), ordered);
+    }
+
+    @Test
+    void testParallelFailure_IsRethrownAsIs() throws IOException {
+        CSVStream failing = orders().parallel(4).mapColumn("Missing", String::trim);
+        ColumnNotFoundException e = assertThrows(ColumnNotFoundException.class, failing::toList);
+        assertEquals("Column Missing not found", e.getMessage());
+    }
+
+    @Test
+    void testBatchSpliterator_SplitsOffBlocks() {
+        List<Integer> values = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+        Spliterator<Integer> spliterator = new BatchSpliterator<>(values.iterator(), 4);
+
+        Spliterator<Integer> first = spliterator.trySplit();
+        assertEquals(4, first.estimateSize());
+        List<Integer> rest = new ArrayList<>();
+        spliterator.forEachRemaining(rest::add);
+        assertEquals(List.of(4, 5, 6, 7, 8, 9), rest);
+        assertNull(spliterator.trySplit());
+
+        assertThrows(IllegalArgumentException.class, () -> new BatchSpliterator<>(values.iterator(), 0));
+    }
+}
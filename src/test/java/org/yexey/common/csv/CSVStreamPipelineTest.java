@@ -0,0 +1,128 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamPipelineTest {
+
+    private static CSVStream sales(int rows) throws IOException {
+        StringBuilder csvData = new StringBuilder("ID,Region,Amount\n");
+        for (int i = 0; i < rows; i++) {
+            csvData.append(i).append(',').append(i % 3 == 0 ? "North" : "South").append(',').append(i * 5).append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream regions() throws IOException {
+        String csvData = "Region,Manager\n" +
+                         "North,Alice\n" +
+                         "South,Bob";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream transform(CSVStream sales) throws IOException {
+        return sales
+                .filter("Amount", amount -> !amount.endsWith("5"))
+                .mapColumn("Region", String::toUpperCase)
+                .join(regions().mapColumn("Region", String::toUpperCase), "Region")
+                .addColumn("Label", record -> record.get("Manager") + "-" + record.get("ID"));
+    }
+
+    // Stage threads end shortly after their stream is closed
+    private static void assertNoStageThreadsLeft() throws InterruptedException {
+        for (int attempt = 0; attempt < 200 && stageThreads() > 0; attempt++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, stageThreads());
+    }
+
+    private static long stageThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("csv-stage-") && thread.isAlive())
+                .count();
+    }
+
+    @Test
+    void testPipelined_MatchesSequential() throws Exception {
+        CSVStream pipelined = transform(sales(5_000).pipelined());
+        String plan = pipelined.explain();
+        assertTrue(plan.startsWith("Exchange[output]\n"), plan);
+        assertEquals(2, plan.split("Exchange\\[scan]", -1).length - 1, plan);
+
+        assertEquals(transform(sales(5_000)).toList(), pipelined.toList());
+        assertEquals(sales(5_000).aggregate("Region", Aggregation.sum("Amount")).toList(),
+                sales(5_000).pipelined().aggregate("Region", Aggregation.sum("Amount")).toList());
+        assertNoStageThreadsLeft();
+    }
+
+    @Test
+    void testPipelinedWriter_MatchesSequential() throws Exception {
+        // Large enough to be handed to the writing thread in several chunks
+        StringWriter expected = new StringWriter();
+        transform(sales(20_000)).writeTo(expected, CSVFormat.DEFAULT);
+        StringWriter written = new StringWriter();
+        transform(sales(20_000).pipelined()).writeTo(written, CSVFormat.DEFAULT);
+        assertEquals(expected.toString(), written.toString());
+
+        StringWriter empty = new StringWriter();
+        sales(10).pipelined().filter("ID", id -> false).writeTo(empty, CSVFormat.DEFAULT);
+        assertEquals("", empty.toString());
+        assertNoStageThreadsLeft();
+    }
+
+    @Test
+    void testExplicitStages_WithBatches() throws Exception {
+        CSVStream staged = sales(1_000).vectorized(64).filter("Region", "North"::equals).stage()
+                .mapColumn("Amount", amount -> amount + "0");
+        assertEquals("Vectorized[64]\n" +
+                     "  Map[map Amount]\n" +
+                     "    Exchange[stage]\n" +
+                     "      Filter[Region]\n" +
+                     "        Scan[CSV: ID, Region, Amount]\n", staged.explain());
+
+        List<Record> expected = sales(1_000).filter("Region", "North"::equals).mapColumn("Amount", amount -> amount + "0").toList();
+        assertEquals(expected, staged.toList());
+        assertEquals(expected, sales(1_000).filter("Region", "North"::equals).stage().mapColumn("Amount", amount -> amount + "0").toList());
+        assertNoStageThreadsLeft();
+    }
+
+    @Test
+    void testFailingStage_FailsTheTerminalOperation() throws Exception {
+        CSVStream failing = sales(50_000).pipelined().mapColumn("ID", id -> {
+            if (id.equals("30000")) {
+                throw new IllegalStateException("Bad ID " + id);
+            }
+            return id;
+        });
+        IllegalStateException e = assertThrows(IllegalStateException.class, failing::toList);
+        assertEquals("Bad ID 30000", e.getMessage());
+        assertThrows(IllegalStateException.class, () -> failing.writeTo(new StringWriter(), CSVFormat.DEFAULT));
+        assertNoStageThreadsLeft();
+    }
+
+    @Test
+    void testClosingEarly_StopsBlockedStages() throws Exception {
+        // The scan stage fills its queue and waits, closing the consumer's stream releases it
+        try (Stream<String> ids = sales(100_000).pipelined().map(record -> record.get("ID"))) {
+            assertEquals(List.of("0", "1", "2"), ids.limit(3).collect(Collectors.toList()));
+        }
+        assertNoStageThreadsLeft();
+
+        // Same when the caller's own action fails
+        assertThrows(UnsupportedOperationException.class, () -> sales(100_000).pipelined().forEach(record -> {
+            throw new UnsupportedOperationException();
+        }));
+        assertNoStageThreadsLeft();
+    }
+}
@@ -0,0 +1,222 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.InputStatistics;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.exceptions.ColumnAlreadyExistsException;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+import org.yexey.common.csv.imp.plan.Optimizer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class CSVStreamPlanTest {
+
+    private static CSVStream people() throws IOException {
+        String csvData = "ID,Name\n" +
+                         "1,Alice\n" +
+                         "2,Bob\n" +
+                         "3,Charlie";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream scores() throws IOException {
+        String csvData = "ID,Score\n" +
+                         "1,85\n" +
+                         "2,90\n" +
+                         "2,95\n" +
+                         "4,75";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<String> values(List<Record> records, String column) {
+        return records.stream().map(record -> record.get(column)).collect(Collectors.toList());
+    }
+
+    @Test
+    void testFilterAfterLeftJoin_IsPushedIntoLeftInput() throws IOException {
+        CSVStream joined = people().leftJoin(scores(), "ID").filter("Name", name -> !name.equals("Bob"));
+
+        assertEquals("HashJoin[LEFT, ID = ID]\n" +
+                     "  Filter[Name]\n" +
+                     "    Scan[CSV: ID, Name]\n" +
+                     "  Scan[CSV: ID, Score]\n", joined.explain());
+
+        List<Record> records = joined.toList();
+        assertEquals(List.of("Alice", "Charlie"), values(records, "Name"));
+        assertEquals("85", records.get(0).get("Score"));
+        assertNull(records.get(1).get("Score"));
+    }
+
+    @Test
+    void testFilterOnOuterSide_StaysAboveJoin() throws IOException {
+        // Pushing into the right input would turn Bob's rows into unmatched ones instead of dropping them
+        CSVStream joined = people().leftJoin(scores(), "ID").filter(record -> !"90".equals(record.get("Score")), "Score");
+
+        assertTrue(joined.explain().startsWith("Filter[predicate on Score]\n  HashJoin[LEFT"));
+        assertEquals(List.of("Alice", "Bob", "Charlie"), values(joined.toList(), "Name"));
+    }
+
+    @Test
+    void testFilterBelowMapsAndIntoInnerJoinSides() throws IOException {
+        CSVStream joined = people()
+                .join(scores(), "ID")
+                .mapColumn("Name", String::toUpperCase)
+                .filter(record -> Integer.parseInt(record.get("Score")) > 88, "Score")
+                .filter("ID", id -> !id.equals("1"));
+
+        assertEquals("Map[map Name]\n" +
+                     "  HashJoin[INNER, ID = ID, build=RIGHT]\n" +
+                     "    Filter[ID]\n" +
+                     "      Scan[CSV: ID, Name]\n" +
+                     "    Filter[predicate on Score]\n" +
+                     "      Scan[CSV: ID, Score]\n", joined.explain());
+
+        List<Record> records = joined.toList();
+        assertEquals(List.of("BOB", "BOB"), values(records, "Name"));
+        assertEquals(List.of("90", "95"), values(records, "Score"));
+    }
+
+    @Test
+    void testUndeclaredFilterAndOperators_AreBarriers() throws IOException {
+        CSVStream sorted = people()
+                .join(scores(), "ID")
+                .filter(record -> !record.get("Name").equals("Alice"))
+                .sort(Comparator.comparing((Record record) -> record.get("Score")).reversed())
+                .filter("Name", name -> name.startsWith("B"));
+
+        String plan = sorted.explain();
+        assertTrue(plan.startsWith("Filter[Name]\n  Sort\n    Filter[predicate]\n      HashJoin"), plan);
+        assertEquals(List.of("95", "90"), values(sorted.toList(), "Score"));
+    }
+
+    @Test
+    void testProjections_AreMergedAndPushedIntoJoinInputs() throws IOException {
+        CSVStream narrow = people().join(scores(), "ID").deleteColumns("Name").retainColumn("ID", "Score");
+
+        // The join delivers exactly ID and Score, so no projection is left above it
+        assertEquals("HashJoin[INNER, ID = ID, build=RIGHT]\n" +
+                     "  Retain[ID]\n" +
+                     "    Scan[CSV: ID, Name]\n" +
+                     "  Scan[CSV: ID, Score]\n", narrow.explain());
+
+        List<Record> records = narrow.toList();
+        assertEquals(3, records.size());
+        for (Record record : records) {
+            assertEquals(List.of("ID", "Score"), List.copyOf(record.getColumnNames()));
+        }
+        assertEquals(List.of("85", "90", "95"), values(records, "Score"));
+    }
+
+    @Test
+    void testProjectionAboveJoin_KeepsDroppingKeyColumns() throws IOException {
+        CSVStream scoresOnly = people().join(scores(), "ID").retainColumn("Score");
+
+        assertEquals("Retain[Score]\n" +
+                     "  HashJoin[INNER, ID = ID, build=RIGHT]\n" +
+                     "    Retain[ID]\n" +
+                     "      Scan[CSV: ID, Name]\n" +
+                     "    Scan[CSV: ID, Score]\n", scoresOnly.explain());
+        assertEquals(List.of("85", "90", "95"), values(scoresOnly.toList(), "Score"));
+    }
+
+    @Test
+    void testJoinAlgorithm_ChosenFromStatistics() throws IOException {
+        CSVStream small = people().withStatistics(InputStatistics.ofRowCount(3));
+        CSVStream large = scores().withStatistics(InputStatistics.ofRowCount(1_000));
+        assertTrue(small.join(large, "ID").explain().startsWith("HashJoin[INNER, ID = ID, build=LEFT]"));
+
+        assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+        CSVStream huge = people().withStatistics(InputStatistics.ofRowCount(Optimizer.PARALLEL_JOIN_MIN_ROWS));
+        CSVStream joined = huge.join(scores().withStatistics(InputStatistics.ofRowCount(4)), "ID");
+        assertTrue(joined.explain().startsWith("ParallelHashJoin[INNER, ID = ID]"));
+        assertEquals(List.of("Alice", "Bob", "Bob"), values(joined.toList(), "Name"));
+    }
+
+    private static CSVStream cleanup(CSVStream people) {
+        return people
+                .rename("Name", "FullName")
+                .mapColumn("FullName", String::toUpperCase)
+                .mapColumn("ID", id -> "P" + id)
+                .mapColumn("FullName", name -> name.equals("BOB") ? " " : name)
+                .addColumn("Initial", record -> record.get("FullName").substring(0, 1))
+                .fillMissingValues("FullName", "UNKNOWN");
+    }
+
+    @Test
+    void testConsecutiveMaps_AreFusedIntoOnePass() throws IOException {
+        CSVStream fused = cleanup(people());
+
+        assertEquals("Map[rename Name to FullName, map FullName, map ID, map FullName, add Initial, fill FullName]\n" +
+                     "  Scan[CSV: ID, Name]\n", fused.explain());
+
+        // Records without a known layout run the same operations one by one
+        List<Record> expected = cleanup(CSVStream.fromRecords(people().deepCopy().toList())).toList();
+        List<Record> records = fused.toList();
+        assertEquals(expected, records);
+        for (Record record : records) {
+            assertEquals(List.of("ID", "FullName", "Initial"), List.copyOf(record.getColumnNames()));
+        }
+        assertEquals(List.of("P1", "P2", "P3"), values(records, "ID"));
+        assertEquals(List.of("ALICE", "UNKNOWN", "CHARLIE"), values(records, "FullName"));
+        assertEquals(List.of("A", " ", "C"), values(records, "Initial"));
+    }
+
+    @Test
+    void testFusedMaps_ReportColumnsAsBefore() throws IOException {
+        assertThrows(ColumnNotFoundException.class,
+                () -> people().rename("Name", "FullName").mapColumn("Name", String::trim).toList());
+        assertThrows(ColumnAlreadyExistsException.class,
+                () -> people().mapColumn("Name", String::trim).addColumn("ID", "0").toList());
+        // Nothing is reported without records
+        CSVStream empty = CSVStream.toCSVStream(new StringReader("ID,Name\n"), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+        assertTrue(empty.mapColumn("Name", String::trim).mapColumn("Country", String::trim).toList().isEmpty());
+    }
+
+    @Test
+    void testFusedMaps_FunctionChangingTheRecord() throws IOException {
+        List<Record> records = people()
+                .mapColumn("Name", String::toLowerCase)
+                .addColumn("Length", record -> {
+                    record.put("Seen", "yes");
+                    return String.valueOf(record.get("Name").length());
+                })
+                .mapColumn("ID", id -> id + "0")
+                .toList();
+
+        assertEquals(List.of("ID", "Name", "Seen", "Length"), List.copyOf(records.get(0).getColumnNames()));
+        assertEquals(List.of("10", "20", "30"), values(records, "ID"));
+        assertEquals(List.of("5", "3", "7"), values(records, "Length"));
+    }
+
+    @Test
+    void testSlotRecords_ReturnReadOnlyViewsBeforeAndAfterMaterializing() throws IOException {
+        List<Record> records = people().toList();
+        Record first = records.get(0);
+        Set<String> columns = first.getColumnNames();
+        Collection<String> values = first.getValues();
+
+        assertEquals(List.of("ID", "Name"), List.copyOf(columns));
+        assertEquals(List.of("1", "Alice"), List.copyOf(values));
+        assertThrows(UnsupportedOperationException.class, () -> columns.remove("Name"));
+        assertThrows(UnsupportedOperationException.class, () -> values.remove("Alice"));
+
+        // The views follow the record once it was materialized and stay read-only
+        first.deleteColumn("Name").put("Age", "30");
+        assertEquals(List.of("ID", "Age"), List.copyOf(columns));
+        assertEquals(List.of("1", "30"), List.copyOf(values));
+        assertTrue(columns.contains("Age"));
+        assertThrows(UnsupportedOperationException.class, () -> first.getColumnNames().remove("ID"));
+        assertThrows(UnsupportedOperationException.class, () -> first.getValues().clear());
+        assertEquals(List.of("ID", "Name"), List.copyOf(records.get(1).getColumnNames()));
+    }
+}
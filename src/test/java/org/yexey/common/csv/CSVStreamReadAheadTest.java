@@ -0,0 +1,75 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yexey.common.csv.imp.io.ReadAheadInputStream;
+import org.yexey.common.csv.imp.io.ReadAheadReport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamReadAheadTest {
+
+    private static Path people(Path dir) throws IOException {
+        StringBuilder csvData = new StringBuilder("ID,Name,City\n");
+        String[] names = {"Zoë", "Jürgen", "Ana", "Søren"};
+        String[] cities = {"Tōkyō", "Köln", "Paris", "Århus"};
+        for (int i = 0; i < 500; i++) {
+            csvData.append(i).append(',').append(names[i % 4]).append(',').append(cities[i % 4]).append('\n');
+        }
+        return Files.writeString(dir.resolve("people.csv"), csvData.toString());
+    }
+
+    @Test
+    void testReadAhead_MatchesPlainFile(@TempDir Path tempDir) throws IOException {
+        Path file = people(tempDir);
+        CSVFormat format = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+        ReadAheadReport report = new ReadAheadReport();
+
+        // 4 buffers of 64 bytes, so multi-byte characters and records are split across buffers
+        CSVStream readAhead = CSVStream.fromFile(file, format, 256, report);
+        assertEquals(CSVStream.fromFile(file, format).toList(), readAhead.toList());
+
+        long size = Files.size(file);
+        assertEquals(size, report.getBytesRead());
+        assertEquals((size + 63) / 64, report.getBuffersRead());
+        assertTrue(report.getWaits() <= report.getBuffersRead());
+        assertEquals(CSVStream.fromFile(file, format).getStatistics().getByteSize(), readAhead.getStatistics().getByteSize());
+
+        assertThrows(IllegalArgumentException.class, () -> CSVStream.fromFile(file, format, 3, report));
+    }
+
+    @Test
+    void testReadAheadInputStream_SingleAndBulkReads(@TempDir Path tempDir) throws IOException {
+        Path file = people(tempDir);
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(file, 100, 3, new ReadAheadReport())) {
+            in.transferTo(bulk);
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(Files.readAllBytes(file), bulk.toByteArray());
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(file, 7, 1, null)) {
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                single.write(b);
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(file), single.toByteArray());
+
+        Path empty = Files.writeString(tempDir.resolve("empty.csv"), "", StandardCharsets.UTF_8);
+        ReadAheadReport report = new ReadAheadReport();
+        try (InputStream in = new ReadAheadInputStream(empty, 16, 2, report)) {
+            assertEquals(-1, in.read(new byte[4]));
+        }
+        assertEquals(0, report.getBuffersRead());
+        assertThrows(IllegalArgumentException.class, () -> new ReadAheadInputStream(file, 0, 2, report));
+    }
+}
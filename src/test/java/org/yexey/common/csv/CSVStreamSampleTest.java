@@ -0,0 +1,102 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.sample.CSVStreamSample;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamSampleTest {
+
+    private static String csvData(int rows) {
+        StringBuilder csvData = new StringBuilder("ID,Name,Score\n");
+        for (int i = 0; i < rows; i++) {
+            csvData.append(i).append(",Name ").append(i).append(',').append(i % 100).append('\n');
+        }
+        return csvData.toString();
+    }
+
+    private static CSVStream people(int rows) throws IOException {
+        return CSVStream.toCSVStream(new StringReader(csvData(rows)), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<Integer> ids(List<Record> records) {
+        return records.stream().map(record -> Integer.parseInt(record.get("ID"))).collect(Collectors.toList());
+    }
+
+    private static void assertAscending(List<Integer> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1) < ids.get(i), "not in input order at " + i);
+        }
+    }
+
+    @Test
+    void testBernoulliSample() throws IOException {
+        List<Integer> sample = ids(people(10_000).sample(0.1, 42).toList());
+        assertTrue(sample.size() > 850 && sample.size() < 1150, "sampled " + sample.size());
+        assertAscending(sample);
+        assertEquals(sample, ids(people(10_000).sample(0.1, 42).toList()));
+        assertEquals(sample, ids(people(10_000).parallel(3).sample(0.1, 42).toList()));
+        assertNotEquals(sample, ids(people(10_000).sample(0.1, 43).toList()));
+
+        assertEquals("Sample[0.1]\n  Scan[CSV: ID, Name, Score]\n", people(10).sample(0.1, 1).explain());
+        assertTrue(people(100).sample(0, 1).toList().isEmpty());
+        assertEquals(100, people(100).sample(1, 1).toList().size());
+        assertThrows(IllegalArgumentException.class, () -> people(10).sample(1.5, 1));
+        assertThrows(IllegalArgumentException.class, () -> people(10).sample(Double.NaN, 1));
+    }
+
+    @Test
+    void testReservoirSample() throws IOException {
+        List<Integer> sample = ids(people(20_000).reservoirSample(1_000, 7).toList());
+        assertEquals(1_000, sample.size());
+        assertAscending(sample);
+        assertEquals(sample, ids(people(20_000).reservoirSample(1_000, 7).toList()));
+        // Spread over the whole input rather than biased towards its start
+        double mean = sample.stream().mapToInt(Integer::intValue).average().orElseThrow();
+        assertTrue(mean > 9_000 && mean < 11_000, "mean " + mean);
+        assertTrue(sample.get(sample.size() - 1) > 18_000);
+
+        assertEquals(ids(people(50).toList()), ids(people(50).reservoirSample(100, 7).toList()));
+        assertTrue(people(50).reservoirSample(0, 7).toList().isEmpty());
+        assertEquals(20, people(1_000).parallel(2).reservoirSample(20, 3).toList().size());
+        assertEquals(100, people(1_000).reservoirSample(100, 3).getStatistics().getRowCount());
+        assertThrows(IllegalArgumentException.class, () -> people(10).reservoirSample(-1, 1));
+        // The sample keeps the input order, also for the operators after it
+        assertTrue(CSVStreamSample.reservoir(people(10).toList().stream(), 5, 1).spliterator().hasCharacteristics(Spliterator.ORDERED));
+    }
+
+    @Test
+    void testBlockSample_ReadsCompleteRecordsOfFewBlocks(@TempDir Path tempDir) throws IOException {
+        Path file = Files.writeString(tempDir.resolve("people.csv"), csvData(50_000));
+        CSVFormat format = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+        CSVStream blocks = CSVStream.sampleFile(file, format, 8, 4096, 11);
+        List<Record> records = blocks.toList();
+        List<Integer> sample = ids(records);
+        // About 4096 / 20 records per block
+        assertTrue(sample.size() > 8 * 150 && sample.size() < 8 * 260, "sampled " + sample.size());
+        assertAscending(sample);
+        for (Record record : records) {
+            assertEquals(List.of("ID", "Name", "Score"), List.copyOf(record.getColumnNames()));
+            int id = Integer.parseInt(record.get("ID"));
+            assertEquals("Name " + id, record.get("Name"));
+            assertEquals(String.valueOf(id % 100), record.get("Score"));
+        }
+        assertEquals(sample, ids(CSVStream.sampleFile(file, format, 8, 4096, 11).toList()));
+
+        // Asking for at least as many blocks as there are reads the whole file
+        assertEquals(ids(CSVStream.fromFile(file, format).toList()), ids(CSVStream.sampleFile(file, format, 1_000, 4096, 1).toList()));
+        assertThrows(IllegalArgumentException.class, () -> CSVStream.sampleFile(file, format, 0, 4096, 1));
+    }
+}
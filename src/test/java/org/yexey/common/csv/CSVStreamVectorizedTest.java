@@ -0,0 +1,104 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.exceptions.ColumnNotFoundException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamVectorizedTest {
+
+    private static CSVStream sales() throws IOException {
+        StringBuilder csvData = new StringBuilder("ID,Region,Product,Amount\n");
+        for (int i = 0; i < 100; i++) {
+            csvData.append(i).append(',')
+                    .append(i % 3 == 0 ? "North" : i % 3 == 1 ? "South" : "")
+                    .append(',').append("P").append(i % 4)
+                    .append(',').append(i % 10 == 0 ? "" : String.valueOf(i * 5)).append('\n');
+        }
+        return CSVStream.toCSVStream(new StringReader(csvData.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static CSVStream transform(CSVStream sales) {
+        return sales
+                .filter("Amount", amount -> !amount.startsWith("4"))
+                .rename("Product", "Item")
+                .mapColumn("Item", String::toLowerCase)
+                .fillMissingValues("Region", "Unknown")
+                .addColumn("Currency", "EUR")
+                .addColumn("Label", record -> record.get("Item") + "-" + record.get("ID"))
+                .deleteColumns("ID");
+    }
+
+    @Test
+    void testVectorizedTransforms_MatchRowByRow() throws IOException {
+        CSVStream vectorized = transform(sales().vectorized(7));
+
+        assertEquals("Vectorized[7]\n" +
+                     "  Delete[ID]\n" +
+                     "    Map[rename Product to Item, map Item, fill Region, add Currency, add Label]\n" +
+                     "      Filter[Amount]\n" +
+                     "        Scan[CSV: ID, Region, Product, Amount]\n", vectorized.explain());
+
+        List<Record> expected = transform(sales()).toList();
+        List<Record> records = vectorized.toList();
+        assertEquals(expected, records);
+        assertEquals(List.of("Region", "Amount", "Item", "Currency", "Label"), List.copyOf(records.get(0).getColumnNames()));
+    }
+
+    @Test
+    void testVectorizedAggregation_MatchesRowByRow() throws IOException {
+        Aggregation[] aggregations = {Aggregation.count(), Aggregation.sum("Amount"), Aggregation.avg("Amount"),
+                Aggregation.max("Amount"), Aggregation.first("ID").as("FirstID"), Aggregation.count("Amount")};
+        String[] groups = {"Region", "Product"};
+
+        CSVStream vectorized = sales().vectorized(16).filter("ID", id -> !id.endsWith("7")).aggregate(groups, aggregations);
+        assertEquals("Aggregate[Region, Product]\n" +
+                     "  Vectorized[16]\n" +
+                     "    Filter[ID]\n" +
+                     "      Scan[CSV: ID, Region, Product, Amount]\n", vectorized.explain());
+        assertEquals(sales().filter("ID", id -> !id.endsWith("7")).aggregate(groups, aggregations).toList(), vectorized.toList());
+
+        assertEquals(sales().aggregate(Aggregation.sum("Amount")).toList(),
+                sales().vectorized(9).aggregate(Aggregation.sum("Amount")).toList());
+        assertThrows(ColumnNotFoundException.class, () -> sales().vectorized().aggregate("Country", Aggregation.count()).toList());
+    }
+
+    @Test
+    void testVectorizedWriter_MatchesRowByRow() throws IOException {
+        StringWriter expected = new StringWriter();
+        transform(sales()).writeTo(expected, CSVFormat.DEFAULT);
+        StringWriter written = new StringWriter();
+        transform(sales().vectorized(10)).writeTo(written, CSVFormat.DEFAULT);
+        assertEquals(expected.toString(), written.toString());
+
+        StringWriter empty = new StringWriter();
+        sales().vectorized().filter("ID", id -> false).writeTo(empty, CSVFormat.DEFAULT);
+        assertEquals("", empty.toString());
+    }
+
+    @Test
+    void testVectorized_FallsBackToRowsWhereNeeded() throws IOException {
+        // A missing column is reported by the row by row operation as before
+        CSVStream missing = sales().vectorized().mapColumn("Country", String::trim);
+        assertEquals("Map[map Country]\n  Vectorized[4096]\n    Scan[CSV: ID, Region, Product, Amount]\n", missing.explain());
+        assertThrows(ColumnNotFoundException.class, missing::toList);
+
+        CSVStream parallel = transform(sales().vectorized(5).parallel(3));
+        assertEquals(transform(sales()).toList(), parallel.toList());
+
+        CSVStream changing = sales().vectorized().addColumn("Copy", record -> {
+            record.put("ID", "0");
+            return "x";
+        });
+        assertThrows(IllegalStateException.class, changing::toList);
+        assertThrows(IllegalArgumentException.class, () -> sales().vectorized(0));
+    }
+}
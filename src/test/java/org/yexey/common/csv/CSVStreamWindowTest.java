@@ -0,0 +1,93 @@
+package org.yexey.common.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.yexey.common.csv.imp.Record;
+import org.yexey.common.csv.imp.aggregation.Aggregation;
+import org.yexey.common.csv.imp.exceptions.ColumnAlreadyExistsException;
+import org.yexey.common.csv.imp.window.WindowFunction;
+import org.yexey.common.csv.imp.window.WindowSpec;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVStreamWindowTest {
+
+    private static CSVStream balances() throws IOException {
+        String csvData = "Account,Day,Balance\n" +
+                         "A,1,100\n" +
+                         "A,2,150\n" +
+                         "A,2,120\n" +
+                         "A,5,90\n" +
+                         "B,1,10\n" +
+                         "B,3,30";
+        return CSVStream.toCSVStream(new StringReader(csvData), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+    }
+
+    private static List<String> column(List<Record> records, String column) {
+        return records.stream().map(record -> record.get(column)).collect(Collectors.toList());
+    }
+
+    @Test
+    void testWindow_RankingAndOffsets() throws IOException {
+        WindowSpec spec = WindowSpec.partitionBy("Account").orderBy("Day");
+
+        List<Record> records = balances().window(spec,
+                WindowFunction.rowNumber(),
+                WindowFunction.rank(),
+                WindowFunction.denseRank(),
+                WindowFunction.lag("Balance").as("previous"),
+                WindowFunction.lead("Balance", 2, "none")).toList();
+
+        assertEquals(6, records.size());
+        assertEquals(List.of("1", "2", "3", "4", "1", "2"), column(records, "row_number"));
+        assertEquals(List.of("1", "2", "2", "4", "1", "2"), column(records, "rank"));
+        assertEquals(List.of("1", "2", "2", "3", "1", "2"), column(records, "dense_rank"));
+        assertEquals(Arrays.asList(null, "100", "150", "120", null, "10"), column(records, "previous"));
+        assertEquals(List.of("120", "90", "none", "none", "none", "none"), column(records, "lead(Balance, 2)"));
+        assertEquals(List.of("Account", "Day", "Balance", "row_number", "rank", "dense_rank", "previous", "lead(Balance, 2)"),
+                List.copyOf(records.get(0).getColumnNames()));
+    }
+
+    @Test
+    void testWindow_RunningAndRollingAggregates() throws IOException {
+        WindowSpec spec = WindowSpec.partitionBy("Account").orderBy("Day");
+
+        List<Record> records = balances().window(spec,
+                WindowFunction.running(Aggregation.sum("Balance")),
+                WindowFunction.rollingRows(Aggregation.avg("Balance"), 2),
+                WindowFunction.rollingRange(Aggregation.sum("Balance"), 1, Long::parseLong).as("last_two_days")).toList();
+
+        assertEquals(List.of("100", "250", "370", "460", "10", "40"), column(records, "running_sum(Balance)"));
+        assertEquals(List.of("100.0", "125.0", "135.0", "105.0", "10.0", "20.0"), column(records, "rolling_avg(Balance)"));
+        assertEquals(List.of("100", "250", "370", "90", "10", "30"), column(records, "last_two_days"));
+    }
+
+    @Test
+    void testWindow_WholeStreamAndInvalidInput() throws IOException {
+        List<Record> records = balances().window(WindowSpec.partitionBy(), WindowFunction.rowNumber()).toList();
+
+        assertEquals("6", records.get(5).get("row_number"));
+        assertThrows(IllegalArgumentException.class, () -> balances().window(WindowSpec.partitionBy("Account"), WindowFunction.rank()));
+        assertThrows(IllegalStateException.class,
+                () -> balances().window(WindowSpec.partitionBy("Account").orderBy("Balance"), WindowFunction.rowNumber()).toList());
+        assertThrows(IllegalArgumentException.class, () -> WindowFunction.lag("Balance", 0, null));
+    }
+
+    @Test
+    void testWindow_MissingOrderValuesAndExistingColumns() throws IOException {
+        List<Record> records = balances().mapColumn("Day", day -> day.equals("1") ? null : day)
+                .window(WindowSpec.partitionBy("Account").orderBy("Day"), WindowFunction.rank()).toList();
+
+        assertEquals(List.of("1", "2", "2", "4", "1", "2"), column(records, "rank"));
+        assertThrows(ColumnAlreadyExistsException.class,
+                () -> balances().window(WindowSpec.partitionBy("Account"), WindowFunction.lag("Day").as("Balance")).toList());
+        assertThrows(IllegalArgumentException.class,
+                () -> balances().window(WindowSpec.partitionBy("Account"), WindowFunction.rowNumber(), WindowFunction.lag("Day").as("row_number")));
+    }
+}